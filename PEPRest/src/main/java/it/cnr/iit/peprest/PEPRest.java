@@ -22,6 +22,8 @@ import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.annotation.PostConstruct;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.scheduling.annotation.Async;
@@ -46,6 +48,7 @@ import it.cnr.iit.ucs.message.reevaluation.ReevaluationResponseMessage;
 import it.cnr.iit.ucs.message.startaccess.StartAccessMessage;
 import it.cnr.iit.ucs.message.tryaccess.TryAccessMessage;
 import it.cnr.iit.ucs.message.tryaccess.TryAccessResponseMessage;
+import it.cnr.iit.ucs.metrics.UCSMetrics;
 import it.cnr.iit.ucs.pdp.PDPEvaluation;
 import it.cnr.iit.ucs.pep.PEPInterface;
 import it.cnr.iit.utility.FileUtility;
@@ -67,7 +70,7 @@ public class PEPRest implements PEPInterface {
 
     private static final String INVALID_MESSAGE_ID = "0";
 
-    // map of messages : the key is the id of the message
+    // map of messages : the key is the id of the message, entries follow the evictions of the message storage
     private ConcurrentMap<String, Message> unansweredMap = new ConcurrentHashMap<>();
     private ConcurrentMap<String, Message> responsesMap = new ConcurrentHashMap<>();
     private MessageStorage messageStorage = new MessageStorage();
@@ -93,6 +96,13 @@ public class PEPRest implements PEPInterface {
         return new UCSProxy();
     }
 
+    @PostConstruct
+    private void init() {
+        setMessageStorage( new MessageStorage( pep.getMaxTrackedMessages(), pep.getMaxMessagesPerSession(),
+            pep.getEndedSessionTtl(), pep.getMaxTrackedSessions() ) );
+        messageStorage.bindTo( UCSMetrics.getRegistry() );
+    }
+
     public String tryAccess() {
         log.log( Level.INFO, "TryAccess at {0} ", System.currentTimeMillis() );
         PolicyWrapper policy;
@@ -241,6 +251,12 @@ public class PEPRest implements PEPInterface {
 
     public void setMessageStorage( MessageStorage messageStorage ) {
         this.messageStorage = messageStorage;
+        messageStorage.setEvictionListener( this::forgetMessage );
+    }
+
+    private void forgetMessage( String messageId ) {
+        unansweredMap.remove( messageId );
+        responsesMap.remove( messageId );
     }
 
     public ConcurrentMap<String, Message> getResponses() {
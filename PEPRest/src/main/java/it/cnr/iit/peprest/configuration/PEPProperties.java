@@ -39,6 +39,18 @@ public class PEPProperties {
     @Value( "${api-status-changed}" )
     private String apiStatusChanged;
 
+    @Value( "${max-tracked-messages:10000}" )
+    private int maxTrackedMessages = 10000;
+
+    @Value( "${max-messages-per-session:64}" )
+    private int maxMessagesPerSession = 64;
+
+    @Value( "${ended-session-ttl:300000}" )
+    private long endedSessionTtl = 300000;
+
+    @Value( "${max-tracked-sessions:10000}" )
+    private int maxTrackedSessions = 10000;
+
     public String getId() {
         return id;
     }
@@ -87,4 +99,36 @@ public class PEPProperties {
         this.apiStatusChanged = apiStatusChanged;
     }
 
+    public int getMaxTrackedMessages() {
+        return maxTrackedMessages;
+    }
+
+    public void setMaxTrackedMessages( int maxTrackedMessages ) {
+        this.maxTrackedMessages = maxTrackedMessages;
+    }
+
+    public int getMaxMessagesPerSession() {
+        return maxMessagesPerSession;
+    }
+
+    public void setMaxMessagesPerSession( int maxMessagesPerSession ) {
+        this.maxMessagesPerSession = maxMessagesPerSession;
+    }
+
+    public long getEndedSessionTtl() {
+        return endedSessionTtl;
+    }
+
+    public void setEndedSessionTtl( long endedSessionTtl ) {
+        this.endedSessionTtl = endedSessionTtl;
+    }
+
+    public int getMaxTrackedSessions() {
+        return maxTrackedSessions;
+    }
+
+    public void setMaxTrackedSessions( int maxTrackedSessions ) {
+        this.maxTrackedSessions = maxTrackedSessions;
+    }
+
 }
@@ -69,7 +69,9 @@ public class MessageInformations {
     }
 
     public static MessageInformations build( EndAccessMessage message ) {
-        return build( message, PEP_STATUS.ENDACCESS_SENT );
+        MessageInformations messageInformations = build( message, PEP_STATUS.ENDACCESS_SENT );
+        messageInformations.callerResponse.setSessionId( message.getSessionId() );
+        return messageInformations;
     }
 
     public static MessageInformations build( ReevaluationResponseMessage message ) {
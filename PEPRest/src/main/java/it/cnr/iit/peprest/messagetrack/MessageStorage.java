@@ -1,9 +1,16 @@
 package it.cnr.iit.peprest.messagetrack;
 
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import it.cnr.iit.ucs.message.Message;
@@ -14,24 +21,111 @@ import it.cnr.iit.ucs.message.startaccess.StartAccessMessage;
 import it.cnr.iit.ucs.message.startaccess.StartAccessResponseMessage;
 import it.cnr.iit.ucs.message.tryaccess.TryAccessMessage;
 import it.cnr.iit.ucs.message.tryaccess.TryAccessResponseMessage;
+import it.cnr.iit.ucs.metrics.UCSMetrics;
 import it.cnr.iit.utility.errorhandling.Reject;
 
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import oasis.names.tc.xacml.core.schema.wd_17.DecisionType;
 
 /**
+ * Thread-safe, bounded storage of the messages exchanged by the PEP.
+ * <p>
+ * The storage is bounded in four ways:
+ * <ol>
+ * <li>at most <i>maxMessages</i> message informations are kept, the oldest ones are evicted first</li>
+ * <li>each session keeps a ring of its <i>maxMessagesPerSession</i> most recent message ids</li>
+ * <li>once the endAccess of a session has been answered, the session and its messages are evicted after
+ * <i>endedSessionTtl</i> milliseconds</li>
+ * <li>at most <i>maxSessions</i> sessions are tracked, the oldest ended ones are evicted first, then the oldest
+ * ones that never ended</li>
+ * </ol>
+ * The ended sessions are queued in the order they ended, so the expired ones are always at the head of the queue.
+ * All the mutations are performed holding the storage lock since the PEP adds messages from @Async threads.
+ * </p>
  *
  * @author Antonio La Marra
  *
  */
-public class MessageStorage implements MessageStorageInterface, MessagesPerSession {
+public class MessageStorage implements MessageStorageInterface, MessagesPerSession, MeterBinder {
 
     private static final Logger log = Logger.getLogger( MessageStorage.class.getName() );
 
-    private HashMap<String, MessageInformations> messageFlow = new HashMap<>();
-    private HashMap<String, LinkedList<String>> messagesPerSession = new HashMap<>();
+    public static final int DEFAULT_MAX_MESSAGES = 10000;
+    public static final int DEFAULT_MAX_MESSAGES_PER_SESSION = 64;
+    public static final long DEFAULT_ENDED_SESSION_TTL = TimeUnit.MINUTES.toMillis( 5 );
+
+    // rough per-entry footprint used for the memory usage estimate (map entry, id string, informations, response)
+    private static final long ESTIMATED_MESSAGE_BYTES = 320L;
+    private static final long ESTIMATED_SESSION_BYTES = 200L;
+    private static final long ESTIMATED_SESSION_ID_BYTES = 100L;
+
+    private final int maxMessages;
+    private final int maxMessagesPerSession;
+    private final long endedSessionTtl;
+    private final int maxSessions;
+
+    private final LinkedHashMap<String, MessageInformations> messageFlow = new LinkedHashMap<>();
+    private final LinkedHashMap<String, SessionMessages> messagesPerSession = new LinkedHashMap<>();
+    private final Deque<SessionMessages> endedSessions = new ArrayDeque<>();
+    private long sessionMessageIds = 0;
+
+    private final AtomicLong evictedMessages = new AtomicLong();
+    private final AtomicLong evictedSessions = new AtomicLong();
+
+    private Consumer<String> evictionListener = messageId -> {};
+
+    /**
+     * Ids of the most recent messages of a session, plus the time at which the session ended
+     */
+    private static final class SessionMessages {
+        private final String sessionId;
+        private final Deque<String> messageIds = new ArrayDeque<>();
+        private long endedAt = -1;
+
+        private SessionMessages( String sessionId ) {
+            this.sessionId = sessionId;
+        }
+
+        private boolean isExpired( long now, long ttl ) {
+            return endedAt >= 0 && now - endedAt >= ttl;
+        }
+    }
+
+    public MessageStorage() {
+        this( DEFAULT_MAX_MESSAGES, DEFAULT_MAX_MESSAGES_PER_SESSION, DEFAULT_ENDED_SESSION_TTL );
+    }
+
+    public MessageStorage( int maxMessages, int maxMessagesPerSession, long endedSessionTtl ) {
+        this( maxMessages, maxMessagesPerSession, endedSessionTtl, maxMessages );
+    }
+
+    public MessageStorage( int maxMessages, int maxMessagesPerSession, long endedSessionTtl, int maxSessions ) {
+        Reject.ifTrue( maxMessages <= 0, "maxMessages must be positive" );
+        Reject.ifTrue( maxMessagesPerSession <= 0, "maxMessagesPerSession must be positive" );
+        Reject.ifTrue( endedSessionTtl < 0, "endedSessionTtl must not be negative" );
+        Reject.ifTrue( maxSessions <= 0, "maxSessions must be positive" );
+        this.maxMessages = maxMessages;
+        this.maxMessagesPerSession = maxMessagesPerSession;
+        this.endedSessionTtl = endedSessionTtl;
+        this.maxSessions = maxSessions;
+    }
+
+    /**
+     * Sets a listener that is notified with the id of every message evicted from the storage,
+     * this allows other structures indexed by message id to follow the same bounds.
+     *
+     * @param evictionListener the listener to be notified
+     */
+    public void setEvictionListener( Consumer<String> evictionListener ) {
+        Reject.ifNull( evictionListener );
+        this.evictionListener = evictionListener;
+    }
 
     @Override
-    public Optional<CallerResponse> getMessageStatus( String messageId ) {
+    public synchronized Optional<CallerResponse> getMessageStatus( String messageId ) {
         if( messageId == null || messageId.isEmpty() ) {
             throw new IllegalArgumentException( "Invalid message id passed: " + messageId );
         }
@@ -42,27 +136,34 @@ public class MessageStorage implements MessageStorageInterface, MessagesPerSessi
     }
 
     private CallerResponse retrieveMessageStatus( String messageId ) {
-        if( messageFlow.get( messageId ).getCallerResponse().getStatus() != PEP_STATUS.TRYACCESS_PERMIT ) {
-            return messageFlow.get( messageId ).getCallerResponse();
+        CallerResponse callerResponse = messageFlow.get( messageId ).getCallerResponse();
+        if( callerResponse.getStatus() != PEP_STATUS.TRYACCESS_PERMIT ) {
+            return callerResponse;
         } else {
-            return retrieveLastMessageStatus( messageFlow.get( messageId ).getCallerResponse().getSessionId() );
+            return retrieveLastMessageStatus( callerResponse );
         }
     }
 
-    private CallerResponse retrieveLastMessageStatus( String sessionId ) {
+    private CallerResponse retrieveLastMessageStatus( CallerResponse tryAccessResponse ) {
+        String sessionId = tryAccessResponse.getSessionId();
         if( sessionId == null || sessionId.isEmpty() ) {
             throw new IllegalArgumentException( "TryAccessPermit message without sessionId" );
         }
-        String messageId = messagesPerSession.get( sessionId ).getLast();
-        return messageFlow.get( messageId ).getCallerResponse();
+        SessionMessages session = messagesPerSession.get( sessionId );
+        if( session == null || session.messageIds.isEmpty() ) {
+            return tryAccessResponse;
+        }
+        MessageInformations last = messageFlow.get( session.messageIds.getLast() );
+        return last != null ? last.getCallerResponse() : tryAccessResponse;
     }
 
     @Override
-    public boolean addMessage( Message message ) {
+    public synchronized boolean addMessage( Message message ) {
         if( message == null ) {
             log.severe( "Message is null" );
             return false;
         }
+        evictExpiredSessions();
         if( messageFlow.containsKey( message.getMessageId() ) ) {
             return mergeMessages( message );
         } else if( message instanceof TryAccessMessage ) {
@@ -90,6 +191,7 @@ public class MessageStorage implements MessageStorageInterface, MessagesPerSessi
             messageInformations.merge( (StartAccessResponseMessage) message );
         } else if( message instanceof EndAccessResponseMessage ) {
             messageInformations.merge( (EndAccessResponseMessage) message );
+            markSessionEnded( messageInformations.getCallerResponse().getSessionId() );
         }
         return insert( messageInformations );
     }
@@ -114,38 +216,170 @@ public class MessageStorage implements MessageStorageInterface, MessagesPerSessi
             return false;
         }
         messageFlow.put( messageInformations.getMessageId(), messageInformations );
+        evictOldestMessages();
         return true;
     }
 
     /**
-     * Retrieves the list of messages exchanged for a certain session id
+     * Retrieves the list of the most recent messages exchanged for a certain session id
      *
      * @param sessionId the session id to be considered
-     * @return the list of message ids exchanged for that session
+     * @return a snapshot of the list of message ids exchanged for that session
      */
     @Override
-    public List<String> getMessagesPerSession( String sessionId ) {
+    public synchronized List<String> getMessagesPerSession( String sessionId ) {
         Reject.ifBlank( sessionId );
         if( !messagesPerSession.containsKey( sessionId ) ) {
             throw new IllegalArgumentException();
         }
-        return messagesPerSession.get( sessionId );
+        return new ArrayList<>( messagesPerSession.get( sessionId ).messageIds );
     }
 
     private void addMessagePerSession( TryAccessResponseMessage message ) {
         if( message.getEvaluation().getResult().equals( DecisionType.PERMIT.value() ) ) {
-            messagesPerSession.put( message.getSessionId(), new LinkedList<>() );
+            removeSession( message.getSessionId() );
+            messagesPerSession.put( message.getSessionId(), new SessionMessages( message.getSessionId() ) );
             addMessageId( message.getSessionId(), message.getMessageId() );
+            evictExceedingSessions();
         }
     }
 
     private void addMessageId( String sessionId, String messageId ) {
-        messagesPerSession.get( sessionId ).add( messageId );
+        if( sessionId == null ) {
+            return;
+        }
+        SessionMessages session = messagesPerSession.get( sessionId );
+        if( session == null ) {
+            session = new SessionMessages( sessionId );
+            messagesPerSession.put( sessionId, session );
+            evictExceedingSessions();
+        }
+        session.messageIds.addLast( messageId );
+        sessionMessageIds++;
+        if( session.messageIds.size() > maxMessagesPerSession ) {
+            session.messageIds.removeFirst();
+            sessionMessageIds--;
+        }
+    }
+
+    private void markSessionEnded( String sessionId ) {
+        SessionMessages session = sessionId != null ? messagesPerSession.get( sessionId ) : null;
+        if( session != null && session.endedAt < 0 ) {
+            session.endedAt = System.currentTimeMillis();
+            endedSessions.addLast( session );
+        }
+    }
+
+    private void evictExpiredSessions() {
+        long now = System.currentTimeMillis();
+        SessionMessages session;
+        while( ( session = endedSessions.peekFirst() ) != null && session.isExpired( now, endedSessionTtl ) ) {
+            evictSession( endedSessions.removeFirst() );
+        }
+    }
+
+    private void evictExceedingSessions() {
+        while( messagesPerSession.size() > maxSessions ) {
+            SessionMessages session = endedSessions.pollFirst();
+            if( session == null ) {
+                session = messagesPerSession.values().iterator().next();
+            }
+            evictSession( session );
+        }
+    }
+
+    /**
+     * Evicts the session with its messages, the queued sessions that have already been
+     * replaced or evicted are skipped.
+     */
+    private void evictSession( SessionMessages session ) {
+        if( messagesPerSession.get( session.sessionId ) != session ) {
+            return;
+        }
+        removeSession( session.sessionId );
+        for( String messageId : session.messageIds ) {
+            if( messageFlow.remove( messageId ) != null ) {
+                onEvicted( messageId );
+            }
+        }
+        evictedSessions.incrementAndGet();
+        log.log( Level.FINE, "Evicted session {0}", session.sessionId );
+    }
+
+    private SessionMessages removeSession( String sessionId ) {
+        SessionMessages session = messagesPerSession.remove( sessionId );
+        if( session != null ) {
+            sessionMessageIds -= session.messageIds.size();
+        }
+        return session;
+    }
+
+    private void evictOldestMessages() {
+        Iterator<String> iterator = messageFlow.keySet().iterator();
+        while( messageFlow.size() > maxMessages && iterator.hasNext() ) {
+            String messageId = iterator.next();
+            iterator.remove();
+            onEvicted( messageId );
+        }
     }
 
-    public void clear() {
+    private void onEvicted( String messageId ) {
+        evictedMessages.incrementAndGet();
+        try {
+            evictionListener.accept( messageId );
+        } catch( Exception e ) {
+            log.log( Level.WARNING, "Eviction listener failed for {0} : {1}", new Object[] { messageId, e.getMessage() } );
+        }
+    }
+
+    public synchronized int getMessageCount() {
+        return messageFlow.size();
+    }
+
+    public synchronized int getSessionCount() {
+        return messagesPerSession.size();
+    }
+
+    public long getEvictedMessageCount() {
+        return evictedMessages.get();
+    }
+
+    public long getEvictedSessionCount() {
+        return evictedSessions.get();
+    }
+
+    /**
+     * Gives a rough estimate of the heap used by the storage, it is meant to be used as a trend indicator.
+     *
+     * @return the estimated number of bytes used by the tracked messages and sessions
+     */
+    public synchronized long getEstimatedMemoryUsage() {
+        return messageFlow.size() * ESTIMATED_MESSAGE_BYTES
+                + messagesPerSession.size() * ESTIMATED_SESSION_BYTES
+                + sessionMessageIds * ESTIMATED_SESSION_ID_BYTES;
+    }
+
+    public synchronized void clear() {
         messageFlow.clear();
         messagesPerSession.clear();
+        endedSessions.clear();
+        sessionMessageIds = 0;
+    }
+
+    /**
+     * Registers the sizes and the evictions of the storage as gauges and counters,
+     * the meters only hold a weak reference to the storage.
+     */
+    @Override
+    public void bindTo( MeterRegistry registry ) {
+        Gauge.builder( UCSMetrics.PEP_MESSAGES, this, MessageStorage::getMessageCount ).register( registry );
+        Gauge.builder( UCSMetrics.PEP_SESSIONS, this, MessageStorage::getSessionCount ).register( registry );
+        Gauge.builder( UCSMetrics.PEP_STORAGE_MEMORY, this, MessageStorage::getEstimatedMemoryUsage )
+            .baseUnit( "bytes" ).register( registry );
+        FunctionCounter.builder( UCSMetrics.PEP_EVICTED, this, MessageStorage::getEvictedMessageCount )
+            .tag( "kind", "message" ).register( registry );
+        FunctionCounter.builder( UCSMetrics.PEP_EVICTED, this, MessageStorage::getEvictedSessionCount )
+            .tag( "kind", "session" ).register( registry );
     }
 
 }
@@ -1,7 +1,11 @@
 package it.cnr.iit.peprest.messagetrack;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 
 import org.junit.Before;
@@ -17,7 +21,9 @@ import it.cnr.iit.ucs.message.startaccess.StartAccessMessage;
 import it.cnr.iit.ucs.message.startaccess.StartAccessResponseMessage;
 import it.cnr.iit.ucs.message.tryaccess.TryAccessMessage;
 import it.cnr.iit.ucs.message.tryaccess.TryAccessResponseMessage;
+import it.cnr.iit.ucs.metrics.UCSMetrics;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import oasis.names.tc.xacml.core.schema.wd_17.DecisionType;
 
 public class MessageStorageTest {
@@ -111,4 +117,92 @@ public class MessageStorageTest {
         assertTrue( storage.getMessagesPerSession( sessionId ).get( 1 ).equals( startAccessMessage.getMessageId() ) );
     }
 
+    @Test
+    public void testSessionRingIsBounded() {
+        MessageStorage boundedStorage = new MessageStorage( 100, 2, 60000 );
+        assertTrue( boundedStorage.addMessage( tryAccessMessage ) );
+        assertTrue( boundedStorage.addMessage( tryAccessResponsePermit ) );
+        assertTrue( boundedStorage.addMessage( startAccessMessage ) );
+        assertTrue( boundedStorage.addMessage( reevaluationResponseDenyMessage ) );
+        List<String> ids = boundedStorage.getMessagesPerSession( sessionId );
+        assertEquals( 2, ids.size() );
+        assertEquals( startAccessMessage.getMessageId(), ids.get( 0 ) );
+        assertEquals( reevaluationResponseDenyMessage.getMessageId(), ids.get( 1 ) );
+        assertTrue( boundedStorage.getMessageStatus( tryAccessMessage.getMessageId() ).get().getStatus() == PEP_STATUS.REVOKED );
+    }
+
+    @Test
+    public void testEndedSessionIsEvicted() {
+        MessageStorage boundedStorage = new MessageStorage( 100, 10, 0 );
+        List<String> evicted = new ArrayList<>();
+        boundedStorage.setEvictionListener( evicted::add );
+        assertTrue( boundedStorage.addMessage( tryAccessMessage ) );
+        assertTrue( boundedStorage.addMessage( tryAccessResponsePermit ) );
+        assertTrue( boundedStorage.addMessage( endAccessMessage ) );
+        assertTrue( boundedStorage.addMessage( endAccessResponsePermit ) );
+        assertEquals( 1, boundedStorage.getSessionCount() );
+
+        TryAccessMessage otherTryAccess = Utility.buildTryAccessMessage();
+        assertTrue( boundedStorage.addMessage( otherTryAccess ) );
+        assertEquals( 0, boundedStorage.getSessionCount() );
+        assertEquals( 1, boundedStorage.getMessageCount() );
+        assertEquals( 1, boundedStorage.getEvictedSessionCount() );
+        assertTrue( evicted.contains( tryAccessMessage.getMessageId() ) );
+        assertTrue( evicted.contains( endAccessMessage.getMessageId() ) );
+        assertFalse( boundedStorage.getMessageStatus( tryAccessMessage.getMessageId() ).isPresent() );
+    }
+
+    @Test
+    public void testMessageFlowIsBounded() {
+        MessageStorage boundedStorage = new MessageStorage( 3, 10, 60000 );
+        List<String> evicted = new ArrayList<>();
+        boundedStorage.setEvictionListener( evicted::add );
+        List<TryAccessMessage> messages = new ArrayList<>();
+        for( int i = 0; i < 5; i++ ) {
+            TryAccessMessage message = Utility.buildTryAccessMessage();
+            messages.add( message );
+            assertTrue( boundedStorage.addMessage( message ) );
+        }
+        assertEquals( 3, boundedStorage.getMessageCount() );
+        assertEquals( 2, boundedStorage.getEvictedMessageCount() );
+        assertEquals( messages.get( 0 ).getMessageId(), evicted.get( 0 ) );
+        assertFalse( boundedStorage.getMessageStatus( messages.get( 1 ).getMessageId() ).isPresent() );
+        assertTrue( boundedStorage.getMessageStatus( messages.get( 4 ).getMessageId() ).isPresent() );
+        assertTrue( boundedStorage.getEstimatedMemoryUsage() > 0 );
+    }
+
+    @Test
+    public void testSessionsAreBounded() {
+        MessageStorage boundedStorage = new MessageStorage( 100, 10, 60000, 2 );
+        assertTrue( boundedStorage.addMessage( tryAccessMessage ) );
+        assertTrue( boundedStorage.addMessage( tryAccessResponsePermit ) );
+        assertTrue( boundedStorage.addMessage( endAccessMessage ) );
+        assertTrue( boundedStorage.addMessage( endAccessResponsePermit ) );
+        StartAccessMessage otherStartAccess = Utility.buildStartAccessMessage( "sid:other" );
+        assertTrue( boundedStorage.addMessage( otherStartAccess ) );
+        assertEquals( 2, boundedStorage.getSessionCount() );
+
+        // the ended session goes first even if it is the newest
+        assertTrue( boundedStorage.addMessage( Utility.buildStartAccessMessage( "sid:another" ) ) );
+        assertEquals( 2, boundedStorage.getSessionCount() );
+        assertEquals( 1, boundedStorage.getEvictedSessionCount() );
+        assertFalse( boundedStorage.getMessageStatus( tryAccessMessage.getMessageId() ).isPresent() );
+
+        // then the oldest one that never ended
+        assertTrue( boundedStorage.addMessage( Utility.buildStartAccessMessage( "sid:last" ) ) );
+        assertEquals( 2, boundedStorage.getSessionCount() );
+        assertFalse( boundedStorage.getMessageStatus( otherStartAccess.getMessageId() ).isPresent() );
+    }
+
+    @Test
+    public void testStorageIsMetered() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        storage.bindTo( registry );
+        assertTrue( storage.addMessage( tryAccessMessage ) );
+        assertTrue( storage.addMessage( tryAccessResponsePermit ) );
+        assertEquals( 1, registry.get( UCSMetrics.PEP_MESSAGES ).gauge().value(), 0 );
+        assertEquals( 1, registry.get( UCSMetrics.PEP_SESSIONS ).gauge().value(), 0 );
+        assertEquals( 0, registry.get( UCSMetrics.PEP_EVICTED ).tag( "kind", "session" ).functionCounter().count(), 0 );
+    }
+
 }
@@ -39,6 +39,7 @@ import it.cnr.iit.ucs.obligationmanager.ObligationInterface;
 import it.cnr.iit.ucs.pip.PIPBase;
 import it.cnr.iit.ucs.pip.PIPKeywords;
 import it.cnr.iit.ucs.properties.components.PipProperties;
+import it.cnr.iit.ucs.requestmanager.RequestRejectedException;
 import it.cnr.iit.utility.FileUtility;
 import it.cnr.iit.utility.errorhandling.Reject;
 import it.cnr.iit.xacml.Attribute;
@@ -334,16 +335,47 @@ public final class PIPReader extends PIPBase {
                     new Object[] { attribute.getAttributeId(), value,
                         attribute.getAdditionalInformations(),
                         System.currentTimeMillis() } );
-                attribute.setValue( attribute.getDataType(), value );
-                notifyRequestManager( attribute );
+                Attribute changed = changedAttribute( attribute, value );
+                if( notifyRequestManager( changed ) ) {
+                    attribute.setValue( attribute.getDataType(), value );
+                }
             }
         }
     }
 
-    public void notifyRequestManager( Attribute attribute ) {
+    /**
+     * The subscribed attribute keeps the old value until the change is accepted
+     * by the request manager, so a change that is not delivered is detected
+     * again at the next poll.
+     */
+    private static Attribute changedAttribute( Attribute attribute, String value ) {
+        Attribute changed = new Attribute();
+        changed.setAttributeId( attribute.getAttributeId() );
+        changed.setCategory( attribute.getCategory() );
+        changed.setDataType( attribute.getDataType() );
+        if( attribute.getIssuer() != null ) {
+            changed.setIssuer( attribute.getIssuer() );
+        }
+        changed.setAdditionalInformations( attribute.getAdditionalInformations() );
+        changed.setValue( attribute.getDataType(), value );
+        return changed;
+    }
+
+    /**
+     * @return true if the request manager accepted the change
+     */
+    public boolean notifyRequestManager( Attribute attribute ) {
         AttributeChangeMessage attrChangeMessage = new AttributeChangeMessage( ENTITIES.PIP.toString(), ENTITIES.CH.toString() );
         ArrayList<Attribute> attrList = new ArrayList<>( Arrays.asList( attribute ) );
         attrChangeMessage.setAttributes( attrList );
-        getRequestManager().sendMessage( attrChangeMessage );
+        attrChangeMessage.setChangedAt( System.currentTimeMillis() );
+        attrChangeMessage.setPip( String.join( ",", getAttributeIds() ) );
+        try {
+            return getRequestManager().sendMessage( attrChangeMessage );
+        } catch( RequestRejectedException e ) {
+            log.log( Level.WARNING, "Change of attribute {0} not delivered : {1}",
+                new Object[] { attribute.getAttributeId(), e.getMessage() } );
+            return false;
+        }
     }
 }
@@ -15,20 +15,21 @@
  ******************************************************************************/
 package it.cnr.iit.ucs.pap;
 
-import java.io.File;
-import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Arrays;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.List;
+import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 
 import it.cnr.iit.ucs.exceptions.PolicyException;
+import it.cnr.iit.ucs.pap.PolicyCache.CachedPolicy;
 import it.cnr.iit.ucs.properties.components.PapProperties;
-import it.cnr.iit.utility.FileUtility;
 import it.cnr.iit.utility.errorhandling.Reject;
 import it.cnr.iit.xacml.wrappers.PolicyWrapper;
 
@@ -38,6 +39,11 @@ import oasis.names.tc.xacml.core.schema.wd_17.PolicyType;
  * The PAP is a storage of policies.
  * All the policies are stored inside a folder, where the name of the file corresponds
  * to the policy id.
+ * The policies are served from memory, the folder is watched to reload the
+ * policies changed outside the PAP.
+ * Policies are written to a temporary file that is then renamed, so that a
+ * policy file is never read half written, and every change of a policy gives
+ * it a new version.
  *
  * @author Antonio La Marra, Alessandro Rosetti
  *
@@ -47,12 +53,12 @@ public class PolicyAdministrationPoint implements PAPInterface {
     private Logger log = Logger.getLogger( PolicyAdministrationPoint.class.getName() );
 
     private PapProperties properties;
-
-    private static final String POLICY_FILE_EXTENSION = ".xml";
+    private PolicyCache policyCache;
 
     public PolicyAdministrationPoint( PapProperties properties ) {
         Reject.ifNull( properties );
         this.properties = properties;
+        policyCache = new PolicyCache( Paths.get( properties.getPath() ) );
     }
 
     /**
@@ -64,17 +70,42 @@ public class PolicyAdministrationPoint implements PAPInterface {
     @Override
     public String retrievePolicy( String policyId ) {
         Reject.ifBlank( policyId );
-        Path path = getPolicyPath( policyId );
-        try {
-            return new String( Files.readAllBytes( path ) );
-        } catch( Exception e ) {
-            log.log( Level.SEVERE, "Error reading policy file : {0} -> {1}", new Object[] { path, e.getMessage() } );
-        }
-        return null;
+        CachedPolicy cachedPolicy = policyCache.get( policyId );
+        return cachedPolicy != null ? cachedPolicy.getPolicy() : null;
+    }
+
+    /**
+     * Retrieves the policy that has as id the policyId passed as parameter
+     * together with its version
+     *
+     * @param the policyId to be used
+     * @return the policy and its version, null if there is no such policy
+     */
+    @Override
+    public VersionedPolicy retrieveVersionedPolicy( String policyId ) {
+        Reject.ifBlank( policyId );
+        CachedPolicy cachedPolicy = policyCache.get( policyId );
+        return cachedPolicy != null ? new VersionedPolicy( policyId, cachedPolicy.getVersion(), cachedPolicy.getPolicy() ) : null;
+    }
+
+    /**
+     * Retrieves the policy that has as id the policyId passed as parameter,
+     * parsed and sliced for its conditions when it was added or loaded.
+     * The returned wrapper is shared, hence it must not be modified.
+     *
+     * @param the policyId to be used
+     * @return the prepared policy, null if there is no such valid policy
+     */
+    @Override
+    public PolicyWrapper retrievePolicyWrapper( String policyId ) {
+        Reject.ifBlank( policyId );
+        CachedPolicy cachedPolicy = policyCache.get( policyId );
+        return cachedPolicy != null ? cachedPolicy.getPolicyWrapper() : null;
     }
 
     /**
-     * Adds a new policy
+     * Adds a new policy, a policy that cannot be sliced for all its
+     * conditions is rejected
      *
      * @param policy
      *          the policy to be added
@@ -85,8 +116,9 @@ public class PolicyAdministrationPoint implements PAPInterface {
         Reject.ifBlank( policy );
         PolicyWrapper policyWrapper;
         try {
-            policyWrapper = PolicyWrapper.build( policy );
+            policyWrapper = PolicyWrapper.build( policy ).prepare();
         } catch( PolicyException e ) {
+            log.log( Level.WARNING, "Rejecting invalid policy : {0}", e.getMessage() );
             return null;
         }
 
@@ -100,26 +132,55 @@ public class PolicyAdministrationPoint implements PAPInterface {
         if( policyPath.toFile().exists() ) {
             log.log( Level.INFO, "Updating policy {0}", id );
         }
-        if( writePolicy( policyPath, policy ) ) {
-            return id;
+        // the file and the cache must not be updated by two writers in different orders
+        synchronized( this ) {
+            if( writePolicy( policyPath, policy ) ) {
+                CachedPolicy cachedPolicy = policyCache.put( id, policy, policyWrapper );
+                log.log( Level.INFO, "Policy {0} stored with version {1}", new Object[] { id, cachedPolicy.getVersion() } );
+                return id;
+            }
         }
         return null;
     }
 
     private boolean writePolicy( Path path, String policy ) {
         // TODO UCS-33 NOSONAR
-        try (FileOutputStream fos = new FileOutputStream( path.toString() )) {
-            fos.write( policy.getBytes() );
+        Path tmp = null;
+        try {
+            tmp = path.resolveSibling( "." + path.getFileName() + "." + UUID.randomUUID() + ".tmp" );
+            Files.write( tmp, policy.getBytes(), StandardOpenOption.CREATE_NEW );
+            moveAtomically( tmp, path );
             return true;
         } catch( Exception e ) {
             log.log( Level.SEVERE, "Error writing policy file : {0} -> {1}", new Object[] { path, e.getMessage() } );
+            deleteQuietly( tmp );
             return false;
         }
     }
 
+    private void moveAtomically( Path source, Path target ) throws IOException {
+        try {
+            Files.move( source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+        } catch( AtomicMoveNotSupportedException e ) {
+            log.log( Level.WARNING, "Atomic rename not supported, replacing {0}", target );
+            Files.move( source, target, StandardCopyOption.REPLACE_EXISTING );
+        }
+    }
+
+    private void deleteQuietly( Path path ) {
+        if( path == null ) {
+            return;
+        }
+        try {
+            Files.deleteIfExists( path );
+        } catch( IOException e ) {
+            log.log( Level.WARNING, "Error deleting temporary file : {0}", path );
+        }
+    }
+
     private Path getPolicyPath( String policyId ) {
         // TODO UCS-33 NOSONAR
-        return Paths.get( properties.getPath(), policyId + POLICY_FILE_EXTENSION );
+        return Paths.get( properties.getPath(), policyId + PolicyCache.POLICY_FILE_EXTENSION );
     }
 
     /**
@@ -129,13 +190,19 @@ public class PolicyAdministrationPoint implements PAPInterface {
      */
     @Override
     public List<String> listPolicies() {
-        // TODO UCS-33 NOSONAR
-        File directory = new File( properties.getPath() );
-        File[] files = directory.listFiles( ( dir, name ) -> name.toLowerCase().endsWith( POLICY_FILE_EXTENSION ) );
-        return Arrays.asList( files ).parallelStream()
-            .map( File::getName )
-            .map( FileUtility::stripExtension )
-            .collect( Collectors.toList() );
+        return policyCache.getIds();
+    }
+
+    @Override
+    public long getVersion() {
+        return policyCache.getVersion();
+    }
+
+    /**
+     * Stops watching the policy folder.
+     */
+    public void close() {
+        policyCache.close();
     }
 
 }
@@ -0,0 +1,292 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.ucs.pap;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import it.cnr.iit.ucs.exceptions.PolicyException;
+import it.cnr.iit.ucs.metrics.UCSMetrics;
+import it.cnr.iit.utility.FileUtility;
+import it.cnr.iit.utility.errorhandling.Reject;
+import it.cnr.iit.xacml.wrappers.PolicyWrapper;
+
+import io.micrometer.core.instrument.Gauge;
+
+/**
+ * The policies of the PAP directory kept in memory, both as text and parsed
+ * and sliced for their conditions.
+ * All the policies are loaded when the cache is created, then a daemon thread
+ * watches the directory and reloads the policy files created, modified or
+ * deleted by anyone else than the PAP.
+ * Every change of the text of a policy gives it a new version, taken from a
+ * sequence shared by all the policies, so that the versions of a policy id
+ * always grow, even if it is deleted and added again. The set of policies
+ * has its own version, advanced once each change is visible in the cache.
+ * The ids asked for and not found are remembered while the directory is
+ * watched, so an unknown id does not cost a look at the directory every time.
+ *
+ * @author Antonio La Marra, Alessandro Rosetti
+ */
+final class PolicyCache {
+
+    private static final Logger log = Logger.getLogger( PolicyCache.class.getName() );
+
+    static final String POLICY_FILE_EXTENSION = ".xml";
+    static final int MAX_MISSING = 10000;
+
+    private final Path directory;
+    private final ConcurrentMap<String, CachedPolicy> policies = new ConcurrentHashMap<>();
+    private final AtomicLong versions = new AtomicLong();
+    private final AtomicLong changes = new AtomicLong();
+    // ids without a policy file, only trusted while the watcher reports the new files
+    private final Set<String> missing = ConcurrentHashMap.newKeySet();
+    private final Gauge size;
+    private WatchService watchService;
+    private volatile boolean watching = false;
+
+    static final class CachedPolicy {
+        private final String policy;
+        private final PolicyWrapper policyWrapper;
+        private final long version;
+
+        private CachedPolicy( String policy, PolicyWrapper policyWrapper, long version ) {
+            this.policy = policy;
+            this.policyWrapper = policyWrapper;
+            this.version = version;
+        }
+
+        String getPolicy() {
+            return policy;
+        }
+
+        long getVersion() {
+            return version;
+        }
+
+        /**
+         * @return the prepared policy, null if the file is not a valid policy
+         */
+        PolicyWrapper getPolicyWrapper() {
+            return policyWrapper;
+        }
+    }
+
+    PolicyCache( Path directory ) {
+        Reject.ifNull( directory );
+        this.directory = directory.toAbsolutePath().normalize();
+        size = Gauge.builder( UCSMetrics.PAP_POLICIES, policies, ConcurrentMap::size )
+            .tag( "directory", this.directory.toString() ).register( UCSMetrics.getRegistry() );
+        UCSMetrics.timer( UCSMetrics.PAP_RELOAD, "scope", "directory" ).record( this::loadAll );
+        watch();
+    }
+
+    CachedPolicy get( String policyId ) {
+        CachedPolicy cachedPolicy = policies.get( policyId );
+        if( cachedPolicy != null || missing.contains( policyId ) ) {
+            return cachedPolicy;
+        }
+        Path path = directory.resolve( policyId + POLICY_FILE_EXTENSION ).normalize();
+        if( !directory.equals( path.getParent() ) ) {
+            log.log( Level.WARNING, "Policy id {0} is outside the policy directory", policyId );
+            return null;
+        }
+        if( watching ) {
+            if( missing.size() >= MAX_MISSING ) {
+                missing.clear();
+            }
+            // marked before the look at the directory, a file created meanwhile clears the mark
+            missing.add( policyId );
+        }
+        // written before the watcher noticed it
+        cachedPolicy = reload( policyId, path );
+        if( cachedPolicy != null ) {
+            missing.remove( policyId );
+        }
+        return cachedPolicy;
+    }
+
+    CachedPolicy put( String policyId, String policy, PolicyWrapper policyWrapper ) {
+        missing.remove( policyId );
+        CachedPolicy previous = policies.get( policyId );
+        CachedPolicy cachedPolicy = policies.compute( policyId, ( id, cached ) -> {
+            if( cached != null && cached.policy.equals( policy ) ) {
+                // e.g. the watcher reloading a file written by the PAP
+                return cached;
+            }
+            return new CachedPolicy( policy, policyWrapper, versions.incrementAndGet() );
+        } );
+        if( cachedPolicy != previous ) {
+            changes.incrementAndGet();
+        }
+        return cachedPolicy;
+    }
+
+    List<String> getIds() {
+        return new ArrayList<>( policies.keySet() );
+    }
+
+    int size() {
+        return policies.size();
+    }
+
+    /**
+     * @return the number of changes of the policies, read it before the
+     *         policies to never miss a change
+     */
+    long getVersion() {
+        return changes.get();
+    }
+
+    /**
+     * Stops watching the directory, the policies already loaded are still served.
+     */
+    void close() {
+        UCSMetrics.getRegistry().remove( size );
+        watching = false;
+        missing.clear();
+        if( watchService != null ) {
+            try {
+                watchService.close();
+            } catch( IOException e ) {
+                log.log( Level.WARNING, "Error closing the policy watcher : {0}", e.getMessage() );
+            }
+        }
+    }
+
+    private void loadAll() {
+        File[] files = directory.toFile().listFiles( ( dir, name ) -> isPolicyFile( name ) );
+        if( files == null ) {
+            log.log( Level.WARNING, "Policy directory {0} cannot be read", directory );
+            return;
+        }
+        missing.clear();
+        List<String> found = new ArrayList<>();
+        for( File file : files ) {
+            String policyId = FileUtility.stripExtension( file.getName() );
+            found.add( policyId );
+            reload( policyId, file.toPath() );
+        }
+        if( policies.keySet().retainAll( found ) ) {
+            changes.incrementAndGet();
+        }
+        log.log( Level.INFO, "Loaded {0} policies from {1}", new Object[] { policies.size(), directory } );
+    }
+
+    /**
+     * Reads the policy file again, the policy is dropped if the file does not
+     * exist anymore.
+     */
+    private CachedPolicy reload( String policyId, Path path ) {
+        if( !path.toFile().isFile() ) {
+            if( policies.remove( policyId ) != null ) {
+                changes.incrementAndGet();
+            }
+            return null;
+        }
+        String policy;
+        try {
+            policy = new String( Files.readAllBytes( path ) );
+        } catch( IOException e ) {
+            log.log( Level.SEVERE, "Error reading policy file : {0} -> {1}", new Object[] { path, e.getMessage() } );
+            return null;
+        }
+        CachedPolicy cachedPolicy = policies.get( policyId );
+        if( cachedPolicy != null && cachedPolicy.policy.equals( policy ) ) {
+            return cachedPolicy;
+        }
+        PolicyWrapper policyWrapper = null;
+        try {
+            policyWrapper = PolicyWrapper.build( policy ).prepare();
+        } catch( PolicyException e ) {
+            log.log( Level.WARNING, "Invalid policy file : {0} -> {1}", new Object[] { path, e.getMessage() } );
+        }
+        return put( policyId, policy, policyWrapper );
+    }
+
+    private void watch() {
+        try {
+            watchService = directory.getFileSystem().newWatchService();
+            directory.register( watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE );
+        } catch( IOException e ) {
+            log.log( Level.WARNING, "Policy directory {0} cannot be watched, changes made outside the PAP are ignored : {1}",
+                new Object[] { directory, e.getMessage() } );
+            return;
+        }
+        watching = true;
+        Thread watcher = new Thread( this::processEvents, "pap-policy-watcher" );
+        watcher.setDaemon( true );
+        watcher.start();
+    }
+
+    private void processEvents() {
+        try {
+            while( true ) {
+                WatchKey key = watchService.take();
+                for( WatchEvent<?> event : key.pollEvents() ) {
+                    processEvent( event );
+                }
+                if( !key.reset() ) {
+                    log.log( Level.WARNING, "Policy directory {0} is not watched anymore", directory );
+                    return;
+                }
+            }
+        } catch( ClosedWatchServiceException e ) {
+            log.log( Level.FINE, "Policy watcher closed" );
+        } catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        } finally {
+            watching = false;
+            missing.clear();
+        }
+    }
+
+    private void processEvent( WatchEvent<?> event ) {
+        if( event.kind() == StandardWatchEventKinds.OVERFLOW ) {
+            UCSMetrics.timer( UCSMetrics.PAP_RELOAD, "scope", "directory" ).record( this::loadAll );
+            return;
+        }
+        Path name = (Path) event.context();
+        if( isPolicyFile( name.toString() ) ) {
+            String policyId = FileUtility.stripExtension( name.toString() );
+            missing.remove( policyId );
+            UCSMetrics.timer( UCSMetrics.PAP_RELOAD, "scope", "policy" )
+                .record( () -> reload( policyId, directory.resolve( name ) ) );
+        }
+    }
+
+    private static boolean isPolicyFile( String name ) {
+        return name.toLowerCase( Locale.ROOT ).endsWith( POLICY_FILE_EXTENSION );
+    }
+
+}
@@ -18,15 +18,28 @@ package it.cnr.iit.ucs.pap;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Map;
+import java.util.function.BooleanSupplier;
 
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import it.cnr.iit.ucs.exceptions.PolicyException;
 import it.cnr.iit.ucs.properties.components.PapProperties;
 import it.cnr.iit.utility.FileUtility;
+import it.cnr.iit.xacml.PolicyTags;
+import it.cnr.iit.xacml.wrappers.PolicyWrapper;
 
 public class PolicyAdministrationPointTest {
 
@@ -35,6 +48,9 @@ public class PolicyAdministrationPointTest {
     private static final String POLICY_FILE_NAME_TO_CREATE = "policy_1.xml";
     private PolicyAdministrationPoint pap;
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Before
     public void init() {
         File policyFile = new File( POLICY_FILE_LOCATION + POLICY_ID );
@@ -67,26 +83,142 @@ public class PolicyAdministrationPointTest {
         assertFalse( pap.listPolicies().isEmpty() );
     }
 
-    private PapProperties properties = new PapProperties() {
+    @Test
+    public void addedPoliciesAreHandedOutPrepared() throws PolicyException {
+        String policyId = pap.addPolicy( FileUtility.readFileAsString( POLICY_FILE_LOCATION + POLICY_FILE_NAME_TO_CREATE ) );
+        PolicyWrapper policyWrapper = pap.retrievePolicyWrapper( policyId );
+        assertSame( policyWrapper, pap.retrievePolicyWrapper( policyId ) );
+        assertSame( policyWrapper.getPolicyForCondition( PolicyTags.CONDITION_PRE ),
+            policyWrapper.getPolicyForCondition( PolicyTags.CONDITION_PRE ) );
+    }
+
+    @Test
+    public void policiesThatCannotBeSlicedAreRejected() {
+        String policy = FileUtility.readFileAsString( POLICY_FILE_LOCATION + POLICY_FILE_NAME_TO_CREATE ).replaceFirst( "<Rule ",
+            "<VariableDefinition VariableId=\"v\"><AttributeValue DataType=\"http://www.w3.org/2001/XMLSchema#string\">v"
+                    + "</AttributeValue></VariableDefinition><Rule " );
+        assertNull( pap.addPolicy( policy ) );
+    }
 
-        @Override
-        public String getName() {
-            return null;
+    @Test
+    public void everyChangeOfAPolicyGivesItANewVersion() throws IOException {
+        PolicyAdministrationPoint versioningPap = new PolicyAdministrationPoint( properties( folder.getRoot().getPath() ) );
+        try {
+            String policy = FileUtility.readFileAsString( POLICY_FILE_LOCATION + POLICY_FILE_NAME_TO_CREATE );
+            String policyId = versioningPap.addPolicy( policy );
+            VersionedPolicy first = versioningPap.retrieveVersionedPolicy( policyId );
+            assertEquals( policy, first.getPolicy() );
+            long papVersion = versioningPap.getVersion();
+
+            versioningPap.addPolicy( policy );
+            assertEquals( first.getVersion(), versioningPap.retrieveVersionedPolicy( policyId ).getVersion() );
+            assertEquals( papVersion, versioningPap.getVersion() );
+
+            String changed = policy.replace( "</Policy>", "<!-- changed --></Policy>" );
+            versioningPap.addPolicy( changed );
+            VersionedPolicy second = versioningPap.retrieveVersionedPolicy( policyId );
+            assertTrue( second.getVersion() > first.getVersion() );
+            assertEquals( changed, second.getPolicy() );
+            assertTrue( versioningPap.getVersion() > papVersion );
+
+            try (DirectoryStream<Path> files = Files.newDirectoryStream( folder.getRoot().toPath() )) {
+                for( Path file : files ) {
+                    assertEquals( policyId + ".xml", file.getFileName().toString() );
+                }
+            }
+        } finally {
+            versioningPap.close();
         }
+    }
 
-        @Override
-        public String getId() {
-            return null;
+    @Test
+    public void policiesChangedOutsideThePapAreReloaded() throws Exception {
+        PolicyAdministrationPoint watchingPap = new PolicyAdministrationPoint( properties( folder.getRoot().getPath() ) );
+        try {
+            String policy = FileUtility.readFileAsString( POLICY_FILE_LOCATION + POLICY_FILE_NAME_TO_CREATE );
+            Path path = folder.getRoot().toPath().resolve( "external.xml" );
+            Files.write( path, policy.getBytes() );
+            waitFor( () -> watchingPap.listPolicies().contains( "external" ) );
+            assertEquals( policy, watchingPap.retrievePolicy( "external" ) );
+            assertNotNull( watchingPap.retrievePolicyWrapper( "external" ) );
+
+            long papVersion = watchingPap.getVersion();
+            Files.delete( path );
+            waitFor( () -> watchingPap.getVersion() > papVersion );
+            assertFalse( watchingPap.listPolicies().contains( "external" ) );
+            assertNull( watchingPap.retrievePolicy( "external" ) );
+        } finally {
+            watchingPap.close();
         }
+    }
 
-        @Override
-        public Map<String, String> getAdditionalProperties() {
-            return null;
+    @Test
+    public void policiesNotYetReloadedAreReadFromTheirFile() throws IOException {
+        PolicyAdministrationPoint watchingPap = new PolicyAdministrationPoint( properties( folder.getRoot().getPath() ) );
+        watchingPap.close();
+        Files.write( folder.getRoot().toPath().resolve( "late.xml" ), "<Policy/>".getBytes() );
+        assertEquals( "<Policy/>", watchingPap.retrievePolicy( "late" ) );
+        assertNull( watchingPap.retrievePolicyWrapper( "missing" ) );
+    }
+
+    @Test
+    public void policiesOutsideTheDirectoryAreNotLoaded() throws IOException {
+        File directory = folder.newFolder( "policies" );
+        Files.write( folder.getRoot().toPath().resolve( "outside.xml" ), "<Policy/>".getBytes() );
+        PolicyAdministrationPoint confinedPap = new PolicyAdministrationPoint( properties( directory.getPath() ) );
+        try {
+            assertNull( confinedPap.retrievePolicy( "../outside" ) );
+            assertNull( confinedPap.retrievePolicy( "outside" ) );
+            assertTrue( confinedPap.listPolicies().isEmpty() );
+        } finally {
+            confinedPap.close();
         }
+    }
 
-        @Override
-        public String getPath() {
-            return POLICY_FILE_LOCATION;
+    @Test
+    public void policiesCreatedAfterAMissAreFound() throws Exception {
+        PolicyAdministrationPoint watchingPap = new PolicyAdministrationPoint( properties( folder.getRoot().getPath() ) );
+        try {
+            assertNull( watchingPap.retrievePolicy( "later" ) );
+            assertNull( watchingPap.retrievePolicy( "later" ) );
+            Files.write( folder.getRoot().toPath().resolve( "later.xml" ), "<Policy/>".getBytes() );
+            waitFor( () -> watchingPap.retrievePolicy( "later" ) != null );
+        } finally {
+            watchingPap.close();
         }
-    };
+    }
+
+    private static void waitFor( BooleanSupplier condition ) throws InterruptedException {
+        for( int i = 0; i < 300 && !condition.getAsBoolean(); i++ ) {
+            Thread.sleep( 100 );
+        }
+        assertTrue( condition.getAsBoolean() );
+    }
+
+    private static PapProperties properties( String path ) {
+        return new PapProperties() {
+
+            @Override
+            public String getName() {
+                return null;
+            }
+
+            @Override
+            public String getId() {
+                return null;
+            }
+
+            @Override
+            public Map<String, String> getAdditionalProperties() {
+                return null;
+            }
+
+            @Override
+            public String getPath() {
+                return path;
+            }
+        };
+    }
+
+    private PapProperties properties = properties( POLICY_FILE_LOCATION );
 }
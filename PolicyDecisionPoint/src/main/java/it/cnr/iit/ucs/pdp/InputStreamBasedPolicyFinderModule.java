@@ -9,9 +9,11 @@ import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Set;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.xml.XMLConstants;
@@ -36,6 +38,8 @@ import org.wso2.balana.finder.PolicyFinderResult;
  * This is file based policy repository. Policies can be inside the directory in
  * a file system. Then you can set directory location using
  * "org.wso2.balana.PolicyDirectory" JAVA property
+ * The loaded policies are indexed by their target, so that only the ones that
+ * may apply to the request are matched against it.
  *
  * @author Fabio Bindi Filippo Lauria
  *
@@ -47,17 +51,23 @@ class InputStreamBasedPolicyFinderModule extends PolicyFinderModule {
     private PolicyFinder finder = null;
 
     private Map<URI, AbstractPolicy> policies = new HashMap<>();
+    private Map<URI, Element> roots = new HashMap<>();
+    private PolicyTargetIndex index = new PolicyTargetIndex();
 
-    // the policy is stored here
-    private String policy = "";
+    // the policies are stored here
+    private Collection<String> policyList;
 
     private PolicyCombiningAlgorithm combiningAlg;
 
     private DocumentBuilderFactory documentBuilderFactory;
 
     public InputStreamBasedPolicyFinderModule( String policy ) {
+        this( Collections.singletonList( policy ) );
+    }
+
+    public InputStreamBasedPolicyFinderModule( Collection<String> policies ) {
         try {
-            this.policy = policy;
+            this.policyList = policies;
 
             documentBuilderFactory = DocumentBuilderFactory.newInstance();
             documentBuilderFactory.setFeature( XMLConstants.FEATURE_SECURE_PROCESSING, true );
@@ -81,11 +91,9 @@ class InputStreamBasedPolicyFinderModule extends PolicyFinderModule {
     @Override
     public PolicyFinderResult findPolicy( EvaluationCtx context ) {
         ArrayList<AbstractPolicy> selectedPolicies = new ArrayList<>();
-        Set<Map.Entry<URI, AbstractPolicy>> entrySet = policies.entrySet();
 
-        // iterate through all the policies we currently have loaded
-        for( Map.Entry<URI, AbstractPolicy> entry : entrySet ) {
-            AbstractPolicy abstractPolicy = entry.getValue();
+        // iterate through the loaded policies that may apply to the request
+        for( AbstractPolicy abstractPolicy : index.getCandidates( context ) ) {
             MatchResult match = abstractPolicy.match( context );
             int result = match.getResult();
 
@@ -131,20 +139,29 @@ class InputStreamBasedPolicyFinderModule extends PolicyFinderModule {
 
     public void loadPolicies() {
         policies.clear();
-        loadPolicy( finder );
+        roots.clear();
+        for( String policy : policyList ) {
+            loadPolicy( finder, policy );
+        }
+        index = new PolicyTargetIndex();
+        for( Map.Entry<URI, AbstractPolicy> entry : policies.entrySet() ) {
+            index.add( entry.getValue(), roots.get( entry.getKey() ) );
+        }
+        log.log( Level.FINE, "Loaded {0} policies", policies.size() );
     }
 
     /**
      * Private helper that tries to load the given file-based policy, and returns
      * null if any error occurs.
      */
-    private AbstractPolicy loadPolicy( PolicyFinder finder ) {
+    private AbstractPolicy loadPolicy( PolicyFinder finder, String policy ) {
+        Element root = null;
         AbstractPolicy abstractPolicy = null;
 
         try (InputStream stream = new ByteArrayInputStream( policy.getBytes() )) {
             DocumentBuilder db = documentBuilderFactory.newDocumentBuilder();
             Document doc = db.parse( stream );
-            Element root = doc.getDocumentElement();
+            root = doc.getDocumentElement();
             String name = root.getLocalName();
 
             if( name.equals( "Policy" ) ) {
@@ -158,6 +175,7 @@ class InputStreamBasedPolicyFinderModule extends PolicyFinderModule {
 
         if( abstractPolicy != null ) {
             policies.put( abstractPolicy.getId(), abstractPolicy );
+            roots.put( abstractPolicy.getId(), root );
         }
 
         return abstractPolicy;
@@ -15,11 +15,14 @@
  ******************************************************************************/
 package it.cnr.iit.ucs.pdp;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.xml.bind.JAXBException;
@@ -49,13 +52,22 @@ import org.wso2.balana.finder.PolicyFinder;
 import org.wso2.balana.finder.PolicyFinderModule;
 import org.wso2.balana.finder.PolicyFinderResult;
 import org.wso2.balana.xacml3.MultipleCtxResult;
+import org.xml.sax.SAXException;
 
 import it.cnr.iit.ucs.constants.STATUS;
 import it.cnr.iit.ucs.exceptions.PolicyException;
+import it.cnr.iit.ucs.jfr.UCSEvent;
+import it.cnr.iit.ucs.jfr.UCSEvents;
+import it.cnr.iit.ucs.journaling.EvaluationRecord;
 import it.cnr.iit.ucs.journaling.JournalBuilder;
 import it.cnr.iit.ucs.journaling.JournalingInterface;
+import it.cnr.iit.ucs.pap.PAPInterface;
+import it.cnr.iit.ucs.pdp.compiled.CompiledPolicy;
 import it.cnr.iit.ucs.properties.components.PdpProperties;
+import it.cnr.iit.utility.DigestUtility;
 import it.cnr.iit.utility.JAXBUtility;
+import it.cnr.iit.utility.LruCache;
+import it.cnr.iit.utility.errorhandling.Reject;
 import it.cnr.iit.xacml.PolicyTags;
 import it.cnr.iit.xacml.wrappers.PolicyWrapper;
 import it.cnr.iit.xacml.wrappers.RequestWrapper;
@@ -69,6 +81,11 @@ import oasis.names.tc.xacml.core.schema.wd_17.ResponseType;
  * effectively wants to be evaluated. This because BALANA is designed for XACML
  * that is slightly different than UXACML. In particular, in the former, it is
  * allowed to have only one condition per rule.
+ * When the fast path is enabled, the policies made of the supported functions
+ * are compiled and evaluated directly on the attributes of the request, the
+ * other ones are still evaluated by BALANA, which parses each policy once.
+ * A request can also be evaluated against all the policies of the PAP, the
+ * policy finder looks up the ones that may apply in an index of their targets.
  *
  * @author Antonio La Marra, Fabio Bindi, Filippo Lauria, Alessandro Rosetti
  *
@@ -77,12 +94,22 @@ public final class PolicyDecisionPoint extends AbstractPDP {
 
     private static Logger log = Logger.getLogger( PolicyDecisionPoint.class.getName() );
 
+    private static final int POLICY_CACHE_CAPACITY = 256;
+
     private Balana balana = Balana.getInstance();
     private JournalingInterface journalInterface;
+    // the policies that cannot be compiled are cached as well, so that they are not compiled at every evaluation
+    private LruCache<String, Optional<CompiledPolicy>> compiledPolicies;
+    // the balana form of the policies by their text, the policy wrappers keep the text of their condition slices
+    private final LruCache<String, PolicyFinder> policyFinders = new LruCache<>( POLICY_CACHE_CAPACITY );
+    private volatile PapPolicies papPolicies;
 
     public PolicyDecisionPoint( PdpProperties properties ) {
         super( properties );
         journalInterface = JournalBuilder.build( properties );
+        if( properties.isFastPath() ) {
+            compiledPolicies = new LruCache<>( POLICY_CACHE_CAPACITY );
+        }
     }
 
     @Override
@@ -94,37 +121,151 @@ public final class PolicyDecisionPoint extends AbstractPDP {
         } catch( PolicyException e ) {
             return null;
         }
-        return evaluate( request, policyForCondition );
+        return evaluate( request, policyForCondition, conditionName );
     }
 
     @Override
     public PDPEvaluation evaluate( RequestWrapper request, PolicyWrapper policy ) {
+        return evaluate( request, policy, (String) null );
+    }
+
+    private PDPEvaluation evaluate( RequestWrapper request, PolicyWrapper policy, String conditionName ) {
+        UCSEvent event = UCSEvents.pdp( conditionName );
         try {
-            PolicyFinder policyFinder = getPolicyFinder( policy );
-            ResponseCtx responseCtx = evaluate( request.getRequest(), policyFinder );
-            journalInterface.logMultipleStrings( policy.getPolicy(), request.getRequest(), responseCtx.encode() );
-            ResponseType responseType = getResponseType( responseCtx.encode() );
-            return new PDPResponse( responseType );
+            event.setSessionId( request.getSessionId() );
+            if( event.isRecording() && policy.getPolicyType() != null ) {
+                event.setPolicyId( policy.getPolicyType().getPolicyId() );
+            }
+            PDPResponse pdpResponse = evaluateCompiled( request, policy );
+            if( pdpResponse == null ) {
+                PolicyFinder policyFinder = getPolicyFinder( policy );
+                ResponseCtx responseCtx = evaluate( request.getRequest(), policyFinder );
+                pdpResponse = new PDPResponse( getResponseType( responseCtx.encode() ) );
+            }
+            event.setDecision( pdpResponse.getResult() );
+            journal( request, policy, conditionName, pdpResponse );
+            return pdpResponse;
         } catch( Exception e ) {
             log.severe( "Error in evaluation : " + e.getMessage() );
+        } finally {
+            event.end();
         }
         return null;
     }
 
+    /**
+     * @return the response of the compiled policy, null if the fast path is
+     *         disabled or the policy or the request are not supported by it
+     */
+    private PDPResponse evaluateCompiled( RequestWrapper request, PolicyWrapper policy ) {
+        if( compiledPolicies == null || request.getRequestType() == null ) {
+            return null;
+        }
+        return getCompiledPolicy( policy )
+            .flatMap( compiledPolicy -> compiledPolicy.evaluate( request.getRequestType() ) )
+            .map( PDPResponse::new )
+            .orElse( null );
+    }
+
+    /**
+     * Journals a compact record of the evaluation, the policy is referenced by
+     * its hash and the request by its digest together with the attribute values.
+     * Nothing is built when no journal is configured.
+     */
+    private void journal( RequestWrapper request, PolicyWrapper policy, String conditionName, PDPResponse response ) {
+        if( !journalInterface.isActive() ) {
+            return;
+        }
+        EvaluationRecord evaluation = new EvaluationRecord()
+            .setTimestamp( System.currentTimeMillis() )
+            .setSessionId( request.getSessionId() )
+            .setCondition( conditionName )
+            .setDecision( response.getResult() )
+            .setPolicyHash( policy.getPolicyHash() )
+            .setRequestDigest( DigestUtility.sha256( request.getRequest() ) )
+            .addAttributes( request.getRequestType() );
+        journalInterface.logEvaluation( evaluation, policy.getPolicy() );
+    }
+
     private ResponseType getResponseType( String response ) throws JAXBException {
         return JAXBUtility.unmarshalToObject( ResponseType.class, response );
     }
 
+    /**
+     * Evaluates the request against the pre condition of all the policies of
+     * the PAP, the applicable ones are combined with deny overrides.
+     */
     @Override
     public PDPEvaluation evaluate( RequestWrapper request ) {
-        log.severe( "Error evaluate( request ) not implemented" );
+        UCSEvent event = UCSEvents.pdp( PolicyTags.CONDITION_PRE );
+        try {
+            event.setSessionId( request.getSessionId() );
+            ResponseCtx responseCtx = evaluate( request.getRequest(), getPapPolicyFinder() );
+            PDPResponse pdpResponse = new PDPResponse( getResponseType( responseCtx.encode() ) );
+            event.setDecision( pdpResponse.getResult() );
+            return pdpResponse;
+        } catch( Exception e ) {
+            log.severe( "Error in evaluation : " + e.getMessage() );
+        } finally {
+            event.end();
+        }
         return null;
     }
 
+    /**
+     * The finder of the PAP policies is built once and reused until the
+     * version of the PAP changes, so an evaluation does not go through the
+     * policies stored in the PAP.
+     */
+    private PolicyFinder getPapPolicyFinder() {
+        PAPInterface pap = getPAP();
+        Reject.ifNull( pap, "PAP not set" );
+        // read before the policies, a change made meanwhile rebuilds the finder again
+        long version = pap.getVersion();
+        PapPolicies current = papPolicies;
+        if( current != null && current.pap == pap && current.version == version ) {
+            return current.finder;
+        }
+
+        List<String> conditions = new ArrayList<>();
+        for( String policyId : pap.listPolicies() ) {
+            try {
+                PolicyWrapper policyWrapper = pap.retrievePolicyWrapper( policyId );
+                if( policyWrapper == null ) {
+                    String policy = pap.retrievePolicy( policyId );
+                    if( policy == null ) {
+                        continue;
+                    }
+                    policyWrapper = PolicyWrapper.build( policy );
+                }
+                conditions.add( policyWrapper.getPolicyForCondition( PolicyTags.CONDITION_PRE ).getPolicy() );
+            } catch( PolicyException e ) {
+                log.log( Level.WARNING, "Skipping invalid PAP policy {0} : {1}", new Object[] { policyId, e.getMessage() } );
+            }
+        }
+        current = new PapPolicies( pap, version, getPolicyFinder( conditions ) );
+        papPolicies = current;
+        return current.finder;
+    }
+
+    /**
+     * @return the compiled policy, empty if the policy cannot be compiled
+     */
+    private Optional<CompiledPolicy> getCompiledPolicy( PolicyWrapper policy ) {
+        if( policy.getPolicy() == null || policy.getPolicyType() == null ) {
+            return Optional.empty();
+        }
+        return compiledPolicies.get( policy.getPolicy(), text -> CompiledPolicy.compile( policy.getPolicyType() ) );
+    }
+
     private PolicyFinder getPolicyFinder( PolicyWrapper policy ) {
+        return policyFinders.get( policy.getPolicy(), text -> getPolicyFinder( Arrays.asList( text ) ) );
+    }
+
+    private PolicyFinder getPolicyFinder( List<String> policies ) {
         PolicyFinder policyFinder = new PolicyFinder();
         Set<PolicyFinderModule> policyFinderModulesSet = new HashSet<>();
-        InputStreamBasedPolicyFinderModule finderModule = new InputStreamBasedPolicyFinderModule( policy.getPolicy() );
+        InputStreamBasedPolicyFinderModule finderModule = new InputStreamBasedPolicyFinderModule( policies );
         policyFinderModulesSet.add( finderModule );
         policyFinder.setModules( policyFinderModulesSet );
         policyFinder.init();
@@ -147,10 +288,9 @@ public final class PolicyDecisionPoint extends AbstractPDP {
      */
     private ResponseCtx evaluate( String request, PolicyFinder policyFinder ) {
         try {
-            // TODO UCS-36 NOSONAR
-            AbstractRequestCtx requestCtx = RequestCtxFactory.getFactory().getRequestCtx( request.replaceAll( ">\\s+<", "><" ) );
+            AbstractRequestCtx requestCtx = RequestCtxFactory.getFactory().getRequestCtx( RequestDocuments.parse( request ) );
             return evaluate( requestCtx, policyFinder );
-        } catch( ParsingException e ) {
+        } catch( ParsingException | SAXException | IOException e ) {
             return getResponseCtx( AbstractResult.DECISION_INDETERMINATE, Status.STATUS_SYNTAX_ERROR,
                 "Invalid request  : " + e.getMessage() );
         }
@@ -278,4 +418,16 @@ public final class PolicyDecisionPoint extends AbstractPDP {
         return new ResponseCtx( new Result( result, status ) );
     }
 
+    private static final class PapPolicies {
+        private final PAPInterface pap;
+        private final long version;
+        private final PolicyFinder finder;
+
+        PapPolicies( PAPInterface pap, long version, PolicyFinder finder ) {
+            this.pap = pap;
+            this.version = version;
+            this.finder = finder;
+        }
+    }
+
 }
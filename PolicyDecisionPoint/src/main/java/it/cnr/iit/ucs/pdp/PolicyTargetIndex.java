@@ -0,0 +1,207 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.ucs.pdp;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.wso2.balana.AbstractPolicy;
+import org.wso2.balana.attr.AttributeValue;
+import org.wso2.balana.attr.BagAttribute;
+import org.wso2.balana.cond.EvaluationResult;
+import org.wso2.balana.ctx.EvaluationCtx;
+
+/**
+ * An index of the policies by the string equality matches of their target, so
+ * that the policy finder only matches the policies that can apply to the
+ * request instead of all of them.
+ * A policy is indexed when every AllOf of the first AnyOf of its target starts
+ * with a string-equal match on an optional attribute: balana stops at the
+ * first AnyOf and at the first match that does not match, hence a policy none
+ * of whose values is in the request is certainly not applicable. Any other
+ * policy is always a candidate and is matched as before.
+ *
+ * @author Antonio La Marra, Alessandro Rosetti
+ */
+final class PolicyTargetIndex {
+
+    private static final String STRING_EQUAL = "urn:oasis:names:tc:xacml:1.0:function:string-equal";
+    private static final String STRING = "http://www.w3.org/2001/XMLSchema#string";
+    private static final URI STRING_TYPE = URI.create( STRING );
+
+    private final Map<Key, Map<String, List<AbstractPolicy>>> indexed = new HashMap<>();
+    private final List<AbstractPolicy> unindexed = new ArrayList<>();
+
+    /**
+     * @param root
+     *            the Policy or PolicySet element the policy has been loaded from
+     */
+    void add( AbstractPolicy policy, Element root ) {
+        Map<Key, Set<String>> matches;
+        try {
+            matches = getEqualityMatches( root );
+        } catch( IllegalArgumentException e ) {
+            matches = Collections.emptyMap();
+        }
+        if( matches.isEmpty() ) {
+            unindexed.add( policy );
+            return;
+        }
+        for( Map.Entry<Key, Set<String>> match : matches.entrySet() ) {
+            Map<String, List<AbstractPolicy>> byValue = indexed.computeIfAbsent( match.getKey(), key -> new HashMap<>() );
+            for( String value : match.getValue() ) {
+                byValue.computeIfAbsent( value, v -> new ArrayList<>() ).add( policy );
+            }
+        }
+    }
+
+    /**
+     * @return the policies that may match the request, each one only once
+     */
+    Collection<AbstractPolicy> getCandidates( EvaluationCtx context ) {
+        if( indexed.isEmpty() ) {
+            return unindexed;
+        }
+        Set<AbstractPolicy> candidates = new LinkedHashSet<>( unindexed );
+        for( Map.Entry<Key, Map<String, List<AbstractPolicy>>> entry : indexed.entrySet() ) {
+            Map<String, List<AbstractPolicy>> byValue = entry.getValue();
+            EvaluationResult result = context.getAttribute( STRING_TYPE, entry.getKey().id, null, entry.getKey().category );
+            if( result.indeterminate() ) {
+                // let the full match report the error
+                byValue.values().forEach( candidates::addAll );
+                continue;
+            }
+            for( String value : getValues( result.getAttributeValue() ) ) {
+                candidates.addAll( byValue.getOrDefault( value, Collections.emptyList() ) );
+            }
+        }
+        return candidates;
+    }
+
+    private static List<String> getValues( AttributeValue attributeValue ) {
+        List<String> values = new ArrayList<>();
+        if( attributeValue == null ) {
+            return values;
+        }
+        if( attributeValue.isBag() ) {
+            Iterator<?> iterator = ( (BagAttribute) attributeValue ).iterator();
+            while( iterator.hasNext() ) {
+                values.add( ( (AttributeValue) iterator.next() ).encode() );
+            }
+        } else {
+            values.add( attributeValue.encode() );
+        }
+        return values;
+    }
+
+    /**
+     * @return the attributes and values of the first match of each AllOf of
+     *         the first AnyOf, empty if any of them cannot be indexed
+     */
+    private static Map<Key, Set<String>> getEqualityMatches( Element root ) {
+        Map<Key, Set<String>> matches = new HashMap<>();
+        Element anyOf = getFirstChild( getFirstChild( root, "Target" ), "AnyOf" );
+        if( anyOf == null ) {
+            return matches;
+        }
+        for( Node node = anyOf.getFirstChild(); node != null; node = node.getNextSibling() ) {
+            if( node.getNodeType() != Node.ELEMENT_NODE ) {
+                continue;
+            }
+            Element match = getFirstChild( (Element) node, null );
+            if( match == null || !"Match".equals( match.getLocalName() )
+                    || !STRING_EQUAL.equals( match.getAttribute( "MatchId" ) ) ) {
+                return Collections.emptyMap();
+            }
+            Element value = getFirstChild( match, "AttributeValue" );
+            Element designator = getFirstChild( match, "AttributeDesignator" );
+            if( !isIndexable( value, designator ) ) {
+                return Collections.emptyMap();
+            }
+            Key key = new Key( designator.getAttribute( "Category" ), designator.getAttribute( "AttributeId" ) );
+            matches.computeIfAbsent( key, k -> new LinkedHashSet<>() ).add( value.getFirstChild().getNodeValue() );
+        }
+        return matches;
+    }
+
+    /**
+     * A missing attribute that must be present makes the target indeterminate
+     * and an issuer restricts the attributes, so both are left to the full match.
+     */
+    private static boolean isIndexable( Element value, Element designator ) {
+        if( value == null || designator == null || !STRING.equals( value.getAttribute( "DataType" ) )
+                || !STRING.equals( designator.getAttribute( "DataType" ) )
+                || !"false".equals( designator.getAttribute( "MustBePresent" ) )
+                || designator.hasAttribute( "Issuer" ) ) {
+            return false;
+        }
+        Node text = value.getFirstChild();
+        return text != null && text.getNextSibling() == null
+                && ( text.getNodeType() == Node.TEXT_NODE || text.getNodeType() == Node.CDATA_SECTION_NODE )
+                && !text.getNodeValue().trim().isEmpty();
+    }
+
+    /**
+     * @return the first child element with the given local name, the first
+     *         child element at all if the name is null
+     */
+    private static Element getFirstChild( Element parent, String localName ) {
+        if( parent == null ) {
+            return null;
+        }
+        for( Node node = parent.getFirstChild(); node != null; node = node.getNextSibling() ) {
+            if( node.getNodeType() == Node.ELEMENT_NODE && ( localName == null || localName.equals( node.getLocalName() ) ) ) {
+                return (Element) node;
+            }
+        }
+        return null;
+    }
+
+    private static final class Key {
+        private final URI category;
+        private final URI id;
+
+        Key( String category, String id ) {
+            this.category = URI.create( category );
+            this.id = URI.create( id );
+        }
+
+        @Override
+        public boolean equals( Object obj ) {
+            if( !( obj instanceof Key ) ) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return category.equals( other.category ) && id.equals( other.id );
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * category.hashCode() + id.hashCode();
+        }
+    }
+
+}
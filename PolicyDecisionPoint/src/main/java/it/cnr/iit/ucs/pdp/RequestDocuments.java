@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.ucs.pdp;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * Parses the requests handed to balana.
+ * The requests marshalled by JAXB are indented, and balana does not cope with
+ * the whitespace between the elements, which used to be removed with a regex
+ * on the whole request text before every evaluation. Here the formatting
+ * whitespace is dropped from the parsed document instead, the whitespace
+ * inside the attribute values is preserved.
+ *
+ * @author Antonio La Marra, Alessandro Rosetti
+ */
+final class RequestDocuments {
+
+    // builders not in use, a builder is not thread safe hence each parse borrows its own
+    private static final Queue<DocumentBuilder> IDLE_BUILDERS = new ConcurrentLinkedQueue<>();
+
+    private RequestDocuments() {}
+
+    /**
+     * @return the root element of the request, without formatting whitespace
+     */
+    static Element parse( String request ) throws SAXException, IOException {
+        DocumentBuilder documentBuilder = IDLE_BUILDERS.poll();
+        if( documentBuilder == null ) {
+            documentBuilder = newDocumentBuilder();
+        }
+        try {
+            Element root = documentBuilder.parse( new InputSource( new StringReader( request ) ) ).getDocumentElement();
+            removeFormatting( root );
+            return root;
+        } finally {
+            documentBuilder.reset();
+            IDLE_BUILDERS.offer( documentBuilder );
+        }
+    }
+
+    /**
+     * Removes the whitespace only text nodes of the elements that contain
+     * other elements.
+     */
+    private static void removeFormatting( Element element ) {
+        boolean hasElements = false;
+        for( Node node = element.getFirstChild(); node != null; node = node.getNextSibling() ) {
+            if( node.getNodeType() == Node.ELEMENT_NODE ) {
+                hasElements = true;
+                removeFormatting( (Element) node );
+            }
+        }
+        if( !hasElements ) {
+            return;
+        }
+        Node node = element.getFirstChild();
+        while( node != null ) {
+            Node next = node.getNextSibling();
+            if( node.getNodeType() == Node.TEXT_NODE && node.getNodeValue().trim().isEmpty() ) {
+                element.removeChild( node );
+            }
+            node = next;
+        }
+    }
+
+    private static DocumentBuilder newDocumentBuilder() {
+        try {
+            DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
+            documentBuilderFactory.setFeature( XMLConstants.FEATURE_SECURE_PROCESSING, true );
+            documentBuilderFactory.setIgnoringComments( true );
+            documentBuilderFactory.setNamespaceAware( true );
+            documentBuilderFactory.setValidating( false );
+            return documentBuilderFactory.newDocumentBuilder();
+        } catch( ParserConfigurationException e ) {
+            throw new IllegalStateException( "Unable to protect against XXE", e );
+        }
+    }
+
+}
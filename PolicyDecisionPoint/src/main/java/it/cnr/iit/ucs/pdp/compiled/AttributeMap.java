@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.ucs.pdp.compiled;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import it.cnr.iit.xacml.DataType;
+
+import oasis.names.tc.xacml.core.schema.wd_17.AttributeType;
+import oasis.names.tc.xacml.core.schema.wd_17.AttributeValueType;
+import oasis.names.tc.xacml.core.schema.wd_17.AttributesType;
+import oasis.names.tc.xacml.core.schema.wd_17.RequestType;
+
+/**
+ * The attributes of a request flattened in a map from category, attribute id
+ * and data type to the bag of the parsed values, as the attribute designators
+ * look them up.
+ *
+ * @author Antonio La Marra, Alessandro Rosetti
+ */
+final class AttributeMap {
+
+    private final Map<String, List<Object>> bags = new HashMap<>();
+
+    private AttributeMap() {}
+
+    static String key( String category, String attributeId, DataType dataType ) {
+        return category + '\n' + attributeId + '\n' + dataType;
+    }
+
+    /**
+     * Flattens the request, the requests that need the multiple decision
+     * profile or carry values that are not supported are left to Balana.
+     */
+    static AttributeMap of( RequestType request ) throws Unsupported {
+        if( request.getMultiRequests() != null || request.isCombinedDecision() || request.getRequestDefaults() != null ) {
+            throw new Unsupported( "multiple decision request" );
+        }
+        AttributeMap attributeMap = new AttributeMap();
+        Set<String> categories = new HashSet<>();
+        for( AttributesType attributes : request.getAttributes() ) {
+            if( !categories.add( attributes.getCategory() ) ) {
+                throw new Unsupported( "repeated category " + attributes.getCategory() );
+            }
+            for( AttributeType attribute : attributes.getAttribute() ) {
+                for( AttributeValueType attributeValue : attribute.getAttributeValue() ) {
+                    String key = key( attributes.getCategory(), attribute.getAttributeId(),
+                        Values.dataType( attributeValue.getDataType() ) );
+                    attributeMap.bags.computeIfAbsent( key, k -> new ArrayList<>( 1 ) ).add( Values.parse( attributeValue ) );
+                }
+            }
+        }
+        return attributeMap;
+    }
+
+    List<Object> get( String key ) {
+        return bags.getOrDefault( key, Collections.emptyList() );
+    }
+
+}
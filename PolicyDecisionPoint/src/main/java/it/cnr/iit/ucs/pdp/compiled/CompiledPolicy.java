@@ -0,0 +1,304 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.ucs.pdp.compiled;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.BiPredicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.wso2.balana.ctx.Status;
+
+import it.cnr.iit.ucs.pdp.compiled.Expressions.Typed;
+import it.cnr.iit.xacml.DataType;
+
+import oasis.names.tc.xacml.core.schema.wd_17.AllOfType;
+import oasis.names.tc.xacml.core.schema.wd_17.AnyOfType;
+import oasis.names.tc.xacml.core.schema.wd_17.ConditionType;
+import oasis.names.tc.xacml.core.schema.wd_17.DecisionType;
+import oasis.names.tc.xacml.core.schema.wd_17.EffectType;
+import oasis.names.tc.xacml.core.schema.wd_17.MatchType;
+import oasis.names.tc.xacml.core.schema.wd_17.PolicyType;
+import oasis.names.tc.xacml.core.schema.wd_17.RequestType;
+import oasis.names.tc.xacml.core.schema.wd_17.ResponseType;
+import oasis.names.tc.xacml.core.schema.wd_17.ResultType;
+import oasis.names.tc.xacml.core.schema.wd_17.RuleType;
+import oasis.names.tc.xacml.core.schema.wd_17.StatusCodeType;
+import oasis.names.tc.xacml.core.schema.wd_17.StatusType;
+import oasis.names.tc.xacml.core.schema.wd_17.TargetType;
+
+/**
+ * A policy compiled into a tree of Java expressions evaluated directly on the
+ * attributes of the request, without going through Balana.
+ * Only the single condition policies the PDP evaluates are compiled, and only
+ * if made of the supported functions and data types, with the first-applicable,
+ * deny-unless-permit or permit-unless-deny rule combining algorithms and
+ * without obligations, advices, variables, selectors or issuers. The other
+ * policies are not compiled and are evaluated by Balana, as well as the
+ * requests that use the multiple decision profile or whose targets are
+ * Indeterminate.
+ *
+ * @author Antonio La Marra, Alessandro Rosetti
+ */
+public final class CompiledPolicy {
+
+    private static final Logger log = Logger.getLogger( CompiledPolicy.class.getName() );
+
+    private static final String FIRST_APPLICABLE = "urn:oasis:names:tc:xacml:1.0:rule-combining-algorithm:first-applicable";
+    private static final String DENY_UNLESS_PERMIT = "urn:oasis:names:tc:xacml:3.0:rule-combining-algorithm:deny-unless-permit";
+    private static final String PERMIT_UNLESS_DENY = "urn:oasis:names:tc:xacml:3.0:rule-combining-algorithm:permit-unless-deny";
+
+    @FunctionalInterface
+    private interface Target {
+        /**
+         * @throws Unsupported
+         *             if the target is Indeterminate
+         */
+        boolean match( AttributeMap attributes ) throws Unsupported;
+    }
+
+    @FunctionalInterface
+    private interface Rule {
+        /**
+         * @return Permit, Deny or NotApplicable
+         */
+        DecisionType evaluate( AttributeMap attributes ) throws Indeterminate, Unsupported;
+    }
+
+    private final Target target;
+    private final List<Rule> rules;
+    private final String combiningAlgorithm;
+
+    private CompiledPolicy( Target target, List<Rule> rules, String combiningAlgorithm ) {
+        this.target = target;
+        this.rules = rules;
+        this.combiningAlgorithm = combiningAlgorithm;
+    }
+
+    /**
+     * @return the compiled policy, empty if the policy uses something that is
+     *         not supported
+     */
+    public static Optional<CompiledPolicy> compile( PolicyType policyType ) {
+        try {
+            return Optional.of( compilePolicy( policyType ) );
+        } catch( Unsupported e ) {
+            log.log( Level.FINE, "Policy not compiled : {0}", e.getMessage() );
+            return Optional.empty();
+        }
+    }
+
+    private static CompiledPolicy compilePolicy( PolicyType policyType ) throws Unsupported {
+        if( policyType.getPolicyIssuer() != null || policyType.getMaxDelegationDepth() != null
+                || policyType.getPolicyDefaults() != null || policyType.getObligationExpressions() != null
+                || policyType.getAdviceExpressions() != null ) {
+            throw new Unsupported( "policy administration, defaults, obligations or advices" );
+        }
+        checkId( policyType.getPolicyId() );
+        String combiningAlgorithm = policyType.getRuleCombiningAlgId();
+        if( !FIRST_APPLICABLE.equals( combiningAlgorithm ) && !DENY_UNLESS_PERMIT.equals( combiningAlgorithm )
+                && !PERMIT_UNLESS_DENY.equals( combiningAlgorithm ) ) {
+            throw new Unsupported( "rule combining algorithm " + combiningAlgorithm );
+        }
+        if( policyType.getTarget() == null ) {
+            throw new Unsupported( "policy without target" );
+        }
+        List<Rule> rules = new ArrayList<>();
+        for( Object element : policyType.getCombinerParametersOrRuleCombinerParametersOrVariableDefinition() ) {
+            if( !( element instanceof RuleType ) ) {
+                throw new Unsupported( element.getClass().getSimpleName() );
+            }
+            rules.add( compile( (RuleType) element ) );
+        }
+        return new CompiledPolicy( compile( policyType.getTarget() ), rules, combiningAlgorithm );
+    }
+
+    /**
+     * Balana drops the policies whose id is not a valid URI.
+     */
+    private static void checkId( String id ) throws Unsupported {
+        try {
+            new URI( id );
+        } catch( NullPointerException | URISyntaxException e ) {
+            throw new Unsupported( "id " + id );
+        }
+    }
+
+    private static Rule compile( RuleType ruleType ) throws Unsupported {
+        if( ruleType.getObligationExpressions() != null || ruleType.getAdviceExpressions() != null
+                || ruleType.getCondition().size() > 1 || ruleType.getEffect() == null || ruleType.getRuleId() == null ) {
+            throw new Unsupported( "rule " + ruleType.getRuleId() );
+        }
+        DecisionType effect = ruleType.getEffect() == EffectType.PERMIT ? DecisionType.PERMIT : DecisionType.DENY;
+        Target target = ruleType.getTarget() == null ? attributes -> true : compile( ruleType.getTarget() );
+        if( ruleType.getCondition().isEmpty() ) {
+            return attributes -> target.match( attributes ) ? effect : DecisionType.NOT_APPLICABLE;
+        }
+        ConditionType condition = ruleType.getCondition().get( 0 );
+        Typed typed = Expressions.compile( condition.getExpression() );
+        if( typed.dataType != DataType.BOOLEAN || typed.bag ) {
+            throw new Unsupported( "condition not boolean" );
+        }
+        Expression expression = typed.expression;
+        return attributes -> {
+            if( !target.match( attributes ) ) {
+                return DecisionType.NOT_APPLICABLE;
+            }
+            return (Boolean) expression.evaluate( attributes ) ? effect : DecisionType.NOT_APPLICABLE;
+        };
+    }
+
+    /**
+     * A target matches if all its AnyOf match, an AnyOf matches if one of its
+     * AllOf matches and an AllOf if all its Match elements match.
+     */
+    private static Target compile( TargetType targetType ) throws Unsupported {
+        List<List<List<Target>>> anyOfs = new ArrayList<>();
+        for( AnyOfType anyOfType : targetType.getAnyOf() ) {
+            if( anyOfType.getAllOf().isEmpty() ) {
+                throw new Unsupported( "empty AnyOf" );
+            }
+            List<List<Target>> allOfs = new ArrayList<>();
+            for( AllOfType allOfType : anyOfType.getAllOf() ) {
+                if( allOfType.getMatch().isEmpty() ) {
+                    throw new Unsupported( "empty AllOf" );
+                }
+                List<Target> matches = new ArrayList<>();
+                for( MatchType matchType : allOfType.getMatch() ) {
+                    matches.add( compile( matchType ) );
+                }
+                allOfs.add( matches );
+            }
+            anyOfs.add( allOfs );
+        }
+        return attributes -> {
+            for( List<List<Target>> allOfs : anyOfs ) {
+                if( !matchAny( allOfs, attributes ) ) {
+                    return false;
+                }
+            }
+            return true;
+        };
+    }
+
+    private static boolean matchAny( List<List<Target>> allOfs, AttributeMap attributes ) throws Unsupported {
+        for( List<Target> matches : allOfs ) {
+            if( matchAll( matches, attributes ) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matchAll( List<Target> matches, AttributeMap attributes ) throws Unsupported {
+        for( Target match : matches ) {
+            if( !match.match( attributes ) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Target compile( MatchType matchType ) throws Unsupported {
+        if( matchType.getAttributeSelector() != null || matchType.getAttributeDesignator() == null
+                || matchType.getAttributeValue() == null ) {
+            throw new Unsupported( "match without designator" );
+        }
+        Object value = Values.parse( matchType.getAttributeValue() );
+        Typed designator = Expressions.compile( matchType.getAttributeDesignator() );
+        if( Values.dataType( matchType.getAttributeValue().getDataType() ) != designator.dataType ) {
+            throw new Unsupported( "match between different types" );
+        }
+        BiPredicate<Object, Object> function = Expressions.matchFunction( matchType.getMatchId(), designator.dataType );
+        Expression bag = designator.expression;
+        return attributes -> {
+            List<?> values;
+            try {
+                values = (List<?>) bag.evaluate( attributes );
+            } catch( Indeterminate e ) {
+                throw new Unsupported( "indeterminate target : " + e.getMessage() );
+            }
+            for( Object element : values ) {
+                if( function.test( value, element ) ) {
+                    return true;
+                }
+            }
+            return false;
+        };
+    }
+
+    /**
+     * Evaluates the request.
+     *
+     * @return the response, empty if the request has to be evaluated by Balana
+     */
+    public Optional<ResponseType> evaluate( RequestType request ) {
+        try {
+            AttributeMap attributes = AttributeMap.of( request );
+            if( !target.match( attributes ) ) {
+                return Optional.of( response( DecisionType.NOT_APPLICABLE, Status.STATUS_OK, null ) );
+            }
+            return Optional.of( response( combine( attributes ), Status.STATUS_OK, null ) );
+        } catch( Indeterminate e ) {
+            return Optional.of( response( DecisionType.INDETERMINATE, e.getStatusCode(), e.getMessage() ) );
+        } catch( Unsupported e ) {
+            log.log( Level.FINE, "Request left to Balana : {0}", e.getMessage() );
+            return Optional.empty();
+        }
+    }
+
+    private DecisionType combine( AttributeMap attributes ) throws Indeterminate, Unsupported {
+        if( FIRST_APPLICABLE.equals( combiningAlgorithm ) ) {
+            for( Rule rule : rules ) {
+                DecisionType decision = rule.evaluate( attributes );
+                if( decision != DecisionType.NOT_APPLICABLE ) {
+                    return decision;
+                }
+            }
+            return DecisionType.NOT_APPLICABLE;
+        }
+        DecisionType wanted = DENY_UNLESS_PERMIT.equals( combiningAlgorithm ) ? DecisionType.PERMIT : DecisionType.DENY;
+        for( Rule rule : rules ) {
+            try {
+                if( rule.evaluate( attributes ) == wanted ) {
+                    return wanted;
+                }
+            } catch( Indeterminate e ) {
+                // an Indeterminate rule counts as not applicable
+            }
+        }
+        return wanted == DecisionType.PERMIT ? DecisionType.DENY : DecisionType.PERMIT;
+    }
+
+    private static ResponseType response( DecisionType decision, String code, String message ) {
+        StatusCodeType statusCode = new StatusCodeType();
+        statusCode.setValue( code );
+        StatusType status = new StatusType();
+        status.setStatusCode( statusCode );
+        status.setStatusMessage( message );
+        ResultType result = new ResultType();
+        result.setDecision( decision );
+        result.setStatus( status );
+        ResponseType response = new ResponseType();
+        response.getResult().add( result );
+        return response;
+    }
+
+}
@@ -0,0 +1,241 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.ucs.pdp.compiled;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.BiPredicate;
+
+import javax.xml.bind.JAXBElement;
+
+import org.wso2.balana.ctx.Status;
+
+import it.cnr.iit.xacml.DataType;
+
+import oasis.names.tc.xacml.core.schema.wd_17.ApplyType;
+import oasis.names.tc.xacml.core.schema.wd_17.AttributeDesignatorType;
+import oasis.names.tc.xacml.core.schema.wd_17.AttributeValueType;
+
+/**
+ * Compiles the XACML expressions made of attribute values, attribute
+ * designators and the supported functions into expression trees, checking
+ * the types of the arguments at compile time.
+ * The supported functions are and, or, not and, for the string, boolean,
+ * integer and double types, the equality, the -one-and-only, -bag-size and
+ * -is-in functions, plus the comparisons of integers and doubles.
+ * The arguments are evaluated in order and the first Indeterminate one makes
+ * the function Indeterminate, while and and or stop at the first argument
+ * that decides their result, as Balana does.
+ *
+ * @author Antonio La Marra, Alessandro Rosetti
+ */
+final class Expressions {
+
+    static final String FUNCTION = "urn:oasis:names:tc:xacml:1.0:function:";
+
+    /**
+     * An expression together with its static type.
+     */
+    static final class Typed {
+        final Expression expression;
+        final DataType dataType;
+        final boolean bag;
+
+        Typed( Expression expression, DataType dataType, boolean bag ) {
+            this.expression = expression;
+            this.dataType = dataType;
+            this.bag = bag;
+        }
+    }
+
+    @FunctionalInterface
+    private interface Function {
+        Typed compile( List<Typed> arguments ) throws Unsupported;
+    }
+
+    private static final Map<String, BiPredicate<Object, Object>> BINARY = new HashMap<>();
+    private static final Map<String, DataType> BINARY_TYPES = new HashMap<>();
+    private static final Map<String, Function> FUNCTIONS = new HashMap<>();
+
+    static {
+        for( DataType dataType : Values.SUPPORTED ) {
+            String prefix = FUNCTION + name( dataType );
+            binary( prefix + "-equal", dataType, Object::equals );
+            FUNCTIONS.put( prefix + "-one-and-only", arguments -> oneAndOnly( arguments, dataType ) );
+            FUNCTIONS.put( prefix + "-bag-size", arguments -> bagSize( arguments, dataType ) );
+            FUNCTIONS.put( prefix + "-is-in", arguments -> isIn( arguments, dataType ) );
+        }
+        for( DataType dataType : new DataType[] { DataType.INTEGER, DataType.DOUBLE } ) {
+            String prefix = FUNCTION + name( dataType );
+            binary( prefix + "-greater-than", dataType, ( a, b ) -> compare( a, b ) > 0 );
+            binary( prefix + "-greater-than-or-equal", dataType, ( a, b ) -> compare( a, b ) >= 0 );
+            binary( prefix + "-less-than", dataType, ( a, b ) -> compare( a, b ) < 0 );
+            binary( prefix + "-less-than-or-equal", dataType, ( a, b ) -> compare( a, b ) <= 0 );
+        }
+        FUNCTIONS.put( FUNCTION + "and", arguments -> logical( arguments, false ) );
+        FUNCTIONS.put( FUNCTION + "or", arguments -> logical( arguments, true ) );
+        FUNCTIONS.put( FUNCTION + "not", Expressions::not );
+    }
+
+    private Expressions() {}
+
+    private static String name( DataType dataType ) {
+        return dataType.name().toLowerCase( Locale.ROOT );
+    }
+
+    private static void binary( String functionId, DataType dataType, BiPredicate<Object, Object> predicate ) {
+        BINARY.put( functionId, predicate );
+        BINARY_TYPES.put( functionId, dataType );
+        FUNCTIONS.put( functionId, arguments -> {
+            checkArguments( arguments, dataType, false, dataType, false );
+            Expression first = arguments.get( 0 ).expression;
+            Expression second = arguments.get( 1 ).expression;
+            return new Typed( attributes -> predicate.test( first.evaluate( attributes ), second.evaluate( attributes ) ),
+                DataType.BOOLEAN, false );
+        } );
+    }
+
+    @SuppressWarnings( { "unchecked", "rawtypes" } )
+    private static int compare( Object a, Object b ) {
+        return ( (Comparable) a ).compareTo( b );
+    }
+
+    /**
+     * @return the predicate of a two arguments function, usable as MatchId
+     */
+    static BiPredicate<Object, Object> matchFunction( String functionId, DataType dataType ) throws Unsupported {
+        if( !BINARY.containsKey( functionId ) || BINARY_TYPES.get( functionId ) != dataType ) {
+            throw new Unsupported( "match function " + functionId );
+        }
+        return BINARY.get( functionId );
+    }
+
+    static Typed compile( JAXBElement<?> element ) throws Unsupported {
+        Object value = element == null ? null : element.getValue();
+        if( value instanceof ApplyType ) {
+            return compile( (ApplyType) value );
+        } else if( value instanceof AttributeDesignatorType ) {
+            return compile( (AttributeDesignatorType) value );
+        } else if( value instanceof AttributeValueType ) {
+            AttributeValueType attributeValue = (AttributeValueType) value;
+            Object constant = Values.parse( attributeValue );
+            return new Typed( attributes -> constant, Values.dataType( attributeValue.getDataType() ), false );
+        }
+        throw new Unsupported( "expression " + ( value == null ? null : value.getClass().getSimpleName() ) );
+    }
+
+    private static Typed compile( ApplyType apply ) throws Unsupported {
+        Function function = FUNCTIONS.get( apply.getFunctionId() );
+        if( function == null ) {
+            throw new Unsupported( "function " + apply.getFunctionId() );
+        }
+        List<Typed> arguments = new ArrayList<>();
+        for( JAXBElement<?> argument : apply.getExpression() ) {
+            arguments.add( compile( argument ) );
+        }
+        return function.compile( arguments );
+    }
+
+    static Typed compile( AttributeDesignatorType designator ) throws Unsupported {
+        if( designator.getIssuer() != null ) {
+            throw new Unsupported( "designator with issuer" );
+        }
+        DataType dataType = Values.dataType( designator.getDataType() );
+        String key = AttributeMap.key( designator.getCategory(), designator.getAttributeId(), dataType );
+        String attributeId = designator.getAttributeId();
+        boolean mustBePresent = designator.isMustBePresent();
+        return new Typed( attributes -> {
+            List<Object> bag = attributes.get( key );
+            if( bag.isEmpty() && mustBePresent ) {
+                throw new Indeterminate( Status.STATUS_MISSING_ATTRIBUTE, "missing attribute " + attributeId );
+            }
+            return bag;
+        }, dataType, true );
+    }
+
+    private static void checkArguments( List<Typed> arguments, Object... signature ) throws Unsupported {
+        if( arguments.size() * 2 != signature.length ) {
+            throw new Unsupported( "wrong number of arguments" );
+        }
+        for( int i = 0; i < arguments.size(); i++ ) {
+            Typed argument = arguments.get( i );
+            if( argument.dataType != signature[2 * i] || argument.bag != (Boolean) signature[2 * i + 1] ) {
+                throw new Unsupported( "wrong argument type" );
+            }
+        }
+    }
+
+    private static Typed oneAndOnly( List<Typed> arguments, DataType dataType ) throws Unsupported {
+        checkArguments( arguments, dataType, true );
+        Expression bag = arguments.get( 0 ).expression;
+        return new Typed( attributes -> {
+            List<?> values = (List<?>) bag.evaluate( attributes );
+            if( values.size() != 1 ) {
+                throw new Indeterminate( Status.STATUS_PROCESSING_ERROR, "bag of size " + values.size() );
+            }
+            return values.get( 0 );
+        }, dataType, false );
+    }
+
+    private static Typed bagSize( List<Typed> arguments, DataType dataType ) throws Unsupported {
+        checkArguments( arguments, dataType, true );
+        Expression bag = arguments.get( 0 ).expression;
+        return new Typed( attributes -> (long) ( (List<?>) bag.evaluate( attributes ) ).size(), DataType.INTEGER, false );
+    }
+
+    private static Typed isIn( List<Typed> arguments, DataType dataType ) throws Unsupported {
+        checkArguments( arguments, dataType, false, dataType, true );
+        Expression value = arguments.get( 0 ).expression;
+        Expression bag = arguments.get( 1 ).expression;
+        return new Typed( attributes -> {
+            Object evaluated = value.evaluate( attributes );
+            return ( (List<?>) bag.evaluate( attributes ) ).contains( evaluated );
+        }, DataType.BOOLEAN, false );
+    }
+
+    /**
+     * @param stopAt
+     *            the value that decides the result, true for or and false for and
+     */
+    private static Typed logical( List<Typed> arguments, boolean stopAt ) throws Unsupported {
+        if( arguments.isEmpty() ) {
+            throw new Unsupported( "logical function without arguments" );
+        }
+        Expression[] operands = new Expression[arguments.size()];
+        for( int i = 0; i < operands.length; i++ ) {
+            checkArguments( arguments.subList( i, i + 1 ), DataType.BOOLEAN, false );
+            operands[i] = arguments.get( i ).expression;
+        }
+        return new Typed( attributes -> {
+            for( Expression operand : operands ) {
+                if( (Boolean) operand.evaluate( attributes ) == stopAt ) {
+                    return stopAt;
+                }
+            }
+            return !stopAt;
+        }, DataType.BOOLEAN, false );
+    }
+
+    private static Typed not( List<Typed> arguments ) throws Unsupported {
+        checkArguments( arguments, DataType.BOOLEAN, false );
+        Expression operand = arguments.get( 0 ).expression;
+        return new Typed( attributes -> !(Boolean) operand.evaluate( attributes ), DataType.BOOLEAN, false );
+    }
+
+}
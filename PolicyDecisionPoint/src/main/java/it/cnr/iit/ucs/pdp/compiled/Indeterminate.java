@@ -0,0 +1,39 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.ucs.pdp.compiled;
+
+/**
+ * The Indeterminate result of an expression, carrying the XACML status code
+ * reported in the response.
+ *
+ * @author Antonio La Marra, Alessandro Rosetti
+ */
+final class Indeterminate extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String statusCode;
+
+    Indeterminate( String statusCode, String message ) {
+        super( message, null, false, false );
+        this.statusCode = statusCode;
+    }
+
+    String getStatusCode() {
+        return statusCode;
+    }
+
+}
@@ -0,0 +1,33 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.ucs.pdp.compiled;
+
+/**
+ * Raised when a policy or a request uses something the compiled evaluator
+ * does not support, or when its result could differ from the Balana one.
+ * The evaluation is then left to Balana.
+ *
+ * @author Antonio La Marra, Alessandro Rosetti
+ */
+final class Unsupported extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    Unsupported( String message ) {
+        super( message, null, false, false );
+    }
+
+}
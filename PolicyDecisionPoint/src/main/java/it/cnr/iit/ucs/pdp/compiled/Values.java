@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.ucs.pdp.compiled;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import it.cnr.iit.xacml.DataType;
+
+import oasis.names.tc.xacml.core.schema.wd_17.AttributeValueType;
+
+/**
+ * Parsing of the attribute values of the supported data types.
+ * Only the lexical forms that Balana is known to read in the same way are
+ * accepted, anything else is left to Balana.
+ *
+ * @author Antonio La Marra, Alessandro Rosetti
+ */
+final class Values {
+
+    static final Set<DataType> SUPPORTED = EnumSet.of( DataType.STRING, DataType.BOOLEAN, DataType.INTEGER,
+        DataType.DOUBLE );
+
+    private static final Pattern INTEGER = Pattern.compile( "-?[0-9]+" );
+    private static final Pattern DOUBLE = Pattern.compile( "-?[0-9]+(\\.[0-9]+)?([eE][-+]?[0-9]+)?" );
+
+    private Values() {}
+
+    static DataType dataType( String dataType ) throws Unsupported {
+        for( DataType supported : SUPPORTED ) {
+            if( supported.toString().equals( dataType ) ) {
+                return supported;
+            }
+        }
+        throw new Unsupported( "data type " + dataType );
+    }
+
+    static Object parse( AttributeValueType attributeValue ) throws Unsupported {
+        return parse( dataType( attributeValue.getDataType() ), text( attributeValue ) );
+    }
+
+    /**
+     * @return the value as a String, Boolean, Long or Double
+     */
+    static Object parse( DataType dataType, String value ) throws Unsupported {
+        switch( dataType ) {
+            case STRING:
+                // whitespace only values are rare enough to be left to Balana
+                if( !value.isEmpty() && value.trim().isEmpty() ) {
+                    throw new Unsupported( "blank string value" );
+                }
+                return value;
+            case BOOLEAN:
+                if( value.equals( "true" ) || value.equals( "false" ) ) {
+                    return Boolean.valueOf( value );
+                }
+                break;
+            case INTEGER:
+                if( INTEGER.matcher( value ).matches() ) {
+                    try {
+                        return Long.valueOf( value );
+                    } catch( NumberFormatException e ) {
+                        throw new Unsupported( "integer out of range " + value );
+                    }
+                }
+                break;
+            case DOUBLE:
+                if( DOUBLE.matcher( value ).matches() ) {
+                    double parsed = Double.parseDouble( value );
+                    // negative zero compares differently with equals and ==
+                    if( !Double.isInfinite( parsed ) && !( parsed == 0 && value.startsWith( "-" ) ) ) {
+                        return parsed;
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+        throw new Unsupported( "value " + value + " of type " + dataType );
+    }
+
+    private static String text( AttributeValueType attributeValue ) throws Unsupported {
+        List<Object> content = attributeValue.getContent();
+        if( content.isEmpty() ) {
+            return "";
+        } else if( content.size() == 1 && content.get( 0 ) instanceof String ) {
+            return (String) content.get( 0 );
+        }
+        throw new Unsupported( "mixed content value" );
+    }
+
+}
@@ -0,0 +1,239 @@
+package it.cnr.iit.ucs.pdptest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+
+import org.junit.Test;
+
+import it.cnr.iit.ucs.constants.STATUS;
+import it.cnr.iit.ucs.pdp.PolicyDecisionPoint;
+import it.cnr.iit.ucs.pdp.compiled.CompiledPolicy;
+import it.cnr.iit.ucs.properties.components.PdpProperties;
+import it.cnr.iit.xacml.PolicyTags;
+import it.cnr.iit.xacml.wrappers.PolicyWrapper;
+import it.cnr.iit.xacml.wrappers.RequestWrapper;
+
+import oasis.names.tc.xacml.core.schema.wd_17.ResponseType;
+
+/**
+ * Differential tests of the compiled evaluator: random policies made of the
+ * supported functions are evaluated against random requests both by Balana
+ * and by the compiled policy, and the decisions must be the same.
+ */
+public class CompiledPolicyTest {
+
+    private static final String SUBJECT = "urn:oasis:names:tc:xacml:1.0:subject-category:access-subject";
+    private static final String ACTION = "urn:oasis:names:tc:xacml:3.0:attribute-category:action";
+    private static final String FUNCTION = "urn:oasis:names:tc:xacml:1.0:function:";
+    private static final String SCHEMA = "http://www.w3.org/2001/XMLSchema#";
+
+    private static final String[] ALGORITHMS = {
+        "urn:oasis:names:tc:xacml:1.0:rule-combining-algorithm:first-applicable",
+        "urn:oasis:names:tc:xacml:3.0:rule-combining-algorithm:deny-unless-permit",
+        "urn:oasis:names:tc:xacml:3.0:rule-combining-algorithm:permit-unless-deny" };
+
+    private static final String[] TARGETS = {
+        "",
+        match( "string-equal", "string", "read", ACTION, "action-id", false ),
+        match( "string-equal", "string", "read", ACTION, "action-id", true ),
+        match( "integer-less-than", "integer", "17", SUBJECT, "age", false ) };
+
+    private static final String[] CONDITIONS = {
+        apply( "string-equal", apply( "string-one-and-only", designator( "string", "role", true ) ), value( "string", "IIT" ) ),
+        apply( "integer-greater-than-or-equal", apply( "integer-one-and-only", designator( "integer", "age", false ) ),
+            value( "integer", "18" ) ),
+        apply( "and", apply( "string-is-in", value( "string", "admin" ), designator( "string", "role", false ) ),
+            apply( "not", apply( "boolean-one-and-only", designator( "boolean", "blocked", false ) ) ) ),
+        apply( "or", apply( "double-less-than", apply( "double-one-and-only", designator( "double", "score", false ) ),
+            value( "double", "0.5" ) ),
+            apply( "integer-equal", apply( "string-bag-size", designator( "string", "role", false ) ), value( "integer", "2" ) ) ),
+        apply( "and", apply( "integer-less-than", apply( "integer-one-and-only", designator( "integer", "age", true ) ),
+            value( "integer", "65" ) ),
+            apply( "or", apply( "boolean-equal", apply( "boolean-one-and-only", designator( "boolean", "blocked", true ) ),
+                value( "boolean", "false" ) ),
+                apply( "string-equal", apply( "string-one-and-only", designator( "string", "role", false ) ),
+                    value( "string", "ISTI" ) ) ) ) };
+
+    private final PolicyDecisionPoint balana = new PolicyDecisionPoint( properties( false ) );
+    private final PolicyDecisionPoint fastPath = new PolicyDecisionPoint( properties( true ) );
+
+    @Test
+    public void compiledDecisionsMatchBalana() throws Exception {
+        Random random = new Random( 42 );
+        int compared = 0;
+        for( int i = 0; i < 500; i++ ) {
+            String policy = randomPolicy( random );
+            String request = randomRequest( random );
+            PolicyWrapper policyWrapper = PolicyWrapper.build( policy );
+            RequestWrapper requestWrapper = RequestWrapper.build( request, null );
+
+            Optional<CompiledPolicy> compiled = CompiledPolicy.compile(
+                policyWrapper.getPolicyForCondition( PolicyTags.CONDITION_PRE ).getPolicyType() );
+            assertTrue( policy, compiled.isPresent() );
+
+            String expected = balana.evaluate( requestWrapper, policyWrapper, STATUS.TRY ).getResult();
+            Optional<ResponseType> response = compiled.get().evaluate( requestWrapper.getRequestType() );
+            if( response.isPresent() ) {
+                compared++;
+                assertEquals( policy + "\n" + request, expected, response.get().getResult().get( 0 ).getDecision().value() );
+            }
+            assertEquals( policy + "\n" + request, expected, fastPath.evaluate( requestWrapper, policyWrapper, STATUS.TRY ).getResult() );
+        }
+        assertTrue( "only " + compared + " requests compared", compared > 400 );
+    }
+
+    @Test
+    public void unsupportedPoliciesAreLeftToBalana() throws Exception {
+        String regexp = apply( "string-regexp-match", value( "string", "I.*" ),
+            apply( "string-one-and-only", designator( "string", "role", true ) ) );
+        String policy = policy( ALGORITHMS[0], rule( "Permit", "", regexp ) + rule( "Deny", "", null ) );
+        PolicyWrapper policyWrapper = PolicyWrapper.build( policy );
+        assertFalse( CompiledPolicy.compile( policyWrapper.getPolicyForCondition( PolicyTags.CONDITION_PRE ).getPolicyType() )
+            .isPresent() );
+
+        RequestWrapper requestWrapper = RequestWrapper.build( request( "<role>IIT</role>", "read" ), null );
+        assertEquals( "Permit", fastPath.evaluate( requestWrapper, policyWrapper, STATUS.TRY ).getResult() );
+    }
+
+    @Test
+    public void repeatedCategoriesAreLeftToBalana() throws Exception {
+        String policy = policy( ALGORITHMS[1], rule( "Permit", "", CONDITIONS[0] ) );
+        PolicyWrapper policyWrapper = PolicyWrapper.build( policy );
+        Optional<CompiledPolicy> compiled = CompiledPolicy.compile(
+            policyWrapper.getPolicyForCondition( PolicyTags.CONDITION_PRE ).getPolicyType() );
+        assertTrue( compiled.isPresent() );
+
+        String request = request( "<role>IIT</role>", "read" ).replace( "</Request>",
+            "<Attributes Category=\"" + ACTION + "\"></Attributes></Request>" );
+        RequestWrapper requestWrapper = RequestWrapper.build( request, null );
+        assertFalse( compiled.get().evaluate( requestWrapper.getRequestType() ).isPresent() );
+    }
+
+    private static String randomPolicy( Random random ) {
+        String algorithm = ALGORITHMS[random.nextInt( ALGORITHMS.length )];
+        String effect = random.nextBoolean() ? "Permit" : "Deny";
+        String rules = rule( effect, TARGETS[random.nextInt( TARGETS.length )], CONDITIONS[random.nextInt( CONDITIONS.length )] );
+        if( random.nextBoolean() ) {
+            rules += rule( effect.equals( "Permit" ) ? "Deny" : "Permit", "", null );
+        }
+        return policy( algorithm, rules );
+    }
+
+    private static String randomRequest( Random random ) {
+        StringBuilder subject = new StringBuilder();
+        int roles = random.nextInt( 3 );
+        for( int i = 0; i < roles; i++ ) {
+            subject.append( "<role>" ).append( pick( random, "IIT", "ISTI", "admin" ) ).append( "</role>" );
+        }
+        int ages = random.nextInt( 10 ) == 0 ? 2 : random.nextInt( 2 );
+        for( int i = 0; i < ages; i++ ) {
+            subject.append( "<age>" ).append( pick( random, "16", "17", "18", "40", "70" ) ).append( "</age>" );
+        }
+        if( random.nextInt( 3 ) > 0 ) {
+            subject.append( "<blocked>" ).append( random.nextBoolean() ).append( "</blocked>" );
+        }
+        if( random.nextInt( 3 ) > 0 ) {
+            subject.append( "<score>" ).append( pick( random, "0.25", "0.5", "0.75" ) ).append( "</score>" );
+        }
+        return request( subject.toString(), pick( random, null, "read", "write" ) );
+    }
+
+    private static String pick( Random random, String... values ) {
+        return values[random.nextInt( values.length )];
+    }
+
+    /**
+     * Builds a request from a short form of the subject attributes, e.g.
+     * "&lt;role&gt;IIT&lt;/role&gt;&lt;age&gt;18&lt;/age&gt;".
+     */
+    private static String request( String subject, String action ) {
+        String attributes = subject
+            .replaceAll( "<role>([^<]*)</role>", attribute( "role", "string", "$1" ) )
+            .replaceAll( "<age>([^<]*)</age>", attribute( "age", "integer", "$1" ) )
+            .replaceAll( "<blocked>([^<]*)</blocked>", attribute( "blocked", "boolean", "$1" ) )
+            .replaceAll( "<score>([^<]*)</score>", attribute( "score", "double", "$1" ) );
+        return "<Request xmlns=\"urn:oasis:names:tc:xacml:3.0:core:schema:wd-17\" CombinedDecision=\"false\" ReturnPolicyIdList=\"false\">"
+                + "<Attributes Category=\"" + SUBJECT + "\">" + attributes + "</Attributes>"
+                + "<Attributes Category=\"" + ACTION + "\">"
+                + ( action == null ? "" : attribute( "action-id", "string", action ) )
+                + "</Attributes></Request>";
+    }
+
+    private static String attribute( String id, String type, String value ) {
+        return "<Attribute IncludeInResult=\"false\" AttributeId=\"" + id + "\">" + value( type, value ) + "</Attribute>";
+    }
+
+    private static String policy( String algorithm, String rules ) {
+        return "<Policy xmlns=\"urn:oasis:names:tc:xacml:3.0:core:schema:wd-17\" PolicyId=\"compiled\" RuleCombiningAlgId=\""
+                + algorithm + "\" Version=\"3.0\"><Target></Target>" + rules + "</Policy>";
+    }
+
+    private static String rule( String effect, String target, String condition ) {
+        return "<Rule Effect=\"" + effect + "\" RuleId=\"rule-" + effect + "\"><Target>" + target + "</Target>"
+                + ( condition == null ? "" : "<Condition DecisionTime=\"pre\">" + condition + "</Condition>" ) + "</Rule>";
+    }
+
+    private static String match( String function, String type, String value, String category, String id, boolean mustBePresent ) {
+        return "<AnyOf><AllOf><Match MatchId=\"" + FUNCTION + function + "\">" + value( type, value )
+                + "<AttributeDesignator AttributeId=\"" + id + "\" Category=\"" + category + "\" DataType=\"" + SCHEMA + type
+                + "\" MustBePresent=\"" + mustBePresent + "\"></AttributeDesignator></Match></AllOf></AnyOf>";
+    }
+
+    private static String apply( String function, String... arguments ) {
+        return "<Apply FunctionId=\"" + FUNCTION + function + "\">" + String.join( "", arguments ) + "</Apply>";
+    }
+
+    private static String designator( String type, String id, boolean mustBePresent ) {
+        return "<AttributeDesignator AttributeId=\"" + id + "\" Category=\"" + SUBJECT + "\" DataType=\"" + SCHEMA + type
+                + "\" MustBePresent=\"" + mustBePresent + "\"></AttributeDesignator>";
+    }
+
+    private static String value( String type, String value ) {
+        return "<AttributeValue DataType=\"" + SCHEMA + type + "\">" + value + "</AttributeValue>";
+    }
+
+    private static PdpProperties properties( boolean fastPath ) {
+        return new PdpProperties() {
+            @Override
+            public String getName() {
+                return "it.cnr.iit.ucs.pdp.PolicyDecisionPoint";
+            }
+
+            @Override
+            public Map<String, String> getAdditionalProperties() {
+                return null;
+            }
+
+            @Override
+            public String getId() {
+                return null;
+            }
+
+            @Override
+            public String getJournalPath() {
+                return null;
+            }
+
+            @Override
+            public String getJournalProtocol() {
+                return null;
+            }
+
+            @Override
+            public Map<String, String> getJournalAdditionalProperties() {
+                return null;
+            }
+
+            @Override
+            public boolean isFastPath() {
+                return fastPath;
+            }
+        };
+    }
+
+}
@@ -108,6 +108,11 @@ public class PDPTest {
             public Map<String, String> getJournalAdditionalProperties() {
                 return null;
             }
+
+            @Override
+            public boolean isFastPath() {
+                return false;
+            }
         };
 
         policyDecisionpoint = new PolicyDecisionPoint( pdpProperties );
@@ -139,6 +144,13 @@ public class PDPTest {
         assertThat( testEvaluation( requestPermit, policyWrapperDup, STATUS.TRY ) ).contains( "permit" );
     }
 
+    @Test
+    public void indentedRequestsAreEvaluatedAsCompactOnes() {
+        PolicyWrapper policyWrapper = getPolicyWrapper( this.policy );
+        assertThat( testEvaluation( requestPermit.replace( "><", ">\n    <" ), policyWrapper, STATUS.TRY ) ).contains( "permit" );
+        assertThat( testEvaluation( requestDeny.replace( "><", ">\n    <" ), policyWrapper, STATUS.TRY ) ).contains( "deny" );
+    }
+
     private String testEvaluation( String request, PolicyWrapper policy ) {
         RequestWrapper requestWrapper = null;
         try {
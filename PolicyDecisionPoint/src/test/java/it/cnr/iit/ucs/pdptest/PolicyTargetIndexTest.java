@@ -0,0 +1,176 @@
+package it.cnr.iit.ucs.pdptest;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import it.cnr.iit.ucs.pap.PAPInterface;
+import it.cnr.iit.ucs.pap.VersionedPolicy;
+import it.cnr.iit.ucs.pdp.PolicyDecisionPoint;
+import it.cnr.iit.ucs.properties.components.PdpProperties;
+import it.cnr.iit.xacml.wrappers.PolicyWrapper;
+import it.cnr.iit.xacml.wrappers.RequestWrapper;
+
+/**
+ * Evaluations of a request against all the policies of a PAP, most of which
+ * are looked up in the target index of the policy finder.
+ */
+public class PolicyTargetIndexTest {
+
+    private static final String SUBJECT = "urn:oasis:names:tc:xacml:1.0:subject-category:access-subject";
+    private static final String RESOURCE = "urn:oasis:names:tc:xacml:3.0:attribute-category:resource";
+    private static final String SUBJECT_ID = "urn:oasis:names:tc:xacml:1.0:subject:subject-id";
+    private static final String RESOURCE_ID = "urn:oasis:names:tc:xacml:1.0:resource:resource-id";
+    private static final String STRING = "http://www.w3.org/2001/XMLSchema#string";
+
+    private final Map<String, VersionedPolicy> policies = new LinkedHashMap<>();
+    private long version = 0;
+    private PolicyDecisionPoint pdp;
+
+    @Before
+    public void init() {
+        for( int i = 0; i < 1000; i++ ) {
+            put( "user-" + i, policy( "user-" + i, allOf( SUBJECT, SUBJECT_ID, "user-" + i ), "Permit", "" ) );
+        }
+        put( "auditors", policy( "auditors",
+            allOf( SUBJECT, SUBJECT_ID, "alice" ) + allOf( SUBJECT, SUBJECT_ID, "bob" ), "Permit", "" ) );
+        put( "secret", policy( "secret", "", "Deny", "<AnyOf>" + allOf( RESOURCE, RESOURCE_ID, "secret" ) + "</AnyOf>" ) );
+
+        pdp = new PolicyDecisionPoint( properties() );
+        pdp.setPap( pap() );
+    }
+
+    @Test
+    public void onlyTheMatchingPoliciesApply() throws Exception {
+        assertEquals( "Permit", evaluate( "user-7", "doc" ) );
+        assertEquals( "Permit", evaluate( "user-999", "doc" ) );
+        assertEquals( "Permit", evaluate( "bob", "doc" ) );
+        assertEquals( "NotApplicable", evaluate( "mallory", "doc" ) );
+    }
+
+    @Test
+    public void unindexedPoliciesAreAlwaysMatched() throws Exception {
+        assertEquals( "Deny", evaluate( "user-7", "secret" ) );
+        assertEquals( "Deny", evaluate( "mallory", "secret" ) );
+    }
+
+    @Test
+    public void changedPoliciesAreReloaded() throws Exception {
+        assertEquals( "Permit", evaluate( "user-7", "doc" ) );
+        put( "user-7", policy( "user-7", allOf( SUBJECT, SUBJECT_ID, "user-7" ), "Deny", "" ) );
+        assertEquals( "Deny", evaluate( "user-7", "doc" ) );
+    }
+
+    private void put( String id, String policy ) {
+        VersionedPolicy previous = policies.get( id );
+        policies.put( id, new VersionedPolicy( id, previous != null ? previous.getVersion() + 1 : 1, policy ) );
+        version++;
+    }
+
+    private String evaluate( String subject, String resource ) throws Exception {
+        String request = "<Request xmlns=\"urn:oasis:names:tc:xacml:3.0:core:schema:wd-17\" CombinedDecision=\"false\""
+                + " ReturnPolicyIdList=\"false\">"
+                + attributes( SUBJECT, SUBJECT_ID, subject ) + attributes( RESOURCE, RESOURCE_ID, resource ) + "</Request>";
+        return pdp.evaluate( RequestWrapper.build( request ) ).getResult();
+    }
+
+    private static String policy( String id, String allOfs, String effect, String ruleTarget ) {
+        String target = allOfs.isEmpty() ? "" : "<AnyOf>" + allOfs + "</AnyOf>";
+        return "<Policy xmlns=\"urn:oasis:names:tc:xacml:3.0:core:schema:wd-17\" PolicyId=\"" + id
+                + "\" RuleCombiningAlgId=\"urn:oasis:names:tc:xacml:1.0:rule-combining-algorithm:first-applicable\""
+                + " Version=\"3.0\"><Target>" + target + "</Target><Rule Effect=\"" + effect + "\" RuleId=\"rule\"><Target>"
+                + ruleTarget + "</Target></Rule></Policy>";
+    }
+
+    private static String allOf( String category, String id, String value ) {
+        return "<AllOf><Match MatchId=\"urn:oasis:names:tc:xacml:1.0:function:string-equal\">"
+                + "<AttributeValue DataType=\"" + STRING + "\">" + value + "</AttributeValue>"
+                + "<AttributeDesignator AttributeId=\"" + id + "\" Category=\"" + category + "\" DataType=\"" + STRING
+                + "\" MustBePresent=\"false\"></AttributeDesignator></Match></AllOf>";
+    }
+
+    private static String attributes( String category, String id, String value ) {
+        return "<Attributes Category=\"" + category + "\"><Attribute IncludeInResult=\"false\" AttributeId=\"" + id + "\">"
+                + "<AttributeValue DataType=\"" + STRING + "\">" + value + "</AttributeValue></Attribute></Attributes>";
+    }
+
+    private PAPInterface pap() {
+        return new PAPInterface() {
+            @Override
+            public String retrievePolicy( String policyId ) {
+                return policies.get( policyId ).getPolicy();
+            }
+
+            @Override
+            public VersionedPolicy retrieveVersionedPolicy( String policyId ) {
+                return policies.get( policyId );
+            }
+
+            @Override
+            public PolicyWrapper retrievePolicyWrapper( String policyId ) {
+                return null;
+            }
+
+            @Override
+            public String addPolicy( String policy ) {
+                return null;
+            }
+
+            @Override
+            public List<String> listPolicies() {
+                return new ArrayList<>( policies.keySet() );
+            }
+
+            @Override
+            public long getVersion() {
+                return version;
+            }
+        };
+    }
+
+    private static PdpProperties properties() {
+        return new PdpProperties() {
+            @Override
+            public String getName() {
+                return "it.cnr.iit.ucs.pdp.PolicyDecisionPoint";
+            }
+
+            @Override
+            public Map<String, String> getAdditionalProperties() {
+                return null;
+            }
+
+            @Override
+            public String getId() {
+                return null;
+            }
+
+            @Override
+            public String getJournalPath() {
+                return null;
+            }
+
+            @Override
+            public String getJournalProtocol() {
+                return null;
+            }
+
+            @Override
+            public Map<String, String> getJournalAdditionalProperties() {
+                return null;
+            }
+
+            @Override
+            public boolean isFastPath() {
+                return false;
+            }
+        };
+    }
+
+}
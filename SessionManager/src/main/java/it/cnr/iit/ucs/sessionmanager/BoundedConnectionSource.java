@@ -0,0 +1,151 @@
+package it.cnr.iit.ucs.sessionmanager;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.j256.ormlite.db.DatabaseType;
+import com.j256.ormlite.support.ConnectionSource;
+import com.j256.ormlite.support.DatabaseConnection;
+
+import it.cnr.iit.utility.errorhandling.Reject;
+
+/**
+ * Caps the number of threads using the connections of a connection source at
+ * the same time, the pool of OrmLite only bounds the connections kept free.
+ * A caller waits up to <i>maxWait</i> milliseconds for a permit to be
+ * released. A thread keeps its permit until it releases every connection it
+ * got, so the connections OrmLite opens while another one is in use, e.g. to
+ * refresh a foreign field or within a transaction, cannot exhaust the permits.
+ * With a single permit the source serializes the access to a connection that
+ * is not thread safe.
+ *
+ * @author Antonio La Marra, Alessandro Rosetti
+ */
+final class BoundedConnectionSource implements ConnectionSource {
+
+    private final ConnectionSource delegate;
+    private final Semaphore permits;
+    private final long maxWait;
+    // connections got and not yet released by the threads holding a permit
+    private final ConcurrentMap<Thread, Integer> holds = new ConcurrentHashMap<>();
+
+    BoundedConnectionSource( ConnectionSource delegate, int maxConnections, long maxWait ) {
+        Reject.ifNull( delegate );
+        Reject.ifTrue( maxConnections <= 0, "maxConnections must be positive" );
+        this.delegate = delegate;
+        this.permits = new Semaphore( maxConnections, true );
+        this.maxWait = maxWait;
+    }
+
+    @Override
+    public DatabaseConnection getReadOnlyConnection( String tableName ) throws SQLException {
+        acquire();
+        try {
+            return delegate.getReadOnlyConnection( tableName );
+        } catch( SQLException | RuntimeException e ) {
+            release();
+            throw e;
+        }
+    }
+
+    @Override
+    public DatabaseConnection getReadWriteConnection( String tableName ) throws SQLException {
+        acquire();
+        try {
+            return delegate.getReadWriteConnection( tableName );
+        } catch( SQLException | RuntimeException e ) {
+            release();
+            throw e;
+        }
+    }
+
+    @Override
+    public void releaseConnection( DatabaseConnection connection ) throws SQLException {
+        try {
+            delegate.releaseConnection( connection );
+        } finally {
+            release();
+        }
+    }
+
+    private void acquire() throws SQLException {
+        Thread thread = Thread.currentThread();
+        Integer held = holds.get( thread );
+        if( held != null ) {
+            holds.put( thread, held + 1 );
+            return;
+        }
+        try {
+            if( !permits.tryAcquire( maxWait, TimeUnit.MILLISECONDS ) ) {
+                throw new SQLException( "No database connection available after " + maxWait + " ms" );
+            }
+        } catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new SQLException( "Interrupted waiting for a database connection", e );
+        }
+        holds.put( thread, 1 );
+    }
+
+    private void release() {
+        Thread thread = Thread.currentThread();
+        Integer held = holds.get( thread );
+        if( held == null ) {
+            return;
+        }
+        if( held > 1 ) {
+            holds.put( thread, held - 1 );
+        } else {
+            holds.remove( thread );
+            permits.release();
+        }
+    }
+
+    int getAvailableConnections() {
+        return permits.availablePermits();
+    }
+
+    @Override
+    public boolean saveSpecialConnection( DatabaseConnection connection ) throws SQLException {
+        return delegate.saveSpecialConnection( connection );
+    }
+
+    @Override
+    public void clearSpecialConnection( DatabaseConnection connection ) {
+        delegate.clearSpecialConnection( connection );
+    }
+
+    @Override
+    public DatabaseConnection getSpecialConnection( String tableName ) {
+        return delegate.getSpecialConnection( tableName );
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+    @Override
+    public void closeQuietly() {
+        delegate.closeQuietly();
+    }
+
+    @Override
+    public DatabaseType getDatabaseType() {
+        return delegate.getDatabaseType();
+    }
+
+    @Override
+    public boolean isOpen( String tableName ) {
+        return delegate.isOpen( tableName );
+    }
+
+    @Override
+    public boolean isSingleConnection( String tableName ) {
+        return delegate.isSingleConnection( tableName );
+    }
+
+}
@@ -37,23 +37,26 @@ public class OnGoingAttribute implements OnGoingAttributesInterface {
     public static final String RESOURCENAME_FIELD = "resource_name";
     public static final String ACTIONNAME_FIELD = "action_name";
 
+    // composite index serving the lookups by (attribute id, subject/resource/action name)
+    public static final String LOOKUP_INDEX = "on_going_attributes_lookup_idx";
+
     @DatabaseField( id = true, columnName = ID_FIELD_NAME )
     private String id;
 
-    @DatabaseField( canBeNull = false, columnName = ATTRIBUTEID_FIELD )
+    @DatabaseField( canBeNull = false, columnName = ATTRIBUTEID_FIELD, indexName = LOOKUP_INDEX )
     private String attributeId;
 
-    @DatabaseField( columnName = SUBJECTNAME_FIELD )
+    @DatabaseField( columnName = SUBJECTNAME_FIELD, indexName = LOOKUP_INDEX )
     private String subjectName;
 
-    @DatabaseField( columnName = RESOURCENAME_FIELD )
+    @DatabaseField( columnName = RESOURCENAME_FIELD, indexName = LOOKUP_INDEX )
     private String resourceName;
 
-    @DatabaseField( columnName = ACTIONNAME_FIELD )
+    @DatabaseField( columnName = ACTIONNAME_FIELD, indexName = LOOKUP_INDEX )
     private String actionName;
 
     @DatabaseField( foreign = true, foreignAutoRefresh = true, canBeNull = false,
-        columnName = SESSION_ID_FIELD_NAME )
+        columnName = SESSION_ID_FIELD_NAME, index = true )
     private Session session;
 
     // @DatabaseField(columnName = SESSION_ID_FIELD_NAME)
@@ -28,6 +28,7 @@ public final class Session implements SessionInterface {
 
     public static final String ID_FIELD_NAME = "id";
     public static final String POLICYSET_FIELD_NAME = "policy_set";
+    public static final String POLICYHASH_FIELD_NAME = "policy_hash";
     public static final String ORIGINALREQUEST_FIELD_NAME = "original_request";
     public static final String STATUS_FIELD_NAME = "status";
     public static final String PEPURI_FIELD_NAME = "pep_uri";
@@ -36,13 +37,17 @@ public final class Session implements SessionInterface {
     @DatabaseField( id = true, columnName = ID_FIELD_NAME )
     private String id;
 
+    // only filled for sessions stored before the policies table, see policyHash
     @DatabaseField( columnName = POLICYSET_FIELD_NAME, dataType = DataType.LONG_STRING )
     private String policySet;
 
+    @DatabaseField( columnName = POLICYHASH_FIELD_NAME, index = true )
+    private String policyHash;
+
     @DatabaseField( columnName = ORIGINALREQUEST_FIELD_NAME, dataType = DataType.LONG_STRING )
     private String originalRequest;
 
-    @DatabaseField( columnName = STATUS_FIELD_NAME )
+    @DatabaseField( columnName = STATUS_FIELD_NAME, index = true )
     private String status;
 
     @DatabaseField( columnName = PEPURI_FIELD_NAME )
@@ -51,7 +56,8 @@ public final class Session implements SessionInterface {
     @DatabaseField( columnName = MYIP_FIELD )
     private String myIP;
 
-    @ForeignCollectionField( eager = true, columnName = OnGoingAttribute.ATTRIBUTEID_FIELD )
+    // lazy, otherwise every session returned by a lookup would cost one more query
+    @ForeignCollectionField( eager = false, columnName = OnGoingAttribute.ATTRIBUTEID_FIELD )
     private ForeignCollection<OnGoingAttribute> onGoingAttributes;
 
     public Session() {
@@ -116,6 +122,24 @@ public final class Session implements SessionInterface {
         this.policySet = policySet;
     }
 
+    /**
+     * Retrieves the hash of the policy stored in the policies table
+     *
+     * @return the policy hash
+     */
+    public String getPolicyHash() {
+        return policyHash;
+    }
+
+    /**
+     * Sets the hash of the policy stored in the policies table
+     *
+     * @param policyHash the policy hash
+     */
+    public void setPolicyHash( String policyHash ) {
+        this.policyHash = policyHash;
+    }
+
     /**
      * Retrieves the originalRequest
      *
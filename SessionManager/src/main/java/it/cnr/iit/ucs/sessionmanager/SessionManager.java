@@ -8,25 +8,46 @@ package it.cnr.iit.ucs.sessionmanager;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 import com.j256.ormlite.dao.Dao;
 import com.j256.ormlite.dao.DaoManager;
-import com.j256.ormlite.dao.ForeignCollection;
+import com.j256.ormlite.dao.GenericRawResults;
 import com.j256.ormlite.jdbc.JdbcConnectionSource;
+import com.j256.ormlite.jdbc.JdbcPooledConnectionSource;
+import com.j256.ormlite.misc.TransactionManager;
+import com.j256.ormlite.stmt.DeleteBuilder;
+import com.j256.ormlite.stmt.PreparedQuery;
 import com.j256.ormlite.stmt.QueryBuilder;
+import com.j256.ormlite.stmt.SelectArg;
+import com.j256.ormlite.stmt.UpdateBuilder;
+import com.j256.ormlite.stmt.Where;
 import com.j256.ormlite.support.ConnectionSource;
 import com.j256.ormlite.table.TableUtils;
 
 import it.cnr.iit.ucs.constants.STATUS;
+import it.cnr.iit.ucs.jfr.UCSEvent;
+import it.cnr.iit.ucs.jfr.UCSEvents;
+import it.cnr.iit.ucs.metrics.UCSMetrics;
 import it.cnr.iit.ucs.properties.components.SessionManagerProperties;
 import it.cnr.iit.ucs.sessionmanager.OnGoingAttribute.COLUMN;
+import it.cnr.iit.utility.DigestUtility;
+import it.cnr.iit.utility.LruCache;
 import it.cnr.iit.utility.errorhandling.Reject;
 import it.cnr.iit.xacml.Attribute;
 
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+
 /**
  * Creates, updates, deletes and retrieves Sessions by waiting for Context
  * Handler Requests. It exploits OrmLite DAL to manage different relational
@@ -40,16 +61,53 @@ public final class SessionManager implements SessionManagerInterface {
 
     private static final String MSG_ERR_SQL = "Error in SQL query : {0}";
 
+    private static final int DEFAULT_MAX_CONNECTIONS = 8;
+    private static final long DEFAULT_CONNECTION_MAX_AGE = 3600000L;
+    private static final long CONNECTION_MAX_WAIT = 30000L;
+    private static final int POLICY_CACHE_CAPACITY = 256;
+
     // url to connect to the database
     private String databaseURL;
+    private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+    private long connectionMaxAge = DEFAULT_CONNECTION_MAX_AGE;
     private ConnectionSource connection;
     // dao to perform operations on the session table
     private Dao<Session, String> sessionDao;
     // dao to perform operations on the attributes table
     private Dao<OnGoingAttribute, String> attributesDao;
+    // dao to perform operations on the policies table
+    private Dao<StoredPolicy, String> policyDao;
+    // policies are shared by many sessions, the text of the most recently used ones is kept in memory by hash
+    private final LruCache<String, String> policies = new LruCache<>( POLICY_CACHE_CAPACITY );
+    // prepared lookups not in use, their arguments are not thread safe hence each caller borrows its own
+    private final Queue<LookupQueries> idleLookupQueries = new ConcurrentLinkedQueue<>();
+    // number of sessions by status, counted once at start and then kept up to date by the entries changed
+    private final Map<STATUS, AtomicLong> sessionCounts = new EnumMap<>( STATUS.class );
+    private final List<Meter> meters = new ArrayList<>();
 
     private volatile boolean initialized = false;
 
+    /**
+     * The prepared queries retrieving the sessions interested by an on going attribute,
+     * one for each column plus the one ignoring the column.
+     */
+    private static final class LookupQueries {
+        private final Map<COLUMN, LookupQuery> byColumn = new EnumMap<>( COLUMN.class );
+        private LookupQuery any;
+    }
+
+    private static final class LookupQuery {
+        private final SelectArg attributeId = new SelectArg();
+        private final SelectArg name = new SelectArg();
+        private PreparedQuery<Session> query;
+    }
+
+    {
+        for( STATUS status : STATUS.values() ) {
+            sessionCounts.put( status, new AtomicLong() );
+        }
+    }
+
     protected SessionManager( String databaseURL ) {
         this.databaseURL = databaseURL;
         sessionDao = null;
@@ -60,6 +118,12 @@ public final class SessionManager implements SessionManagerInterface {
         Reject.ifNull( properties );
         Reject.ifNull( properties.getDbUri() );
         databaseURL = properties.getDbUri();
+        if( properties.getDbMaxConnections() > 0 ) {
+            maxConnections = properties.getDbMaxConnections();
+        }
+        if( properties.getDbConnectionMaxAge() > 0 ) {
+            connectionMaxAge = properties.getDbConnectionMaxAge();
+        }
         sessionDao = null;
         attributesDao = null;
         initialized = true;
@@ -74,12 +138,19 @@ public final class SessionManager implements SessionManagerInterface {
     public Boolean start() {
         isInitialized();
         try {
-            connection = new JdbcConnectionSource( databaseURL );
+            connection = createConnectionSource();
             sessionDao = DaoManager.createDao( connection, Session.class );
             attributesDao = DaoManager.createDao( connection, OnGoingAttribute.class );
+            policyDao = DaoManager.createDao( connection, StoredPolicy.class );
+            idleLookupQueries.clear();
 
+            upgradeTables();
             TableUtils.createTableIfNotExists( connection, Session.class );
             TableUtils.createTableIfNotExists( connection, OnGoingAttribute.class );
+            TableUtils.createTableIfNotExists( connection, StoredPolicy.class );
+            createIndexes();
+            loadSessionCounts();
+            registerMeters( UCSMetrics.getRegistry() );
         } catch( SQLException e ) {
             log.severe( e.getMessage() );
             initialized = false;
@@ -88,6 +159,74 @@ public final class SessionManager implements SessionManagerInterface {
         return true;
     }
 
+    /**
+     * Adds the columns missing in the tables created by a previous version,
+     * the tables that do not exist yet are created afterwards as a whole.
+     */
+    private void upgradeTables() throws SQLException {
+        if( sessionDao.isTableExists() && !hasColumn( sessionDao, "sessions", Session.POLICYHASH_FIELD_NAME ) ) {
+            log.info( "Adding the policy hash column to the sessions table" );
+            sessionDao.executeRaw( "ALTER TABLE sessions ADD COLUMN " + Session.POLICYHASH_FIELD_NAME + " VARCHAR(255)" );
+        }
+        if( policyDao.isTableExists() && !hasColumn( policyDao, "policies", StoredPolicy.SESSION_COUNT_FIELD_NAME ) ) {
+            log.info( "Adding the session count column to the policies table" );
+            policyDao.executeRaw( "ALTER TABLE policies ADD COLUMN " + StoredPolicy.SESSION_COUNT_FIELD_NAME
+                    + " BIGINT NOT NULL DEFAULT 0" );
+            policyDao.executeRaw( "UPDATE policies SET " + StoredPolicy.SESSION_COUNT_FIELD_NAME
+                    + " = (SELECT COUNT(*) FROM sessions WHERE sessions." + Session.POLICYHASH_FIELD_NAME
+                    + " = policies." + StoredPolicy.HASH_FIELD_NAME + ")" );
+        }
+    }
+
+    private static boolean hasColumn( Dao<?, String> dao, String table, String column ) {
+        try {
+            dao.queryRawValue( "SELECT COUNT(" + column + ") FROM " + table + " WHERE 1 = 0" );
+            return true;
+        } catch( SQLException e ) {
+            return false;
+        }
+    }
+
+    /**
+     * Creates the indexes the lookups rely on, also on the tables created by a
+     * previous version without them. The names are the ones OrmLite gives to
+     * the indexes of a new table.
+     */
+    private void createIndexes() throws SQLException {
+        createIndex( "sessions_" + Session.POLICYHASH_FIELD_NAME + "_idx", "sessions", Session.POLICYHASH_FIELD_NAME );
+        createIndex( "sessions_" + Session.STATUS_FIELD_NAME + "_idx", "sessions", Session.STATUS_FIELD_NAME );
+        createIndex( "on_going_attributes_" + OnGoingAttribute.SESSION_ID_FIELD_NAME + "_idx", "on_going_attributes",
+            OnGoingAttribute.SESSION_ID_FIELD_NAME );
+        createIndex( OnGoingAttribute.LOOKUP_INDEX, "on_going_attributes", OnGoingAttribute.ATTRIBUTEID_FIELD + ", "
+                + OnGoingAttribute.SUBJECTNAME_FIELD + ", " + OnGoingAttribute.RESOURCENAME_FIELD + ", "
+                + OnGoingAttribute.ACTIONNAME_FIELD );
+    }
+
+    private void createIndex( String name, String table, String columns ) throws SQLException {
+        sessionDao.executeRaw( "CREATE INDEX IF NOT EXISTS " + name + " ON " + table + " (" + columns + ")" );
+    }
+
+    /**
+     * Creates a pool of at most maxConnections connections to the database. A
+     * private in-memory sqlite database only lives in the connection that
+     * created it, in that case and when a single connection is requested a
+     * plain connection source is used by one thread at a time.
+     */
+    private ConnectionSource createConnectionSource() throws SQLException {
+        if( maxConnections <= 1 || isInMemorySqlite( databaseURL ) ) {
+            return new BoundedConnectionSource( new JdbcConnectionSource( databaseURL ), 1, CONNECTION_MAX_WAIT );
+        }
+        JdbcPooledConnectionSource pool = new JdbcPooledConnectionSource( databaseURL );
+        pool.setMaxConnectionsFree( maxConnections );
+        pool.setMaxConnectionAgeMillis( connectionMaxAge );
+        pool.setTestBeforeGet( true );
+        return new BoundedConnectionSource( pool, maxConnections, CONNECTION_MAX_WAIT );
+    }
+
+    private static boolean isInMemorySqlite( String url ) {
+        return url.startsWith( "jdbc:sqlite:" ) && url.contains( ":memory:" );
+    }
+
     /**
      * Stops the connection to the database
      *
@@ -98,6 +237,11 @@ public final class SessionManager implements SessionManagerInterface {
         if( !isInitialized() ) {
             throw new IllegalStateException( "SessionManager was not correctly initialized" );
         }
+        MeterRegistry registry = UCSMetrics.getRegistry();
+        for( Meter meter : meters ) {
+            registry.remove( meter );
+        }
+        meters.clear();
         try {
             connection.close();
         } catch( IOException e ) {
@@ -122,19 +266,30 @@ public final class SessionManager implements SessionManagerInterface {
     public Boolean updateEntry( String sessionId, String status ) {
         Reject.ifBlank( status );
         Reject.ifBlank( sessionId );
+        UCSEvent event = UCSEvents.sessionStore( "updateEntry" ).setSessionId( sessionId );
         try {
             Session s = sessionDao.queryForId( sessionId );
+            if( s == null ) {
+                log.warning( "No session to update for id " + sessionId );
+                return false;
+            }
+            String previous = s.getStatus();
             s.setStatus( status );
             sessionDao.update( s );
+            countSession( previous, -1 );
+            countSession( status, 1 );
         } catch( SQLException e ) {
             log.severe( String.format( MSG_ERR_SQL, e.getMessage() ) );
             return false;
+        } finally {
+            event.end();
         }
         return true;
     }
 
     /**
-     * Deletes a certain session
+     * Deletes a certain session, together with its policy when no other session
+     * references it anymore
      *
      * @param sessionId
      *          ID of the session to be deleted in the DB
@@ -143,18 +298,30 @@ public final class SessionManager implements SessionManagerInterface {
     @Override
     public Boolean deleteEntry( String sessionId ) {
         validStateAndArguments( sessionId );
+        UCSEvent event = UCSEvents.sessionStore( "deleteEntry" ).setSessionId( sessionId );
         try {
-            ForeignCollection<OnGoingAttribute> a = sessionDao.queryForId( sessionId )
-                .getOnGoingAttributesAsForeign();
-            for( OnGoingAttribute attribute : a ) {
-                attributesDao.deleteById( attribute.getId() );
+            Session deleted = TransactionManager.callInTransaction( connection, () -> {
+                Session session = sessionDao.queryForId( sessionId );
+                DeleteBuilder<OnGoingAttribute, String> deleteBuilder = attributesDao.deleteBuilder();
+                deleteBuilder.where().eq( OnGoingAttribute.SESSION_ID_FIELD_NAME, sessionId );
+                deleteBuilder.delete();
+                if( sessionDao.deleteById( sessionId ) == 0 ) {
+                    return null;
+                }
+                deleteOrphanPolicy( session.getPolicyHash() );
+                return session;
+            } );
+            if( deleted == null ) {
+                return false;
             }
-            a.clear();
-            sessionDao.deleteById( sessionId );
+            countSession( deleted.getStatus(), -1 );
+            return true;
         } catch( SQLException ex ) {
+            log.severe( String.format( MSG_ERR_SQL, ex.getMessage() ) );
             return false;
+        } finally {
+            event.end();
         }
-        return true;
     }
 
     /**
@@ -169,49 +336,190 @@ public final class SessionManager implements SessionManagerInterface {
     @Override
     public Boolean createEntry( SessionAttributes parameterObject ) {
         Reject.ifNull( parameterObject );
+        String policy = parameterObject.getPolicySet();
+        String policyHash = policy != null ? DigestUtility.sha256( policy ) : null;
+        UCSEvent event = UCSEvents.sessionStore( "createEntry" ).setSessionId( parameterObject.getSessionId() );
         try {
-            Session s = prepareSession( parameterObject );
-
-            if( sessionDao.idExists( parameterObject.getSessionId() ) ) {
-                log.severe( "ID already exists" );
-                return false;
-            }
-            sessionDao.create( s );
-            Session sessionResult = sessionDao.queryForId( parameterObject.getSessionId() );
-            ForeignCollection<OnGoingAttribute> attributes = sessionResult
-                .getOnGoingAttributesAsForeign();
-            if( parameterObject.getOnGoingAttributesForSubject() != null ) {
-                for( String attr : parameterObject.getOnGoingAttributesForSubject() ) {
-                    OnGoingAttribute a = OnGoingAttribute.createOnGoingAttribute( attr, parameterObject.getSubjectName(), COLUMN.SUBJECT );
-                    attributes.add( a );
-                }
+            boolean created = TransactionManager.callInTransaction( connection, () -> createSession( parameterObject, policyHash ) );
+            if( created && policyHash != null ) {
+                policies.put( policyHash, policy );
             }
-            if( parameterObject.getOnGoingAttributesForResource() != null ) {
-                for( String attr : parameterObject.getOnGoingAttributesForResource() ) {
-                    OnGoingAttribute a = OnGoingAttribute.createOnGoingAttribute( attr, parameterObject.getResourceName(),
-                        COLUMN.RESOURCE );
-                    attributes.add( a );
-                }
-            }
-            if( parameterObject.getOnGoingAttributesForAction() != null ) {
-                for( String attr : parameterObject.getOnGoingAttributesForAction() ) {
-                    OnGoingAttribute a = OnGoingAttribute.createOnGoingAttribute( attr, parameterObject.getActionName(), COLUMN.ACTION );
-                    attributes.add( a );
-                }
-            }
-            if( parameterObject.getOnGoingAttributesForEnvironment() != null ) {
-                for( String attr : parameterObject.getOnGoingAttributesForEnvironment() ) {
-                    OnGoingAttribute a = OnGoingAttribute.createOnGoingAttribute( attr, "", COLUMN.ENVIRONMENT );
-                    attributes.add( a );
-                }
+            if( created ) {
+                countSession( parameterObject.getStatus(), 1 );
             }
+            return created;
         } catch( SQLException e ) {
             log.severe( String.format( MSG_ERR_SQL, e.getMessage() ) );
             return false;
+        } finally {
+            event.end();
+        }
+    }
+
+    private boolean createSession( SessionAttributes parameterObject, String policyHash ) throws SQLException {
+        Session s = prepareSession( parameterObject );
+
+        if( sessionDao.idExists( parameterObject.getSessionId() ) ) {
+            log.severe( "ID already exists" );
+            return false;
+        }
+        if( policyHash != null ) {
+            storePolicy( policyHash, parameterObject.getPolicySet() );
+            s.setPolicyHash( policyHash );
+            s.setPolicySet( null );
+        }
+        sessionDao.create( s );
+        List<OnGoingAttribute> attributes = new ArrayList<>();
+        addOnGoingAttributes( attributes, s, parameterObject.getOnGoingAttributesForSubject(), parameterObject.getSubjectName(),
+            COLUMN.SUBJECT );
+        addOnGoingAttributes( attributes, s, parameterObject.getOnGoingAttributesForResource(), parameterObject.getResourceName(),
+            COLUMN.RESOURCE );
+        addOnGoingAttributes( attributes, s, parameterObject.getOnGoingAttributesForAction(), parameterObject.getActionName(),
+            COLUMN.ACTION );
+        addOnGoingAttributes( attributes, s, parameterObject.getOnGoingAttributesForEnvironment(), "", COLUMN.ENVIRONMENT );
+        if( !attributes.isEmpty() ) {
+            attributesDao.callBatchTasks( () -> {
+                for( OnGoingAttribute attribute : attributes ) {
+                    attributesDao.create( attribute );
+                }
+                return null;
+            } );
         }
         return true;
     }
 
+    private void addOnGoingAttributes( List<OnGoingAttribute> attributes, Session session, List<String> attributeIds, String name,
+            COLUMN column ) {
+        if( attributeIds == null ) {
+            return;
+        }
+        for( String attr : attributeIds ) {
+            OnGoingAttribute a = OnGoingAttribute.createOnGoingAttribute( attr, name, column );
+            a.setSession( session );
+            attributes.add( a );
+        }
+    }
+
+    /**
+     * Adds a reference to the policy in the policies table, storing it if no
+     * session references it yet. The table is always checked, even for the
+     * cached policies, since the row is deleted with its last session. The
+     * count is changed by a single update which locks the row until the
+     * transaction creating the session ends, hence a concurrent deletion of
+     * the last session either sees the new reference or has already deleted
+     * the row, in which case it is stored again.
+     *
+     * @param hash
+     *          the hash referencing the policy
+     * @param policy
+     *          the policy
+     */
+    private void storePolicy( String hash, String policy ) throws SQLException {
+        if( changeSessionCount( hash, "+ 1" ) > 0 ) {
+            return;
+        }
+        try {
+            policyDao.create( new StoredPolicy( hash, policy, 1 ) );
+        } catch( SQLException e ) {
+            // stored in the meantime by another session with the same policy
+            if( changeSessionCount( hash, "+ 1" ) == 0 ) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Removes a reference to the policy and deletes it from the policies table
+     * and from memory if no session references it anymore, it must be called
+     * in the transaction deleting the session.
+     */
+    private void deleteOrphanPolicy( String hash ) throws SQLException {
+        if( hash == null ) {
+            return;
+        }
+        changeSessionCount( hash, "- 1" );
+        DeleteBuilder<StoredPolicy, String> deleteBuilder = policyDao.deleteBuilder();
+        deleteBuilder.where().eq( StoredPolicy.HASH_FIELD_NAME, hash ).and().le( StoredPolicy.SESSION_COUNT_FIELD_NAME, 0 );
+        if( deleteBuilder.delete() > 0 ) {
+            policies.remove( hash );
+        }
+    }
+
+    private int changeSessionCount( String hash, String change ) throws SQLException {
+        UpdateBuilder<StoredPolicy, String> updateBuilder = policyDao.updateBuilder();
+        updateBuilder.updateColumnExpression( StoredPolicy.SESSION_COUNT_FIELD_NAME,
+            StoredPolicy.SESSION_COUNT_FIELD_NAME + " " + change );
+        updateBuilder.where().eq( StoredPolicy.HASH_FIELD_NAME, hash );
+        return updateBuilder.update();
+    }
+
+    long countStoredPolicies() throws SQLException {
+        return policyDao.countOf();
+    }
+
+    /**
+     * Fills the policy of a session loaded from the database using the
+     * in-memory copy of the policies table.
+     */
+    private Session resolvePolicy( Session session ) throws SQLException {
+        if( session == null || session.getPolicyHash() == null ) {
+            return session;
+        }
+        String policy = policies.get( session.getPolicyHash() );
+        if( policy == null ) {
+            StoredPolicy storedPolicy = policyDao.queryForId( session.getPolicyHash() );
+            Reject.ifNull( storedPolicy, "missing policy " + session.getPolicyHash() );
+            policy = storedPolicy.getPolicy();
+            policies.put( session.getPolicyHash(), policy );
+        }
+        session.setPolicySet( policy );
+        return session;
+    }
+
+    /**
+     * Counts the sessions already stored by status, afterwards the counts are
+     * updated in memory by the entries created, updated and deleted so that
+     * reading them neither queries the database nor waits for a connection.
+     */
+    private void loadSessionCounts() throws SQLException {
+        for( AtomicLong count : sessionCounts.values() ) {
+            count.set( 0 );
+        }
+        try (GenericRawResults<String[]> results = sessionDao.queryRaw( "SELECT " + Session.STATUS_FIELD_NAME
+                + ", COUNT(*) FROM sessions GROUP BY " + Session.STATUS_FIELD_NAME )) {
+            for( String[] result : results ) {
+                countSession( result[0], Long.parseLong( result[1] ) );
+            }
+        } catch( IOException e ) {
+            throw new SQLException( e );
+        }
+    }
+
+    /**
+     * Changes the count of the sessions with that status, the operations on a
+     * session are serialized by the context handler hence its previous status
+     * is not changed concurrently.
+     */
+    private void countSession( String status, long delta ) {
+        for( STATUS value : STATUS.values() ) {
+            if( value.name().equals( status ) ) {
+                sessionCounts.get( value ).addAndGet( delta );
+                return;
+            }
+        }
+    }
+
+    long getSessionCount( STATUS status ) {
+        return sessionCounts.get( status ).get();
+    }
+
+    private void registerMeters( MeterRegistry registry ) {
+        for( STATUS status : STATUS.values() ) {
+            meters.add( Gauge.builder( UCSMetrics.SESSIONS, sessionCounts.get( status ), AtomicLong::get )
+                .tag( "status", status.name() ).register( registry ) );
+        }
+    }
+
     private Session prepareSession( SessionAttributes parameterObject ) {
         return new Session( parameterObject.getSessionId(), parameterObject.getPolicySet(), parameterObject.getOriginalRequest(),
             parameterObject.getStatus(),
@@ -228,26 +536,7 @@ public final class SessionManager implements SessionManagerInterface {
     @Override
     public List<SessionInterface> getSessionsForAttribute( String attributeId ) {
         validStateAndArguments( attributeId );
-        try {
-            QueryBuilder<OnGoingAttribute, String> qbAttributes = attributesDao
-                .queryBuilder();
-            List<OnGoingAttribute> attributes = qbAttributes.where()
-                .eq( OnGoingAttribute.ATTRIBUTEID_FIELD, attributeId ).query();
-
-            List<SessionInterface> sessions = new LinkedList<>();
-            for( OnGoingAttribute attr : attributes ) {
-                // add the considered session only if its status is equal to 's'
-                if( attr.getSession().isStatus( STATUS.START.name() )
-                        || attr.getSession().isStatus( STATUS.REVOKE.name() ) ) {
-                    sessions.add( attr.getSession() );
-                }
-            }
-            return sessions;
-
-        } catch( SQLException e ) {
-            log.severe( String.format( MSG_ERR_SQL, e.getMessage() ) );
-        }
-        return new ArrayList<>();
+        return getSessionsForOnGoingAttribute( attributeId, null, null );
     }
 
     /**
@@ -266,34 +555,7 @@ public final class SessionManager implements SessionManagerInterface {
     public List<SessionInterface> getSessionsForSubjectAttributes(
             String subjectName, String attributeId ) {
         validStateAndArguments( subjectName, attributeId );
-        try {
-            QueryBuilder<OnGoingAttribute, String> qbAttributes = attributesDao
-                .queryBuilder();
-            List<OnGoingAttribute> attributes = qbAttributes.where()
-                .isNotNull( OnGoingAttribute.SUBJECTNAME_FIELD ).and()
-                .isNull( OnGoingAttribute.RESOURCENAME_FIELD ).and()
-                .isNull( OnGoingAttribute.ACTIONNAME_FIELD ).and()
-                .eq( OnGoingAttribute.ATTRIBUTEID_FIELD, attributeId ).and()
-                .eq( OnGoingAttribute.SUBJECTNAME_FIELD, subjectName ).query();
-
-            if( attributes == null ) {
-                return new ArrayList<>();
-            }
-
-            List<SessionInterface> sessions = new LinkedList<>();
-            for( OnGoingAttribute attr : attributes ) {
-                // add the considered session only if its status is equal to 's'
-                if( attr.getSession().isStatus( STATUS.START.name() )
-                        || attr.getSession().isStatus( STATUS.REVOKE.name() ) ) {
-                    sessions.add( attr.getSession() );
-                }
-            }
-            return sessions;
-
-        } catch( SQLException e ) {
-            log.severe( String.format( MSG_ERR_SQL, e.getMessage() ) );
-        }
-        return new ArrayList<>();
+        return getSessionsForOnGoingAttribute( attributeId, COLUMN.SUBJECT, subjectName );
     }
 
     /**
@@ -312,29 +574,7 @@ public final class SessionManager implements SessionManagerInterface {
     public List<SessionInterface> getSessionsForResourceAttributes(
             String resourceName, String attributeId ) {
         validStateAndArguments( resourceName, attributeId );
-        try {
-            QueryBuilder<OnGoingAttribute, String> qbAttributes = attributesDao
-                .queryBuilder();
-            List<OnGoingAttribute> attributes = qbAttributes.where()
-                .isNull( OnGoingAttribute.SUBJECTNAME_FIELD ).and()
-                .isNotNull( OnGoingAttribute.RESOURCENAME_FIELD ).and()
-                .isNull( OnGoingAttribute.ACTIONNAME_FIELD ).and()
-                .eq( OnGoingAttribute.ATTRIBUTEID_FIELD, attributeId ).and()
-                .eq( OnGoingAttribute.RESOURCENAME_FIELD, resourceName ).query();
-
-            List<SessionInterface> sessions = new LinkedList<>();
-            for( OnGoingAttribute attr : attributes ) {
-                if( attr.getSession().isStatus( STATUS.START.name() )
-                        || attr.getSession().isStatus( STATUS.REVOKE.name() ) ) {
-                    sessions.add( attr.getSession() );
-                }
-            }
-            return sessions;
-
-        } catch( SQLException e ) {
-            log.severe( String.format( MSG_ERR_SQL, e.getMessage() ) );
-        }
-        return new ArrayList<>();
+        return getSessionsForOnGoingAttribute( attributeId, COLUMN.RESOURCE, resourceName );
     }
 
     /**
@@ -353,31 +593,91 @@ public final class SessionManager implements SessionManagerInterface {
     public List<SessionInterface> getSessionsForActionAttributes(
             String actionName, String attributeId ) {
         validStateAndArguments( actionName, attributeId );
+        return getSessionsForOnGoingAttribute( attributeId, COLUMN.ACTION, actionName );
+    }
+
+    /**
+     * Retrieves with a single joined query the sessions in START or REVOKE status
+     * having an on going attribute with the given id. If a column is specified only
+     * the on going attributes related to that column and name are considered.
+     *
+     * @param attributeId
+     *          the attribute id
+     * @param column
+     *          the column the attribute is related to, null to consider all of them
+     * @param name
+     *          the name of the subject, resource or action
+     * @return the list of sessions interested by the attribute
+     */
+    private List<SessionInterface> getSessionsForOnGoingAttribute( String attributeId, COLUMN column, String name ) {
+        UCSEvent event = UCSEvents.sessionStore( "getSessionsForAttribute" );
+        LookupQueries queries = idleLookupQueries.poll();
         try {
-            QueryBuilder<OnGoingAttribute, String> qbAttributes = attributesDao
-                .queryBuilder();
-            List<OnGoingAttribute> attributes = qbAttributes.where()
-                .isNull( OnGoingAttribute.SUBJECTNAME_FIELD ).and()
-                .isNull( OnGoingAttribute.RESOURCENAME_FIELD ).and()
-                .isNotNull( OnGoingAttribute.ACTIONNAME_FIELD ).and()
-                .eq( OnGoingAttribute.ATTRIBUTEID_FIELD, attributeId ).and()
-                .eq( OnGoingAttribute.ACTIONNAME_FIELD, actionName ).query();
-
-            List<SessionInterface> sessions = new LinkedList<>();
-            for( OnGoingAttribute attr : attributes ) {
-                if( attr.getSession().isStatus( STATUS.START.name() )
-                        || attr.getSession().isStatus( STATUS.REVOKE.name() ) ) {
-                    sessions.add( attr.getSession() );
+            if( queries == null ) {
+                queries = prepareLookupQueries();
+            }
+            LookupQuery lookup = column != null ? queries.byColumn.get( column ) : queries.any;
+            lookup.attributeId.setValue( attributeId );
+            lookup.name.setValue( name );
+
+            // a session can have the same attribute more than once, hence duplicates are removed here
+            Map<String, SessionInterface> sessions = new LinkedHashMap<>();
+            for( Session session : sessionDao.query( lookup.query ) ) {
+                if( !sessions.containsKey( session.getId() ) ) {
+                    sessions.put( session.getId(), resolvePolicy( session ) );
                 }
             }
-            return sessions;
-
+            return new ArrayList<>( sessions.values() );
         } catch( SQLException e ) {
             log.severe( String.format( MSG_ERR_SQL, e.getMessage() ) );
+        } finally {
+            if( queries != null ) {
+                idleLookupQueries.offer( queries );
+            }
+            event.end();
         }
         return new ArrayList<>();
     }
 
+    private LookupQueries prepareLookupQueries() {
+        LookupQueries queries = new LookupQueries();
+        try {
+            queries.any = prepareLookupQuery( null );
+            for( COLUMN column : COLUMN.values() ) {
+                queries.byColumn.put( column, prepareLookupQuery( column ) );
+            }
+        } catch( SQLException e ) {
+            log.severe( String.format( MSG_ERR_SQL, e.getMessage() ) );
+            throw new IllegalStateException( "Unable to prepare the session lookups" );
+        }
+        return queries;
+    }
+
+    private LookupQuery prepareLookupQuery( COLUMN column ) throws SQLException {
+        LookupQuery lookup = new LookupQuery();
+        QueryBuilder<OnGoingAttribute, String> qbAttributes = attributesDao.queryBuilder();
+        Where<OnGoingAttribute, String> where = qbAttributes.where().eq( OnGoingAttribute.ATTRIBUTEID_FIELD, lookup.attributeId );
+        if( column != null ) {
+            addNameCondition( where, OnGoingAttribute.SUBJECTNAME_FIELD, column == COLUMN.SUBJECT, lookup.name );
+            addNameCondition( where, OnGoingAttribute.RESOURCENAME_FIELD, column == COLUMN.RESOURCE, lookup.name );
+            addNameCondition( where, OnGoingAttribute.ACTIONNAME_FIELD, column == COLUMN.ACTION, lookup.name );
+        }
+
+        QueryBuilder<Session, String> qbSessions = sessionDao.queryBuilder();
+        qbSessions.where().in( Session.STATUS_FIELD_NAME, STATUS.START.name(), STATUS.REVOKE.name() );
+        lookup.query = qbSessions.join( qbAttributes ).prepare();
+        return lookup;
+    }
+
+    private void addNameCondition( Where<OnGoingAttribute, String> where, String field, boolean selected, SelectArg name )
+            throws SQLException {
+        if( selected ) {
+            where.and().eq( field, name );
+        } else {
+            where.and().isNull( field );
+        }
+    }
+
     /**
      * Retrieve the session that is identified by the specified session id
      *
@@ -388,11 +688,14 @@ public final class SessionManager implements SessionManagerInterface {
     @Override
     public Optional<SessionInterface> getSessionForId( String sessionId ) {
         validStateAndArguments( sessionId );
+        UCSEvent event = UCSEvents.sessionStore( "getSessionForId" ).setSessionId( sessionId );
         try {
-            return Optional.ofNullable( sessionDao.queryForId( sessionId ) );
+            return Optional.ofNullable( resolvePolicy( sessionDao.queryForId( sessionId ) ) );
         } catch( SQLException e ) {
             log.severe( String.format( MSG_ERR_SQL, e.getMessage() ) );
             return Optional.empty();
+        } finally {
+            event.end();
         }
     }
 
@@ -406,18 +709,21 @@ public final class SessionManager implements SessionManagerInterface {
     @Override
     public List<SessionInterface> getSessionsForStatus( String status ) {
         validStateAndArguments( status );
+        UCSEvent event = UCSEvents.sessionStore( "getSessionsForStatus" );
         try {
             QueryBuilder<Session, String> qbSessions = sessionDao.queryBuilder();
             List<Session> list = qbSessions.where()
                 .eq( Session.STATUS_FIELD_NAME, status ).query();
             List<SessionInterface> returnList = new ArrayList<>( list.size() );
             for( Session session : list ) {
-                returnList.add( session );
+                returnList.add( resolvePolicy( session ) );
             }
             return returnList;
         } catch( SQLException e ) {
             log.severe( String.format( MSG_ERR_SQL, e.getMessage() ) );
             return new ArrayList<>();
+        } finally {
+            event.end();
         }
     }
 
@@ -433,29 +739,7 @@ public final class SessionManager implements SessionManagerInterface {
     public List<SessionInterface> getSessionsForEnvironmentAttributes(
             String attributeId ) {
         validStateAndArguments( attributeId );
-        try {
-            QueryBuilder<OnGoingAttribute, String> qbAttributes = attributesDao
-                .queryBuilder();
-            List<OnGoingAttribute> attributes = qbAttributes.where()
-                .isNull( OnGoingAttribute.SUBJECTNAME_FIELD ).and()
-                .isNull( OnGoingAttribute.RESOURCENAME_FIELD ).and()
-                .isNull( OnGoingAttribute.ACTIONNAME_FIELD ).and()
-                .eq( OnGoingAttribute.ATTRIBUTEID_FIELD, attributeId ).query();
-
-            List<SessionInterface> sessions = new LinkedList<>();
-            for( OnGoingAttribute attr : attributes ) {
-                // add the considered session only if its status is equal to 's'
-                if( attr.getSession().isStatus( STATUS.START.name() )
-                        || attr.getSession().isStatus( STATUS.REVOKE.name() ) ) {
-                    sessions.add( attr.getSession() );
-                }
-            }
-            return sessions;
-
-        } catch( SQLException e ) {
-            log.severe( String.format( MSG_ERR_SQL, e.getMessage() ) );
-        }
-        return new ArrayList<>();
+        return getSessionsForOnGoingAttribute( attributeId, COLUMN.ENVIRONMENT, null );
     }
 
     @Override
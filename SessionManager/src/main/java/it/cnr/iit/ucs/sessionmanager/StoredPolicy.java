@@ -0,0 +1,64 @@
+package it.cnr.iit.ucs.sessionmanager;
+
+import com.j256.ormlite.field.DataType;
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.table.DatabaseTable;
+
+/**
+ * A policy stored once in the policies table and referenced by the sessions
+ * through the hash of its content, it keeps the number of sessions referencing
+ * it so that it is deleted with the last one.
+ *
+ * @author Antonio La Marra, Alessandro Rosetti
+ */
+@DatabaseTable( tableName = "policies" )
+public final class StoredPolicy {
+
+    public static final String HASH_FIELD_NAME = "hash";
+    public static final String POLICY_FIELD_NAME = "policy";
+    public static final String SESSION_COUNT_FIELD_NAME = "session_count";
+
+    @DatabaseField( id = true, columnName = HASH_FIELD_NAME )
+    private String hash;
+
+    @DatabaseField( columnName = POLICY_FIELD_NAME, dataType = DataType.LONG_STRING, canBeNull = false )
+    private String policy;
+
+    @DatabaseField( columnName = SESSION_COUNT_FIELD_NAME, canBeNull = false )
+    private long sessionCount;
+
+    public StoredPolicy() {
+
+    }
+
+    public StoredPolicy( String hash, String policy, long sessionCount ) {
+        this.hash = hash;
+        this.policy = policy;
+        this.sessionCount = sessionCount;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public void setHash( String hash ) {
+        this.hash = hash;
+    }
+
+    public String getPolicy() {
+        return policy;
+    }
+
+    public void setPolicy( String policy ) {
+        this.policy = policy;
+    }
+
+    public long getSessionCount() {
+        return sessionCount;
+    }
+
+    public void setSessionCount( long sessionCount ) {
+        this.sessionCount = sessionCount;
+    }
+
+}
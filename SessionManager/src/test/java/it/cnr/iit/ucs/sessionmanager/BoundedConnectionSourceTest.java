@@ -0,0 +1,95 @@
+package it.cnr.iit.ucs.sessionmanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.SQLException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.j256.ormlite.jdbc.JdbcPooledConnectionSource;
+import com.j256.ormlite.support.DatabaseConnection;
+
+public class BoundedConnectionSourceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private JdbcPooledConnectionSource pool;
+    private BoundedConnectionSource connectionSource;
+
+    @Before
+    public void init() throws Exception {
+        pool = new JdbcPooledConnectionSource( "jdbc:sqlite:" + folder.newFile( "sessions.db" ).getAbsolutePath() );
+        pool.setMaxConnectionsFree( 2 );
+        connectionSource = new BoundedConnectionSource( pool, 2, 50 );
+    }
+
+    @After
+    public void close() throws Exception {
+        connectionSource.close();
+    }
+
+    @Test
+    public void connectionsInUseAreCapped() throws Exception {
+        ExecutorService second = Executors.newSingleThreadExecutor();
+        ExecutorService third = Executors.newSingleThreadExecutor();
+        try {
+            DatabaseConnection first = connectionSource.getReadWriteConnection( null );
+            DatabaseConnection other = second.submit( () -> connectionSource.getReadOnlyConnection( null ) ).get();
+            assertEquals( 0, connectionSource.getAvailableConnections() );
+            try {
+                third.submit( () -> connectionSource.getReadWriteConnection( null ) ).get();
+                fail( "a third thread must not get a connection" );
+            } catch( ExecutionException e ) {
+                assertTrue( e.getCause() instanceof SQLException );
+            }
+            connectionSource.releaseConnection( first );
+            assertEquals( 1, connectionSource.getAvailableConnections() );
+            second.submit( () -> {
+                connectionSource.releaseConnection( other );
+                return null;
+            } ).get();
+            assertEquals( 2, connectionSource.getAvailableConnections() );
+        } finally {
+            second.shutdown();
+            third.shutdown();
+        }
+    }
+
+    @Test
+    public void nestedConnectionsShareThePermitOfTheirThread() throws Exception {
+        DatabaseConnection outer = connectionSource.getReadWriteConnection( null );
+        DatabaseConnection inner = connectionSource.getReadOnlyConnection( null );
+        DatabaseConnection innermost = connectionSource.getReadOnlyConnection( null );
+        assertEquals( 1, connectionSource.getAvailableConnections() );
+        connectionSource.releaseConnection( innermost );
+        connectionSource.releaseConnection( inner );
+        assertEquals( 1, connectionSource.getAvailableConnections() );
+        connectionSource.releaseConnection( outer );
+        assertEquals( 2, connectionSource.getAvailableConnections() );
+    }
+
+    @Test
+    public void savedConnectionDoesNotTakeAnotherPermit() throws Exception {
+        DatabaseConnection connection = connectionSource.getReadWriteConnection( null );
+        connectionSource.saveSpecialConnection( connection );
+        assertSame( connection, connectionSource.getReadWriteConnection( null ) );
+        assertEquals( 1, connectionSource.getAvailableConnections() );
+        connectionSource.releaseConnection( connection );
+        assertEquals( 1, connectionSource.getAvailableConnections() );
+        connectionSource.clearSpecialConnection( connection );
+        connectionSource.releaseConnection( connection );
+        assertEquals( 2, connectionSource.getAvailableConnections() );
+    }
+
+}
@@ -0,0 +1,128 @@
+package it.cnr.iit.ucs.sessionmanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import it.cnr.iit.ucs.constants.STATUS;
+import it.cnr.iit.ucs.properties.components.SessionManagerProperties;
+
+public class StoredPolicyTest {
+
+    private static final String POLICY = "<Policy/>";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SessionManager sessionManager;
+
+    @Before
+    public void init() {
+        sessionManager = new SessionManager( properties( "jdbc:sqlite::memory:" ) );
+        sessionManager.start();
+    }
+
+    private static SessionManagerProperties properties( String dbUri ) {
+        return new SessionManagerProperties() {
+
+            @Override
+            public String getName() {
+                return SessionManager.class.getName();
+            }
+
+            @Override
+            public String getDbUri() {
+                return dbUri;
+            }
+
+            @Override
+            public int getDbMaxConnections() {
+                return 1;
+            }
+
+            @Override
+            public long getDbConnectionMaxAge() {
+                return 60000;
+            }
+
+            @Override
+            public Map<String, String> getAdditionalProperties() {
+                return null;
+            }
+
+            @Override
+            public String getId() {
+                return null;
+            }
+        };
+    }
+
+    private boolean create( String sessionId, String policy ) {
+        return create( sessionManager, sessionId, policy );
+    }
+
+    private static boolean create( SessionManager sessionManager, String sessionId, String policy ) {
+        return sessionManager.createEntry( new SessionAttributesBuilder().setSessionId( sessionId )
+            .setPolicySet( policy ).setOriginalRequest( "<Request/>" ).setMyIP( "localhost" ).setPepURI( "localhost:9999" )
+            .setStatus( STATUS.TRY.name() ).build() );
+    }
+
+    @Test
+    public void policyIsDeletedWithItsLastSession() throws Exception {
+        assertTrue( create( "first", POLICY ) );
+        assertTrue( create( "second", POLICY ) );
+        assertTrue( create( "other", "<Policy PolicyId=\"other\"/>" ) );
+        assertEquals( 2, sessionManager.countStoredPolicies() );
+
+        assertTrue( sessionManager.deleteEntry( "first" ) );
+        assertEquals( 2, sessionManager.countStoredPolicies() );
+        assertEquals( POLICY, sessionManager.getSessionForId( "second" ).get().getPolicySet() );
+
+        assertTrue( sessionManager.deleteEntry( "second" ) );
+        assertEquals( 1, sessionManager.countStoredPolicies() );
+
+        // stored again even if it was cached before
+        assertTrue( create( "third", POLICY ) );
+        assertEquals( 2, sessionManager.countStoredPolicies() );
+        assertEquals( POLICY, sessionManager.getSessionForId( "third" ).get().getPolicySet() );
+    }
+
+    @Test
+    public void sessionCountsAreAddedToStoredPolicies() throws Exception {
+        String uri = "jdbc:sqlite:" + folder.newFile( "policies.db" ).getAbsolutePath();
+        SessionManager previous = new SessionManager( properties( uri ) );
+        previous.start();
+        assertTrue( create( previous, "first", POLICY ) );
+        assertTrue( create( previous, "second", POLICY ) );
+        previous.stop();
+        try (Connection connection = DriverManager.getConnection( uri );
+                Statement statement = connection.createStatement()) {
+            statement.executeUpdate( "CREATE TABLE previous_policies (hash VARCHAR, policy TEXT NOT NULL, PRIMARY KEY (hash))" );
+            statement.executeUpdate( "INSERT INTO previous_policies SELECT hash, policy FROM policies" );
+            statement.executeUpdate( "DROP TABLE policies" );
+            statement.executeUpdate( "ALTER TABLE previous_policies RENAME TO policies" );
+        }
+
+        SessionManager upgraded = new SessionManager( properties( uri ) );
+        upgraded.start();
+        try {
+            assertTrue( upgraded.deleteEntry( "first" ) );
+            assertEquals( 1, upgraded.countStoredPolicies() );
+            assertEquals( POLICY, upgraded.getSessionForId( "second" ).get().getPolicySet() );
+            assertTrue( upgraded.deleteEntry( "second" ) );
+            assertEquals( 0, upgraded.countStoredPolicies() );
+        } finally {
+            upgraded.stop();
+        }
+    }
+
+}
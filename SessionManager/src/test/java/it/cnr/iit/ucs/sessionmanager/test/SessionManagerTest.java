@@ -2,6 +2,10 @@ package it.cnr.iit.ucs.sessionmanager.test;
 
 import static org.junit.Assert.assertTrue;
 
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
@@ -10,7 +14,9 @@ import java.util.logging.Logger;
 
 import org.junit.Assert;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringBootConfiguration;
@@ -21,12 +27,16 @@ import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.context.junit4.SpringRunner;
 
 import it.cnr.iit.ucs.constants.STATUS;
+import it.cnr.iit.ucs.metrics.UCSMetrics;
 import it.cnr.iit.ucs.properties.components.SessionManagerProperties;
 import it.cnr.iit.ucs.sessionmanager.OnGoingAttributesInterface;
 import it.cnr.iit.ucs.sessionmanager.SessionAttributesBuilder;
 import it.cnr.iit.ucs.sessionmanager.SessionInterface;
 import it.cnr.iit.ucs.sessionmanager.SessionManager;
 
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
 @EnableConfigurationProperties
 @TestPropertySource( properties = "application.properties" )
 @ActiveProfiles( "test" )
@@ -73,12 +83,19 @@ public class SessionManagerTest {
     @Value( "${conf.failing}" )
     private String failingConf;
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     private SessionManager sessionManager;
 
     @Before
     public void init() {
+        sessionManager = new SessionManager( buildProperties( dbUri, 4 ) );
+        sessionManager.start();
+    }
 
-        SessionManagerProperties sessionManagerProperties = new SessionManagerProperties() {
+    private SessionManagerProperties buildProperties( String uri, int maxConnections ) {
+        return new SessionManagerProperties() {
 
             @Override
             public String getName() {
@@ -87,7 +104,17 @@ public class SessionManagerTest {
 
             @Override
             public String getDbUri() {
-                return dbUri;
+                return uri;
+            }
+
+            @Override
+            public int getDbMaxConnections() {
+                return maxConnections;
+            }
+
+            @Override
+            public long getDbConnectionMaxAge() {
+                return 60000;
             }
 
             @Override
@@ -102,9 +129,6 @@ public class SessionManagerTest {
                 return null;
             }
         };
-
-        sessionManager = new SessionManager( sessionManagerProperties );
-        sessionManager.start();
     }
 
     @Test
@@ -285,4 +309,162 @@ public class SessionManagerTest {
         log.info( "*******END TESTING OGA PER SUBJECT****" );
     }
 
+    @Test
+    public void testJoinedLookupFiltersStatus() throws Exception {
+        String[] attributesPerSubject = new String[] { "role", "role" };
+        boolean status = sessionManager.createEntry( new SessionAttributesBuilder().setSessionId( sessionId )
+            .setPolicySet( policy ).setOriginalRequest( request )
+            .setOnGoingAttributesForSubject( Arrays.asList( attributesPerSubject ) ).setMyIP( myip ).setPepURI( pepuri )
+            .setSubjectName( subject ).setStatus( STATUS.TRY.name() ).build() );
+        Assert.assertEquals( true, status );
+        Assert.assertEquals( 0, sessionManager.getSessionsForSubjectAttributes( subject, "role" ).size() );
+        status = sessionManager.updateEntry( sessionId, STATUS.REVOKE.name() );
+        Assert.assertEquals( true, status );
+        Assert.assertEquals( 1, sessionManager.getSessionsForSubjectAttributes( subject, "role" ).size() );
+        Assert.assertEquals( 1, sessionManager.getSessionsForAttribute( "role" ).size() );
+        Assert.assertEquals( 0, sessionManager.getSessionsForEnvironmentAttributes( "role" ).size() );
+    }
+
+    @Test
+    public void testBatchCreateAndDelete() throws Exception {
+        boolean status = sessionManager.createEntry( new SessionAttributesBuilder().setSessionId( sessionId )
+            .setPolicySet( policy ).setOriginalRequest( request )
+            .setOnGoingAttributesForSubject( Arrays.asList( "role", "group" ) )
+            .setOnGoingAttributesForResource( Arrays.asList( "resource" ) )
+            .setOnGoingAttributesForEnvironment( Arrays.asList( "temperature", "time" ) ).setMyIP( myip ).setPepURI( pepuri )
+            .setSubjectName( subject ).setResourceName( resource ).setStatus( STATUS.START.name() ).build() );
+        Assert.assertEquals( true, status );
+        Assert.assertEquals( 5, sessionManager.getOnGoingAttributes( sessionId ).size() );
+        Assert.assertEquals( 1, sessionManager.getSessionsForEnvironmentAttributes( "time" ).size() );
+        Assert.assertTrue( sessionManager.deleteEntry( sessionId ) );
+        Assert.assertEquals( 0, sessionManager.getSessionsForEnvironmentAttributes( "time" ).size() );
+        Assert.assertEquals( 0, sessionManager.getSessionsForAttribute( "role" ).size() );
+        Assert.assertFalse( sessionManager.deleteEntry( sessionId ) );
+    }
+
+    @Test
+    public void testSharedPolicyIsResolved() throws Exception {
+        String otherSessionId = sessionId + "-other";
+        for( String id : Arrays.asList( sessionId, otherSessionId ) ) {
+            boolean status = sessionManager.createEntry( new SessionAttributesBuilder().setSessionId( id )
+                .setPolicySet( policy ).setOriginalRequest( request ).setMyIP( myip ).setPepURI( pepuri )
+                .setStatus( STATUS.TRY.name() ).build() );
+            Assert.assertEquals( true, status );
+        }
+        Assert.assertEquals( policy, sessionManager.getSessionForId( sessionId ).get().getPolicySet() );
+        Assert.assertEquals( policy, sessionManager.getSessionForId( otherSessionId ).get().getPolicySet() );
+        for( SessionInterface session : sessionManager.getSessionsForStatus( STATUS.TRY.name() ) ) {
+            Assert.assertEquals( policy, session.getPolicySet() );
+        }
+    }
+
+    @Test
+    public void testPooledSessionLifecycle() throws Exception {
+        SessionManager pooled = new SessionManager(
+            buildProperties( "jdbc:sqlite:" + folder.newFile( "sessions.db" ).getAbsolutePath(), 2 ) );
+        pooled.start();
+        try {
+            for( int i = 0; i < 5; i++ ) {
+                String id = sessionId + i;
+                Assert.assertTrue( pooled.createEntry( new SessionAttributesBuilder().setSessionId( id )
+                    .setPolicySet( policy ).setOriginalRequest( request )
+                    .setOnGoingAttributesForSubject( Arrays.asList( "role" ) ).setMyIP( myip ).setPepURI( pepuri )
+                    .setSubjectName( subject ).setStatus( STATUS.START.name() ).build() ) );
+            }
+            Assert.assertEquals( 5, pooled.getSessionsForSubjectAttributes( subject, "role" ).size() );
+            for( int i = 0; i < 5; i++ ) {
+                Assert.assertTrue( pooled.deleteEntry( sessionId + i ) );
+            }
+            Assert.assertEquals( 0, pooled.getSessionsForAttribute( "role" ).size() );
+        } finally {
+            pooled.stop();
+        }
+    }
+
+    @Test
+    public void testBaselineDatabaseIsUpgraded() throws Exception {
+        String uri = "jdbc:sqlite:" + folder.newFile( "baseline.db" ).getAbsolutePath();
+        try (Connection connection = DriverManager.getConnection( uri );
+                Statement statement = connection.createStatement()) {
+            statement.executeUpdate( "CREATE TABLE sessions (id VARCHAR, policy_set TEXT, original_request TEXT, "
+                    + "status VARCHAR, pep_uri VARCHAR, myip VARCHAR, PRIMARY KEY (id))" );
+            statement.executeUpdate( "CREATE TABLE on_going_attributes (id VARCHAR, attribute_id VARCHAR NOT NULL, "
+                    + "subject_name VARCHAR, resource_name VARCHAR, action_name VARCHAR, session_id VARCHAR NOT NULL, "
+                    + "PRIMARY KEY (id))" );
+            try (PreparedStatement insert = connection.prepareStatement( "INSERT INTO sessions VALUES ('legacy', ?, ?, ?, ?, ?)" )) {
+                insert.setString( 1, policy );
+                insert.setString( 2, request );
+                insert.setString( 3, STATUS.START.name() );
+                insert.setString( 4, pepuri );
+                insert.setString( 5, myip );
+                insert.executeUpdate();
+            }
+            try (PreparedStatement insert = connection
+                .prepareStatement( "INSERT INTO on_going_attributes VALUES ('attribute', 'role', ?, NULL, NULL, 'legacy')" )) {
+                insert.setString( 1, subject );
+                insert.executeUpdate();
+            }
+        }
+
+        SessionManager upgraded = new SessionManager( buildProperties( uri, 2 ) );
+        upgraded.start();
+        try {
+            Assert.assertEquals( policy, upgraded.getSessionForId( "legacy" ).get().getPolicySet() );
+            Assert.assertEquals( 1, upgraded.getSessionsForSubjectAttributes( subject, "role" ).size() );
+            Assert.assertTrue( upgraded.createEntry( new SessionAttributesBuilder().setSessionId( sessionId )
+                .setPolicySet( policy ).setOriginalRequest( request ).setMyIP( myip ).setPepURI( pepuri )
+                .setStatus( STATUS.TRY.name() ).build() ) );
+            Assert.assertEquals( policy, upgraded.getSessionForId( sessionId ).get().getPolicySet() );
+            Assert.assertTrue( upgraded.deleteEntry( "legacy" ) );
+        } finally {
+            upgraded.stop();
+        }
+        try (Connection connection = DriverManager.getConnection( uri );
+                Statement statement = connection.createStatement()) {
+            Assert.assertTrue( statement.executeQuery(
+                "SELECT name FROM sqlite_master WHERE type = 'index' AND name = 'on_going_attributes_lookup_idx'" ).next() );
+        }
+    }
+
+    @Test
+    public void testSessionGaugesFollowTheEntries() throws Exception {
+        String uri = "jdbc:sqlite:" + folder.newFile( "gauges.db" ).getAbsolutePath();
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        UCSMetrics.setRegistry( registry );
+        try {
+            SessionManager first = new SessionManager( buildProperties( uri, 2 ) );
+            first.start();
+            Assert.assertTrue( createTryEntry( first, "first" ) );
+            Assert.assertTrue( createTryEntry( first, "second" ) );
+            Assert.assertTrue( first.updateEntry( "first", STATUS.START.name() ) );
+            Assert.assertEquals( 1, sessions( registry, STATUS.TRY ), 0 );
+            Assert.assertEquals( 1, sessions( registry, STATUS.START ), 0 );
+            Assert.assertTrue( first.deleteEntry( "second" ) );
+            Assert.assertFalse( first.deleteEntry( "second" ) );
+            Assert.assertEquals( 0, sessions( registry, STATUS.TRY ), 0 );
+            first.stop();
+            Assert.assertNull( registry.find( UCSMetrics.SESSIONS ).gauge() );
+
+            // the counts of the sessions already stored are loaded by the next instance
+            SessionManager next = new SessionManager( buildProperties( uri, 2 ) );
+            next.start();
+            Assert.assertEquals( 1, sessions( registry, STATUS.START ), 0 );
+            Assert.assertTrue( next.updateEntry( "first", STATUS.REVOKE.name() ) );
+            Assert.assertEquals( 0, sessions( registry, STATUS.START ), 0 );
+            Assert.assertEquals( 1, sessions( registry, STATUS.REVOKE ), 0 );
+            next.stop();
+        } finally {
+            UCSMetrics.setRegistry( Metrics.globalRegistry );
+        }
+    }
+
+    private boolean createTryEntry( SessionManager manager, String id ) {
+        return manager.createEntry( new SessionAttributesBuilder().setSessionId( id ).setPolicySet( policy )
+            .setOriginalRequest( request ).setMyIP( myip ).setPepURI( pepuri ).setStatus( STATUS.TRY.name() ).build() );
+    }
+
+    private static double sessions( SimpleMeterRegistry registry, STATUS status ) {
+        return registry.get( UCSMetrics.SESSIONS ).tag( "status", status.name() ).gauge().value();
+    }
+
 }
@@ -0,0 +1,84 @@
+package it.cnr.iit.ucs.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import it.cnr.iit.ucs.properties.components.PdpProperties;
+import it.cnr.iit.utility.errorhandling.Reject;
+
+/**
+ * Access to the sample policies and requests of res/xmls, packed in the
+ * benchmarks jar as resources.
+ *
+ * @author Antonio La Marra, Alessandro Rosetti
+ */
+final class BenchmarkData {
+
+    static final String REQUEST = "request.xml";
+
+    private BenchmarkData() {}
+
+    static String read( String name ) {
+        try (InputStream in = BenchmarkData.class.getClassLoader().getResourceAsStream( name )) {
+            Reject.ifNull( in, "missing resource " + name );
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            for( int read = in.read( buffer ); read >= 0; read = in.read( buffer ) ) {
+                out.write( buffer, 0, read );
+            }
+            return new String( out.toByteArray(), StandardCharsets.UTF_8 );
+        } catch( IOException e ) {
+            throw new IllegalStateException( "Error reading " + name + " : " + e.getMessage() );
+        }
+    }
+
+    /**
+     * @param fastPath
+     *            true to evaluate the supported policies with the compiled evaluator
+     * @return the properties of a PDP without journal, so that the benchmarks
+     *         measure the decision only
+     */
+    static PdpProperties pdpProperties( boolean fastPath ) {
+        return new PdpProperties() {
+            @Override
+            public String getName() {
+                return "it.cnr.iit.ucs.pdp.PolicyDecisionPoint";
+            }
+
+            @Override
+            public Map<String, String> getAdditionalProperties() {
+                return new HashMap<>();
+            }
+
+            @Override
+            public String getId() {
+                return "benchmark";
+            }
+
+            @Override
+            public String getJournalPath() {
+                return null;
+            }
+
+            @Override
+            public String getJournalProtocol() {
+                return null;
+            }
+
+            @Override
+            public Map<String, String> getJournalAdditionalProperties() {
+                return new HashMap<>();
+            }
+
+            @Override
+            public boolean isFastPath() {
+                return fastPath;
+            }
+        };
+    }
+
+}
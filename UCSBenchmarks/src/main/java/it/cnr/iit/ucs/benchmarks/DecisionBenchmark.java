@@ -0,0 +1,69 @@
+package it.cnr.iit.ucs.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.cnr.iit.ucs.constants.STATUS;
+import it.cnr.iit.ucs.pdp.PDPEvaluation;
+import it.cnr.iit.ucs.pdp.PolicyDecisionPoint;
+import it.cnr.iit.xacml.PolicyTags;
+import it.cnr.iit.xacml.wrappers.PolicyWrapper;
+import it.cnr.iit.xacml.wrappers.RequestWrapper;
+
+/**
+ * Single decisions of the PDP on the sample policies, with and without the
+ * condition slicing done by the PDP before the evaluation, evaluated by
+ * Balana or by the compiled fast path.
+ *
+ * @author Antonio La Marra, Alessandro Rosetti
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class DecisionBenchmark {
+
+    @Param( { "policy_1.xml", "policy_2.xml" } )
+    private String policyFile;
+
+    @Param( { "false", "true" } )
+    private boolean fastPath;
+
+    private PolicyDecisionPoint pdp;
+    private PolicyWrapper policy;
+    private PolicyWrapper preCondition;
+    private RequestWrapper request;
+
+    @Setup
+    public void setup() throws Exception {
+        pdp = new PolicyDecisionPoint( BenchmarkData.pdpProperties( fastPath ) );
+        policy = PolicyWrapper.build( BenchmarkData.read( policyFile ) );
+        preCondition = policy.getPolicyForCondition( PolicyTags.getCondition( STATUS.TRY ) );
+        request = RequestWrapper.build( BenchmarkData.read( BenchmarkData.REQUEST ), new StubPIPRegistry() );
+        request.fatten( false );
+    }
+
+    @Benchmark
+    public PDPEvaluation evaluateCondition() {
+        return pdp.evaluate( request, policy, STATUS.TRY );
+    }
+
+    @Benchmark
+    public PDPEvaluation evaluateSlicedPolicy() {
+        return pdp.evaluate( request, preCondition );
+    }
+
+}
@@ -0,0 +1,69 @@
+package it.cnr.iit.ucs.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.cnr.iit.ucs.exceptions.PolicyException;
+import it.cnr.iit.xacml.wrappers.PolicyWrapper;
+
+/**
+ * Parsing of the sample policies and slicing of their conditions.
+ *
+ * @author Antonio La Marra, Alessandro Rosetti
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class PolicyBenchmark {
+
+    @Param( { "policy_1.xml", "policy_2.xml", "policy-watch.xml" } )
+    private String policyFile;
+
+    @Param( { "pre", "ongoing", "post" } )
+    private String condition;
+
+    private String policyText;
+    private PolicyWrapper policy;
+
+    @Setup
+    public void setup() throws PolicyException {
+        policyText = BenchmarkData.read( policyFile );
+        policy = PolicyWrapper.build( policyText );
+    }
+
+    @Benchmark
+    public PolicyWrapper build() throws PolicyException {
+        return PolicyWrapper.build( policyText );
+    }
+
+    /**
+     * The cost paid once by the PAP when a policy is added or loaded.
+     */
+    @Benchmark
+    public PolicyWrapper prepare() throws PolicyException {
+        return PolicyWrapper.build( policyText ).prepare();
+    }
+
+    /**
+     * The slices are kept by the wrapper, this is the cost paid at every evaluation.
+     */
+    @Benchmark
+    public PolicyWrapper getPolicyForCondition() throws PolicyException {
+        return policy.getPolicyForCondition( condition );
+    }
+
+}
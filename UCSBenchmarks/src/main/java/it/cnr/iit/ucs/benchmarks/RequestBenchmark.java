@@ -0,0 +1,74 @@
+package it.cnr.iit.ucs.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.bind.JAXBException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.cnr.iit.ucs.exceptions.RequestException;
+import it.cnr.iit.utility.JAXBUtility;
+import it.cnr.iit.xacml.wrappers.RequestWrapper;
+
+import oasis.names.tc.xacml.core.schema.wd_17.RequestType;
+
+/**
+ * Marshalling, unmarshalling and fattening of the sample request, the
+ * fattening uses stub PIPs answering from memory.
+ *
+ * @author Antonio La Marra, Alessandro Rosetti
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class RequestBenchmark {
+
+    private String requestText;
+    private RequestType requestType;
+    private StubPIPRegistry pipRegistry;
+
+    @Setup
+    public void setup() throws JAXBException {
+        requestText = BenchmarkData.read( BenchmarkData.REQUEST );
+        requestType = RequestWrapper.unmarshalRequestType( requestText );
+        pipRegistry = new StubPIPRegistry();
+    }
+
+    @Benchmark
+    public RequestType unmarshal() throws JAXBException {
+        return JAXBUtility.unmarshalToObject( RequestType.class, requestText );
+    }
+
+    @Benchmark
+    public String marshal() throws JAXBException {
+        return RequestWrapper.marshalRequestType( requestType );
+    }
+
+    @Benchmark
+    public RequestWrapper build() throws RequestException {
+        return RequestWrapper.build( requestText, pipRegistry );
+    }
+
+    /**
+     * Builds and fattens a fresh request, subtract build to get the fattening only.
+     */
+    @Benchmark
+    public RequestWrapper buildAndFatten() throws RequestException {
+        RequestWrapper request = RequestWrapper.build( requestText, pipRegistry );
+        request.fatten( false );
+        return request;
+    }
+
+}
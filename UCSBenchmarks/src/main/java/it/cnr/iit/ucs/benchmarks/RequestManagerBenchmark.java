@@ -0,0 +1,192 @@
+package it.cnr.iit.ucs.benchmarks;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.cnr.iit.ucs.contexthandler.ContextHandlerInterface;
+import it.cnr.iit.ucs.message.Message;
+import it.cnr.iit.ucs.message.attributechange.AttributeChangeMessage;
+import it.cnr.iit.ucs.message.endaccess.EndAccessMessage;
+import it.cnr.iit.ucs.message.endaccess.EndAccessResponseMessage;
+import it.cnr.iit.ucs.message.reevaluation.ReevaluationResponseMessage;
+import it.cnr.iit.ucs.message.startaccess.StartAccessMessage;
+import it.cnr.iit.ucs.message.startaccess.StartAccessResponseMessage;
+import it.cnr.iit.ucs.message.tryaccess.TryAccessMessage;
+import it.cnr.iit.ucs.message.tryaccess.TryAccessResponseMessage;
+import it.cnr.iit.ucs.pep.PEPInterface;
+import it.cnr.iit.ucs.properties.components.RequestManagerProperties;
+import it.cnr.iit.ucs.requestmanager.RequestManager;
+
+/**
+ * Throughput of the request manager execution modes when the handling of a
+ * message blocks, as the PIP file reads, the session database and the PEP
+ * calls do. The context handler is replaced by a stub sleeping for the given
+ * time, so the benchmark measures how many blocked messages each mode keeps
+ * in flight. On JDKs without virtual threads the virtual mode falls back to
+ * the pooled one.
+ *
+ * @author Antonio La Marra, Alessandro Rosetti
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class RequestManagerBenchmark {
+
+    private static final int BATCH = 500;
+    private static final String PEP = "pep";
+
+    @Param( { "pooled", "virtual" } )
+    private String executionMode;
+
+    @Param( { "1", "32", "512" } )
+    private int workers;
+
+    @Param( { "2" } )
+    private long blockingMillis;
+
+    private RequestManager requestManager;
+    private volatile CountDownLatch responses;
+
+    @Setup
+    public void setup() {
+        requestManager = new RequestManager( properties() );
+        requestManager.setContextHandler( new BlockingContextHandler() );
+        requestManager.setPEPMap( Collections.singletonMap( PEP, new CountingPep() ) );
+        requestManager.startMonitoring();
+    }
+
+    @TearDown
+    public void tearDown() {
+        requestManager.stopMonitoring();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation( BATCH )
+    public void tryAccess() throws InterruptedException {
+        responses = new CountDownLatch( BATCH );
+        for( int i = 0; i < BATCH; i++ ) {
+            requestManager.sendMessage( new TryAccessMessage( PEP, "ch" ) );
+        }
+        responses.await();
+    }
+
+    private final class BlockingContextHandler implements ContextHandlerInterface {
+        @Override
+        public TryAccessResponseMessage tryAccess( TryAccessMessage message ) {
+            block();
+            return new TryAccessResponseMessage( "ch", message.getSource(), message.getMessageId() );
+        }
+
+        @Override
+        public StartAccessResponseMessage startAccess( StartAccessMessage message ) {
+            block();
+            return new StartAccessResponseMessage( "ch", message.getSource(), message.getMessageId() );
+        }
+
+        @Override
+        public EndAccessResponseMessage endAccess( EndAccessMessage message ) {
+            block();
+            return new EndAccessResponseMessage( "ch", message.getSource(), message.getMessageId() );
+        }
+
+        @Override
+        public void attributeChanged( AttributeChangeMessage message ) {
+            block();
+        }
+
+        private void block() {
+            try {
+                Thread.sleep( blockingMillis );
+            } catch( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private final class CountingPep implements PEPInterface {
+        @Override
+        public Message onGoingEvaluation( ReevaluationResponseMessage message ) {
+            return null;
+        }
+
+        @Override
+        public String receiveResponse( Message message ) {
+            responses.countDown();
+            return "OK";
+        }
+    }
+
+    private RequestManagerProperties properties() {
+        return new RequestManagerProperties() {
+            @Override
+            public String getName() {
+                return "it.cnr.iit.ucs.requestmanager.RequestManager";
+            }
+
+            @Override
+            public Map<String, String> getAdditionalProperties() {
+                return Collections.emptyMap();
+            }
+
+            @Override
+            public String getId() {
+                return "benchmark";
+            }
+
+            @Override
+            public String getApiRemoteResponse() {
+                return null;
+            }
+
+            @Override
+            public boolean isActive() {
+                return true;
+            }
+
+            @Override
+            public String getLaneWeights() {
+                return null;
+            }
+
+            @Override
+            public String getLaneCapacities() {
+                return null;
+            }
+
+            @Override
+            public String getAdmissionPolicy() {
+                return "block";
+            }
+
+            @Override
+            public String getExecutionMode() {
+                return executionMode;
+            }
+
+            @Override
+            public int getWorkers() {
+                return workers;
+            }
+        };
+    }
+
+}
@@ -0,0 +1,71 @@
+package it.cnr.iit.ucs.benchmarks;
+
+import java.util.List;
+import java.util.Optional;
+
+import it.cnr.iit.ucs.contexthandler.pipregistry.PIPRegistryInterface;
+import it.cnr.iit.ucs.pip.PIPCHInterface;
+import it.cnr.iit.xacml.Attribute;
+import it.cnr.iit.xacml.Category;
+import it.cnr.iit.xacml.DataType;
+
+import oasis.names.tc.xacml.core.schema.wd_17.RequestType;
+
+/**
+ * PIP registry answering from memory with the values the sample policies
+ * permit, so that fattening costs only the request manipulation.
+ *
+ * @author Antonio La Marra, Alessandro Rosetti
+ */
+final class StubPIPRegistry implements PIPRegistryInterface {
+
+    static final String ROLE = "urn:oasis:names:tc:xacml:1.0:subject:role";
+    static final String VIRUS = "urn:oasis:names:tc:xacml:3.0:environment:virus";
+
+    @Override
+    public boolean add( PIPCHInterface pip ) {
+        return false;
+    }
+
+    @Override
+    public boolean remove( PIPCHInterface pip ) {
+        return false;
+    }
+
+    @Override
+    public void removeAll() {
+        // nothing to remove
+    }
+
+    @Override
+    public void unsubscribeAll( List<Attribute> attributes ) {
+        // nothing to unsubscribe
+    }
+
+    @Override
+    public void subscribeAll( RequestType requestType ) {
+        retrieveAll( requestType );
+    }
+
+    @Override
+    public void retrieveAll( RequestType requestType ) {
+        requestType.addAttribute( Category.SUBJECT.toString(), DataType.STRING.toString(), ROLE, "IIT" );
+        requestType.addAttribute( Category.ENVIRONMENT.toString(), DataType.INTEGER.toString(), VIRUS, "0" );
+    }
+
+    @Override
+    public Optional<PIPCHInterface> getByAttributeId( String attributeId ) {
+        return Optional.empty();
+    }
+
+    @Override
+    public Optional<PIPCHInterface> getByAttribute( Attribute attribute ) {
+        return Optional.empty();
+    }
+
+    @Override
+    public boolean hasAttribute( Attribute attribute ) {
+        return ROLE.equals( attribute.getAttributeId() ) || VIRUS.equals( attribute.getAttributeId() );
+    }
+
+}
@@ -21,6 +21,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -28,6 +29,8 @@ import it.cnr.iit.ucs.constants.STATUS;
 import it.cnr.iit.ucs.exceptions.PolicyException;
 import it.cnr.iit.ucs.exceptions.RequestException;
 import it.cnr.iit.ucs.exceptions.StatusException;
+import it.cnr.iit.ucs.jfr.UCSEvent;
+import it.cnr.iit.ucs.jfr.UCSEvents;
 import it.cnr.iit.ucs.message.attributechange.AttributeChangeMessage;
 import it.cnr.iit.ucs.message.endaccess.EndAccessMessage;
 import it.cnr.iit.ucs.message.endaccess.EndAccessResponseMessage;
@@ -36,11 +39,13 @@ import it.cnr.iit.ucs.message.startaccess.StartAccessMessage;
 import it.cnr.iit.ucs.message.startaccess.StartAccessResponseMessage;
 import it.cnr.iit.ucs.message.tryaccess.TryAccessMessage;
 import it.cnr.iit.ucs.message.tryaccess.TryAccessResponseMessage;
+import it.cnr.iit.ucs.metrics.UCSMetrics;
 import it.cnr.iit.ucs.pdp.PDPEvaluation;
 import it.cnr.iit.ucs.properties.components.ContextHandlerProperties;
 import it.cnr.iit.ucs.sessionmanager.OnGoingAttributesInterface;
 import it.cnr.iit.ucs.sessionmanager.SessionAttributesBuilder;
 import it.cnr.iit.ucs.sessionmanager.SessionInterface;
+import it.cnr.iit.utility.LruCache;
 import it.cnr.iit.utility.errorhandling.Reject;
 import it.cnr.iit.xacml.Attribute;
 import it.cnr.iit.xacml.Category;
@@ -48,6 +53,8 @@ import it.cnr.iit.xacml.PolicyTags;
 import it.cnr.iit.xacml.wrappers.PolicyWrapper;
 import it.cnr.iit.xacml.wrappers.RequestWrapper;
 
+import io.micrometer.core.instrument.Timer;
+
 import oasis.names.tc.xacml.core.schema.wd_17.DecisionType;
 
 /**
@@ -63,6 +70,19 @@ public final class ContextHandler extends AbstractContextHandler {
     @Deprecated
     public static final String PEP_ID_SEPARATOR = "#";
 
+    private static final int POLICY_CACHE_CAPACITY = 64;
+    private static final int FATTENED_REQUEST_CACHE_CAPACITY = 10000;
+
+    // sessions share a handful of policies, parsing them once is enough
+    private final LruCache<String, PolicyWrapper> policyCache = new LruCache<>( POLICY_CACHE_CAPACITY );
+    // an attribute change only replaces the changed attribute in the last fattened request of the session,
+    // the least recently used sessions are fattened from scratch at their next reevaluation
+    private final LruCache<String, String> fattenedRequests = new LruCache<>( FATTENED_REQUEST_CACHE_CAPACITY );
+    // operations on the same session do not interleave, whatever the number of request manager workers
+    private final SessionLocks sessionLocks = new SessionLocks();
+    // the check of the attributes still needed by other sessions and their unsubscription do not interleave
+    private final ReentrantLock subscriptions = new ReentrantLock();
+
     public ContextHandler( ContextHandlerProperties properties ) {
         super( properties );
     }
@@ -72,26 +92,44 @@ public final class ContextHandler extends AbstractContextHandler {
      */
     @Override
     public TryAccessResponseMessage tryAccess( TryAccessMessage message ) throws PolicyException, RequestException {
+        Timer.Sample sample = UCSMetrics.start();
+        UCSEvent event = UCSEvents.contextHandler( UCSMetrics.TRYACCESS );
+        try {
+            TryAccessResponseMessage response = doTryAccess( message );
+            event.setSessionId( response.getSessionId() ).setPolicyId( message.getPolicyId() )
+                .setDecision( resultOf( response.getEvaluation() ) );
+            return response;
+        } finally {
+            event.end();
+            UCSMetrics.stopOperation( sample, UCSMetrics.TRYACCESS );
+        }
+    }
+
+    private TryAccessResponseMessage doTryAccess( TryAccessMessage message ) throws PolicyException, RequestException {
         log.log( Level.INFO, "TryAccess request : \n{0}", new Object[] { message.getRequest() } );
         Reject.ifNull( message, "TryAccessMessage is null" );
 
         PolicyWrapper policy = PolicyWrapper.build( getPap(), message );
+        String sessionId = generateSessionId();
         RequestWrapper request = RequestWrapper.build( message.getRequest(), getPipRegistry() );
-        request.fatten( false );
+        request.setSessionId( sessionId );
+        UCSMetrics.timePhase( UCSMetrics.TRYACCESS, UCSMetrics.FATTEN, () -> request.fatten( false ) );
         log.info( "TryAccess enriched request contents : \n" + request.getRequest() );
 
-        PDPEvaluation evaluation = getPdp().evaluate( request, policy, STATUS.TRY );
+        PDPEvaluation evaluation = UCSMetrics.timePhase( UCSMetrics.TRYACCESS, UCSMetrics.PDP,
+            () -> getPdp().evaluate( request, policy, STATUS.TRY ) );
         Reject.ifNull( evaluation );
         log.log( Level.INFO, "TryAccess evaluated at {0} pdp response : {1}",
             new Object[] { System.currentTimeMillis(), evaluation.getResult() } );
 
-        String sessionId = generateSessionId();
-        getObligationManager().translateObligations( evaluation, sessionId, STATUS.TRY );
+        UCSMetrics.timePhase( UCSMetrics.TRYACCESS, UCSMetrics.OBLIGATIONS,
+            () -> getObligationManager().translateObligations( evaluation, sessionId, STATUS.TRY ) );
 
         if( evaluation.isDecision( DecisionType.PERMIT ) ) {
             // If access decision is PERMIT create entry in SessionManager
             RequestWrapper origRequest = RequestWrapper.build( message.getRequest(), getPipRegistry() );
-            createSession( message, origRequest, policy, sessionId );
+            UCSMetrics.timePhase( UCSMetrics.TRYACCESS, UCSMetrics.SESSION_STORE,
+                () -> createSession( message, origRequest, policy, sessionId ) );
         }
 
         return buildTryAccessResponse( message, evaluation, sessionId );
@@ -175,9 +213,32 @@ public final class ContextHandler extends AbstractContextHandler {
     @Override
     public StartAccessResponseMessage startAccess( StartAccessMessage message )
             throws StatusException, PolicyException, RequestException {
+        Reject.ifNull( message, "StartAccessMessage is null" );
+        Timer.Sample sample = UCSMetrics.start();
+        UCSEvent event = UCSEvents.contextHandler( UCSMetrics.STARTACCESS );
+        try {
+            StartAccessResponseMessage response;
+            ReentrantLock lock = sessionLocks.get( message.getSessionId() );
+            lock.lock();
+            try {
+                response = doStartAccess( message );
+            } finally {
+                lock.unlock();
+            }
+            event.setSessionId( message.getSessionId() ).setDecision( resultOf( response.getEvaluation() ) );
+            return response;
+        } finally {
+            event.end();
+            UCSMetrics.stopOperation( sample, UCSMetrics.STARTACCESS );
+        }
+    }
+
+    private StartAccessResponseMessage doStartAccess( StartAccessMessage message )
+            throws StatusException, PolicyException, RequestException {
         log.log( Level.INFO, "StartAccess begin scheduling at {0}", System.currentTimeMillis() );
 
-        Optional<SessionInterface> optSession = getSessionManager().getSessionForId( message.getSessionId() );
+        Optional<SessionInterface> optSession = UCSMetrics.timePhase( UCSMetrics.STARTACCESS, UCSMetrics.SESSION_STORE,
+            () -> getSessionManager().getSessionForId( message.getSessionId() ) );
         Reject.ifAbsent( optSession, "StartAccess: no session for id " + message.getSessionId() );
         SessionInterface session = optSession.get(); // NOSONAR
 
@@ -187,21 +248,26 @@ public final class ContextHandler extends AbstractContextHandler {
             throw new StatusException( "StartAccess: tryaccess must be performed yet for session " + message.getSessionId() );
         }
 
-        PolicyWrapper policy = PolicyWrapper.build( session.getPolicySet() );
+        PolicyWrapper policy = getPolicy( session );
         RequestWrapper request = RequestWrapper.build( session.getOriginalRequest(), getPipRegistry() );
-        request.fatten( true );
+        request.setSessionId( session.getId() );
+        UCSMetrics.timePhase( UCSMetrics.STARTACCESS, UCSMetrics.FATTEN, () -> request.fatten( true ) );
 
-        PDPEvaluation evaluation = getPdp().evaluate( request, policy, STATUS.START );
+        PDPEvaluation evaluation = UCSMetrics.timePhase( UCSMetrics.STARTACCESS, UCSMetrics.PDP,
+            () -> getPdp().evaluate( request, policy, STATUS.START ) );
         Reject.ifNull( evaluation );
         log.log( Level.INFO, "StartAccess evaluated at {0} pdp response : {1}",
             new Object[] { System.currentTimeMillis(), evaluation.getResult() } );
 
-        getObligationManager().translateObligations( evaluation, message.getSessionId(), STATUS.TRY );
+        UCSMetrics.timePhase( UCSMetrics.STARTACCESS, UCSMetrics.OBLIGATIONS,
+            () -> getObligationManager().translateObligations( evaluation, message.getSessionId(), STATUS.TRY ) );
 
         if( evaluation.isDecision( DecisionType.PERMIT ) ) {
-            if( !getSessionManager().updateEntry( message.getSessionId(), STATUS.START.name() ) ) {
+            if( !UCSMetrics.timePhase( UCSMetrics.STARTACCESS, UCSMetrics.SESSION_STORE,
+                () -> getSessionManager().updateEntry( message.getSessionId(), STATUS.START.name() ) ) ) {
                 log.log( Level.SEVERE, "StartAccess error, sessionId {0} status update failed", message.getSessionId() );
             }
+            fattenedRequests.put( session.getId(), request.getRequest() );
         } else {
             List<Attribute> attributes = policy.getAttributesForCondition( PolicyTags.getCondition( STATUS.START ) );
             if( revoke( session, attributes ) && !getSessionManager().deleteEntry( message.getSessionId() ) ) {
@@ -224,17 +290,24 @@ public final class ContextHandler extends AbstractContextHandler {
      * This is the code for the revoke. A revoke is always triggered by and
      * EndAccess, in this function, all the attributes are un-subscribed.
      */
-    private synchronized boolean revoke( SessionInterface session, List<Attribute> attributes ) {
+    private boolean revoke( SessionInterface session, List<Attribute> attributes ) {
         log.log( Level.INFO, "Revoke begins at {0}", System.currentTimeMillis() );
+        fattenedRequests.remove( session.getId() );
 
-        boolean otherSessions = attributesToUnsubscribe( session.getId(), (ArrayList<Attribute>) attributes );
-        if( !otherSessions ) {
-            getPipRegistry().unsubscribeAll( attributes );
-        }
+        // two sessions sharing an attribute and revoked together must not both leave it subscribed
+        subscriptions.lock();
+        try {
+            boolean otherSessions = attributesToUnsubscribe( session.getId(), (ArrayList<Attribute>) attributes );
+            if( !otherSessions ) {
+                getPipRegistry().unsubscribeAll( attributes );
+            }
 
-        if( !getSessionManager().deleteEntry( session.getId() ) ) {
-            log.log( Level.SEVERE, "EndAccess: errors during entry deletion for sessionId {0}", session.getId() );
-            return false;
+            if( !getSessionManager().deleteEntry( session.getId() ) ) {
+                log.log( Level.SEVERE, "EndAccess: errors during entry deletion for sessionId {0}", session.getId() );
+                return false;
+            }
+        } finally {
+            subscriptions.unlock();
         }
 
         log.log( Level.INFO, "Revoke ends at {0}", System.currentTimeMillis() );
@@ -341,10 +414,31 @@ public final class ContextHandler extends AbstractContextHandler {
      */
     @Override
     public EndAccessResponseMessage endAccess( EndAccessMessage message ) throws StatusException, RequestException, PolicyException {
-        log.log( Level.INFO, "EndAccess begins at {0}", System.currentTimeMillis() );
         Reject.ifNull( message, "EndAccessMessage is null" );
+        Timer.Sample sample = UCSMetrics.start();
+        UCSEvent event = UCSEvents.contextHandler( UCSMetrics.ENDACCESS );
+        try {
+            EndAccessResponseMessage response;
+            ReentrantLock lock = sessionLocks.get( message.getSessionId() );
+            lock.lock();
+            try {
+                response = doEndAccess( message );
+            } finally {
+                lock.unlock();
+            }
+            event.setSessionId( message.getSessionId() ).setDecision( resultOf( response.getEvaluation() ) );
+            return response;
+        } finally {
+            event.end();
+            UCSMetrics.stopOperation( sample, UCSMetrics.ENDACCESS );
+        }
+    }
+
+    private EndAccessResponseMessage doEndAccess( EndAccessMessage message ) throws StatusException, RequestException, PolicyException {
+        log.log( Level.INFO, "EndAccess begins at {0}", System.currentTimeMillis() );
 
-        Optional<SessionInterface> optSession = getSessionManager().getSessionForId( message.getSessionId() );
+        Optional<SessionInterface> optSession = UCSMetrics.timePhase( UCSMetrics.ENDACCESS, UCSMetrics.SESSION_STORE,
+            () -> getSessionManager().getSessionForId( message.getSessionId() ) );
         Reject.ifAbsent( optSession, "EndAccess: no session for id " + message.getSessionId() );
         SessionInterface session = optSession.get(); // NOSONAR
 
@@ -357,19 +451,23 @@ public final class ContextHandler extends AbstractContextHandler {
 
         log.log( Level.INFO, "EndAccess evaluation starts at {0}", System.currentTimeMillis() );
 
-        PolicyWrapper policy = PolicyWrapper.build( session.getPolicySet() );
+        PolicyWrapper policy = getPolicy( session );
         RequestWrapper request = RequestWrapper.build( session.getOriginalRequest(), getPipRegistry() );
-        request.fatten( false );
+        request.setSessionId( session.getId() );
+        UCSMetrics.timePhase( UCSMetrics.ENDACCESS, UCSMetrics.FATTEN, () -> request.fatten( false ) );
 
-        PDPEvaluation evaluation = getPdp().evaluate( request, policy, STATUS.END );
+        PDPEvaluation evaluation = UCSMetrics.timePhase( UCSMetrics.ENDACCESS, UCSMetrics.PDP,
+            () -> getPdp().evaluate( request, policy, STATUS.END ) );
         Reject.ifNull( evaluation );
         log.log( Level.INFO, "EndAccess evaluated at {0} pdp response : {1}",
             new Object[] { System.currentTimeMillis(), evaluation.getResult() } );
 
-        getObligationManager().translateObligations( evaluation, message.getSessionId(), STATUS.END );
+        UCSMetrics.timePhase( UCSMetrics.ENDACCESS, UCSMetrics.OBLIGATIONS,
+            () -> getObligationManager().translateObligations( evaluation, message.getSessionId(), STATUS.END ) );
 
         // access must be revoked
-        if( revoke( session, policy.getAttributesForCondition( PolicyTags.getCondition( STATUS.END ) ) ) ) {
+        if( UCSMetrics.timePhase( UCSMetrics.ENDACCESS, UCSMetrics.SESSION_STORE,
+            () -> revoke( session, policy.getAttributesForCondition( PolicyTags.getCondition( STATUS.END ) ) ) ) ) {
             log.log( Level.INFO, "EndAccess evaluation with revoke ends at {0}", System.currentTimeMillis() );
         }
 
@@ -387,13 +485,17 @@ public final class ContextHandler extends AbstractContextHandler {
      * This is the function where the effective reevaluation takes place.
      */
     public boolean reevaluateSessions( Attribute attribute ) {
+        return reevaluateSessions( attribute, null );
+    }
+
+    private boolean reevaluateSessions( Attribute attribute, AttributeChangeMessage cause ) {
         try {
             log.info( "ReevaluateSessions for  attributeId : " + attribute.getAttributeId() );
             List<SessionInterface> sessionList = getSessionListForCategory( attribute.getCategory(), attribute.getAttributeId(),
                 attribute.getAdditionalInformations() );
             if( sessionList != null ) {
                 for( SessionInterface session : sessionList ) {
-                    reevaluate( session );
+                    reevaluate( session, cause != null ? attribute : null, cause );
                 }
             }
             return true;
@@ -403,16 +505,67 @@ public final class ContextHandler extends AbstractContextHandler {
         return false;
     }
 
-    public synchronized void reevaluate( SessionInterface session ) throws PolicyException, RequestException {
+    public void reevaluate( SessionInterface session ) throws PolicyException, RequestException {
+        reevaluate( session, null, null );
+    }
+
+    /**
+     * @param changed
+     *            the attribute with its new value, null to fatten the request from scratch
+     * @param cause
+     *            the attribute change that triggered the reevaluation, may be null
+     */
+    private void reevaluate( SessionInterface session, Attribute changed, AttributeChangeMessage cause )
+            throws PolicyException, RequestException {
+        Timer.Sample sample = UCSMetrics.start();
+        UCSEvent event = UCSEvents.contextHandler( UCSMetrics.REEVALUATE ).setSessionId( session.getId() );
+        try {
+            ReentrantLock lock = sessionLocks.get( session.getId() );
+            lock.lock();
+            try {
+                Optional<SessionInterface> current = getOnGoingSession( session.getId() );
+                if( current.isPresent() ) {
+                    event.setDecision( resultOf( doReevaluate( current.get(), changed, cause ) ) );
+                }
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            event.end();
+            UCSMetrics.stopOperation( sample, UCSMetrics.REEVALUATE );
+        }
+    }
+
+    /**
+     * Reads the session again once its lock is held, the one the reevaluation
+     * was scheduled for may have been ended or changed status in the meantime.
+     *
+     * @return the session if it is still started or revoked
+     */
+    private Optional<SessionInterface> getOnGoingSession( String sessionId ) {
+        Optional<SessionInterface> session = UCSMetrics.timePhase( UCSMetrics.REEVALUATE, UCSMetrics.SESSION_STORE,
+            () -> getSessionManager().getSessionForId( sessionId ) );
+        if( !session.isPresent()
+                || !( session.get().isStatus( STATUS.START.name() ) || session.get().isStatus( STATUS.REVOKE.name() ) ) ) {
+            log.log( Level.FINE, "Reevaluation skipped, session {0} is not on going anymore", sessionId );
+            return Optional.empty();
+        }
+        return session;
+    }
+
+    private PDPEvaluation doReevaluate( SessionInterface session, Attribute changed, AttributeChangeMessage cause )
+            throws PolicyException, RequestException {
         log.log( Level.INFO, "Reevaluation begins at {0}", System.currentTimeMillis() );
 
-        PolicyWrapper policy = PolicyWrapper.build( session.getPolicySet() );
-        RequestWrapper request = RequestWrapper.build( session.getOriginalRequest(), getPipRegistry() );
-        request.fatten( false );
+        PolicyWrapper policy = getPolicy( session );
+        RequestWrapper request = fattenForReevaluation( session, changed );
+        fattenedRequests.put( session.getId(), request.getRequest() );
 
-        PDPEvaluation evaluation = getPdp().evaluate( request, policy, STATUS.START );
+        PDPEvaluation evaluation = UCSMetrics.timePhase( UCSMetrics.REEVALUATE, UCSMetrics.PDP,
+            () -> getPdp().evaluate( request, policy, STATUS.START ) );
         Reject.ifNull( evaluation );
-        getObligationManager().translateObligations( evaluation, session.getId(), STATUS.END );
+        UCSMetrics.timePhase( UCSMetrics.REEVALUATE, UCSMetrics.OBLIGATIONS,
+            () -> getObligationManager().translateObligations( evaluation, session.getId(), STATUS.END ) );
 
         log.log( Level.INFO, "Reevaluate evaluated at {0} pdp response : {1}",
             new Object[] { System.currentTimeMillis(), evaluation.getResult() } );
@@ -420,20 +573,67 @@ public final class ContextHandler extends AbstractContextHandler {
         if( session.isStatus( STATUS.START.name() )
                 && evaluation.isDecision( DecisionType.DENY ) ) {
             log.log( Level.INFO, "Revoke at {0}", System.currentTimeMillis() );
-            getSessionManager().updateEntry( session.getId(), STATUS.REVOKE.name() );
+            UCSMetrics.timePhase( UCSMetrics.REEVALUATE, UCSMetrics.SESSION_STORE,
+                () -> getSessionManager().updateEntry( session.getId(), STATUS.REVOKE.name() ) );
 
         } else if( session.isStatus( STATUS.REVOKE.name() )
                 && evaluation.isDecision( DecisionType.PERMIT ) ) {
             log.log( Level.INFO, "Resume at {0}", System.currentTimeMillis() );
-            getSessionManager().updateEntry( session.getId(), STATUS.START.name() );
+            UCSMetrics.timePhase( UCSMetrics.REEVALUATE, UCSMetrics.SESSION_STORE,
+                () -> getSessionManager().updateEntry( session.getId(), STATUS.START.name() ) );
         } else {
             log.log( Level.INFO, "Reevaluation ends without change at {0}", System.currentTimeMillis() );
-            return;
+            return evaluation;
         }
 
         ReevaluationResponseMessage response = buildReevaluationResponse( session, evaluation );
+        response.setReevaluatedAt( System.currentTimeMillis() );
+        if( cause != null ) {
+            response.setAttributeChange( cause );
+            UCSMetrics.recordRevocation( cause.getPip(), UCSMetrics.REEVALUATED, evaluation.getResult(), cause.getChangedAt() );
+        }
         getRequestManager().sendReevaluation( response );
         log.log( Level.INFO, "Reevaluation ends changing status at {0}", System.currentTimeMillis() );
+        return evaluation;
+    }
+
+    /**
+     * Replaces the changed attribute in the last fattened request of the
+     * session, the request is fattened from scratch asking every PIP when
+     * there is no such request or it does not contain the attribute.
+     */
+    private RequestWrapper fattenForReevaluation( SessionInterface session, Attribute changed ) throws RequestException {
+        String fattened = changed != null ? fattenedRequests.get( session.getId() ) : null;
+        if( fattened != null ) {
+            RequestWrapper request = RequestWrapper.build( fattened, getPipRegistry() );
+            request.setSessionId( session.getId() );
+            if( UCSMetrics.timePhase( UCSMetrics.REEVALUATE, UCSMetrics.FATTEN,
+                () -> request.replaceAttribute( changed ) && request.update() ) ) {
+                return request;
+            }
+            log.log( Level.FINE, "Attribute {0} not in the fattened request of session {1}",
+                new Object[] { changed.getAttributeId(), session.getId() } );
+        }
+        RequestWrapper request = RequestWrapper.build( session.getOriginalRequest(), getPipRegistry() );
+        request.setSessionId( session.getId() );
+        UCSMetrics.timePhase( UCSMetrics.REEVALUATE, UCSMetrics.FATTEN, () -> request.fatten( false ) );
+        return request;
+    }
+
+    /**
+     * @return the parsed policy of the session, it is shared with the other
+     *         sessions hence it must not be modified
+     */
+    private PolicyWrapper getPolicy( SessionInterface session ) throws PolicyException {
+        PolicyWrapper policy = policyCache.get( session.getPolicySet() );
+        if( policy != null ) {
+            return policy;
+        }
+        return policyCache.putIfAbsent( session.getPolicySet(), PolicyWrapper.build( session.getPolicySet() ) );
+    }
+
+    private static String resultOf( PDPEvaluation evaluation ) {
+        return evaluation != null ? evaluation.getResult() : null;
     }
 
     private ReevaluationResponseMessage buildReevaluationResponse( SessionInterface session, PDPEvaluation evaluation ) {
@@ -449,7 +649,7 @@ public final class ContextHandler extends AbstractContextHandler {
     public void attributeChanged( AttributeChangeMessage message ) {
         log.log( Level.INFO, "Attribute changed received at {0}", System.currentTimeMillis() );
         for( Attribute attribute : message.getAttributes() ) {
-            if( !reevaluateSessions( attribute ) ) {
+            if( !reevaluateSessions( attribute, message ) ) {
                 log.log( Level.SEVERE, "Error handling attribute changes" );
             }
         }
@@ -0,0 +1,61 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.ucs.contexthandler;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+import it.cnr.iit.utility.errorhandling.Reject;
+
+/**
+ * The locks serializing the operations on the same session when the request
+ * manager hands the messages to more than one worker. A startAccess, an
+ * endAccess or a reevaluation reads the session from the session manager only
+ * once it holds the lock of the session, so the status it checks is still the
+ * status of the session when it updates it.
+ * The sessions are spread over a fixed number of locks, two sessions may share
+ * a lock but the operations on different locks run in parallel. The locks are
+ * not monitors, so a virtual thread waiting for one or holding one while it
+ * waits on a PIP or on the database does not pin its carrier thread.
+ *
+ * @author Antonio La Marra, Alessandro Rosetti
+ */
+final class SessionLocks {
+
+    static final int DEFAULT_STRIPES = 64;
+
+    private final ReentrantLock[] locks;
+
+    SessionLocks() {
+        this( DEFAULT_STRIPES );
+    }
+
+    SessionLocks( int stripes ) {
+        Reject.ifTrue( stripes <= 0, "stripes must be positive" );
+        locks = new ReentrantLock[stripes];
+        for( int i = 0; i < stripes; i++ ) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * @return the lock of the session
+     */
+    ReentrantLock get( String sessionId ) {
+        Reject.ifNull( sessionId, "Null session id" );
+        return locks[Math.floorMod( sessionId.hashCode(), locks.length )];
+    }
+
+}
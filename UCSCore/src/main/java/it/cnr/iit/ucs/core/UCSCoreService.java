@@ -17,11 +17,15 @@ package it.cnr.iit.ucs.core;
 
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import it.cnr.iit.ucs.contexthandler.AbstractContextHandler;
 import it.cnr.iit.ucs.message.endaccess.EndAccessMessage;
+import it.cnr.iit.ucs.message.endaccess.EndAccessResponseMessage;
 import it.cnr.iit.ucs.message.startaccess.StartAccessMessage;
+import it.cnr.iit.ucs.message.startaccess.StartAccessResponseMessage;
 import it.cnr.iit.ucs.message.tryaccess.TryAccessMessage;
+import it.cnr.iit.ucs.message.tryaccess.TryAccessResponseMessage;
 import it.cnr.iit.ucs.obligationmanager.ObligationManagerInterface;
 import it.cnr.iit.ucs.pap.PAPInterface;
 import it.cnr.iit.ucs.pdp.PDPInterface;
@@ -29,6 +33,7 @@ import it.cnr.iit.ucs.pep.PEPInterface;
 import it.cnr.iit.ucs.pip.PIPBase;
 import it.cnr.iit.ucs.requestmanager.AbstractRequestManager;
 import it.cnr.iit.ucs.sessionmanager.SessionManagerInterface;
+import it.cnr.iit.ucs.ucs.UCSAsyncInterface;
 import it.cnr.iit.ucs.ucs.UCSInterface;
 
 /**
@@ -36,7 +41,7 @@ import it.cnr.iit.ucs.ucs.UCSInterface;
  *
  * @author Antonio La Marra, Alessandro Rosetti
  */
-public class UCSCoreService implements UCSInterface {
+public class UCSCoreService implements UCSInterface, UCSAsyncInterface {
 
     AbstractContextHandler contextHandler;
     AbstractRequestManager requestManager;
@@ -62,4 +67,19 @@ public class UCSCoreService implements UCSInterface {
         return requestManager.sendMessage( endAccessMessage );
     }
 
+    @Override
+    public CompletableFuture<TryAccessResponseMessage> tryAccessAsync( TryAccessMessage tryAccessMessage ) {
+        return requestManager.sendMessageAsync( tryAccessMessage ).thenApply( TryAccessResponseMessage.class::cast );
+    }
+
+    @Override
+    public CompletableFuture<StartAccessResponseMessage> startAccessAsync( StartAccessMessage startAccessMessage ) {
+        return requestManager.sendMessageAsync( startAccessMessage ).thenApply( StartAccessResponseMessage.class::cast );
+    }
+
+    @Override
+    public CompletableFuture<EndAccessResponseMessage> endAccessAsync( EndAccessMessage endAccessMessage ) {
+        return requestManager.sendMessageAsync( endAccessMessage ).thenApply( EndAccessResponseMessage.class::cast );
+    }
+
 }
@@ -16,20 +16,35 @@
 package it.cnr.iit.ucs.requestmanager;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import it.cnr.iit.ucs.constants.PURPOSE;
+import it.cnr.iit.ucs.jfr.UCSEvent;
+import it.cnr.iit.ucs.jfr.UCSEvents;
+import it.cnr.iit.ucs.message.IdentifiedMessage;
 import it.cnr.iit.ucs.message.Message;
 import it.cnr.iit.ucs.message.attributechange.AttributeChangeMessage;
 import it.cnr.iit.ucs.message.endaccess.EndAccessMessage;
 import it.cnr.iit.ucs.message.reevaluation.ReevaluationResponseMessage;
 import it.cnr.iit.ucs.message.startaccess.StartAccessMessage;
 import it.cnr.iit.ucs.message.tryaccess.TryAccessMessage;
+import it.cnr.iit.ucs.metrics.UCSMetrics;
+import it.cnr.iit.ucs.pep.PEPInterface;
 import it.cnr.iit.ucs.properties.components.RequestManagerProperties;
+import it.cnr.iit.ucs.requestmanager.MessageLanes.Lane;
 import it.cnr.iit.utility.errorhandling.Reject;
 
+import io.micrometer.core.instrument.Gauge;
+
 /**
  * All the requests coming to the context handler have to reach the request
  * manager first that will choose how to handle them.
@@ -40,13 +55,38 @@ public class RequestManager extends AbstractRequestManager {
 
     private static final Logger log = Logger.getLogger( RequestManager.class.getName() );
     private boolean active = false;
+    private final AdmissionPolicy admissionPolicy;
 
     private ExecutorService inquirers;
+    // null when the messages are handled one at a time by the inquirer itself
+    private ExecutorService workers;
+    // hands the messages to the workers keeping the order of the messages of a session
+    private OrderedExecutor orderedWorkers;
+    private Semaphore inFlight;
+    // an inactive request manager handles one message at a time on the thread of the caller
+    private final ReentrantLock inactiveLock = new ReentrantLock();
+
+    // queue wait events of the queued messages, tracked only while a recording collects them
+    private final ConcurrentMap<String, UCSEvent> queueWaits = new ConcurrentHashMap<>();
+    // responses awaited by the callers of sendMessageAsync, by request message id
+    private final ConcurrentMap<String, CompletableFuture<Message>> pendingResponses = new ConcurrentHashMap<>();
+    // completes the awaited responses, so that the stages of the callers do not run on the inquirer or on a worker
+    private final ExecutorService completions = Executors.newCachedThreadPool( runnable -> {
+        Thread thread = new Thread( runnable, "ucs-request-manager-responses" );
+        thread.setDaemon( true );
+        return thread;
+    } );
 
     public RequestManager( RequestManagerProperties properties ) {
         super( properties );
         this.active = properties.isActive();
+        this.admissionPolicy = AdmissionPolicy.of( properties.getAdmissionPolicy() );
         initializeInquirers();
+        initializeWorkers( ExecutionMode.of( properties.getExecutionMode() ), properties.getWorkers() );
+        for( Lane lane : Lane.values() ) {
+            Gauge.builder( UCSMetrics.QUEUE, getQueueOutput(), lanes -> lanes.size( lane ) ).tag( "queue", "output" )
+                .tag( "lane", lane.getName() ).register( UCSMetrics.getRegistry() );
+        }
     }
 
     /**
@@ -62,39 +102,137 @@ public class RequestManager extends AbstractRequestManager {
         }
     }
 
+    /**
+     * With more than one worker, or in the virtual mode, the inquirer hands the
+     * messages to the workers. A worker permit is taken before a message leaves
+     * its lane, so the messages wait in the lanes, where the weights and the
+     * admission policy apply, rather than in the executor. A message of a
+     * session waits for the previous one of the same session to be handled,
+     * so that they are handled in the order they left the lanes, and the
+     * attribute changes of a PIP are handled in the order the PIP sent them.
+     */
+    private void initializeWorkers( ExecutionMode mode, int size ) {
+        Reject.ifFalse( size > 0, "the request manager needs at least one worker" );
+        if( mode == ExecutionMode.VIRTUAL || size > 1 ) {
+            workers = mode.newExecutor( size, "ucs-request-manager" );
+            orderedWorkers = new OrderedExecutor( workers );
+            inFlight = new Semaphore( size );
+            log.log( Level.INFO, "RequestManager handling up to {0} messages on {1} threads",
+                new Object[] { size, mode } );
+        }
+    }
+
     @Override
-    public synchronized void sendReevaluation( ReevaluationResponseMessage reevaluation ) {
+    public void sendReevaluation( ReevaluationResponseMessage reevaluation ) {
         Reject.ifNull( reevaluation, "Null message" );
         log.info( "Sending on going reevaluation." );
-        getPEPMap().get( ( reevaluation ).getPepId() )
-            .onGoingEvaluation( reevaluation );
+        PEPInterface pep = getPEPMap().get( reevaluation.getPepId() );
+        if( pep == null ) {
+            log.log( Level.WARNING, "No PEP {0} for the reevaluation of session {1}",
+                new Object[] { reevaluation.getPepId(), reevaluation.getSessionId() } );
+            return;
+        }
+        pep.onGoingEvaluation( reevaluation );
+        if( reevaluation.getEvaluation() != null ) {
+            UCSMetrics.recordRevocation( reevaluation.getPip(), UCSMetrics.NOTIFIED, reevaluation.getEvaluation().getResult(),
+                reevaluation.getAttributeChangedAt() );
+        }
     }
 
     /**
      * Handles the case of a message received from outside
      * Once a message coming from outside is received from the request manager, it
-     * puts it in the priority queue of messages
+     * puts it in the lane of its operation. If the lane is full the admission
+     * policy either waits for space, rejects the message or drops the oldest
+     * tryAccess. The wait does not hold the request manager lock, so a full lane
+     * does not block the messages for the other lanes. Attribute changes are
+     * never refused, the PIP waits for space instead of losing the change.
+     *
+     * @throws RequestRejectedException
+     *           if the lane of the message is full and the message is refused
      */
     @Override
-    public synchronized boolean sendMessage( Message message ) {
+    public boolean sendMessage( Message message ) {
         Reject.ifNull( message, "Null message" );
         try {
             if( !active ) {
-                handleMessage( message );
+                inactiveLock.lock();
+                try {
+                    handleMessage( message );
+                } finally {
+                    inactiveLock.unlock();
+                }
             } else {
-                getQueueOutput().put( message );
+                UCSEvent queueWait = UCSEvents.queueWait( Lane.of( message ).getName(),
+                    String.valueOf( message.getPurpose() ) );
+                if( queueWait.isRecording() ) {
+                    queueWaits.put( message.getMessageId(), queueWait );
+                }
+                admit( message );
             }
             return true;
+        } catch( RequestRejectedException e ) {
+            queueWaits.remove( message.getMessageId() );
+            throw e;
+        } catch( InterruptedException e ) {
+            log.log( Level.WARNING, "Interrupted while queueing message {0}", message.getMessageId() );
+            queueWaits.remove( message.getMessageId() );
+            Thread.currentThread().interrupt();
+            return false;
         } catch( Exception e ) {
             log.severe( e.getLocalizedMessage() );
-            Thread.currentThread().interrupt();
             return false;
         }
     }
 
+    /**
+     * Handles a message like sendMessage, but the response completes the
+     * returned future instead of being sent to the PEP.
+     */
+    @Override
+    public CompletableFuture<Message> sendMessageAsync( Message message ) {
+        Reject.ifNull( message, "Null message" );
+        CompletableFuture<Message> response = new CompletableFuture<>();
+        pendingResponses.put( message.getMessageId(), response );
+        try {
+            if( !sendMessage( message ) ) {
+                response.completeExceptionally( new IllegalStateException( "Error queueing message " + message.getMessageId() ) );
+            }
+        } catch( RequestRejectedException e ) {
+            response.completeExceptionally( e );
+        }
+        if( response.isDone() ) {
+            pendingResponses.remove( message.getMessageId() );
+        }
+        return response;
+    }
+
+    private void admit( Message message ) throws InterruptedException {
+        Lane lane = Lane.of( message );
+        if( admissionPolicy == AdmissionPolicy.BLOCK || message instanceof AttributeChangeMessage ) {
+            getQueueOutput().put( message );
+        } else if( admissionPolicy == AdmissionPolicy.SHED_OLDEST && lane == Lane.TRYACCESS ) {
+            Message dropped = getQueueOutput().offerDroppingOldest( message );
+            if( dropped != null ) {
+                queueWaits.remove( dropped.getMessageId() );
+                CompletableFuture<Message> droppedResponse = pendingResponses.remove( dropped.getMessageId() );
+                if( droppedResponse != null ) {
+                    complete( droppedResponse, null, new RequestRejectedException( lane.getName() ) );
+                }
+                UCSMetrics.counter( UCSMetrics.ADMISSION, "lane", lane.getName(), "action", UCSMetrics.SHED ).increment();
+                log.log( Level.WARNING, "Lane {0} is full, dropped message {1}",
+                    new Object[] { lane.getName(), dropped.getMessageId() } );
+            }
+        } else if( !getQueueOutput().offer( message ) ) {
+            UCSMetrics.counter( UCSMetrics.ADMISSION, "lane", lane.getName(), "action", UCSMetrics.REJECTED ).increment();
+            throw new RequestRejectedException( lane.getName() );
+        }
+    }
+
     /**
      * The context handler inquirers perform an infinite loop in order to retrieve
-     * the messages coming to the request manager and sends them to the context handler.
+     * the messages coming to the request manager, in the order given by the lane
+     * weights, and sends them to the context handler.
     */
     private class ContextHandlerInquirer implements Callable<Message> {
 
@@ -102,10 +240,20 @@ public class RequestManager extends AbstractRequestManager {
         public Message call() {
             Message message;
             try {
-                while( ( message = getQueueOutput().take() ) != null ) {
-                    handleMessage( message );
+                while( ( message = takeMessage() ) != null ) {
+                    UCSEvent queueWait = queueWaits.remove( message.getMessageId() );
+                    if( queueWait != null ) {
+                        queueWait.end();
+                    }
+                    try {
+                        dispatch( message );
+                    } catch( Exception e ) {
+                        // the failure of a message must not stop the handling of the following ones
+                        log.log( Level.SEVERE, "Error handling message {0} : {1}",
+                            new Object[] { message.getMessageId(), e.getMessage() } );
+                    }
                 }
-            } catch( Exception e ) {
+            } catch( InterruptedException e ) {
                 log.severe( e.getMessage() );
                 Thread.currentThread().interrupt();
             }
@@ -113,11 +261,88 @@ public class RequestManager extends AbstractRequestManager {
         }
     }
 
+    private Message takeMessage() throws InterruptedException {
+        if( workers != null ) {
+            inFlight.acquire();
+        }
+        return getQueueOutput().take();
+    }
+
+    private void dispatch( Message message ) throws Exception { // NOSONAR
+        if( workers == null ) {
+            handleMessage( message );
+            return;
+        }
+        orderedWorkers.execute( orderingKeyOf( message ), () -> {
+            try {
+                handleMessage( message );
+            } catch( Exception e ) {
+                log.log( Level.SEVERE, "Error handling message {0} : {1}", new Object[] { message.getMessageId(), e.getMessage() } );
+            } finally {
+                inFlight.release();
+            }
+        } );
+    }
+
+    /**
+     * @return the session of the message or the PIP of an attribute change,
+     *         null if the message can be handled with any other
+     */
+    private static String orderingKeyOf( Message message ) {
+        if( message instanceof IdentifiedMessage ) {
+            return ( (IdentifiedMessage) message ).getSessionId();
+        }
+        if( message instanceof AttributeChangeMessage ) {
+            AttributeChangeMessage attributeChange = (AttributeChangeMessage) message;
+            return "pip:" + ( attributeChange.getPip() != null ? attributeChange.getPip() : attributeChange.getSource() );
+        }
+        return null;
+    }
+
     private void handleMessage( Message message ) throws Exception {
+        CompletableFuture<Message> pending = pendingResponses.remove( message.getMessageId() );
+        Message responseMessage;
+        try {
+            responseMessage = evaluate( message );
+        } catch( Exception e ) {
+            if( pending != null ) {
+                complete( pending, null, e );
+            }
+            throw e;
+        }
+        if( pending != null ) {
+            complete( pending, responseMessage, null );
+        } else if( responseMessage != null ) {
+            getPEPMap().get( responseMessage.getDestination() ).receiveResponse( responseMessage );
+        }
+    }
+
+    /**
+     * Completes the future awaited by a caller of sendMessageAsync on the
+     * completions executor, or on this thread once the executor is stopped.
+     */
+    private void complete( CompletableFuture<Message> response, Message message, Throwable failure ) {
+        Runnable completion = () -> {
+            if( failure != null ) {
+                response.completeExceptionally( failure );
+            } else {
+                response.complete( message );
+            }
+        };
+        try {
+            completions.execute( completion );
+        } catch( RejectedExecutionException e ) {
+            completion.run();
+        }
+    }
+
+    /**
+     * @return the response of the context handler, null for the attribute changes
+     */
+    private Message evaluate( Message message ) throws Exception { // NOSONAR
         Message responseMessage = null;
         if( message instanceof AttributeChangeMessage ) {
             getContextHandler().attributeChanged( (AttributeChangeMessage) message );
-            return;
         } else if( message.getPurpose() == PURPOSE.TRY ) {
             responseMessage = getContextHandler().tryAccess( (TryAccessMessage) message );
         } else if( message.getPurpose() == PURPOSE.START ) {
@@ -127,7 +352,7 @@ public class RequestManager extends AbstractRequestManager {
         } else {
             throw new IllegalArgumentException( "Invalid message arrived" );
         }
-        getPEPMap().get( responseMessage.getDestination() ).receiveResponse( responseMessage );
+        return responseMessage;
     }
 
     @Override
@@ -135,4 +360,22 @@ public class RequestManager extends AbstractRequestManager {
         inquirers.submit( new ContextHandlerInquirer() );
     }
 
+    /**
+     * Stops the inquirer and the workers, the queued messages are discarded and
+     * the responses still awaited by the callers of sendMessageAsync fail.
+     */
+    public void stopMonitoring() {
+        inquirers.shutdownNow();
+        if( workers != null ) {
+            workers.shutdownNow();
+        }
+        for( String messageId : pendingResponses.keySet() ) {
+            CompletableFuture<Message> pending = pendingResponses.remove( messageId );
+            if( pending != null ) {
+                complete( pending, null, new IllegalStateException( "RequestManager stopped before handling message " + messageId ) );
+            }
+        }
+        completions.shutdown();
+    }
+
 }
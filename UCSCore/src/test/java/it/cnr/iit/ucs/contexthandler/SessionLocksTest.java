@@ -0,0 +1,62 @@
+package it.cnr.iit.ucs.contexthandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.Test;
+
+import it.cnr.iit.utility.errorhandling.exception.PreconditionException;
+
+public class SessionLocksTest {
+
+    @Test
+    public void aSessionAlwaysGetsTheSameLock() {
+        SessionLocks locks = new SessionLocks();
+        assertSame( locks.get( "session" ), locks.get( new String( "session" ) ) );
+    }
+
+    @Test
+    public void sessionsAreSpreadOverTheStripes() {
+        SessionLocks locks = new SessionLocks( 4 );
+        Set<ReentrantLock> distinct = Collections.newSetFromMap( new IdentityHashMap<>() );
+        for( int i = 0; i < 100; i++ ) {
+            distinct.add( locks.get( "session-" + i ) );
+        }
+        assertEquals( 4, distinct.size() );
+    }
+
+    @Test
+    public void aLockedSessionIsNotAvailableToOtherThreads() throws Exception {
+        SessionLocks locks = new SessionLocks();
+        ReentrantLock lock = locks.get( "session" );
+        lock.lock();
+        try {
+            assertFalse( CompletableFuture.supplyAsync( () -> locks.get( "session" ).tryLock() ).get( 10, TimeUnit.SECONDS ) );
+        } finally {
+            lock.unlock();
+        }
+        assertTrue( CompletableFuture.supplyAsync( () -> {
+            ReentrantLock other = locks.get( "session" );
+            boolean locked = other.tryLock();
+            if( locked ) {
+                other.unlock();
+            }
+            return locked;
+        } ).get( 10, TimeUnit.SECONDS ) );
+    }
+
+    @Test( expected = PreconditionException.class )
+    public void nullSessionIsRejected() {
+        new SessionLocks().get( null );
+    }
+
+}
@@ -1,5 +1,7 @@
 package it.cnr.iit.ucscore.coverage;
 
+import static org.junit.Assert.assertEquals;
+
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
@@ -9,6 +11,8 @@ import javax.xml.bind.JAXBException;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.context.annotation.ComponentScan;
@@ -27,14 +31,23 @@ import it.cnr.iit.ucs.message.attributechange.AttributeChangeMessage;
 import it.cnr.iit.ucs.message.endaccess.EndAccessMessage;
 import it.cnr.iit.ucs.message.startaccess.StartAccessMessage;
 import it.cnr.iit.ucs.message.tryaccess.TryAccessMessage;
+import it.cnr.iit.ucs.metrics.UCSMetrics;
+import it.cnr.iit.ucs.pdp.PDPInterface;
+import it.cnr.iit.ucs.pip.PIPCHInterface;
 import it.cnr.iit.ucs.properties.components.PipProperties;
 import it.cnr.iit.ucscore.coverage.properties.TestProperties;
 import it.cnr.iit.utility.FileUtility;
 import it.cnr.iit.utility.errorhandling.exception.PreconditionException;
 import it.cnr.iit.xacml.Category;
 import it.cnr.iit.xacml.DataType;
+import it.cnr.iit.xacml.wrappers.PolicyWrapper;
+import it.cnr.iit.xacml.wrappers.RequestWrapper;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 
 import oasis.names.tc.xacml.core.schema.wd_17.DecisionType;
+import oasis.names.tc.xacml.core.schema.wd_17.RequestType;
 
 @SpringBootTest
 @DirtiesContext( classMode = ClassMode.BEFORE_EACH_TEST_METHOD )
@@ -44,6 +57,8 @@ import oasis.names.tc.xacml.core.schema.wd_17.DecisionType;
 @RunWith( SpringRunner.class )
 public class ContextHandlerCoverageTests extends UCSRestBaseTests {
 
+    private static final String ENVIRONMENT_ID = "urn:oasis:names:tc:xacml:1.0:environment:environment-id";
+
     private String policy;
     private String request;
 
@@ -88,6 +103,26 @@ public class ContextHandlerCoverageTests extends UCSRestBaseTests {
         contextHandler.endAccess( endAccessMessage );
     }
 
+    @Test
+    public void contextHandlerRecordsMetrics() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        UCSMetrics.setRegistry( registry );
+        try {
+            ContextHandler contextHandler = getContextHandlerCorrectlyInitialized( policy, request );
+            TryAccessMessage tryAccessMessage = buildTryAccessMessage( testProperties.getPepId(), "localhost", policy,
+                request );
+            contextHandler.tryAccess( tryAccessMessage );
+
+            assertEquals( 1, registry.get( UCSMetrics.OPERATION ).tag( "operation", UCSMetrics.TRYACCESS ).timer().count() );
+            assertEquals( 1, registry.get( UCSMetrics.PHASE ).tag( "operation", UCSMetrics.TRYACCESS )
+                .tag( "phase", UCSMetrics.PDP ).timer().count() );
+            assertEquals( 1, registry.get( UCSMetrics.PHASE ).tag( "operation", UCSMetrics.TRYACCESS )
+                .tag( "phase", UCSMetrics.FATTEN ).timer().count() );
+        } finally {
+            UCSMetrics.setRegistry( Metrics.globalRegistry );
+        }
+    }
+
     @Test
     public void contextHandlerFullFlow() throws StartAccessException, EndAccessException, Exception {
         ContextHandler contextHandler = getContextHandlerCorrectlyInitialized( policy, request );
@@ -118,4 +153,76 @@ public class ContextHandlerCoverageTests extends UCSRestBaseTests {
 
     }
 
+    @Test
+    public void reevaluationOfAnEndedSessionIsSkipped() throws Exception {
+        ContextHandler contextHandler = getContextHandlerCorrectlyInitialized( policy, request );
+        PDPInterface pdp = getMockedPDP( getMockedPDPEvaluation( DecisionType.DENY ) );
+        contextHandler.setPdp( pdp );
+        // the session has been ended after the reevaluation was scheduled
+        contextHandler.setSessionManager( getMockedSessionManager( null ) );
+        contextHandler.reevaluate( getMockedSessionInterface( policy, request, STATUS.START.name() ) );
+
+        contextHandler.setSessionManager(
+            getSessionManagerForStatus( testProperties.getSessionId(), policy, request, STATUS.TRY.name() ) );
+        contextHandler.reevaluate( getMockedSessionInterface( policy, request, STATUS.START.name() ) );
+
+        Mockito.verify( pdp, Mockito.never() ).evaluate( ArgumentMatchers.<RequestWrapper>any(),
+            ArgumentMatchers.<PolicyWrapper>any(), ArgumentMatchers.<STATUS>any() );
+    }
+
+    @Test
+    public void attributeChangeReusesTheFattenedRequest() throws Exception {
+        ContextHandler contextHandler = getContextHandlerCorrectlyInitialized( policy, request );
+        PIPCHInterface pip = getMockedPIPCHInterface( "probe", Category.ENVIRONMENT, DataType.INTEGER, "0" );
+        contextHandler.getPipRegistry().add( pip );
+        startSession( contextHandler );
+
+        // the attribute is in the fattened request, only its value is replaced
+        contextHandler.attributeChanged( buildEnvironmentChange( ENVIRONMENT_ID, DataType.STRING, "changed" ) );
+        Mockito.verify( pip, Mockito.never() ).retrieve( ArgumentMatchers.<RequestType>any() );
+
+        // the attribute is not in the fattened request, every PIP is asked again
+        contextHandler.attributeChanged( buildEnvironmentChange( "virus", DataType.INTEGER, "1" ) );
+        Mockito.verify( pip, Mockito.times( 1 ) ).retrieve( ArgumentMatchers.<RequestType>any() );
+    }
+
+    @Test
+    public void fattenedRequestIsDroppedOnEndAndRevoke() throws Exception {
+        ContextHandler contextHandler = getContextHandlerCorrectlyInitialized( policy, request );
+        PIPCHInterface pip = getMockedPIPCHInterface( "probe", Category.ENVIRONMENT, DataType.INTEGER, "0" );
+        contextHandler.getPipRegistry().add( pip );
+        startSession( contextHandler );
+
+        contextHandler.endAccess( buildEndAccessMessage( testProperties.getSessionId(), "a", "a" ) );
+        Mockito.verify( pip, Mockito.times( 1 ) ).retrieve( ArgumentMatchers.<RequestType>any() );
+        contextHandler.attributeChanged( buildEnvironmentChange( ENVIRONMENT_ID, DataType.STRING, "changed" ) );
+        Mockito.verify( pip, Mockito.times( 2 ) ).retrieve( ArgumentMatchers.<RequestType>any() );
+
+        // the reevaluation above cached the request again, a denied start access revokes the session
+        contextHandler.setSessionManager(
+            getSessionManagerForStatus( testProperties.getSessionId(), policy, request, STATUS.TRY.name() ) );
+        contextHandler.setPdp( getMockedPDP( getMockedPDPEvaluation( DecisionType.DENY ) ) );
+        contextHandler.startAccess( buildStartAccessMessage( testProperties.getSessionId(), "a", "a" ) );
+
+        contextHandler.setSessionManager(
+            getSessionManagerForStatus( testProperties.getSessionId(), policy, request, STATUS.START.name() ) );
+        contextHandler.setPdp( getMockedPDP( getMockedPDPEvaluation( DecisionType.PERMIT ) ) );
+        contextHandler.attributeChanged( buildEnvironmentChange( ENVIRONMENT_ID, DataType.STRING, "changed" ) );
+        Mockito.verify( pip, Mockito.times( 3 ) ).retrieve( ArgumentMatchers.<RequestType>any() );
+    }
+
+    private void startSession( ContextHandler contextHandler ) throws Exception {
+        contextHandler.setSessionManager(
+            getSessionManagerForStatus( testProperties.getSessionId(), policy, request, STATUS.TRY.name() ) );
+        contextHandler.startAccess( buildStartAccessMessage( testProperties.getSessionId(), "a", "a" ) );
+        contextHandler.setSessionManager(
+            getSessionManagerForStatus( testProperties.getSessionId(), policy, request, STATUS.START.name() ) );
+    }
+
+    private AttributeChangeMessage buildEnvironmentChange( String attributeId, DataType dataType, String value ) {
+        AttributeChangeMessage message = buildPipChMessage( testProperties.getSessionId(), "a", "a" );
+        message.addAttribute( getNewAttribute( attributeId, Category.ENVIRONMENT, dataType, value ) );
+        return message;
+    }
+
 }
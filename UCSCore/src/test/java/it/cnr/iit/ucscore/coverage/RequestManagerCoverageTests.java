@@ -1,14 +1,29 @@
 package it.cnr.iit.ucscore.coverage;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.PostConstruct;
 import javax.xml.bind.JAXBException;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.context.annotation.ComponentScan;
@@ -17,7 +32,16 @@ import org.springframework.test.annotation.DirtiesContext.ClassMode;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringRunner;
 
+import it.cnr.iit.ucs.contexthandler.ContextHandlerInterface;
 import it.cnr.iit.ucs.message.Message;
+import it.cnr.iit.ucs.message.endaccess.EndAccessMessage;
+import it.cnr.iit.ucs.message.endaccess.EndAccessResponseMessage;
+import it.cnr.iit.ucs.message.startaccess.StartAccessMessage;
+import it.cnr.iit.ucs.message.startaccess.StartAccessResponseMessage;
+import it.cnr.iit.ucs.message.tryaccess.TryAccessMessage;
+import it.cnr.iit.ucs.message.tryaccess.TryAccessResponseMessage;
+import it.cnr.iit.ucs.pep.PEPInterface;
+import it.cnr.iit.ucs.requestmanager.ExecutionMode;
 import it.cnr.iit.ucs.requestmanager.RequestManager;
 import it.cnr.iit.ucscore.coverage.properties.TestProperties;
 import it.cnr.iit.utility.FileUtility;
@@ -61,6 +85,127 @@ public class RequestManagerCoverageTests extends UCSRestBaseTests {
         testRequestManager( requestManager );
     }
 
+    @Test
+    public void requestManagerAsyncResponseSkipsThePep() throws Exception {
+        RequestManager requestManager = getRequestManager();
+        ContextHandlerInterface contextHandler = getMockedContextHandlerInterface();
+        TryAccessMessage message = buildTryAccessMessage( "a", "a", policy, request );
+        TryAccessResponseMessage response = new TryAccessResponseMessage( "a", "a", message.getMessageId() );
+        Mockito.when( contextHandler.tryAccess( ArgumentMatchers.any() ) ).thenReturn( response );
+        requestManager.setContextHandler( contextHandler );
+        Map<String, PEPInterface> pepMap = getMockedPEPMap( "a", "" );
+        requestManager.setPEPMap( pepMap );
+
+        CompletableFuture<Message> future = requestManager.sendMessageAsync( message );
+        assertSame( response, future.get() );
+        Mockito.verify( pepMap.get( "a" ), Mockito.never() ).receiveResponse( ArgumentMatchers.any() );
+    }
+
+    @Test( expected = ExecutionException.class )
+    public void requestManagerAsyncResponseFailsWithTheContextHandler() throws Exception {
+        RequestManager requestManager = getRequestManager();
+        ContextHandlerInterface contextHandler = getMockedContextHandlerInterface();
+        Mockito.when( contextHandler.tryAccess( ArgumentMatchers.any() ) ).thenThrow( new IllegalStateException( "failed" ) );
+        requestManager.setContextHandler( contextHandler );
+
+        CompletableFuture<Message> future = requestManager.sendMessageAsync( buildTryAccessMessage( "a", "a", policy, request ) );
+        assertFalse( Thread.currentThread().isInterrupted() );
+        future.get( 10, TimeUnit.SECONDS );
+    }
+
+    @Test
+    public void requestManagerAsyncResponseIsNotCompletedOnTheInquirer() throws Exception {
+        RequestManager requestManager = new RequestManager( getRequestManagerProperties( true, null, 1 ) );
+        ContextHandlerInterface contextHandler = getMockedContextHandlerInterface();
+        TryAccessMessage message = buildTryAccessMessage( "a", "a", policy, request );
+        Mockito.when( contextHandler.tryAccess( ArgumentMatchers.any() ) )
+            .thenReturn( new TryAccessResponseMessage( "a", "a", message.getMessageId() ) );
+        requestManager.setContextHandler( contextHandler );
+
+        // the stage is added before the message is handled, so it runs where the response is completed
+        CompletableFuture<String> completedOn = requestManager.sendMessageAsync( message )
+            .thenApply( response -> Thread.currentThread().getName() );
+        requestManager.startMonitoring();
+        try {
+            assertEquals( "ucs-request-manager-responses", completedOn.get( 10, TimeUnit.SECONDS ) );
+        } finally {
+            requestManager.stopMonitoring();
+        }
+    }
+
+    @Test( expected = ExecutionException.class )
+    public void requestManagerAsyncResponseFailsWhenStopped() throws Exception {
+        RequestManager requestManager = new RequestManager( getRequestManagerProperties( true, null, 1 ) );
+        requestManager.setContextHandler( getMockedContextHandlerInterface() );
+
+        // never handled since the inquirer is not started
+        CompletableFuture<Message> future = requestManager.sendMessageAsync( buildTryAccessMessage( "a", "a", policy, request ) );
+        requestManager.stopMonitoring();
+        future.get( 10, TimeUnit.SECONDS );
+    }
+
+    @Test
+    public void messagesOfASessionAreHandledInOrderByPooledWorkers() throws Exception {
+        assertSessionsHandledInOrder( ExecutionMode.POOLED );
+    }
+
+    @Test
+    public void messagesOfASessionAreHandledInOrderByVirtualWorkers() throws Exception {
+        assertSessionsHandledInOrder( ExecutionMode.VIRTUAL );
+    }
+
+    /**
+     * The startAccess of every session is slow, an endAccess handled by
+     * another worker at the same time would end before it.
+     */
+    private void assertSessionsHandledInOrder( ExecutionMode mode ) throws Exception {
+        RequestManager requestManager = new RequestManager( getRequestManagerProperties( true, mode.name(), 4 ) );
+        ContextHandlerInterface contextHandler = getMockedContextHandlerInterface();
+        Map<String, List<String>> operations = new ConcurrentHashMap<>();
+        AtomicInteger overlaps = new AtomicInteger();
+        Map<String, AtomicInteger> running = new ConcurrentHashMap<>();
+        Mockito.when( contextHandler.startAccess( ArgumentMatchers.any() ) ).thenAnswer( invocation -> {
+            StartAccessMessage message = invocation.getArgument( 0 );
+            record( message.getSessionId(), "start", operations, running, overlaps, 50 );
+            return new StartAccessResponseMessage( "a", "a", message.getMessageId() );
+        } );
+        Mockito.when( contextHandler.endAccess( ArgumentMatchers.any() ) ).thenAnswer( invocation -> {
+            EndAccessMessage message = invocation.getArgument( 0 );
+            record( message.getSessionId(), "end", operations, running, overlaps, 0 );
+            return new EndAccessResponseMessage( "a", "a", message.getMessageId() );
+        } );
+        requestManager.setContextHandler( contextHandler );
+        requestManager.startMonitoring();
+        try {
+            List<CompletableFuture<Message>> responses = new ArrayList<>();
+            for( int i = 0; i < 8; i++ ) {
+                responses.add( requestManager.sendMessageAsync( buildStartAccessMessage( "session-" + i, "a", "a" ) ) );
+                responses.add( requestManager.sendMessageAsync( buildEndAccessMessage( "session-" + i, "a", "a" ) ) );
+            }
+            for( CompletableFuture<Message> response : responses ) {
+                response.get( 10, TimeUnit.SECONDS );
+            }
+        } finally {
+            requestManager.stopMonitoring();
+        }
+        assertEquals( 0, overlaps.get() );
+        assertEquals( 8, operations.size() );
+        for( List<String> sessionOperations : operations.values() ) {
+            assertEquals( "[start, end]", sessionOperations.toString() );
+        }
+    }
+
+    private static void record( String sessionId, String operation, Map<String, List<String>> operations,
+            Map<String, AtomicInteger> running, AtomicInteger overlaps, long duration ) throws InterruptedException {
+        AtomicInteger sessionRunning = running.computeIfAbsent( sessionId, id -> new AtomicInteger() );
+        if( sessionRunning.incrementAndGet() > 1 ) {
+            overlaps.incrementAndGet();
+        }
+        Thread.sleep( duration );
+        operations.computeIfAbsent( sessionId, id -> Collections.synchronizedList( new ArrayList<>() ) ).add( operation );
+        sessionRunning.decrementAndGet();
+    }
+
     public void testRequestManager( RequestManager requestManager ) throws URISyntaxException, IOException {
         Message[] messages = {
             buildTryAccessResponse( "a", "a", "a" ),
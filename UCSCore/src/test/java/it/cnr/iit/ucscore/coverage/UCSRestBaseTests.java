@@ -97,6 +97,10 @@ public class UCSRestBaseTests {
     }
 
     protected RequestManagerProperties getRequestManagerProperties() {
+        return getRequestManagerProperties( false, null, 1 );
+    }
+
+    protected RequestManagerProperties getRequestManagerProperties( boolean active, String executionMode, int workers ) {
         return new RequestManagerProperties() {
 
             @Override
@@ -116,7 +120,32 @@ public class UCSRestBaseTests {
 
             @Override
             public boolean isActive() {
-                return false;
+                return active;
+            }
+
+            @Override
+            public String getLaneWeights() {
+                return null;
+            }
+
+            @Override
+            public String getLaneCapacities() {
+                return null;
+            }
+
+            @Override
+            public String getAdmissionPolicy() {
+                return null;
+            }
+
+            @Override
+            public String getExecutionMode() {
+                return executionMode;
+            }
+
+            @Override
+            public int getWorkers() {
+                return workers;
             }
 
             @Override
@@ -183,12 +212,17 @@ public class UCSRestBaseTests {
 
     protected SessionManagerInterface getSessionManagerForStatus( String sessionId, String policy, String request,
             String status ) {
-        SessionInterface sessionInterface = getMockedSessionInterface( policy, request, status );
+        SessionInterface sessionInterface = getMockedSessionInterface( sessionId, policy, request, status );
         return getMockedSessionManager( sessionInterface );
     }
 
     protected SessionInterface getMockedSessionInterface( String policy, String request, String status ) {
+        return getMockedSessionInterface( testProperties.getSessionId(), policy, request, status );
+    }
+
+    protected SessionInterface getMockedSessionInterface( String sessionId, String policy, String request, String status ) {
         SessionInterface sessionInterface = Mockito.mock( SessionInterface.class );
+        Mockito.when( sessionInterface.getId() ).thenReturn( sessionId );
         Mockito.when( sessionInterface.getPolicySet() ).thenReturn( policy );
         Mockito.when( sessionInterface.getOriginalRequest() ).thenReturn( request );
         Mockito.when( sessionInterface.getStatus() ).thenReturn( status );
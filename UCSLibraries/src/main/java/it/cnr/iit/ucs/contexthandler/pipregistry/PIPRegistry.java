@@ -7,9 +7,14 @@ import java.util.logging.Logger;
 
 import com.google.common.base.Throwables;
 
+import it.cnr.iit.ucs.jfr.UCSEvent;
+import it.cnr.iit.ucs.jfr.UCSEvents;
+import it.cnr.iit.ucs.metrics.UCSMetrics;
 import it.cnr.iit.ucs.pip.PIPCHInterface;
 import it.cnr.iit.xacml.Attribute;
 
+import io.micrometer.core.instrument.Timer;
+
 import oasis.names.tc.xacml.core.schema.wd_17.RequestType;
 
 public class PIPRegistry implements PIPRegistryInterface {
@@ -18,6 +23,10 @@ public class PIPRegistry implements PIPRegistryInterface {
 
     private List<PIPCHInterface> pipList;
 
+    private interface PIPCall {
+        void call() throws Exception; // NOSONAR
+    }
+
     public PIPRegistry() {
         super();
         pipList = new ArrayList<>();
@@ -53,7 +62,7 @@ public class PIPRegistry implements PIPRegistryInterface {
     public void subscribeAll( RequestType requestType ) {
         try {
             for( PIPCHInterface pip : pipList ) {
-                pip.subscribe( requestType );
+                measure( pip, "subscribe", () -> pip.subscribe( requestType ) );
             }
         } catch( Exception e ) {
             log.severe( "Error subscribe : " + e.getMessage() );
@@ -65,7 +74,7 @@ public class PIPRegistry implements PIPRegistryInterface {
     public void retrieveAll( RequestType requestType ) {
         try {
             for( PIPCHInterface pip : pipList ) {
-                pip.retrieve( requestType );
+                measure( pip, "retrieve", () -> pip.retrieve( requestType ) );
             }
         } catch( Exception e ) {
             log.severe( "Error retrieve : " + e.getMessage() );
@@ -73,6 +82,26 @@ public class PIPRegistry implements PIPRegistryInterface {
         }
     }
 
+    /**
+     * Records the latency and the failures of a call to a PIP, the PIP is
+     * identified by the attributes it provides. A flight recorder event is
+     * emitted as well.
+     */
+    private static void measure( PIPCHInterface pip, String operation, PIPCall call ) throws Exception { // NOSONAR
+        String name = String.join( ",", pip.getAttributeIds() );
+        Timer.Sample sample = UCSMetrics.start();
+        UCSEvent event = UCSEvents.pip( name, operation );
+        try {
+            call.call();
+        } catch( Exception e ) {
+            UCSMetrics.counter( UCSMetrics.PIP_ERRORS, "pip", name, "operation", operation ).increment();
+            throw e;
+        } finally {
+            event.end();
+            sample.stop( UCSMetrics.timer( UCSMetrics.PIP, "pip", name, "operation", operation ) );
+        }
+    }
+
     @Override
     public Optional<PIPCHInterface> getByAttributeId( String attributeId ) {
         Attribute attribute = new Attribute();
@@ -0,0 +1,152 @@
+package it.cnr.iit.ucs.jfr;
+
+import java.util.function.Supplier;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The flight recorder event types, only loaded by UCSEvents once the
+ * jdk.jfr API is known to be available.
+ *
+ * @author Antonio La Marra, Alessandro Rosetti
+ */
+final class JfrEvents {
+
+    private static final String CATEGORY = "Usage Control";
+
+    private JfrEvents() {}
+
+    @Category( CATEGORY )
+    @StackTrace( false )
+    abstract static class OperationEvent extends Event {
+        @Label( "Operation" )
+        String operation;
+
+        @Label( "Session Id" )
+        String sessionId;
+
+        @Label( "Policy Id" )
+        String policyId;
+
+        @Label( "Decision" )
+        String decision;
+    }
+
+    @Name( "it.cnr.iit.ucs.ContextHandler" )
+    @Label( "Context Handler Operation" )
+    @Description( "tryAccess, startAccess, endAccess or reevaluation handled by the context handler" )
+    static final class ContextHandlerEvent extends OperationEvent {
+    }
+
+    @Name( "it.cnr.iit.ucs.PolicyDecisionPoint" )
+    @Label( "PDP Evaluation" )
+    @Description( "Evaluation of a policy condition, the operation is the condition" )
+    static final class PdpEvent extends OperationEvent {
+    }
+
+    @Name( "it.cnr.iit.ucs.PIP" )
+    @Label( "PIP Call" )
+    @Description( "Attribute retrieval or subscription while fattening a request" )
+    static final class PipEvent extends OperationEvent {
+        @Label( "PIP" )
+        String pip;
+    }
+
+    @Name( "it.cnr.iit.ucs.SessionManager" )
+    @Label( "Session Store Call" )
+    @Description( "Session manager call to the session database" )
+    static final class SessionStoreEvent extends OperationEvent {
+    }
+
+    @Name( "it.cnr.iit.ucs.QueueWait" )
+    @Label( "Request Manager Queue Wait" )
+    @Description( "Time a message waited in a request manager queue" )
+    static final class QueueWaitEvent extends OperationEvent {
+        @Label( "Queue" )
+        String queue;
+    }
+
+    private static final class Recorded implements UCSEvent {
+        private final OperationEvent event;
+
+        Recorded( OperationEvent event, String operation ) {
+            this.event = event;
+            event.operation = operation;
+            event.begin();
+        }
+
+        @Override
+        public UCSEvent setSessionId( String sessionId ) {
+            event.sessionId = sessionId;
+            return this;
+        }
+
+        @Override
+        public UCSEvent setPolicyId( String policyId ) {
+            event.policyId = policyId;
+            return this;
+        }
+
+        @Override
+        public UCSEvent setDecision( String decision ) {
+            event.decision = decision;
+            return this;
+        }
+
+        @Override
+        public boolean isRecording() {
+            return true;
+        }
+
+        @Override
+        public void end() {
+            event.commit();
+        }
+    }
+
+    // the types are looked up once, so a disabled event is never allocated
+    private static final EventType CONTEXT_HANDLER = EventType.getEventType( ContextHandlerEvent.class );
+    private static final EventType PDP = EventType.getEventType( PdpEvent.class );
+    private static final EventType PIP = EventType.getEventType( PipEvent.class );
+    private static final EventType SESSION_STORE = EventType.getEventType( SessionStoreEvent.class );
+    private static final EventType QUEUE_WAIT = EventType.getEventType( QueueWaitEvent.class );
+
+    private static UCSEvent begin( EventType type, Supplier<? extends OperationEvent> event, String operation ) {
+        return type.isEnabled() ? new Recorded( event.get(), operation ) : UCSEvents.NOOP;
+    }
+
+    static UCSEvent contextHandler( String operation ) {
+        return begin( CONTEXT_HANDLER, ContextHandlerEvent::new, operation );
+    }
+
+    static UCSEvent pdp( String condition ) {
+        return begin( PDP, PdpEvent::new, condition );
+    }
+
+    static UCSEvent pip( String pip, String operation ) {
+        return begin( PIP, () -> {
+            PipEvent event = new PipEvent();
+            event.pip = pip;
+            return event;
+        }, operation );
+    }
+
+    static UCSEvent sessionStore( String operation ) {
+        return begin( SESSION_STORE, SessionStoreEvent::new, operation );
+    }
+
+    static UCSEvent queueWait( String queue, String operation ) {
+        return begin( QUEUE_WAIT, () -> {
+            QueueWaitEvent event = new QueueWaitEvent();
+            event.queue = queue;
+            return event;
+        }, operation );
+    }
+
+}
@@ -0,0 +1,25 @@
+package it.cnr.iit.ucs.jfr;
+
+/**
+ * A timed event around a UCS operation, started when it is created and
+ * recorded by Java Flight Recorder when it is ended.
+ * The setters can be called at any time before the end.
+ *
+ * @author Antonio La Marra, Alessandro Rosetti
+ */
+public interface UCSEvent {
+
+    public UCSEvent setSessionId( String sessionId );
+
+    public UCSEvent setPolicyId( String policyId );
+
+    public UCSEvent setDecision( String decision );
+
+    /**
+     * @return true if a recording is collecting this event
+     */
+    public boolean isRecording();
+
+    public void end();
+
+}
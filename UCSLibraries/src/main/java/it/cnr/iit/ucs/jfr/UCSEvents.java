@@ -0,0 +1,105 @@
+package it.cnr.iit.ucs.jfr;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Factory of the Java Flight Recorder events of the UCS hot paths.
+ * The events are recorded only when a recording enables them, e.g. with
+ * -XX:StartFlightRecording or jcmd JFR.start, otherwise a shared no-op event
+ * is returned and the hot paths only pay for the check. On JVMs without the
+ * jdk.jfr API (before 8u262), or with -Ducs.jfr.disabled=true, the no-op
+ * event is always returned.
+ *
+ * @author Antonio La Marra, Alessandro Rosetti
+ */
+public final class UCSEvents {
+
+    private static final Logger log = Logger.getLogger( UCSEvents.class.getName() );
+
+    public static final String DISABLED_PROPERTY = "ucs.jfr.disabled";
+
+    static final UCSEvent NOOP = new UCSEvent() {
+        @Override
+        public UCSEvent setSessionId( String sessionId ) {
+            return this;
+        }
+
+        @Override
+        public UCSEvent setPolicyId( String policyId ) {
+            return this;
+        }
+
+        @Override
+        public UCSEvent setDecision( String decision ) {
+            return this;
+        }
+
+        @Override
+        public boolean isRecording() {
+            return false;
+        }
+
+        @Override
+        public void end() {
+            // nothing to record
+        }
+    };
+
+    private static final boolean AVAILABLE = isAvailable();
+
+    private UCSEvents() {}
+
+    private static boolean isAvailable() {
+        if( Boolean.getBoolean( DISABLED_PROPERTY ) ) {
+            return false;
+        }
+        try {
+            Class.forName( "jdk.jfr.Event" );
+            return true;
+        } catch( ClassNotFoundException | LinkageError e ) {
+            log.log( Level.FINE, "Flight recorder events not available : {0}", e.getMessage() );
+            return false;
+        }
+    }
+
+    /**
+     * @param operation
+     *            tryaccess, startaccess, endaccess or reevaluate
+     */
+    public static UCSEvent contextHandler( String operation ) {
+        return AVAILABLE ? JfrEvents.contextHandler( operation ) : NOOP;
+    }
+
+    /**
+     * @param condition
+     *            the condition of the policy being evaluated, may be null
+     */
+    public static UCSEvent pdp( String condition ) {
+        return AVAILABLE ? JfrEvents.pdp( condition ) : NOOP;
+    }
+
+    /**
+     * @param operation
+     *            retrieve or subscribe
+     */
+    public static UCSEvent pip( String pip, String operation ) {
+        return AVAILABLE ? JfrEvents.pip( pip, operation ) : NOOP;
+    }
+
+    /**
+     * @param operation
+     *            the session manager method
+     */
+    public static UCSEvent sessionStore( String operation ) {
+        return AVAILABLE ? JfrEvents.sessionStore( operation ) : NOOP;
+    }
+
+    /**
+     * Started when a message is queued and ended when it is taken from the queue.
+     */
+    public static UCSEvent queueWait( String queue, String operation ) {
+        return AVAILABLE ? JfrEvents.queueWait( queue, operation ) : NOOP;
+    }
+
+}
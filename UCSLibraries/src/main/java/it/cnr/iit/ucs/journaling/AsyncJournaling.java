@@ -0,0 +1,283 @@
+package it.cnr.iit.ucs.journaling;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import it.cnr.iit.ucs.metrics.UCSMetrics;
+import it.cnr.iit.ucs.properties.base.JournalProperties;
+import it.cnr.iit.utility.errorhandling.Reject;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * File journaling that never blocks the caller.
+ * Records are put in a bounded queue drained by a dedicated writer thread
+ * that appends them to the file journal and syncs it once every
+ * sync-interval milliseconds or sync-batch records, whichever comes first.
+ * When the queue is full the records are dropped, counted and exported with
+ * the lag of the writer through the UCS metrics.
+ *
+ * @author Antonio La Marra, Alessandro Rosetti
+ */
+public class AsyncJournaling implements JournalingInterface {
+
+    private static final Logger log = Logger.getLogger( AsyncJournaling.class.getName() );
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 8192;
+    public static final long DEFAULT_SYNC_INTERVAL = 100;
+    public static final int DEFAULT_SYNC_BATCH = 256;
+
+    private final FileJournaling fileJournaling;
+    private BlockingQueue<Entry> queue;
+    private long syncInterval = DEFAULT_SYNC_INTERVAL;
+    private int syncBatch = DEFAULT_SYNC_BATCH;
+    private Thread writer;
+    private volatile boolean running = false;
+
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong syncs = new AtomicLong();
+    private volatile long lastLag = 0;
+    private volatile long maxLag = 0;
+    private final List<Meter> meters = new ArrayList<>();
+
+    private static final class Entry {
+        private final byte[] record;
+        private final EvaluationRecord evaluation;
+        private final String policy;
+        private final long enqueuedAt;
+
+        private Entry( byte[] record ) {
+            this( record, null, null );
+        }
+
+        private Entry( EvaluationRecord evaluation, String policy ) {
+            this( null, evaluation, policy );
+        }
+
+        private Entry( byte[] record, EvaluationRecord evaluation, String policy ) {
+            this.record = record;
+            this.evaluation = evaluation;
+            this.policy = policy;
+            this.enqueuedAt = System.currentTimeMillis();
+        }
+    }
+
+    public AsyncJournaling( FileJournaling fileJournaling ) {
+        Reject.ifNull( fileJournaling );
+        this.fileJournaling = fileJournaling;
+    }
+
+    @Override
+    public boolean init( JournalProperties journalProperties ) {
+        Reject.ifNull( journalProperties );
+        Map<String, String> additionalProperties = journalProperties.getJournalAdditionalProperties();
+        int queueCapacity = getInt( additionalProperties, JournalKeywords.QUEUE_CAPACITY, DEFAULT_QUEUE_CAPACITY );
+        syncInterval = getInt( additionalProperties, JournalKeywords.SYNC_INTERVAL, (int) DEFAULT_SYNC_INTERVAL );
+        syncBatch = getInt( additionalProperties, JournalKeywords.SYNC_BATCH, DEFAULT_SYNC_BATCH );
+        if( !fileJournaling.init( journalProperties ) ) {
+            return false;
+        }
+        queue = new ArrayBlockingQueue<>( queueCapacity );
+        registerMeters( UCSMetrics.getRegistry(), new File( journalProperties.getJournalPath() ).getAbsolutePath() );
+        running = true;
+        writer = new Thread( this::drain, "journal-writer" );
+        writer.setDaemon( true );
+        writer.start();
+        return true;
+    }
+
+    private static int getInt( Map<String, String> properties, String key, int defaultValue ) {
+        if( properties == null || !properties.containsKey( key ) ) {
+            return defaultValue;
+        }
+        try {
+            int value = Integer.parseInt( properties.get( key ).trim() );
+            return value > 0 ? value : defaultValue;
+        } catch( NumberFormatException e ) {
+            log.log( Level.WARNING, "Invalid journal property {0} : {1}", new Object[] { key, properties.get( key ) } );
+            return defaultValue;
+        }
+    }
+
+    @Override
+    public boolean isActive() {
+        return running;
+    }
+
+    @Override
+    public boolean logString( String message ) {
+        if( !running ) {
+            return false;
+        }
+        Reject.ifBlank( message );
+        return enqueue( message );
+    }
+
+    @Override
+    public boolean logMultipleStrings( String... strings ) {
+        if( !running ) {
+            return false;
+        }
+        Reject.ifNullStringArray( strings );
+        boolean result = true;
+        for( String string : strings ) {
+            result &= enqueue( string );
+        }
+        return result;
+    }
+
+    @Override
+    public boolean logEvaluation( EvaluationRecord evaluation, String policy ) {
+        if( !running ) {
+            return false;
+        }
+        Reject.ifNull( evaluation );
+        return enqueue( new Entry( evaluation, policy ) );
+    }
+
+    private boolean enqueue( String message ) {
+        return enqueue( new Entry( FileJournaling.format( message ).getBytes() ) );
+    }
+
+    private boolean enqueue( Entry entry ) {
+        if( !queue.offer( entry ) ) {
+            if( dropped.incrementAndGet() == 1 ) {
+                log.log( Level.WARNING, "Journal queue full, dropping records : the writer is {0} ms behind", lastLag );
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Writes the queued records until the journal is closed. Once interrupted
+     * the writer stops waiting: it writes what is already queued and exits,
+     * restoring the interrupt status only then since it would close the file.
+     */
+    private void drain() {
+        List<Entry> batch = new ArrayList<>( syncBatch );
+        int unsynced = 0;
+        long lastSync = System.currentTimeMillis();
+        boolean interrupted = false;
+        while( running || !queue.isEmpty() ) {
+            try {
+                Entry first = interrupted ? queue.poll() : queue.poll( syncInterval, TimeUnit.MILLISECONDS );
+                if( first != null ) {
+                    batch.add( first );
+                    queue.drainTo( batch, syncBatch - 1 );
+                }
+            } catch( InterruptedException e ) {
+                running = false;
+                interrupted = true;
+            }
+            for( Entry entry : batch ) {
+                if( entry.evaluation != null ) {
+                    fileJournaling.append( entry.evaluation, entry.policy );
+                } else {
+                    fileJournaling.append( entry.record );
+                }
+            }
+            unsynced += batch.size();
+            if( !batch.isEmpty() ) {
+                updateLag( batch.get( 0 ).enqueuedAt );
+            }
+            batch.clear();
+
+            long now = System.currentTimeMillis();
+            if( unsynced > 0 && ( unsynced >= syncBatch || now - lastSync >= syncInterval || !running ) ) {
+                fileJournaling.sync();
+                written.addAndGet( unsynced );
+                syncs.incrementAndGet();
+                unsynced = 0;
+                lastSync = now;
+            }
+        }
+        if( interrupted ) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void updateLag( long enqueuedAt ) {
+        lastLag = System.currentTimeMillis() - enqueuedAt;
+        if( lastLag > maxLag ) {
+            maxLag = lastLag;
+        }
+    }
+
+    /**
+     * Stops the writer once all the queued records have been written and synced.
+     */
+    public void close() {
+        running = false;
+        MeterRegistry registry = UCSMetrics.getRegistry();
+        for( Meter meter : meters ) {
+            registry.remove( meter );
+        }
+        meters.clear();
+        if( writer != null ) {
+            try {
+                writer.join( TimeUnit.SECONDS.toMillis( 5 ) );
+            } catch( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if( writer == null || !writer.isAlive() ) {
+            fileJournaling.close();
+        }
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getWrittenCount() {
+        return written.get();
+    }
+
+    public long getSyncCount() {
+        return syncs.get();
+    }
+
+    public int getQueueSize() {
+        return queue != null ? queue.size() : 0;
+    }
+
+    /**
+     * @return the time in milliseconds the oldest record of the last batch waited in the queue
+     */
+    public long getLastLag() {
+        return lastLag;
+    }
+
+    public long getMaxLag() {
+        return maxLag;
+    }
+
+    public long getBytesWritten() {
+        return fileJournaling.getBytesWritten();
+    }
+
+    public double getBytesPerSecond() {
+        return fileJournaling.getBytesPerSecond();
+    }
+
+    private void registerMeters( MeterRegistry registry, String journal ) {
+        meters.add( FunctionCounter.builder( UCSMetrics.JOURNAL_DROPPED, this, AsyncJournaling::getDroppedCount )
+            .tag( "journal", journal ).register( registry ) );
+        meters.add( Gauge.builder( UCSMetrics.JOURNAL_LAG, this, AsyncJournaling::getLastLag )
+            .tag( "journal", journal ).baseUnit( "milliseconds" ).register( registry ) );
+    }
+
+}
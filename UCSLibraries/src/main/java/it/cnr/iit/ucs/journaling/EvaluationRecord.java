@@ -0,0 +1,162 @@
+package it.cnr.iit.ucs.journaling;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import it.cnr.iit.utility.errorhandling.Reject;
+
+import oasis.names.tc.xacml.core.schema.wd_17.AttributeType;
+import oasis.names.tc.xacml.core.schema.wd_17.AttributeValueType;
+import oasis.names.tc.xacml.core.schema.wd_17.AttributesType;
+import oasis.names.tc.xacml.core.schema.wd_17.RequestType;
+
+/**
+ * Compact description of a PDP evaluation as it is written in the journal.
+ * The policy and the request are referenced by their digests, the values
+ * of the attributes used in the evaluation are kept to preserve the audit trail.
+ *
+ * @author Antonio La Marra, Alessandro Rosetti
+ */
+public final class EvaluationRecord {
+
+    private long timestamp;
+    private String sessionId;
+    private String condition;
+    private String decision;
+    private String policyHash;
+    private String requestDigest;
+    private List<AttributeValue> attributes = new ArrayList<>();
+
+    public static final class AttributeValue {
+        private final String category;
+        private final String attributeId;
+        private final String dataType;
+        private final String value;
+
+        public AttributeValue( String category, String attributeId, String dataType, String value ) {
+            this.category = category;
+            this.attributeId = attributeId;
+            this.dataType = dataType;
+            this.value = value;
+        }
+
+        public String getCategory() {
+            return category;
+        }
+
+        public String getAttributeId() {
+            return attributeId;
+        }
+
+        public String getDataType() {
+            return dataType;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return category + " " + attributeId + " = " + value;
+        }
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public EvaluationRecord setTimestamp( long timestamp ) {
+        this.timestamp = timestamp;
+        return this;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public EvaluationRecord setSessionId( String sessionId ) {
+        this.sessionId = sessionId;
+        return this;
+    }
+
+    public String getCondition() {
+        return condition;
+    }
+
+    public EvaluationRecord setCondition( String condition ) {
+        this.condition = condition;
+        return this;
+    }
+
+    public String getDecision() {
+        return decision;
+    }
+
+    public EvaluationRecord setDecision( String decision ) {
+        this.decision = decision;
+        return this;
+    }
+
+    public String getPolicyHash() {
+        return policyHash;
+    }
+
+    public EvaluationRecord setPolicyHash( String policyHash ) {
+        this.policyHash = policyHash;
+        return this;
+    }
+
+    public String getRequestDigest() {
+        return requestDigest;
+    }
+
+    public EvaluationRecord setRequestDigest( String requestDigest ) {
+        this.requestDigest = requestDigest;
+        return this;
+    }
+
+    public List<AttributeValue> getAttributes() {
+        return Collections.unmodifiableList( attributes );
+    }
+
+    public EvaluationRecord addAttribute( String category, String attributeId, String dataType, String value ) {
+        attributes.add( new AttributeValue( category, attributeId, dataType, value ) );
+        return this;
+    }
+
+    /**
+     * Copies the values of all the attributes contained in the (fattened) request.
+     */
+    public EvaluationRecord addAttributes( RequestType requestType ) {
+        Reject.ifNull( requestType );
+        for( AttributesType attributesType : requestType.getAttributes() ) {
+            for( AttributeType attributeType : attributesType.getAttribute() ) {
+                for( AttributeValueType valueType : attributeType.getAttributeValue() ) {
+                    for( Object content : valueType.getContent() ) {
+                        addAttribute( attributesType.getCategory(), attributeType.getAttributeId(), valueType.getDataType(),
+                            String.valueOf( content ) );
+                    }
+                }
+            }
+        }
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append( "time: " ).append( timestamp )
+            .append( "\tsession: " ).append( sessionId )
+            .append( "\tcondition: " ).append( condition )
+            .append( "\tdecision: " ).append( decision )
+            .append( "\tpolicy: " ).append( policyHash )
+            .append( "\trequest: " ).append( requestDigest );
+        for( AttributeValue attribute : attributes ) {
+            sb.append( "\n\t" ).append( attribute );
+        }
+        return sb.toString();
+    }
+
+}
@@ -3,20 +3,22 @@ package it.cnr.iit.ucs.journaling;
 import java.io.File;
 import java.io.IOException;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 import it.cnr.iit.ucs.properties.base.JournalProperties;
 import it.cnr.iit.utility.FileUtility;
 import it.cnr.iit.utility.errorhandling.Reject;
 
-import journal.io.api.Journal;
 import journal.io.api.Journal.WriteType;
-import journal.io.api.JournalBuilder;
 
 public class FileJournaling implements JournalingInterface {
 
     private static final Logger log = Logger.getLogger( FileJournaling.class.getName() );
-    private Optional<Journal> journal;
+    private Optional<JournalSegments> journal;
+    // hashes of the policies whose text has already been written in the current segment
+    private final Set<String> journaledPolicies = ConcurrentHashMap.newKeySet();
 
     public FileJournaling() {
         journal = Optional.empty();
@@ -32,7 +34,10 @@ public class FileJournaling implements JournalingInterface {
             if( !FileUtility.createPathIfNotExists( file ) ) {
                 return false;
             }
-            journal = Optional.ofNullable( JournalBuilder.of( file ).open() );
+            JournalSegments segments = new JournalSegments( file, journalProperties.getJournalAdditionalProperties(),
+                journaledPolicies::clear );
+            segments.open();
+            journal = Optional.of( segments );
             return true;
         } catch( Exception e ) {
             throw new IllegalStateException( "Error while initialising the journaling dir : " + e.getMessage() );
@@ -46,12 +51,8 @@ public class FileJournaling implements JournalingInterface {
         }
         Reject.ifBlank( message );
 
-        StringBuilder logStringBuilder = new StringBuilder();
-        logStringBuilder.append( message );
-
-        logStringBuilder.append( "\ttime: " + System.currentTimeMillis() );
         try {
-            journal.get().write( logStringBuilder.toString().getBytes(), WriteType.SYNC );
+            journal.get().write( format( message ).getBytes(), WriteType.SYNC );
             return true;
         } catch( IOException e ) {
             log.severe( "Error writing journal : " + e.getMessage() );
@@ -66,16 +67,72 @@ public class FileJournaling implements JournalingInterface {
         }
         Reject.ifNullStringArray( strings );
 
+        for( String string : strings ) {
+            if( !append( format( string ) ) ) {
+                return false;
+            }
+        }
+        return sync();
+    }
+
+    @Override
+    public boolean isActive() {
+        return journal.isPresent();
+    }
+
+    @Override
+    public boolean logEvaluation( EvaluationRecord evaluation, String policy ) {
+        if( !journal.isPresent() ) {
+            return false;
+        }
+        Reject.ifNull( evaluation );
+        return append( evaluation, policy ) && sync();
+    }
+
+    /**
+     * Writes an evaluation record without waiting for the disk, preceded by
+     * the policy record if the policy has not been written in the current segment yet.
+     */
+    boolean append( EvaluationRecord evaluation, String policy ) {
+        if( !journal.isPresent() ) {
+            return false;
+        }
+        String hash = evaluation.getPolicyHash();
         try {
-            for( String string : strings ) {
-                StringBuilder logStringBuilder = new StringBuilder();
-                logStringBuilder.append( string );
+            journal.get().write( WriteType.ASYNC, () -> {
+                byte[] record = JournalRecords.encodeEvaluation( evaluation );
+                if( hash == null || policy == null || !journaledPolicies.add( hash ) ) {
+                    return new byte[][] { record };
+                }
+                return new byte[][] { JournalRecords.encodePolicy( hash, policy ), record };
+            } );
+            return true;
+        } catch( IOException e ) {
+            // the policy record may have not been written
+            journaledPolicies.remove( hash );
+            log.severe( "Error writing journal : " + e.getMessage() );
+            return false;
+        }
+    }
 
-                logStringBuilder.append( "\ttime: " + System.currentTimeMillis() );
+    static String format( String message ) {
+        return message + "\ttime: " + System.currentTimeMillis();
+    }
 
-                journal.get().write( logStringBuilder.toString().getBytes(), WriteType.ASYNC );
-            }
-            journal.get().sync();
+    /**
+     * Writes an already formatted record without waiting for the disk,
+     * the record is durable only after the next sync.
+     */
+    boolean append( String record ) {
+        return append( record.getBytes() );
+    }
+
+    boolean append( byte[] record ) {
+        if( !journal.isPresent() ) {
+            return false;
+        }
+        try {
+            journal.get().write( record, WriteType.ASYNC );
             return true;
         } catch( IOException e ) {
             log.severe( "Error writing journal : " + e.getMessage() );
@@ -83,4 +140,44 @@ public class FileJournaling implements JournalingInterface {
         }
     }
 
+    boolean sync() {
+        if( !journal.isPresent() ) {
+            return false;
+        }
+        try {
+            journal.get().sync();
+            return true;
+        } catch( IOException e ) {
+            log.severe( "Error syncing journal : " + e.getMessage() );
+            return false;
+        }
+    }
+
+    public void close() {
+        if( !journal.isPresent() ) {
+            return;
+        }
+        try {
+            journal.get().close();
+        } catch( IOException e ) {
+            log.severe( "Error closing journal : " + e.getMessage() );
+        }
+        journal = Optional.empty();
+    }
+
+    public long getBytesWritten() {
+        return journal.isPresent() ? journal.get().getBytesWritten() : 0;
+    }
+
+    /**
+     * @return the bytes written per second in the last second of writes
+     */
+    public double getBytesPerSecond() {
+        return journal.isPresent() ? journal.get().getBytesPerSecond() : 0;
+    }
+
+    public long getSegmentsClosed() {
+        return journal.isPresent() ? journal.get().getSegmentsClosed() : 0;
+    }
+
 }
@@ -1,5 +1,6 @@
 package it.cnr.iit.ucs.journaling;
 
+import java.util.Map;
 import java.util.logging.Logger;
 
 import it.cnr.iit.ucs.properties.base.JournalProperties;
@@ -19,7 +20,9 @@ public final class JournalBuilder {
                 return buildFileJournal( journalProperties );
             }
             if( journalProperties.getJournalProtocol().equals( "syslog" ) ) {
-                return new SyslogJournaling();
+                SyslogJournaling syslogJournaling = new SyslogJournaling();
+                syslogJournaling.init( journalProperties );
+                return syslogJournaling;
             }
         }
         log.warning( "No journaling " );
@@ -28,7 +31,17 @@ public final class JournalBuilder {
 
     public static JournalingInterface buildFileJournal( JournalProperties journalProperties ) {
         FileJournaling journalingFileSystem = new FileJournaling();
+        if( isAsync( journalProperties ) ) {
+            AsyncJournaling asyncJournaling = new AsyncJournaling( journalingFileSystem );
+            asyncJournaling.init( journalProperties );
+            return asyncJournaling;
+        }
         journalingFileSystem.init( journalProperties );
         return journalingFileSystem;
     }
+
+    private static boolean isAsync( JournalProperties journalProperties ) {
+        Map<String, String> additionalProperties = journalProperties.getJournalAdditionalProperties();
+        return additionalProperties != null && Boolean.parseBoolean( additionalProperties.get( JournalKeywords.ASYNC ) );
+    }
 }
@@ -0,0 +1,65 @@
+package it.cnr.iit.ucs.journaling;
+
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keys of the journal additional properties understood by the journals
+ * built through the JournalBuilder.
+ * The syslog journal uses queue-capacity and sync-batch as well, the latter
+ * being the maximum number of records sent in a single TCP write.
+ *
+ * @author Antonio La Marra, Alessandro Rosetti
+ */
+public final class JournalKeywords {
+
+    /**
+     * If true the file journal is written by a dedicated thread, callers only
+     * enqueue their records and never wait for the disk
+     */
+    public static final String ASYNC = "async";
+    // maximum number of records waiting to be written, further records are dropped
+    public static final String QUEUE_CAPACITY = "queue-capacity";
+    // maximum time in milliseconds between two syncs of the journal
+    public static final String SYNC_INTERVAL = "sync-interval";
+    // maximum number of records written between two syncs of the journal
+    public static final String SYNC_BATCH = "sync-batch";
+
+    /**
+     * Size in bytes after which the file journal is closed and a new segment
+     * is opened, segments are sub directories of the journal path
+     */
+    public static final String SEGMENT_SIZE = "segment-size";
+    // time in milliseconds after which a new segment is opened
+    public static final String SEGMENT_INTERVAL = "segment-interval";
+    // if true the closed segments are compressed in background
+    public static final String COMPRESS = "compress";
+    // closed segments older than this many milliseconds are deleted
+    public static final String RETENTION_AGE = "retention-age";
+    // the oldest closed segments are deleted while the journal exceeds this many bytes
+    public static final String RETENTION_SIZE = "retention-size";
+
+    // syslog facility of the records sent by the syslog journal
+    public static final String FACILITY = "facility";
+    // APP-NAME of the records sent by the syslog journal
+    public static final String APP_NAME = "app-name";
+
+    private static final Logger log = Logger.getLogger( JournalKeywords.class.getName() );
+
+    private JournalKeywords() {}
+
+    static long getLong( Map<String, String> properties, String key, long defaultValue ) {
+        if( properties == null || !properties.containsKey( key ) ) {
+            return defaultValue;
+        }
+        try {
+            long value = Long.parseLong( properties.get( key ).trim() );
+            return value > 0 ? value : defaultValue;
+        } catch( NumberFormatException e ) {
+            log.log( Level.WARNING, "Invalid journal property {0} : {1}", new Object[] { key, properties.get( key ) } );
+            return defaultValue;
+        }
+    }
+
+}
@@ -0,0 +1,138 @@
+package it.cnr.iit.ucs.journaling;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import it.cnr.iit.utility.errorhandling.Reject;
+
+import journal.io.api.Journal;
+import journal.io.api.Journal.ReadType;
+import journal.io.api.JournalBuilder;
+import journal.io.api.Location;
+
+/**
+ * Decodes the records written by the file journals.
+ * Segmented journals are read one segment after the other, oldest first,
+ * compressed segments are extracted in a temporary directory.
+ * The policies found while reading are kept so that the evaluation records
+ * can be resolved to the policy text they reference.
+ *
+ * Usage: java it.cnr.iit.ucs.journaling.JournalReader journal-dir [--policies]
+ *
+ * @author Antonio La Marra, Alessandro Rosetti
+ */
+public final class JournalReader {
+
+    private final File directory;
+    private final Map<String, String> policies = new HashMap<>();
+
+    public JournalReader( File directory ) {
+        Reject.ifNull( directory );
+        Reject.ifFalse( directory.isDirectory(), "not a journal directory : " + directory );
+        this.directory = directory;
+    }
+
+    /**
+     * Reads the whole journal in write order.
+     *
+     * @param evaluations
+     *            consumer of the evaluation records
+     * @param texts
+     *            consumer of the text records, may be null
+     */
+    public void read( Consumer<EvaluationRecord> evaluations, Consumer<String> texts ) throws IOException {
+        Reject.ifNull( evaluations );
+        List<File> segments = JournalSegments.listSegments( directory );
+        if( segments.isEmpty() ) {
+            read( directory, evaluations, texts );
+            return;
+        }
+        for( File segment : segments ) {
+            if( segment.isDirectory() ) {
+                read( segment, evaluations, texts );
+            } else {
+                readCompressed( segment, evaluations, texts );
+            }
+        }
+    }
+
+    private void readCompressed( File segment, Consumer<EvaluationRecord> evaluations, Consumer<String> texts ) throws IOException {
+        Path extracted = Files.createTempDirectory( segment.getName() );
+        try {
+            try (ZipInputStream in = new ZipInputStream( new FileInputStream( segment ) )) {
+                for( ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry() ) {
+                    Files.copy( in, extracted.resolve( new File( entry.getName() ).getName() ) );
+                }
+            }
+            read( extracted.toFile(), evaluations, texts );
+        } finally {
+            File[] files = extracted.toFile().listFiles();
+            if( files != null ) {
+                for( File file : files ) {
+                    Files.deleteIfExists( file.toPath() );
+                }
+            }
+            Files.deleteIfExists( extracted );
+        }
+    }
+
+    private void read( File journalDirectory, Consumer<EvaluationRecord> evaluations, Consumer<String> texts ) throws IOException {
+        Journal journal = JournalBuilder.of( journalDirectory ).open();
+        try {
+            for( Location location : journal.redo() ) {
+                byte[] data = journal.read( location, ReadType.ASYNC );
+                switch( JournalRecords.typeOf( data ) ) {
+                    case JournalRecords.POLICY:
+                        String[] policy = JournalRecords.decodePolicy( data );
+                        policies.put( policy[0], policy[1] );
+                        break;
+                    case JournalRecords.EVALUATION:
+                        evaluations.accept( JournalRecords.decodeEvaluation( data ) );
+                        break;
+                    default:
+                        if( texts != null ) {
+                            texts.accept( new String( data ) );
+                        }
+                }
+            }
+        } finally {
+            journal.close();
+        }
+    }
+
+    /**
+     * @return the text of the policy with the given hash, null if it has not been read yet
+     */
+    public String getPolicy( String hash ) {
+        return policies.get( hash );
+    }
+
+    public Map<String, String> getPolicies() {
+        return new HashMap<>( policies );
+    }
+
+    public static void main( String[] args ) throws IOException {
+        if( args.length < 1 ) {
+            System.err.println( "Usage: JournalReader journal-dir [--policies]" );
+            System.exit( 1 );
+        }
+        JournalReader reader = new JournalReader( new File( args[0] ) );
+        reader.read( System.out::println, System.out::println );
+        if( args.length > 1 && "--policies".equals( args[1] ) ) {
+            for( Map.Entry<String, String> entry : reader.getPolicies().entrySet() ) {
+                System.out.println( "policy: " + entry.getKey() );
+                System.out.println( entry.getValue() );
+            }
+        }
+    }
+
+}
@@ -0,0 +1,130 @@
+package it.cnr.iit.ucs.journaling;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import it.cnr.iit.utility.errorhandling.Reject;
+
+/**
+ * Binary encoding of the structured journal records.
+ * Every binary record starts with a zero byte, that never starts a text record,
+ * followed by the record type. A POLICY record carries the hash and the full
+ * text of a policy and is written once per hash, an EVALUATION record
+ * references the policy by its hash.
+ *
+ * @author Antonio La Marra, Alessandro Rosetti
+ */
+public final class JournalRecords {
+
+    private static final byte MAGIC = 0;
+    public static final byte TEXT = 0;
+    public static final byte POLICY = 1;
+    public static final byte EVALUATION = 2;
+
+    private JournalRecords() {}
+
+    public static byte typeOf( byte[] data ) {
+        Reject.ifNull( data );
+        if( data.length < 2 || data[0] != MAGIC ) {
+            return TEXT;
+        }
+        return data[1];
+    }
+
+    public static byte[] encodePolicy( String hash, String policy ) {
+        Reject.ifBlank( hash );
+        Reject.ifBlank( policy );
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream( policy.length() + 96 );
+        try (DataOutputStream out = new DataOutputStream( bytes )) {
+            out.writeByte( MAGIC );
+            out.writeByte( POLICY );
+            writeString( out, hash );
+            writeString( out, policy );
+        } catch( IOException e ) {
+            throw new IllegalStateException( e );
+        }
+        return bytes.toByteArray();
+    }
+
+    public static byte[] encodeEvaluation( EvaluationRecord evaluation ) {
+        Reject.ifNull( evaluation );
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream( 256 );
+        try (DataOutputStream out = new DataOutputStream( bytes )) {
+            out.writeByte( MAGIC );
+            out.writeByte( EVALUATION );
+            out.writeLong( evaluation.getTimestamp() );
+            writeString( out, evaluation.getSessionId() );
+            writeString( out, evaluation.getCondition() );
+            writeString( out, evaluation.getDecision() );
+            writeString( out, evaluation.getPolicyHash() );
+            writeString( out, evaluation.getRequestDigest() );
+            out.writeInt( evaluation.getAttributes().size() );
+            for( EvaluationRecord.AttributeValue attribute : evaluation.getAttributes() ) {
+                writeString( out, attribute.getCategory() );
+                writeString( out, attribute.getAttributeId() );
+                writeString( out, attribute.getDataType() );
+                writeString( out, attribute.getValue() );
+            }
+        } catch( IOException e ) {
+            throw new IllegalStateException( e );
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return an array containing the hash and the text of the policy
+     */
+    public static String[] decodePolicy( byte[] data ) throws IOException {
+        Reject.ifFalse( typeOf( data ) == POLICY, "not a policy record" );
+        DataInputStream in = open( data );
+        return new String[] { readString( in ), readString( in ) };
+    }
+
+    public static EvaluationRecord decodeEvaluation( byte[] data ) throws IOException {
+        Reject.ifFalse( typeOf( data ) == EVALUATION, "not an evaluation record" );
+        DataInputStream in = open( data );
+        EvaluationRecord evaluation = new EvaluationRecord()
+            .setTimestamp( in.readLong() )
+            .setSessionId( readString( in ) )
+            .setCondition( readString( in ) )
+            .setDecision( readString( in ) )
+            .setPolicyHash( readString( in ) )
+            .setRequestDigest( readString( in ) );
+        int size = in.readInt();
+        for( int i = 0; i < size; i++ ) {
+            evaluation.addAttribute( readString( in ), readString( in ), readString( in ), readString( in ) );
+        }
+        return evaluation;
+    }
+
+    private static DataInputStream open( byte[] data ) throws IOException {
+        DataInputStream in = new DataInputStream( new ByteArrayInputStream( data ) );
+        in.skipBytes( 2 );
+        return in;
+    }
+
+    private static void writeString( DataOutputStream out, String value ) throws IOException {
+        if( value == null ) {
+            out.writeInt( -1 );
+            return;
+        }
+        byte[] bytes = value.getBytes( StandardCharsets.UTF_8 );
+        out.writeInt( bytes.length );
+        out.write( bytes );
+    }
+
+    private static String readString( DataInputStream in ) throws IOException {
+        int length = in.readInt();
+        if( length < 0 ) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully( bytes );
+        return new String( bytes, StandardCharsets.UTF_8 );
+    }
+
+}
@@ -0,0 +1,386 @@
+package it.cnr.iit.ucs.journaling;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import it.cnr.iit.ucs.metrics.UCSMetrics;
+import it.cnr.iit.utility.errorhandling.Reject;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import journal.io.api.Journal;
+import journal.io.api.Journal.WriteType;
+import journal.io.api.JournalBuilder;
+
+/**
+ * The journal directory of a file journal.
+ * When a segment size or interval is configured the records are written in
+ * segments, sub directories named after the time they have been opened.
+ * A segment is closed once it exceeds the configured size or age, then it is
+ * optionally compressed and the oldest segments are deleted according to the
+ * retention policy, both in background.
+ * Without a segment size or interval the records are written directly in the
+ * journal directory as before.
+ * The onRoll callback is run when a new segment is opened, before anything
+ * is written in it. The next segment is opened before the current one is
+ * closed, if it cannot be opened the records keep going to the current one
+ * and the roll is attempted again later.
+ * The bytes written, their rate and the closed segments are registered as
+ * metrics tagged with the journal directory.
+ *
+ * @author Antonio La Marra, Alessandro Rosetti
+ */
+final class JournalSegments {
+
+    private static final Logger log = Logger.getLogger( JournalSegments.class.getName() );
+
+    static final String SEGMENT_PREFIX = "segment-";
+    static final String COMPRESSED_SUFFIX = ".zip";
+    private static final long RATE_WINDOW = 1000;
+    private static final long ROLL_RETRY_DELAY = 1000;
+
+    private final File directory;
+    private final long segmentSize;
+    private final long segmentInterval;
+    private final boolean compress;
+    private final long retentionAge;
+    private final long retentionSize;
+    private final Runnable onRoll;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private ExecutorService maintenance;
+    private Journal journal;
+    private volatile File segment;
+    private volatile long segmentOpenedAt;
+    private final AtomicLong segmentBytes = new AtomicLong();
+    private volatile long nextRollAttempt = 0;
+
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong segmentsClosed = new AtomicLong();
+    // the rate is sampled by the writers, once per window
+    private final Object rateLock = new Object();
+    private volatile long windowStart = System.currentTimeMillis();
+    private volatile long windowBytes = 0;
+    private volatile double bytesPerSecond = 0;
+    private final List<Meter> meters = new ArrayList<>();
+
+    JournalSegments( File directory, Map<String, String> properties, Runnable onRoll ) {
+        Reject.ifNull( directory );
+        this.directory = directory;
+        this.segmentSize = JournalKeywords.getLong( properties, JournalKeywords.SEGMENT_SIZE, 0 );
+        this.segmentInterval = JournalKeywords.getLong( properties, JournalKeywords.SEGMENT_INTERVAL, 0 );
+        this.compress = properties != null && Boolean.parseBoolean( properties.get( JournalKeywords.COMPRESS ) );
+        this.retentionAge = JournalKeywords.getLong( properties, JournalKeywords.RETENTION_AGE, 0 );
+        this.retentionSize = JournalKeywords.getLong( properties, JournalKeywords.RETENTION_SIZE, 0 );
+        this.onRoll = onRoll;
+    }
+
+    boolean isSegmented() {
+        return segmentSize > 0 || segmentInterval > 0;
+    }
+
+    void open() throws IOException {
+        registerMeters( UCSMetrics.getRegistry() );
+        if( !isSegmented() ) {
+            journal = JournalBuilder.of( directory ).open();
+            return;
+        }
+        maintenance = Executors.newSingleThreadExecutor( runnable -> {
+            Thread thread = new Thread( runnable, "journal-maintenance" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+        openSegment();
+        for( File closed : listSegments( directory ) ) {
+            if( !closed.equals( segment ) ) {
+                scheduleMaintenance( closed );
+            }
+        }
+    }
+
+    void write( byte[] record, WriteType writeType ) throws IOException {
+        write( writeType, () -> new byte[][] { record } );
+    }
+
+    /**
+     * Writes the records built by the supplier in the same segment.
+     * The supplier is called once the segment has been chosen, so that it can
+     * depend on what has already been written in it.
+     */
+    void write( WriteType writeType, Supplier<byte[][]> records ) throws IOException {
+        if( isSegmented() && mustRoll() ) {
+            roll();
+        }
+        lock.readLock().lock();
+        try {
+            for( byte[] record : records.get() ) {
+                journal.write( record, writeType );
+                segmentBytes.addAndGet( record.length );
+                bytesWritten.addAndGet( record.length );
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        sampleRate();
+    }
+
+    void sync() throws IOException {
+        lock.readLock().lock();
+        try {
+            journal.sync();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    void close() throws IOException {
+        MeterRegistry registry = UCSMetrics.getRegistry();
+        for( Meter meter : meters ) {
+            registry.remove( meter );
+        }
+        lock.writeLock().lock();
+        try {
+            journal.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if( maintenance != null ) {
+            maintenance.shutdown();
+            try {
+                maintenance.awaitTermination( 5, TimeUnit.SECONDS );
+            } catch( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private boolean mustRoll() {
+        long now = System.currentTimeMillis();
+        return now >= nextRollAttempt && ( ( segmentSize > 0 && segmentBytes.get() >= segmentSize )
+                || ( segmentInterval > 0 && now - segmentOpenedAt >= segmentInterval ) );
+    }
+
+    private void roll() {
+        File closed;
+        lock.writeLock().lock();
+        try {
+            if( !mustRoll() ) {
+                return;
+            }
+            Journal previous = journal;
+            closed = segment;
+            try {
+                openSegment();
+            } catch( IOException e ) {
+                nextRollAttempt = System.currentTimeMillis() + ROLL_RETRY_DELAY;
+                log.log( Level.SEVERE, "Unable to roll the journal, still writing in {0} : {1}",
+                    new Object[] { closed, e.getMessage() } );
+                return;
+            }
+            try {
+                previous.close();
+            } catch( IOException e ) {
+                log.log( Level.WARNING, "Error closing journal segment {0} : {1}", new Object[] { closed, e.getMessage() } );
+            }
+            if( onRoll != null ) {
+                onRoll.run();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        segmentsClosed.incrementAndGet();
+        scheduleMaintenance( closed );
+    }
+
+    /**
+     * Opens a new segment and makes it the current one, the current one is
+     * left untouched if the new one cannot be opened.
+     */
+    private void openSegment() throws IOException {
+        long now = System.currentTimeMillis();
+        File next = new File( directory, SEGMENT_PREFIX + now );
+        while( next.exists() || new File( directory, next.getName() + COMPRESSED_SUFFIX ).exists() ) {
+            next = new File( directory, SEGMENT_PREFIX + ( ++now ) );
+        }
+        if( !next.mkdirs() ) {
+            throw new IOException( "Unable to create journal segment " + next );
+        }
+        journal = JournalBuilder.of( next ).open();
+        segment = next;
+        segmentOpenedAt = System.currentTimeMillis();
+        segmentBytes.set( 0 );
+    }
+
+    private void scheduleMaintenance( File closed ) {
+        maintenance.execute( () -> {
+            try {
+                if( compress && closed.isDirectory() ) {
+                    compress( closed );
+                }
+                applyRetention();
+            } catch( IOException e ) {
+                log.log( Level.SEVERE, "Error maintaining journal segment {0} : {1}", new Object[] { closed, e.getMessage() } );
+            }
+        } );
+    }
+
+    private static void compress( File closed ) throws IOException {
+        File zip = new File( closed.getParentFile(), closed.getName() + COMPRESSED_SUFFIX );
+        File partial = new File( closed.getParentFile(), zip.getName() + ".tmp" );
+        try (ZipOutputStream out = new ZipOutputStream( new FileOutputStream( partial ) )) {
+            for( File file : listFiles( closed ) ) {
+                out.putNextEntry( new ZipEntry( file.getName() ) );
+                Files.copy( file.toPath(), out );
+                out.closeEntry();
+            }
+        }
+        Files.move( partial.toPath(), zip.toPath() );
+        delete( closed );
+    }
+
+    private void applyRetention() {
+        if( retentionAge <= 0 && retentionSize <= 0 ) {
+            return;
+        }
+        List<File> closed = listSegments( directory );
+        closed.remove( segment );
+        long total = sizeOf( segment );
+        for( File file : closed ) {
+            total += sizeOf( file );
+        }
+        long now = System.currentTimeMillis();
+        for( File oldest : closed ) {
+            boolean expired = retentionAge > 0 && now - oldest.lastModified() > retentionAge;
+            boolean oversized = retentionSize > 0 && total > retentionSize;
+            if( !expired && !oversized ) {
+                break;
+            }
+            total -= sizeOf( oldest );
+            delete( oldest );
+            log.log( Level.INFO, "Journal segment {0} deleted by retention", oldest );
+        }
+    }
+
+    /**
+     * @return the segments in the directory, both plain and compressed, oldest first
+     */
+    static List<File> listSegments( File directory ) {
+        List<File> segments = new ArrayList<>();
+        for( File file : listFiles( directory ) ) {
+            if( file.getName().startsWith( SEGMENT_PREFIX )
+                    && ( file.isDirectory() || file.getName().endsWith( COMPRESSED_SUFFIX ) ) ) {
+                segments.add( file );
+            }
+        }
+        Collections.sort( segments, ( a, b ) -> Long.compare( segmentTime( a ), segmentTime( b ) ) );
+        return segments;
+    }
+
+    private static long segmentTime( File segment ) {
+        String name = segment.getName().substring( SEGMENT_PREFIX.length() );
+        if( name.endsWith( COMPRESSED_SUFFIX ) ) {
+            name = name.substring( 0, name.length() - COMPRESSED_SUFFIX.length() );
+        }
+        try {
+            return Long.parseLong( name );
+        } catch( NumberFormatException e ) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    private static List<File> listFiles( File directory ) {
+        File[] files = directory.listFiles();
+        return files != null ? Arrays.asList( files ) : new ArrayList<>();
+    }
+
+    private static long sizeOf( File file ) {
+        if( file == null ) {
+            return 0;
+        }
+        if( !file.isDirectory() ) {
+            return file.length();
+        }
+        long size = 0;
+        for( File child : listFiles( file ) ) {
+            size += sizeOf( child );
+        }
+        return size;
+    }
+
+    private static void delete( File file ) {
+        for( File child : listFiles( file ) ) {
+            delete( child );
+        }
+        if( !file.delete() ) {
+            log.log( Level.WARNING, "Unable to delete {0}", file );
+        }
+    }
+
+    long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    long getSegmentsClosed() {
+        return segmentsClosed.get();
+    }
+
+    /**
+     * @return the bytes written per second in the last sampled window, or since
+     *         its end when nothing has been written for a while, reading it does
+     *         not change it
+     */
+    double getBytesPerSecond() {
+        long now = System.currentTimeMillis();
+        long start = windowStart;
+        if( now - start < 2 * RATE_WINDOW ) {
+            return bytesPerSecond;
+        }
+        return ( bytesWritten.get() - windowBytes ) * 1000.0 / ( now - start );
+    }
+
+    private void sampleRate() {
+        if( System.currentTimeMillis() - windowStart < RATE_WINDOW ) {
+            return;
+        }
+        synchronized( rateLock ) {
+            long now = System.currentTimeMillis();
+            if( now - windowStart < RATE_WINDOW ) {
+                return;
+            }
+            long bytes = bytesWritten.get();
+            bytesPerSecond = ( bytes - windowBytes ) * 1000.0 / ( now - windowStart );
+            windowBytes = bytes;
+            windowStart = now;
+        }
+    }
+
+    private void registerMeters( MeterRegistry registry ) {
+        String tag = directory.getAbsolutePath();
+        meters.add( FunctionCounter.builder( UCSMetrics.JOURNAL_BYTES, this, JournalSegments::getBytesWritten )
+            .tag( "journal", tag ).baseUnit( "bytes" ).register( registry ) );
+        meters.add( Gauge.builder( UCSMetrics.JOURNAL_THROUGHPUT, this, JournalSegments::getBytesPerSecond )
+            .tag( "journal", tag ).baseUnit( "bytes" ).register( registry ) );
+        meters.add( FunctionCounter.builder( UCSMetrics.JOURNAL_SEGMENTS, this, JournalSegments::getSegmentsClosed )
+            .tag( "journal", tag ).register( registry ) );
+    }
+
+}
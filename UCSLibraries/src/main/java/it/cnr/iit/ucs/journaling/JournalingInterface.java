@@ -10,4 +10,22 @@ public interface JournalingInterface {
 
     public boolean logMultipleStrings( String... strings );
 
+    /**
+     * Logs a compact record of an evaluation, the policy text is logged
+     * only the first time its hash is seen by this journal.
+     *
+     * @param evaluation
+     *            the evaluation record
+     * @param policy
+     *            the text of the policy referenced by the record
+     * @return true if the record has been logged
+     */
+    public boolean logEvaluation( EvaluationRecord evaluation, String policy );
+
+    /**
+     * @return true if the journal has been initialised and records are
+     *         written, callers can skip building records otherwise
+     */
+    public boolean isActive();
+
 }
@@ -1,22 +1,331 @@
 package it.cnr.iit.ucs.journaling;
 
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import it.cnr.iit.ucs.metrics.UCSMetrics;
 import it.cnr.iit.ucs.properties.base.JournalProperties;
+import it.cnr.iit.utility.errorhandling.Reject;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
 
+/**
+ * Journal shipping RFC 5424 records to a syslog endpoint.
+ * The journal path is the endpoint, e.g. udp://localhost:514 or tcp://localhost:601.
+ * Callers only put the records in a bounded queue, a dedicated sender thread
+ * sends them, one datagram per record over UDP or in batches of octet-counted
+ * frames (RFC 6587) over TCP. When the queue is full or the endpoint is not
+ * reachable the records are dropped, the sent and dropped ones are exported
+ * through the UCS metrics.
+ *
+ * @author Antonio La Marra, Alessandro Rosetti
+ */
 public class SyslogJournaling implements JournalingInterface {
 
+    private static final Logger log = Logger.getLogger( SyslogJournaling.class.getName() );
+
+    public static final int DEFAULT_FACILITY = 13; // log audit
+    public static final String DEFAULT_APP_NAME = "ucs";
+    private static final int SEVERITY_INFO = 6;
+    private static final int MAX_DATAGRAM = 65000;
+    private static final long RECONNECT_DELAY = 1000;
+
+    private BlockingQueue<byte[]> queue;
+    private int batchSize = AsyncJournaling.DEFAULT_SYNC_BATCH;
+    private String priority;
+    private String header;
+    private InetSocketAddress endpoint;
+    private boolean tcp;
+    private DatagramChannel datagramChannel;
+    private SocketChannel socketChannel;
+    private Thread sender;
+    private volatile boolean running = false;
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final List<Meter> meters = new ArrayList<>();
+
     @Override
     public boolean init( JournalProperties journalProperties ) {
-        return false;
+        Reject.ifNull( journalProperties );
+        Reject.ifBlank( journalProperties.getJournalPath() );
+        URI uri = URI.create( journalProperties.getJournalPath() );
+        Reject.ifTrue( uri.getHost() == null || uri.getPort() < 0, "invalid syslog endpoint : " + uri );
+        tcp = "tcp".equalsIgnoreCase( uri.getScheme() );
+        endpoint = new InetSocketAddress( uri.getHost(), uri.getPort() );
+
+        Map<String, String> additionalProperties = journalProperties.getJournalAdditionalProperties();
+        int facility = (int) JournalKeywords.getLong( additionalProperties, JournalKeywords.FACILITY, DEFAULT_FACILITY );
+        String appName = additionalProperties != null && additionalProperties.containsKey( JournalKeywords.APP_NAME )
+                ? additionalProperties.get( JournalKeywords.APP_NAME )
+                : DEFAULT_APP_NAME;
+        int queueCapacity = (int) JournalKeywords.getLong( additionalProperties, JournalKeywords.QUEUE_CAPACITY,
+            AsyncJournaling.DEFAULT_QUEUE_CAPACITY );
+        batchSize = (int) JournalKeywords.getLong( additionalProperties, JournalKeywords.SYNC_BATCH, AsyncJournaling.DEFAULT_SYNC_BATCH );
+        priority = "<" + ( facility * 8 + SEVERITY_INFO ) + ">1 ";
+        header = " " + hostname() + " " + appName + " " + processId() + " ";
+
+        queue = new ArrayBlockingQueue<>( queueCapacity );
+        registerMeters( UCSMetrics.getRegistry(), journalProperties.getJournalPath() );
+        running = true;
+        sender = new Thread( this::send, "syslog-sender" );
+        sender.setDaemon( true );
+        sender.start();
+        return true;
+    }
+
+    @Override
+    public boolean isActive() {
+        return running;
     }
 
     @Override
     public boolean logString( String message ) {
-        return false;
+        if( !running ) {
+            return false;
+        }
+        Reject.ifBlank( message );
+        return enqueue( format( "journal", "-", message ) );
     }
 
     @Override
     public boolean logMultipleStrings( String... strings ) {
-        return false;
+        if( !running ) {
+            return false;
+        }
+        Reject.ifNullStringArray( strings );
+        boolean result = true;
+        for( String string : strings ) {
+            result &= enqueue( format( "journal", "-", string ) );
+        }
+        return result;
+    }
+
+    /**
+     * The evaluation is sent as structured data, the policy is referenced by
+     * its hash only since its text does not fit a syslog record.
+     */
+    @Override
+    public boolean logEvaluation( EvaluationRecord evaluation, String policy ) {
+        if( !running ) {
+            return false;
+        }
+        Reject.ifNull( evaluation );
+        StringBuilder data = new StringBuilder( "[evaluation@32473" );
+        param( data, "session", evaluation.getSessionId() );
+        param( data, "condition", evaluation.getCondition() );
+        param( data, "decision", evaluation.getDecision() );
+        param( data, "policy", evaluation.getPolicyHash() );
+        param( data, "request", evaluation.getRequestDigest() );
+        data.append( ']' );
+        StringBuilder message = new StringBuilder();
+        for( EvaluationRecord.AttributeValue attribute : evaluation.getAttributes() ) {
+            message.append( attribute.getAttributeId() ).append( '=' ).append( attribute.getValue() ).append( ' ' );
+        }
+        return enqueue( format( "evaluation", data.toString(), message.toString().trim() ) );
+    }
+
+    private static void param( StringBuilder data, String name, String value ) {
+        if( value != null ) {
+            data.append( ' ' ).append( name ).append( "=\"" )
+                .append( value.replace( "\\", "\\\\" ).replace( "\"", "\\\"" ).replace( "]", "\\]" ) ).append( '"' );
+        }
+    }
+
+    private byte[] format( String messageId, String structuredData, String message ) {
+        String record = priority + timestamp( System.currentTimeMillis() ) + header + messageId + " " + structuredData
+                + ( message.isEmpty() ? "" : " " + message.replace( '\n', ' ' ) );
+        return record.getBytes( StandardCharsets.UTF_8 );
+    }
+
+    private static String timestamp( long time ) {
+        return DateTimeFormatter.ISO_INSTANT.format( Instant.ofEpochMilli( time ) );
+    }
+
+    private static String hostname() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch( UnknownHostException e ) {
+            return "-";
+        }
+    }
+
+    private static String processId() {
+        String name = ManagementFactory.getRuntimeMXBean().getName();
+        int index = name.indexOf( '@' );
+        return index > 0 ? name.substring( 0, index ) : "-";
+    }
+
+    private boolean enqueue( byte[] record ) {
+        if( !queue.offer( record ) ) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Sends the queued records until the journal is closed. Once interrupted
+     * the sender stops waiting: it sends what is already queued and exits,
+     * restoring the interrupt status only then since it would close the
+     * channels.
+     */
+    private void send() {
+        List<byte[]> batch = new ArrayList<>( batchSize );
+        boolean interrupted = false;
+        while( running || !queue.isEmpty() ) {
+            try {
+                byte[] first = interrupted ? queue.poll() : queue.poll( 100, TimeUnit.MILLISECONDS );
+                if( first == null ) {
+                    continue;
+                }
+                batch.add( first );
+                queue.drainTo( batch, batchSize - 1 );
+            } catch( InterruptedException e ) {
+                running = false;
+                interrupted = true;
+                continue;
+            }
+            try {
+                if( tcp ) {
+                    sendTcp( batch );
+                } else {
+                    sendUdp( batch );
+                }
+                sent.addAndGet( batch.size() );
+            } catch( IOException e ) {
+                dropped.addAndGet( batch.size() );
+                log.log( Level.WARNING, "Error sending journal to {0} : {1}", new Object[] { endpoint, e.getMessage() } );
+                closeChannels();
+                if( interrupted || !pause() ) {
+                    running = false;
+                    interrupted = true;
+                    dropped.addAndGet( queue.size() );
+                    queue.clear();
+                }
+            }
+            batch.clear();
+        }
+        closeChannels();
+        if( interrupted ) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void sendUdp( List<byte[]> batch ) throws IOException {
+        if( datagramChannel == null ) {
+            datagramChannel = DatagramChannel.open();
+            datagramChannel.connect( endpoint );
+        }
+        for( byte[] record : batch ) {
+            int length = Math.min( record.length, MAX_DATAGRAM );
+            datagramChannel.write( ByteBuffer.wrap( record, 0, length ) );
+        }
+    }
+
+    private void sendTcp( List<byte[]> batch ) throws IOException {
+        if( socketChannel == null ) {
+            socketChannel = SocketChannel.open( endpoint );
+        }
+        int size = 0;
+        for( byte[] record : batch ) {
+            size += record.length + 12;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate( size );
+        for( byte[] record : batch ) {
+            buffer.put( ( record.length + " " ).getBytes( StandardCharsets.US_ASCII ) );
+            buffer.put( record );
+        }
+        buffer.flip();
+        while( buffer.hasRemaining() ) {
+            socketChannel.write( buffer );
+        }
+    }
+
+    private void closeChannels() {
+        try {
+            if( datagramChannel != null ) {
+                datagramChannel.close();
+            }
+            if( socketChannel != null ) {
+                socketChannel.close();
+            }
+        } catch( IOException e ) {
+            log.log( Level.FINE, "Error closing syslog channel : {0}", e.getMessage() );
+        }
+        datagramChannel = null;
+        socketChannel = null;
+    }
+
+    /**
+     * @return false if interrupted while waiting to reconnect
+     */
+    private boolean pause() {
+        try {
+            Thread.sleep( RECONNECT_DELAY );
+            return true;
+        } catch( InterruptedException e ) {
+            return false;
+        }
+    }
+
+    /**
+     * Stops the sender once all the queued records have been sent.
+     */
+    public void close() {
+        running = false;
+        MeterRegistry registry = UCSMetrics.getRegistry();
+        for( Meter meter : meters ) {
+            registry.remove( meter );
+        }
+        meters.clear();
+        if( sender != null ) {
+            try {
+                sender.join( TimeUnit.SECONDS.toMillis( 5 ) );
+            } catch( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public long getSentCount() {
+        return sent.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public int getQueueSize() {
+        return queue != null ? queue.size() : 0;
+    }
+
+    private void registerMeters( MeterRegistry registry, String journal ) {
+        meters.add( FunctionCounter.builder( UCSMetrics.JOURNAL_SENT, this, SyslogJournaling::getSentCount )
+            .tag( "journal", journal ).register( registry ) );
+        meters.add( FunctionCounter.builder( UCSMetrics.JOURNAL_DROPPED, this, SyslogJournaling::getDroppedCount )
+            .tag( "journal", journal ).register( registry ) );
     }
 
 }
@@ -36,6 +36,10 @@ public final class AttributeChangeMessage extends Message {
 
     private ATTRIBUTE_ACTION attributeAction;
 
+    // when the PIP detected the change and which PIP did, used to measure the revocation latency
+    private long changedAt;
+    private String pip;
+
     public AttributeChangeMessage( String source, String destination ) {
         super( source, destination );
     }
@@ -65,4 +69,20 @@ public final class AttributeChangeMessage extends Message {
         return attributeAction;
     }
 
+    public void setChangedAt( long changedAt ) {
+        this.changedAt = changedAt;
+    }
+
+    public long getChangedAt() {
+        return changedAt;
+    }
+
+    public void setPip( String pip ) {
+        this.pip = pip;
+    }
+
+    public String getPip() {
+        return pip;
+    }
+
 }
@@ -15,6 +15,7 @@
  ******************************************************************************/
 package it.cnr.iit.ucs.message.reevaluation;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import it.cnr.iit.ucs.constants.ENTITIES;
@@ -22,6 +23,7 @@ import it.cnr.iit.ucs.constants.PURPOSE;
 import it.cnr.iit.ucs.message.EvaluatedMessage;
 import it.cnr.iit.ucs.message.IdentifiedMessage;
 import it.cnr.iit.ucs.message.Message;
+import it.cnr.iit.ucs.message.attributechange.AttributeChangeMessage;
 import it.cnr.iit.ucs.pdp.PDPEvaluation;
 import it.cnr.iit.utility.errorhandling.Reject;
 
@@ -38,6 +40,12 @@ public class ReevaluationResponseMessage extends Message implements EvaluatedMes
     private String pepId;
     String sessionId;
 
+    // the attribute change that caused the reevaluation, if any
+    private String attributeChangeId;
+    private String pip;
+    private long attributeChangedAt;
+    private long reevaluatedAt;
+
     public ReevaluationResponseMessage( String source, String destination ) {
         super( source, destination );
         purpose = PURPOSE.REEVALUATION_RESPONSE;
@@ -88,4 +96,50 @@ public class ReevaluationResponseMessage extends Message implements EvaluatedMes
         return sessionId;
     }
 
+    /**
+     * Links the reevaluation to the attribute change that caused it.
+     */
+    @JsonIgnore
+    public void setAttributeChange( AttributeChangeMessage attributeChange ) {
+        Reject.ifNull( attributeChange );
+        this.attributeChangeId = attributeChange.getMessageId();
+        this.pip = attributeChange.getPip();
+        this.attributeChangedAt = attributeChange.getChangedAt();
+    }
+
+    public String getAttributeChangeId() {
+        return attributeChangeId;
+    }
+
+    public void setAttributeChangeId( String attributeChangeId ) {
+        this.attributeChangeId = attributeChangeId;
+    }
+
+    public String getPip() {
+        return pip;
+    }
+
+    public void setPip( String pip ) {
+        this.pip = pip;
+    }
+
+    /**
+     * @return when the PIP detected the attribute change, 0 if the reevaluation was not caused by one
+     */
+    public long getAttributeChangedAt() {
+        return attributeChangedAt;
+    }
+
+    public void setAttributeChangedAt( long attributeChangedAt ) {
+        this.attributeChangedAt = attributeChangedAt;
+    }
+
+    public long getReevaluatedAt() {
+        return reevaluatedAt;
+    }
+
+    public void setReevaluatedAt( long reevaluatedAt ) {
+        this.reevaluatedAt = reevaluatedAt;
+    }
+
 }
@@ -0,0 +1,191 @@
+package it.cnr.iit.ucs.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import it.cnr.iit.utility.errorhandling.Reject;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Names and helpers of the metrics recorded by the UCS components.
+ * The metrics are recorded in the Micrometer global registry, that collects
+ * them in the registries of the hosting application (e.g. the Spring Boot
+ * Actuator one of UCSRest) or discards them when there are none.
+ * The timers and counters are built once per name and tags and then cached,
+ * so that recording on the hot paths neither builds nor looks them up in the
+ * registry.
+ *
+ * @author Antonio La Marra, Alessandro Rosetti
+ */
+public final class UCSMetrics {
+
+    // latency of a whole operation, tagged by operation
+    public static final String OPERATION = "ucs.operation";
+    // latency of a phase of an operation, tagged by operation and phase
+    public static final String PHASE = "ucs.operation.phase";
+    // number of messages waiting in the request manager, tagged by queue
+    public static final String QUEUE = "ucs.requestmanager.queue";
+    // messages refused or dropped by the request manager admission, tagged by lane and action
+    public static final String ADMISSION = "ucs.requestmanager.admission";
+    // number of sessions, tagged by status
+    public static final String SESSIONS = "ucs.sessions";
+    // latency of the PIP retrieve and subscribe, tagged by pip and operation
+    public static final String PIP = "ucs.pip";
+    // failed PIP retrieve and subscribe, tagged by pip and operation
+    public static final String PIP_ERRORS = "ucs.pip.errors";
+    // time elapsed since a PIP detected an attribute change, tagged by pip, stage and decision
+    public static final String REVOCATION = "ucs.revocation";
+    // number of policies cached by the PAP
+    public static final String PAP_POLICIES = "ucs.pap.policies";
+    // time taken to reload the PAP policies from their files, tagged by scope
+    public static final String PAP_RELOAD = "ucs.pap.reload";
+    // number of messages and sessions tracked by the PEP message storage, and its estimated size
+    public static final String PEP_MESSAGES = "ucs.pep.messages";
+    public static final String PEP_SESSIONS = "ucs.pep.sessions";
+    public static final String PEP_STORAGE_MEMORY = "ucs.pep.storage.memory";
+    // messages and sessions evicted by the PEP message storage, tagged by kind
+    public static final String PEP_EVICTED = "ucs.pep.evicted";
+    // bytes written by a file journal, their rate per second and the segments closed, tagged by journal
+    public static final String JOURNAL_BYTES = "ucs.journal.bytes";
+    public static final String JOURNAL_THROUGHPUT = "ucs.journal.throughput";
+    public static final String JOURNAL_SEGMENTS = "ucs.journal.segments.closed";
+    // records dropped by a journal that never blocks and the time its last batch waited to be written, tagged by journal
+    public static final String JOURNAL_DROPPED = "ucs.journal.dropped";
+    public static final String JOURNAL_LAG = "ucs.journal.lag";
+    // records sent to a syslog endpoint, tagged by journal
+    public static final String JOURNAL_SENT = "ucs.journal.sent";
+
+    public static final String TRYACCESS = "tryaccess";
+    public static final String STARTACCESS = "startaccess";
+    public static final String ENDACCESS = "endaccess";
+    public static final String REEVALUATE = "reevaluate";
+
+    public static final String FATTEN = "fatten";
+    public static final String PDP = "pdp";
+    public static final String OBLIGATIONS = "obligations";
+    public static final String SESSION_STORE = "session";
+
+    public static final String REEVALUATED = "reevaluated";
+    public static final String NOTIFIED = "notified";
+
+    public static final String REJECTED = "rejected";
+    public static final String SHED = "shed";
+
+    private static volatile MeterRegistry registry = Metrics.globalRegistry;
+    private static final ConcurrentMap<MeterKey, Timer> timers = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<MeterKey, Counter> counters = new ConcurrentHashMap<>();
+    // the phase timers by operation and phase, looked up without allocating
+    private static final ConcurrentMap<String, ConcurrentMap<String, Timer>> phases = new ConcurrentHashMap<>();
+
+    private static final class MeterKey {
+        private final String name;
+        private final String[] tags;
+        private final int hash;
+
+        private MeterKey( String name, String[] tags ) {
+            this.name = name;
+            this.tags = tags;
+            this.hash = 31 * name.hashCode() + Arrays.hashCode( tags );
+        }
+
+        @Override
+        public boolean equals( Object obj ) {
+            if( !( obj instanceof MeterKey ) ) {
+                return false;
+            }
+            MeterKey other = (MeterKey) obj;
+            return name.equals( other.name ) && Arrays.equals( tags, other.tags );
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private UCSMetrics() {}
+
+    public static MeterRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Replaces the registry the metrics are recorded in, meant for tests.
+     */
+    public static synchronized void setRegistry( MeterRegistry meterRegistry ) {
+        Reject.ifNull( meterRegistry );
+        registry = meterRegistry;
+        timers.clear();
+        counters.clear();
+        phases.clear();
+    }
+
+    public static Timer.Sample start() {
+        return Timer.start( registry );
+    }
+
+    public static void stopOperation( Timer.Sample sample, String operation ) {
+        sample.stop( timer( OPERATION, "operation", operation ) );
+    }
+
+    public static <T> T timePhase( String operation, String phase, Supplier<T> call ) {
+        return phaseTimer( operation, phase ).record( call );
+    }
+
+    public static void timePhase( String operation, String phase, Runnable call ) {
+        phaseTimer( operation, phase ).record( call );
+    }
+
+    private static Timer phaseTimer( String operation, String phase ) {
+        ConcurrentMap<String, Timer> byPhase = phases.get( operation );
+        if( byPhase == null ) {
+            byPhase = phases.computeIfAbsent( operation, key -> new ConcurrentHashMap<>() );
+        }
+        Timer timer = byPhase.get( phase );
+        if( timer == null ) {
+            timer = byPhase.computeIfAbsent( phase, key -> timer( PHASE, "operation", operation, "phase", phase ) );
+        }
+        return timer;
+    }
+
+    /**
+     * Records the time elapsed since the attribute change detected at changedAt,
+     * nothing is recorded when the change time is not known.
+     */
+    public static void recordRevocation( String pip, String stage, String decision, long changedAt ) {
+        if( changedAt <= 0 ) {
+            return;
+        }
+        timer( REVOCATION, "pip", pip != null ? pip : "unknown", "stage", stage, "decision", String.valueOf( decision ) )
+            .record( Math.max( 0, System.currentTimeMillis() - changedAt ), TimeUnit.MILLISECONDS );
+    }
+
+    public static Timer timer( String name, String... tags ) {
+        MeterKey key = new MeterKey( name, tags );
+        Timer timer = timers.get( key );
+        if( timer == null ) {
+            timer = timers.computeIfAbsent( key, k -> Timer.builder( name )
+                .tags( tags )
+                .publishPercentileHistogram()
+                .register( registry ) );
+        }
+        return timer;
+    }
+
+    public static Counter counter( String name, String... tags ) {
+        MeterKey key = new MeterKey( name, tags );
+        Counter counter = counters.get( key );
+        if( counter == null ) {
+            counter = counters.computeIfAbsent( key, k -> Counter.builder( name ).tags( tags ).register( registry ) );
+        }
+        return counter;
+    }
+
+}
@@ -17,6 +17,8 @@ package it.cnr.iit.ucs.pap;
 
 import java.util.List;
 
+import it.cnr.iit.xacml.wrappers.PolicyWrapper;
+
 /**
  * This is the interface to be used to communicate with the Policy
  * Administration Point.
@@ -36,6 +38,27 @@ public interface PAPInterface {
      */
     public String retrievePolicy( String policyId );
 
+    /**
+     * Retrieves the policy identified by that policy id together with its
+     * version
+     *
+     * @param policyId
+     *          the id of the policy we're interested into
+     * @return the policy and its version, null if there is no such policy
+     */
+    public VersionedPolicy retrieveVersionedPolicy( String policyId );
+
+    /**
+     * Retrieves the policy identified by that policy id already parsed and
+     * sliced for its conditions, the returned wrapper is shared hence it must
+     * not be modified
+     *
+     * @param policyId
+     *          the id of the policy we're interested into
+     * @return the prepared policy, null if there is no such valid policy
+     */
+    public PolicyWrapper retrievePolicyWrapper( String policyId );
+
     /**
      * Add a new policy to the table
      *
@@ -51,4 +74,12 @@ public interface PAPInterface {
      * @return the list of policies in String format
      */
     public List<String> listPolicies();
+
+    /**
+     * Retrieves the version of the policies stored, it grows every time a
+     * policy is added, changed or removed
+     *
+     * @return the version of the whole set of policies
+     */
+    public long getVersion();
 }
@@ -0,0 +1,53 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.ucs.pap;
+
+import it.cnr.iit.utility.errorhandling.Reject;
+
+/**
+ * A policy stored in the PAP together with its version.
+ * The version of a policy id grows every time its text changes, hence the
+ * pair id and version identifies the text and can be used as a cache key.
+ *
+ * @author Antonio La Marra, Alessandro Rosetti
+ */
+public final class VersionedPolicy {
+
+    private final String policyId;
+    private final long version;
+    private final String policy;
+
+    public VersionedPolicy( String policyId, long version, String policy ) {
+        Reject.ifBlank( policyId );
+        Reject.ifNull( policy );
+        this.policyId = policyId;
+        this.version = version;
+        this.policy = policy;
+    }
+
+    public String getPolicyId() {
+        return policyId;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public String getPolicy() {
+        return policy;
+    }
+
+}
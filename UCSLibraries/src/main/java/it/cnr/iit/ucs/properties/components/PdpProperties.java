@@ -18,4 +18,12 @@ package it.cnr.iit.ucs.properties.components;
 import it.cnr.iit.ucs.properties.base.JournalProperties;
 import it.cnr.iit.ucs.properties.base.CommonProperties;
 
-public interface PdpProperties extends CommonProperties, JournalProperties {}
+public interface PdpProperties extends CommonProperties, JournalProperties {
+
+    /**
+     * @return true to evaluate the policies made of the supported functions
+     *         with the compiled evaluator instead of BALANA
+     */
+    public boolean isFastPath();
+
+}
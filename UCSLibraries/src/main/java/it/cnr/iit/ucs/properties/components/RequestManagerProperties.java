@@ -21,4 +21,29 @@ public interface RequestManagerProperties extends CommonProperties {
     public String getApiRemoteResponse();
 
     public boolean isActive();
+
+    /**
+     * @return the lane weights as lane:weight pairs, e.g. "reevaluation:4,tryaccess:1"
+     */
+    public String getLaneWeights();
+
+    /**
+     * @return the lane bounds as lane:capacity pairs, e.g. "tryaccess:1000"
+     */
+    public String getLaneCapacities();
+
+    /**
+     * @return block, reject or shed-oldest, what to do with a message whose lane is full
+     */
+    public String getAdmissionPolicy();
+
+    /**
+     * @return pooled or virtual, the threads the messages are handled on
+     */
+    public String getExecutionMode();
+
+    /**
+     * @return the number of messages handled concurrently
+     */
+    public int getWorkers();
 }
@@ -19,4 +19,8 @@ import it.cnr.iit.ucs.properties.base.CommonProperties;
 
 public interface SessionManagerProperties extends CommonProperties {
     public String getDbUri();
+
+    public int getDbMaxConnections();
+
+    public long getDbConnectionMaxAge();
 }
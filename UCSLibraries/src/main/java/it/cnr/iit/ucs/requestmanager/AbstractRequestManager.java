@@ -33,7 +33,9 @@ import it.cnr.iit.utility.errorhandling.Reject;
  * Since we may have different flavours of the request manager, each with its own
  * characteristics (single thread or multiple threads, algorithms used to
  * prioritise the queue and so on), this is a way to provide all the
- * RequestManagers the same basics characteristics
+ * RequestManagers the same basics characteristics.
+ * The messages for the context handler are queued in the weighted lanes
+ * configured by the request manager properties.
  *
  * @author Antonio La Marra, Alessandro Rosetti
  *
@@ -43,7 +45,7 @@ public abstract class AbstractRequestManager implements RequestManagerToCHInterf
     protected static final Logger log = Logger.getLogger( AbstractRequestManager.class.getName() );
 
     private final BlockingQueue<Message> queueInput = new LinkedBlockingQueue<>();
-    private final BlockingQueue<Message> queueOutput = new LinkedBlockingQueue<>();
+    private final MessageLanes queueOutput;
     private final BlockingQueue<AttributeChangeMessage> retrieveRequests = new LinkedBlockingQueue<>();
 
     private ContextHandlerInterface contextHandler;
@@ -54,6 +56,8 @@ public abstract class AbstractRequestManager implements RequestManagerToCHInterf
     protected AbstractRequestManager( RequestManagerProperties properties ) {
         Reject.ifNull( properties );
         this.properties = properties;
+        queueOutput = new MessageLanes( MessageLanes.weights( properties.getLaneWeights() ),
+            MessageLanes.capacities( properties.getLaneCapacities() ) );
         pepMap = new HashMap<>();
     }
 
@@ -79,7 +83,7 @@ public abstract class AbstractRequestManager implements RequestManagerToCHInterf
         return queueInput;
     }
 
-    protected BlockingQueue<Message> getQueueOutput() {
+    protected MessageLanes getQueueOutput() {
         return queueOutput;
     }
 
@@ -0,0 +1,49 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.ucs.requestmanager;
+
+import java.util.Locale;
+
+/**
+ * What the request manager does with a message whose lane is full.
+ *
+ * @author Antonio La Marra, Alessandro Rosetti
+ */
+public enum AdmissionPolicy {
+    // the caller waits for space in the lane
+    BLOCK,
+    // the message is refused with a RequestRejectedException
+    REJECT,
+    // the oldest queued tryAccess is dropped to make room for the new one,
+    // the other lanes are rejected since their messages carry session state
+    SHED_OLDEST;
+
+    /**
+     * @param name
+     *          block, reject or shed-oldest, reject if null or empty
+     */
+    public static AdmissionPolicy of( String name ) {
+        if( name == null || name.trim().isEmpty() ) {
+            return REJECT;
+        }
+        try {
+            return valueOf( name.trim().replace( '-', '_' ).toUpperCase( Locale.ROOT ) );
+        } catch( IllegalArgumentException e ) {
+            throw new IllegalArgumentException( "invalid admission policy : " + name, e );
+        }
+    }
+
+}
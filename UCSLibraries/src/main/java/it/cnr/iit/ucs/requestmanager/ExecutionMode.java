@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.ucs.requestmanager;
+
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The threads the request manager handles the messages on.
+ * Handling a message mostly waits on the PIPs, the session database and the
+ * PEP, so with virtual threads the number of messages handled concurrently
+ * is bounded by the configured workers only, not by the platform threads.
+ * Virtual threads need a JDK 21 or later, on older JDKs the pooled mode is
+ * used instead.
+ *
+ * @author Antonio La Marra, Alessandro Rosetti
+ */
+public enum ExecutionMode {
+    // a fixed pool of platform threads, one per worker
+    POOLED,
+    // a new virtual thread per message
+    VIRTUAL;
+
+    private static final Logger log = Logger.getLogger( ExecutionMode.class.getName() );
+
+    /**
+     * @param name
+     *          pooled or virtual, pooled if null or empty
+     */
+    public static ExecutionMode of( String name ) {
+        if( name == null || name.trim().isEmpty() ) {
+            return POOLED;
+        }
+        try {
+            return valueOf( name.trim().toUpperCase( Locale.ROOT ) );
+        } catch( IllegalArgumentException e ) {
+            throw new IllegalArgumentException( "invalid execution mode : " + name, e );
+        }
+    }
+
+    /**
+     * @return true if the running JDK provides virtual threads
+     */
+    public static boolean isVirtualAvailable() {
+        try {
+            Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" );
+            return true;
+        } catch( NoSuchMethodException e ) {
+            return false;
+        }
+    }
+
+    /**
+     * Creates the executor of this mode.
+     *
+     * @param workers
+     *          the size of the pool in the pooled mode
+     * @param name
+     *          the prefix of the names of the pooled threads
+     */
+    public ExecutorService newExecutor( int workers, String name ) {
+        if( this == VIRTUAL ) {
+            try {
+                return (ExecutorService) Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" ).invoke( null );
+            } catch( ReflectiveOperationException e ) {
+                log.log( Level.WARNING, "Virtual threads not available, using {0} pooled threads", workers );
+            }
+        }
+        return Executors.newFixedThreadPool( workers, new NamedThreadFactory( name ) );
+    }
+
+    private static final class NamedThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+        private final String name;
+
+        NamedThreadFactory( String name ) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread( Runnable runnable ) {
+            return new Thread( runnable, name + "-" + count.incrementAndGet() );
+        }
+    }
+
+}
@@ -0,0 +1,339 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.ucs.requestmanager;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import it.cnr.iit.ucs.constants.PURPOSE;
+import it.cnr.iit.ucs.message.IdentifiedMessage;
+import it.cnr.iit.ucs.message.Message;
+import it.cnr.iit.ucs.message.attributechange.AttributeChangeMessage;
+import it.cnr.iit.utility.errorhandling.Reject;
+
+/**
+ * The queue of the messages waiting for the context handler, split in one
+ * bounded lane per kind of request.
+ * The lanes are served with a weighted round robin: a lane with weight w
+ * hands out up to w messages before the next non empty lane is served, so
+ * under contention every lane gets at least its share of the context handler
+ * and none of them can starve the others, while an idle lane gives its share
+ * to the busy ones.
+ * The messages of a session are served in the order they arrived: while a
+ * message of a session is queued, the following ones of the same session are
+ * queued behind it in its lane, so an endAccess cannot overtake the
+ * startAccess of its session.
+ *
+ * @author Antonio La Marra, Alessandro Rosetti
+ */
+public final class MessageLanes {
+
+    public enum Lane {
+        REEVALUATION,
+        ENDACCESS,
+        STARTACCESS,
+        TRYACCESS;
+
+        /**
+         * Attribute changes and reevaluations share the lane that ends with
+         * the revocations, every other message is queued with its operation.
+         */
+        public static Lane of( Message message ) {
+            if( message instanceof AttributeChangeMessage ) {
+                return REEVALUATION;
+            }
+            PURPOSE purpose = message.getPurpose();
+            if( purpose == PURPOSE.END ) {
+                return ENDACCESS;
+            } else if( purpose == PURPOSE.START ) {
+                return STARTACCESS;
+            } else if( purpose == PURPOSE.TRY ) {
+                return TRYACCESS;
+            }
+            return REEVALUATION;
+        }
+
+        public String getName() {
+            return name().toLowerCase( Locale.ROOT );
+        }
+    }
+
+    public static final String DEFAULT_WEIGHTS = "reevaluation:4,endaccess:2,startaccess:2,tryaccess:1";
+    public static final int DEFAULT_CAPACITY = 10000;
+
+    private static final Lane[] LANES = Lane.values();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Map<Lane, Condition> notFull = new EnumMap<>( Lane.class );
+    private final Map<Lane, ArrayDeque<Message>> queues = new EnumMap<>( Lane.class );
+    private final Map<Lane, Integer> weights;
+    private final Map<Lane, Integer> capacities;
+    // lane and number of the queued messages of each session
+    private final Map<String, QueuedSession> sessions = new HashMap<>();
+
+    private int count = 0;
+    private int current = 0;
+    private int served = 0;
+
+    public MessageLanes() {
+        this( weights( null ), capacities( null ) );
+    }
+
+    public MessageLanes( Map<Lane, Integer> weights, Map<Lane, Integer> capacities ) {
+        Reject.ifNull( weights );
+        Reject.ifNull( capacities );
+        this.weights = new EnumMap<>( Lane.class );
+        this.capacities = new EnumMap<>( Lane.class );
+        for( Lane lane : LANES ) {
+            Integer weight = weights.get( lane );
+            Integer capacity = capacities.get( lane );
+            Reject.ifFalse( weight != null && weight > 0, "invalid weight for lane " + lane.getName() );
+            Reject.ifFalse( capacity != null && capacity > 0, "invalid capacity for lane " + lane.getName() );
+            this.weights.put( lane, weight );
+            this.capacities.put( lane, capacity );
+            queues.put( lane, new ArrayDeque<>() );
+            notFull.put( lane, lock.newCondition() );
+        }
+    }
+
+    /**
+     * @return the weights in the spec, the lanes not listed keep the default weight
+     */
+    public static Map<Lane, Integer> weights( String spec ) {
+        return parse( spec, parse( DEFAULT_WEIGHTS, new EnumMap<>( Lane.class ) ) );
+    }
+
+    /**
+     * @return the capacities in the spec, the lanes not listed keep the default capacity
+     */
+    public static Map<Lane, Integer> capacities( String spec ) {
+        Map<Lane, Integer> defaults = new EnumMap<>( Lane.class );
+        for( Lane lane : LANES ) {
+            defaults.put( lane, DEFAULT_CAPACITY );
+        }
+        return parse( spec, defaults );
+    }
+
+    /**
+     * Parses a list of lane:value pairs, e.g. "reevaluation:4,tryaccess:1",
+     * on top of the given values.
+     */
+    private static Map<Lane, Integer> parse( String spec, Map<Lane, Integer> defaults ) {
+        Map<Lane, Integer> values = new EnumMap<>( defaults );
+        if( spec == null || spec.trim().isEmpty() ) {
+            return values;
+        }
+        for( String entry : spec.split( "," ) ) {
+            String[] pair = entry.split( ":" );
+            Reject.ifFalse( pair.length == 2, "invalid lane entry : " + entry );
+            try {
+                Lane lane = Lane.valueOf( pair[0].trim().toUpperCase( Locale.ROOT ) );
+                values.put( lane, Integer.parseInt( pair[1].trim() ) );
+            } catch( IllegalArgumentException e ) {
+                throw new IllegalArgumentException( "invalid lane entry : " + entry, e );
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Queues the message in its lane, waiting for space if the lane is full.
+     */
+    public void put( Message message ) throws InterruptedException {
+        Reject.ifNull( message );
+        lock.lockInterruptibly();
+        try {
+            Lane lane = laneOf( message );
+            while( queues.get( lane ).size() >= capacities.get( lane ) ) {
+                notFull.get( lane ).await();
+                lane = laneOf( message );
+            }
+            enqueue( lane, message );
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queues the message in its lane if there is space for it.
+     *
+     * @return false if the lane is full
+     */
+    public boolean offer( Message message ) {
+        Reject.ifNull( message );
+        lock.lock();
+        try {
+            Lane lane = laneOf( message );
+            if( queues.get( lane ).size() >= capacities.get( lane ) ) {
+                return false;
+            }
+            enqueue( lane, message );
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queues the message in its lane, dropping the oldest message of the lane
+     * if it is full.
+     *
+     * @return the dropped message, null if there was space
+     */
+    public Message offerDroppingOldest( Message message ) {
+        Reject.ifNull( message );
+        lock.lock();
+        try {
+            Lane lane = laneOf( message );
+            Message dropped = null;
+            if( queues.get( lane ).size() >= capacities.get( lane ) ) {
+                dropped = queues.get( lane ).pollFirst();
+                dequeued( dropped );
+            }
+            enqueue( lane, message );
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the lane of the queued messages of the session of the message,
+     *         if any, else the lane of its operation
+     */
+    private Lane laneOf( Message message ) {
+        String sessionId = sessionIdOf( message );
+        QueuedSession session = sessionId != null ? sessions.get( sessionId ) : null;
+        return session != null ? session.lane : Lane.of( message );
+    }
+
+    private static String sessionIdOf( Message message ) {
+        return message instanceof IdentifiedMessage ? ( (IdentifiedMessage) message ).getSessionId() : null;
+    }
+
+    private void enqueue( Lane lane, Message message ) {
+        queues.get( lane ).addLast( message );
+        count++;
+        String sessionId = sessionIdOf( message );
+        if( sessionId != null ) {
+            sessions.computeIfAbsent( sessionId, id -> new QueuedSession( lane ) ).queued++;
+        }
+        notEmpty.signal();
+    }
+
+    private void dequeued( Message message ) {
+        count--;
+        String sessionId = sessionIdOf( message );
+        QueuedSession session = sessionId != null ? sessions.get( sessionId ) : null;
+        if( session != null && --session.queued == 0 ) {
+            sessions.remove( sessionId );
+        }
+    }
+
+    /**
+     * Waits for a message and returns the next one according to the lane weights.
+     */
+    public Message take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while( count == 0 ) {
+                notEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the next message according to the lane weights, null if none
+     *         arrives within the timeout
+     */
+    public Message poll( long timeout, TimeUnit unit ) throws InterruptedException {
+        long nanos = unit.toNanos( timeout );
+        lock.lockInterruptibly();
+        try {
+            while( count == 0 ) {
+                if( nanos <= 0 ) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos( nanos );
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Message dequeue() {
+        Lane lane = LANES[current];
+        if( served >= weights.get( lane ) || queues.get( lane ).isEmpty() ) {
+            do {
+                current = ( current + 1 ) % LANES.length;
+                lane = LANES[current];
+            } while( queues.get( lane ).isEmpty() );
+            served = 0;
+        }
+        served++;
+        Message message = queues.get( lane ).pollFirst();
+        dequeued( message );
+        notFull.get( lane ).signal();
+        return message;
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size( Lane lane ) {
+        lock.lock();
+        try {
+            return queues.get( lane ).size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getCapacity( Lane lane ) {
+        return capacities.get( lane );
+    }
+
+    public int getWeight( Lane lane ) {
+        return weights.get( lane );
+    }
+
+    private static final class QueuedSession {
+        private final Lane lane;
+        private int queued = 0;
+
+        QueuedSession( Lane lane ) {
+            this.lane = lane;
+        }
+    }
+
+}
@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.ucs.requestmanager;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantLock;
+
+import it.cnr.iit.utility.errorhandling.Reject;
+
+/**
+ * Runs the tasks on an executor, one at a time and in the order they were
+ * submitted for the tasks with the same key, in parallel for different keys.
+ * A task submitted while another one with its key is running waits in the
+ * queue of the key, without taking a thread of the executor, and is handed to
+ * the executor once the previous one ends. The tasks without a key are handed
+ * to the executor at once.
+ *
+ * @author Antonio La Marra, Alessandro Rosetti
+ */
+public final class OrderedExecutor implements Executor {
+
+    private final Executor executor;
+    private final ReentrantLock lock = new ReentrantLock();
+    // the keys with a running task and the tasks waiting for it
+    private final Map<String, ArrayDeque<Runnable>> running = new HashMap<>();
+
+    public OrderedExecutor( Executor executor ) {
+        Reject.ifNull( executor );
+        this.executor = executor;
+    }
+
+    @Override
+    public void execute( Runnable task ) {
+        execute( null, task );
+    }
+
+    /**
+     * @param key
+     *          the key of the task, null if it can run with any other task
+     */
+    public void execute( String key, Runnable task ) {
+        Reject.ifNull( task );
+        if( key == null ) {
+            executor.execute( task );
+            return;
+        }
+        lock.lock();
+        try {
+            ArrayDeque<Runnable> waiting = running.get( key );
+            if( waiting != null ) {
+                waiting.addLast( task );
+                return;
+            }
+            running.put( key, new ArrayDeque<>() );
+        } finally {
+            lock.unlock();
+        }
+        run( key, task );
+    }
+
+    private void run( String key, Runnable task ) {
+        try {
+            executor.execute( () -> {
+                try {
+                    task.run();
+                } finally {
+                    next( key );
+                }
+            } );
+        } catch( RuntimeException e ) {
+            lock.lock();
+            try {
+                running.remove( key );
+            } finally {
+                lock.unlock();
+            }
+            throw e;
+        }
+    }
+
+    private void next( String key ) {
+        Runnable task;
+        lock.lock();
+        try {
+            task = running.get( key ).pollFirst();
+            if( task == null ) {
+                running.remove( key );
+            }
+        } finally {
+            lock.unlock();
+        }
+        if( task != null ) {
+            run( key, task );
+        }
+    }
+
+    /**
+     * @return the number of keys with a running task
+     */
+    public int getRunningKeys() {
+        lock.lock();
+        try {
+            return running.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
@@ -15,6 +15,8 @@
  ******************************************************************************/
 package it.cnr.iit.ucs.requestmanager;
 
+import java.util.concurrent.CompletableFuture;
+
 import it.cnr.iit.ucs.message.Message;
 
 /**
@@ -34,7 +36,20 @@ public interface RequestManagerInterface {
      * @param message
      *          the message to be sent
      * @return the response of the ContextHandler
+     * @throws RequestRejectedException
+     *          if the request manager is overloaded and refuses the message
      */
     public boolean sendMessage( Message message );
 
+    /**
+     * Receives a message whose response is returned to the caller instead of
+     * being sent to a PEP.
+     *
+     * @param message
+     *          the message to be sent
+     * @return the future of the response of the ContextHandler, failed with a
+     *         RequestRejectedException if the message is refused
+     */
+    public CompletableFuture<Message> sendMessageAsync( Message message );
+
 }
@@ -0,0 +1,39 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.ucs.requestmanager;
+
+import it.cnr.iit.utility.errorhandling.exception.ErrorType;
+import it.cnr.iit.utility.errorhandling.exception.SystemException;
+
+/**
+ * Thrown when the request manager refuses a message because its lane is full.
+ * The overload is transient, the sender may retry later.
+ */
+public class RequestRejectedException extends SystemException {
+    private static final long serialVersionUID = 1L;
+
+    private final String lane;
+
+    public RequestRejectedException( String lane ) {
+        super( ErrorType.TRANSIENT_ERROR, "request manager lane " + lane + " is full" );
+        this.lane = lane;
+    }
+
+    public String getLane() {
+        return lane;
+    }
+
+}
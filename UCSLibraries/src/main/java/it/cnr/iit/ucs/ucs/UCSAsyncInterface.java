@@ -0,0 +1,47 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.ucs.ucs;
+
+import java.util.concurrent.CompletableFuture;
+
+import it.cnr.iit.ucs.message.endaccess.EndAccessMessage;
+import it.cnr.iit.ucs.message.endaccess.EndAccessResponseMessage;
+import it.cnr.iit.ucs.message.startaccess.StartAccessMessage;
+import it.cnr.iit.ucs.message.startaccess.StartAccessResponseMessage;
+import it.cnr.iit.ucs.message.tryaccess.TryAccessMessage;
+import it.cnr.iit.ucs.message.tryaccess.TryAccessResponseMessage;
+
+/**
+ * This interface is meant to be used by the applications embedding the UCS.
+ * It offers the same operations of UCSInterface, but the responses are
+ * returned as futures completed by the request manager instead of being sent
+ * to a PEP, so the caller does not need a PEP of its own and can issue many
+ * requests without waiting for each of them. The reevaluations are still
+ * sent to the PEP registered with the id of the message source.
+ * A future fails with a RequestRejectedException if the request manager is
+ * overloaded, or with the error raised while handling the request.
+ *
+ * @author Antonio La Marra, Alessandro Rosetti
+ */
+public interface UCSAsyncInterface {
+
+    public CompletableFuture<TryAccessResponseMessage> tryAccessAsync( TryAccessMessage tryAccessMessage );
+
+    public CompletableFuture<StartAccessResponseMessage> startAccessAsync( StartAccessMessage startAccessMessage );
+
+    public CompletableFuture<EndAccessResponseMessage> endAccessAsync( EndAccessMessage endAccessMessage );
+
+}
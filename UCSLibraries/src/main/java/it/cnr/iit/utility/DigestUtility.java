@@ -0,0 +1,57 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.utility;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import it.cnr.iit.utility.errorhandling.Reject;
+
+/**
+ * Content digests used to reference texts, e.g. policies, by their hash.
+ *
+ * @author Antonio La Marra, Alessandro Rosetti
+ */
+public final class DigestUtility {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private DigestUtility() {} // NOSONAR
+
+    /**
+     * Computes the SHA-256 digest of the UTF-8 bytes of the text.
+     *
+     * @param text the text to digest
+     * @return the digest as a lower case hexadecimal string
+     */
+    public static String sha256( String text ) {
+        Reject.ifNull( text );
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance( "SHA-256" ).digest( text.getBytes( StandardCharsets.UTF_8 ) );
+        } catch( NoSuchAlgorithmException e ) {
+            throw new IllegalStateException( e );
+        }
+        char[] hex = new char[digest.length * 2];
+        for( int i = 0; i < digest.length; i++ ) {
+            hex[2 * i] = HEX[( digest[i] >> 4 ) & 0x0f];
+            hex[2 * i + 1] = HEX[digest[i] & 0x0f];
+        }
+        return new String( hex );
+    }
+
+}
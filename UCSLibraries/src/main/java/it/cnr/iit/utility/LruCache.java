@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.utility;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import it.cnr.iit.utility.errorhandling.Reject;
+
+/**
+ * A thread safe cache bounded in size, the least recently used entry is
+ * dropped when it is full. The values are loaded outside of the lock, hence
+ * two callers missing the same key may both load it, the first value cached
+ * is the one returned to both.
+ *
+ * @author Antonio La Marra, Alessandro Rosetti
+ */
+public final class LruCache<K, V> {
+
+    private final Map<K, V> cache;
+
+    public LruCache( int capacity ) {
+        Reject.ifTrue( capacity <= 0, "capacity must be positive" );
+        cache = new LinkedHashMap<K, V>( 16, 0.75f, true ) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<K, V> eldest ) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @return the cached value, null if the key is not cached
+     */
+    public V get( K key ) {
+        Reject.ifNull( key );
+        synchronized( cache ) {
+            return cache.get( key );
+        }
+    }
+
+    /**
+     * Retrieves the cached value, loading and caching it if the key is not
+     * cached.
+     *
+     * @param key
+     *          the key
+     * @param loader
+     *          the function loading the value of the key, it must not return null
+     * @return the cached value
+     */
+    public V get( K key, Function<? super K, ? extends V> loader ) {
+        Reject.ifNull( loader );
+        V value = get( key );
+        return value != null ? value : putIfAbsent( key, loader.apply( key ) );
+    }
+
+    public void put( K key, V value ) {
+        Reject.ifNull( key );
+        Reject.ifNull( value );
+        synchronized( cache ) {
+            cache.put( key, value );
+        }
+    }
+
+    /**
+     * Caches the value unless the key has been cached in the meantime.
+     *
+     * @return the value cached for the key, the given one unless another was
+     *         already cached
+     */
+    public V putIfAbsent( K key, V value ) {
+        Reject.ifNull( key );
+        Reject.ifNull( value );
+        synchronized( cache ) {
+            V cached = cache.putIfAbsent( key, value );
+            return cached != null ? cached : value;
+        }
+    }
+
+    public void remove( K key ) {
+        synchronized( cache ) {
+            cache.remove( key );
+        }
+    }
+
+    public int size() {
+        synchronized( cache ) {
+            return cache.size();
+        }
+    }
+
+    public void clear() {
+        synchronized( cache ) {
+            cache.clear();
+        }
+    }
+
+}
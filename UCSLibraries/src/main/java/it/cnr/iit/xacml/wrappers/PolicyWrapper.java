@@ -17,6 +17,8 @@ package it.cnr.iit.xacml.wrappers;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -26,6 +28,7 @@ import javax.xml.bind.JAXBException;
 import it.cnr.iit.ucs.exceptions.PolicyException;
 import it.cnr.iit.ucs.message.tryaccess.TryAccessMessage;
 import it.cnr.iit.ucs.pap.PAPInterface;
+import it.cnr.iit.utility.DigestUtility;
 import it.cnr.iit.utility.JAXBUtility;
 import it.cnr.iit.utility.errorhandling.Reject;
 import it.cnr.iit.xacml.Attribute;
@@ -43,6 +46,8 @@ import oasis.names.tc.xacml.core.schema.wd_17.RuleType;
 
 /**
  * This is a wrapper for the policy class.
+ * The policy for each condition is sliced once and then kept in the wrapper,
+ * as is the hash of the policy text.
  *
  * @author Antonio La Marra, Alessandro Rosetti
  *
@@ -55,6 +60,8 @@ public class PolicyWrapper implements PolicyWrapperInterface {
 
     private PolicyType policyType;
     private String policy;
+    private final Map<String, PolicyWrapper> conditions = new ConcurrentHashMap<>();
+    private volatile String policyHash;
 
     private PolicyWrapper() {}
 
@@ -85,11 +92,36 @@ public class PolicyWrapper implements PolicyWrapperInterface {
     public static PolicyWrapper build( PAPInterface pap, TryAccessMessage message ) throws PolicyException {
         String policy = message.getPolicy();
         if( (policy == null || policy.isEmpty()) && message.getPolicyId() != null && !message.getPolicyId().isEmpty()) {
+            // the PAP hands out its policies already prepared
+            PolicyWrapper policyWrapper = pap.retrievePolicyWrapper( message.getPolicyId() );
+            if( policyWrapper != null ) {
+                return policyWrapper;
+            }
             policy = pap.retrievePolicy( message.getPolicyId() );
         }
         return PolicyWrapper.build( policy );
     }
 
+    /**
+     * Slices the policy for all the conditions, so that a policy that cannot be
+     * evaluated is found out as soon as it is built rather than at decision time.
+     *
+     * @return this wrapper, with all the conditions already sliced
+     * @throws PolicyException
+     *           if the policy cannot be sliced for any condition
+     */
+    public PolicyWrapper prepare() throws PolicyException {
+        try {
+            for( String conditionName : new String[] { PolicyTags.CONDITION_PRE, PolicyTags.CONDITION_ONGOING,
+                PolicyTags.CONDITION_POST } ) {
+                getPolicyForCondition( conditionName );
+            }
+        } catch( RuntimeException e ) {
+            throw new PolicyException( "Invalid policy : " + e.getMessage() );
+        }
+        return this;
+    }
+
     @Override
     public List<Attribute> getAttributesForCondition( String conditionName ) {
         Reject.ifBlank( conditionName );
@@ -176,11 +208,24 @@ public class PolicyWrapper implements PolicyWrapperInterface {
      *
      * @param conditionName
      *          the required condition
-     * @return a copy of the policyType containing only the required condition
+     * @return a copy of the policyType containing only the required condition,
+     *         shared by all the callers hence it must not be modified
      * @throws PolicyException
      */
     @Override
     public PolicyWrapper getPolicyForCondition( String conditionName ) throws PolicyException {
+        PolicyWrapper policyForCondition = conditions.get( conditionName );
+        if( policyForCondition == null ) {
+            policyForCondition = slicePolicyForCondition( conditionName );
+            PolicyWrapper sliced = conditions.putIfAbsent( conditionName, policyForCondition );
+            if( sliced != null ) {
+                policyForCondition = sliced;
+            }
+        }
+        return policyForCondition;
+    }
+
+    private PolicyWrapper slicePolicyForCondition( String conditionName ) throws PolicyException {
         PolicyType clonedPolicyType = clonePolicyTypeWithoutRules();
         List<Object> objectList = policyType.getCombinerParametersOrRuleCombinerParametersOrVariableDefinition();
         List<Object> clonedObjectList = clonedPolicyType.getCombinerParametersOrRuleCombinerParametersOrVariableDefinition();
@@ -225,6 +270,20 @@ public class PolicyWrapper implements PolicyWrapperInterface {
 
     public void setPolicy( String policy ) {
         this.policy = policy;
+        conditions.clear();
+        policyHash = null;
+    }
+
+    /**
+     * @return the SHA-256 digest of the policy text, computed once
+     */
+    public String getPolicyHash() {
+        String hash = policyHash;
+        if( hash == null && policy != null ) {
+            hash = DigestUtility.sha256( policy );
+            policyHash = hash;
+        }
+        return hash;
     }
 
     public PolicyType getPolicyType() {
@@ -233,6 +292,7 @@ public class PolicyWrapper implements PolicyWrapperInterface {
 
     public void setPolicyType( PolicyType policyType ) {
         this.policyType = policyType;
+        conditions.clear();
     }
 
     private RuleType getDefaultRuleType( String id, EffectType effectType ) {
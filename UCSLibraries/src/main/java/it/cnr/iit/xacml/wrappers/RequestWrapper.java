@@ -1,5 +1,6 @@
 package it.cnr.iit.xacml.wrappers;
 
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -11,6 +12,7 @@ import it.cnr.iit.utility.JAXBUtility;
 import it.cnr.iit.xacml.Attribute;
 
 import oasis.names.tc.xacml.core.schema.wd_17.AttributeType;
+import oasis.names.tc.xacml.core.schema.wd_17.AttributeValueType;
 import oasis.names.tc.xacml.core.schema.wd_17.AttributesType;
 import oasis.names.tc.xacml.core.schema.wd_17.RequestType;
 
@@ -21,6 +23,7 @@ public class RequestWrapper {
     private PIPRegistryInterface pipRegistry;
     private RequestType requestType;
     private String request;
+    private String sessionId;
 
     private RequestWrapper() {}
 
@@ -42,13 +45,26 @@ public class RequestWrapper {
     }
 
     public static RequestWrapper build( RequestWrapper request ) throws RequestException {
-        return RequestWrapper.build( request.getRequest(), request.pipRegistry );
+        RequestWrapper requestWrapper = RequestWrapper.build( request.getRequest(), request.pipRegistry );
+        requestWrapper.sessionId = request.sessionId;
+        return requestWrapper;
     }
 
     public String getRequest() {
         return request;
     }
 
+    /**
+     * @return the id of the session this request belongs to, null if unknown
+     */
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public void setSessionId( String sessionId ) {
+        this.sessionId = sessionId;
+    }
+
     public RequestType getRequestType() {
         return requestType;
     }
@@ -64,6 +80,43 @@ public class RequestWrapper {
         return false;
     }
 
+    /**
+     * Replaces the values of an attribute already in the request with the ones
+     * carried by the given attribute, e.g. the new value sent by a PIP.
+     * The request text is not updated, call update once all the attributes
+     * have been replaced.
+     *
+     * @return false if the request does not contain the attribute
+     */
+    public boolean replaceAttribute( Attribute attribute ) {
+        if( attribute.getCategory() == null || attribute.getDataType() == null ) {
+            return false;
+        }
+        List<String> values = attribute.getAttributeValues( attribute.getDataType() );
+        if( values == null || values.isEmpty() ) {
+            return false;
+        }
+        boolean replaced = false;
+        for( AttributesType attributesType : requestType.getAttributes() ) {
+            if( !attribute.getCategory().toString().equals( attributesType.getCategory() ) ) {
+                continue;
+            }
+            for( AttributeType attributeType : attributesType.getAttribute() ) {
+                if( attribute.getAttributeId().equals( attributeType.getAttributeId() ) ) {
+                    attributeType.getAttributeValue().clear();
+                    for( String value : values ) {
+                        AttributeValueType attributeValueType = new AttributeValueType();
+                        attributeValueType.setDataType( attribute.getDataType().toString() );
+                        attributeValueType.getContent().add( value );
+                        attributeType.getAttributeValue().add( attributeValueType );
+                    }
+                    replaced = true;
+                }
+            }
+        }
+        return replaced;
+    }
+
     public boolean update() {
         try {
             request = marshalRequestType( requestType );
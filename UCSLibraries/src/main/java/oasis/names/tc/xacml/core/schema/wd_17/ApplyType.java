@@ -59,7 +59,7 @@ public class ApplyType
         return this.expression;
     }
 
-    String getFunctionId() {
+    public String getFunctionId() {
         return functionId;
     }
 
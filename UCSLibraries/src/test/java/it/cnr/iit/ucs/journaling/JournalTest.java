@@ -1,12 +1,31 @@
 package it.cnr.iit.ucs.journaling;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 import org.junit.Test;
 
+import it.cnr.iit.ucs.metrics.UCSMetrics;
 import it.cnr.iit.ucs.properties.base.JournalProperties;
+import it.cnr.iit.utility.DigestUtility;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 
 public class JournalTest {
 
@@ -25,6 +44,16 @@ public class JournalTest {
         public boolean logMultipleStrings( String... strings ) {
             return true;
         }
+
+        @Override
+        public boolean logEvaluation( EvaluationRecord evaluation, String policy ) {
+            return true;
+        }
+
+        @Override
+        public boolean isActive() {
+            return true;
+        }
     };
 
     JournalProperties fileSystem = new JournalProperties() {
@@ -70,6 +99,12 @@ public class JournalTest {
         testWrite( fileSystemJournal, "HELLO" );
     }
 
+    @Test
+    public void unconfiguredJournalIsNotActive() {
+        assertFalse( new FileJournaling().isActive() );
+        assertFalse( new FileJournaling().logEvaluation( new EvaluationRecord(), "<Policy/>" ) );
+    }
+
     @Test
     public void testFSjournalBuilder() {
         JournalingInterface journalInterface = JournalBuilder.build( fileSystem );
@@ -78,4 +113,313 @@ public class JournalTest {
         testWriteMultiple( journalInterface, "Ciao", "Hello", "Ciao", "Hello" );
     }
 
+    @Test
+    public void testAsyncJournalBuilder() {
+        JournalProperties asyncFileSystem = new JournalProperties() {
+            @Override
+            public String getJournalPath() {
+                return "/tmp/journalAsyncTest";
+            }
+
+            @Override
+            public HashMap<String, String> getJournalAdditionalProperties() {
+                HashMap<String, String> properties = new HashMap<>();
+                properties.put( JournalKeywords.ASYNC, "true" );
+                properties.put( JournalKeywords.SYNC_BATCH, "4" );
+                return properties;
+            }
+
+            @Override
+            public String getJournalProtocol() {
+                return "file";
+            }
+        };
+        JournalingInterface journalInterface = JournalBuilder.build( asyncFileSystem );
+        assertTrue( journalInterface instanceof AsyncJournaling );
+        testWrite( journalInterface, "HELLO" );
+        testWriteMultiple( journalInterface, "Ciao", "Hello", "Ciao", "Hello" );
+        AsyncJournaling asyncJournaling = (AsyncJournaling) journalInterface;
+        asyncJournaling.close();
+        assertEquals( 5, asyncJournaling.getWrittenCount() );
+        assertEquals( 0, asyncJournaling.getDroppedCount() );
+        assertEquals( 0, asyncJournaling.getQueueSize() );
+    }
+
+    @Test
+    public void testAsyncJournalMetrics() {
+        String path = "/tmp/journalAsyncMetricsTest-" + System.nanoTime();
+        JournalProperties properties = new JournalProperties() {
+            @Override
+            public String getJournalPath() {
+                return path;
+            }
+
+            @Override
+            public HashMap<String, String> getJournalAdditionalProperties() {
+                HashMap<String, String> additionalProperties = new HashMap<>();
+                additionalProperties.put( JournalKeywords.ASYNC, "true" );
+                return additionalProperties;
+            }
+
+            @Override
+            public String getJournalProtocol() {
+                return "file";
+            }
+        };
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        UCSMetrics.setRegistry( registry );
+        try {
+            AsyncJournaling journal = (AsyncJournaling) JournalBuilder.build( properties );
+            testWrite( journal, "HELLO" );
+            String tag = new File( path ).getAbsolutePath();
+            assertEquals( 0, registry.get( UCSMetrics.JOURNAL_DROPPED ).tag( "journal", tag ).functionCounter().count(), 0 );
+            assertTrue( registry.get( UCSMetrics.JOURNAL_LAG ).tag( "journal", tag ).gauge().value() >= 0 );
+            journal.close();
+            assertNull( registry.find( UCSMetrics.JOURNAL_DROPPED ).tag( "journal", tag ).functionCounter() );
+            assertNull( registry.find( UCSMetrics.JOURNAL_LAG ).tag( "journal", tag ).gauge() );
+        } finally {
+            UCSMetrics.setRegistry( Metrics.globalRegistry );
+        }
+    }
+
+    private EvaluationRecord buildEvaluation( String policy ) {
+        return new EvaluationRecord()
+            .setTimestamp( 42 )
+            .setSessionId( "session" )
+            .setCondition( "pre" )
+            .setDecision( "Permit" )
+            .setPolicyHash( DigestUtility.sha256( policy ) )
+            .setRequestDigest( DigestUtility.sha256( "<Request/>" ) )
+            .addAttribute( "subject", "role", "string", "IIT" )
+            .addAttribute( "environment", "temperature", "double", "20.5" );
+    }
+
+    @Test
+    public void testEvaluationRecordRoundTrip() throws IOException {
+        EvaluationRecord evaluation = buildEvaluation( "<Policy/>" ).setSessionId( null );
+        byte[] data = JournalRecords.encodeEvaluation( evaluation );
+        assertEquals( JournalRecords.EVALUATION, JournalRecords.typeOf( data ) );
+        assertEquals( JournalRecords.TEXT, JournalRecords.typeOf( FileJournaling.format( "HELLO" ).getBytes() ) );
+
+        EvaluationRecord decoded = JournalRecords.decodeEvaluation( data );
+        assertEquals( evaluation.toString(), decoded.toString() );
+        assertNull( decoded.getSessionId() );
+        assertEquals( 2, decoded.getAttributes().size() );
+        assertEquals( "20.5", decoded.getAttributes().get( 1 ).getValue() );
+
+        String[] policy = JournalRecords.decodePolicy( JournalRecords.encodePolicy( "hash", "<Policy/>" ) );
+        assertEquals( "hash", policy[0] );
+        assertEquals( "<Policy/>", policy[1] );
+    }
+
+    @Test
+    public void testEvaluationJournalReader() throws IOException {
+        String path = "/tmp/journalEvaluationTest-" + System.nanoTime();
+        JournalProperties properties = new JournalProperties() {
+            @Override
+            public String getJournalPath() {
+                return path;
+            }
+
+            @Override
+            public HashMap<String, String> getJournalAdditionalProperties() {
+                return null;
+            }
+
+            @Override
+            public String getJournalProtocol() {
+                return "file";
+            }
+        };
+        JournalingInterface journal = JournalBuilder.build( properties );
+        String policy = "<Policy PolicyId=\"test\"/>";
+        assertTrue( journal.logEvaluation( buildEvaluation( policy ), policy ) );
+        assertTrue( journal.logEvaluation( buildEvaluation( policy ).setDecision( "Deny" ), policy ) );
+        testWrite( journal, "HELLO" );
+        ( (FileJournaling) journal ).close();
+
+        JournalReader reader = new JournalReader( new File( path ) );
+        List<EvaluationRecord> evaluations = new ArrayList<>();
+        List<String> texts = new ArrayList<>();
+        reader.read( evaluations::add, texts::add );
+        assertEquals( 2, evaluations.size() );
+        assertEquals( "Deny", evaluations.get( 1 ).getDecision() );
+        assertEquals( 1, texts.size() );
+        assertEquals( 1, reader.getPolicies().size() );
+        assertEquals( policy, reader.getPolicy( evaluations.get( 0 ).getPolicyHash() ) );
+    }
+
+    @Test
+    public void testSegmentedJournal() throws IOException {
+        String path = "/tmp/journalSegmentTest-" + System.nanoTime();
+        JournalProperties properties = new JournalProperties() {
+            @Override
+            public String getJournalPath() {
+                return path;
+            }
+
+            @Override
+            public HashMap<String, String> getJournalAdditionalProperties() {
+                HashMap<String, String> additionalProperties = new HashMap<>();
+                additionalProperties.put( JournalKeywords.SEGMENT_SIZE, "100" );
+                additionalProperties.put( JournalKeywords.COMPRESS, "true" );
+                return additionalProperties;
+            }
+
+            @Override
+            public String getJournalProtocol() {
+                return "file";
+            }
+        };
+        FileJournaling journal = (FileJournaling) JournalBuilder.build( properties );
+        String policy = "<Policy PolicyId=\"test\"/>";
+        for( int i = 0; i < 3; i++ ) {
+            assertTrue( journal.logEvaluation( buildEvaluation( policy ), policy ) );
+        }
+        assertEquals( 2, journal.getSegmentsClosed() );
+        assertTrue( journal.getBytesWritten() > 0 );
+        journal.close();
+        assertEquals( 2, new File( path ).listFiles( ( dir, name ) -> name.endsWith( ".zip" ) ).length );
+
+        JournalReader reader = new JournalReader( new File( path ) );
+        List<EvaluationRecord> evaluations = new ArrayList<>();
+        reader.read( evaluations::add, null );
+        assertEquals( 3, evaluations.size() );
+        assertEquals( policy, reader.getPolicy( evaluations.get( 2 ).getPolicyHash() ) );
+    }
+
+    @Test
+    public void testSegmentMetrics() throws IOException {
+        String path = "/tmp/journalMetricsTest-" + System.nanoTime();
+        JournalProperties properties = new JournalProperties() {
+            @Override
+            public String getJournalPath() {
+                return path;
+            }
+
+            @Override
+            public HashMap<String, String> getJournalAdditionalProperties() {
+                HashMap<String, String> additionalProperties = new HashMap<>();
+                additionalProperties.put( JournalKeywords.SEGMENT_SIZE, "100" );
+                return additionalProperties;
+            }
+
+            @Override
+            public String getJournalProtocol() {
+                return "file";
+            }
+        };
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        UCSMetrics.setRegistry( registry );
+        try {
+            FileJournaling journal = (FileJournaling) JournalBuilder.build( properties );
+            String policy = "<Policy PolicyId=\"test\"/>";
+            for( int i = 0; i < 3; i++ ) {
+                assertTrue( journal.logEvaluation( buildEvaluation( policy ), policy ) );
+            }
+            String tag = new File( path ).getAbsolutePath();
+            assertEquals( journal.getBytesWritten(),
+                registry.get( UCSMetrics.JOURNAL_BYTES ).tag( "journal", tag ).functionCounter().count(), 0 );
+            assertEquals( 2, registry.get( UCSMetrics.JOURNAL_SEGMENTS ).tag( "journal", tag ).functionCounter().count(), 0 );
+            journal.close();
+            assertNull( registry.find( UCSMetrics.JOURNAL_BYTES ).tag( "journal", tag ).functionCounter() );
+        } finally {
+            UCSMetrics.setRegistry( Metrics.globalRegistry );
+        }
+    }
+
+    private JournalProperties syslog( String endpoint ) {
+        return new JournalProperties() {
+            @Override
+            public String getJournalPath() {
+                return endpoint;
+            }
+
+            @Override
+            public HashMap<String, String> getJournalAdditionalProperties() {
+                HashMap<String, String> additionalProperties = new HashMap<>();
+                additionalProperties.put( JournalKeywords.APP_NAME, "ucs-test" );
+                return additionalProperties;
+            }
+
+            @Override
+            public String getJournalProtocol() {
+                return "syslog";
+            }
+        };
+    }
+
+    @Test
+    public void testSyslogUdpJournal() throws IOException {
+        try (DatagramSocket listener = new DatagramSocket( 0, InetAddress.getLoopbackAddress() )) {
+            listener.setSoTimeout( 5000 );
+            JournalingInterface journal = JournalBuilder.build( syslog( "udp://127.0.0.1:" + listener.getLocalPort() ) );
+            assertTrue( journal instanceof SyslogJournaling );
+            testWrite( journal, "HELLO" );
+            assertTrue( journal.logEvaluation( buildEvaluation( "<Policy/>" ), "<Policy/>" ) );
+
+            DatagramPacket packet = new DatagramPacket( new byte[4096], 4096 );
+            listener.receive( packet );
+            String record = new String( packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8 );
+            assertTrue( record.startsWith( "<110>1 " ) );
+            assertTrue( record.contains( " ucs-test " ) );
+            assertTrue( record.endsWith( " journal - HELLO" ) );
+
+            packet = new DatagramPacket( new byte[4096], 4096 );
+            listener.receive( packet );
+            record = new String( packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8 );
+            assertTrue( record.contains( "[evaluation@32473 session=\"session\" condition=\"pre\" decision=\"Permit\"" ) );
+            assertTrue( record.endsWith( "role=IIT temperature=20.5" ) );
+            ( (SyslogJournaling) journal ).close();
+            assertEquals( 2, ( (SyslogJournaling) journal ).getSentCount() );
+        }
+    }
+
+    @Test
+    public void testSyslogJournalMetrics() throws IOException {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        UCSMetrics.setRegistry( registry );
+        try (DatagramSocket listener = new DatagramSocket( 0, InetAddress.getLoopbackAddress() )) {
+            listener.setSoTimeout( 5000 );
+            String endpoint = "udp://127.0.0.1:" + listener.getLocalPort();
+            SyslogJournaling journal = (SyslogJournaling) JournalBuilder.build( syslog( endpoint ) );
+            testWrite( journal, "HELLO" );
+            listener.receive( new DatagramPacket( new byte[4096], 4096 ) );
+            assertEquals( 0, registry.get( UCSMetrics.JOURNAL_DROPPED ).tag( "journal", endpoint ).functionCounter().count(), 0 );
+            assertTrue( registry.get( UCSMetrics.JOURNAL_SENT ).tag( "journal", endpoint ).functionCounter().count() <= 1 );
+            journal.close();
+            assertEquals( 1, journal.getSentCount() );
+            assertNull( registry.find( UCSMetrics.JOURNAL_SENT ).tag( "journal", endpoint ).functionCounter() );
+        } finally {
+            UCSMetrics.setRegistry( Metrics.globalRegistry );
+        }
+    }
+
+    @Test
+    public void testSyslogTcpJournal() throws IOException {
+        try (ServerSocket listener = new ServerSocket( 0, 1, InetAddress.getLoopbackAddress() )) {
+            listener.setSoTimeout( 5000 );
+            JournalingInterface journal = JournalBuilder.build( syslog( "tcp://127.0.0.1:" + listener.getLocalPort() ) );
+            testWriteMultiple( journal, "Ciao", "Hello" );
+            try (Socket socket = listener.accept()) {
+                socket.setSoTimeout( 5000 );
+                DataInputStream in = new DataInputStream( socket.getInputStream() );
+                assertTrue( readFrame( in ).endsWith( " journal - Ciao" ) );
+                assertTrue( readFrame( in ).endsWith( " journal - Hello" ) );
+            }
+            ( (SyslogJournaling) journal ).close();
+        }
+    }
+
+    // reads an octet-counted frame: MSG-LEN SP SYSLOG-MSG
+    private static String readFrame( DataInputStream in ) throws IOException {
+        StringBuilder length = new StringBuilder();
+        for( int c = in.read(); c != ' '; c = in.read() ) {
+            length.append( (char) c );
+        }
+        byte[] record = new byte[Integer.parseInt( length.toString() )];
+        in.readFully( record );
+        return new String( record, StandardCharsets.UTF_8 );
+    }
+
 }
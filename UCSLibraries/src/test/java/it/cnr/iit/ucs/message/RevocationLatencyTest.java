@@ -0,0 +1,61 @@
+package it.cnr.iit.ucs.message;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import it.cnr.iit.ucs.constants.ENTITIES;
+import it.cnr.iit.ucs.message.attributechange.AttributeChangeMessage;
+import it.cnr.iit.ucs.message.reevaluation.ReevaluationResponseMessage;
+import it.cnr.iit.ucs.metrics.UCSMetrics;
+import it.cnr.iit.utility.JsonUtility;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class RevocationLatencyTest {
+
+    private static final String PIP = "urn:oasis:names:tc:xacml:3.0:environment:virus";
+
+    @Test
+    public void reevaluationCarriesTheAttributeChange() {
+        AttributeChangeMessage change = new AttributeChangeMessage( ENTITIES.PIP.toString(), ENTITIES.CH.toString() );
+        change.setChangedAt( 1234 );
+        change.setPip( PIP );
+
+        ReevaluationResponseMessage reevaluation = new ReevaluationResponseMessage( "localhost", "1" );
+        reevaluation.setAttributeChange( change );
+        reevaluation.setReevaluatedAt( 1300 );
+
+        Optional<String> json = JsonUtility.getJsonStringFromObject( reevaluation, false );
+        assertTrue( json.isPresent() );
+        Optional<ReevaluationResponseMessage> received = JsonUtility.loadObjectFromJsonString( json.get(),
+            ReevaluationResponseMessage.class );
+        assertTrue( received.isPresent() );
+        assertEquals( change.getMessageId(), received.get().getAttributeChangeId() );
+        assertEquals( PIP, received.get().getPip() );
+        assertEquals( 1234, received.get().getAttributeChangedAt() );
+        assertEquals( 1300, received.get().getReevaluatedAt() );
+    }
+
+    @Test
+    public void revocationLatencyIsRecordedPerPip() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        UCSMetrics.setRegistry( registry );
+        try {
+            UCSMetrics.recordRevocation( PIP, UCSMetrics.NOTIFIED, "Deny", System.currentTimeMillis() - 50 );
+            UCSMetrics.recordRevocation( PIP, UCSMetrics.NOTIFIED, "Deny", 0 );
+            Timer timer = registry.get( UCSMetrics.REVOCATION ).tag( "pip", PIP ).tag( "stage", UCSMetrics.NOTIFIED ).timer();
+            assertEquals( 1, timer.count() );
+            assertTrue( timer.totalTime( TimeUnit.MILLISECONDS ) >= 50 );
+        } finally {
+            UCSMetrics.setRegistry( Metrics.globalRegistry );
+        }
+    }
+
+}
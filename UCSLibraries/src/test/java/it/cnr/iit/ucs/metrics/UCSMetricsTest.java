@@ -0,0 +1,41 @@
+package it.cnr.iit.ucs.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.After;
+import org.junit.Test;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class UCSMetricsTest {
+
+    @After
+    public void restoreRegistry() {
+        UCSMetrics.setRegistry( Metrics.globalRegistry );
+    }
+
+    @Test
+    public void metersAreBuiltOncePerTags() {
+        UCSMetrics.setRegistry( new SimpleMeterRegistry() );
+        Timer timer = UCSMetrics.timer( UCSMetrics.OPERATION, "operation", UCSMetrics.TRYACCESS );
+        assertSame( timer, UCSMetrics.timer( UCSMetrics.OPERATION, "operation", UCSMetrics.TRYACCESS ) );
+        assertNotSame( timer, UCSMetrics.timer( UCSMetrics.OPERATION, "operation", UCSMetrics.ENDACCESS ) );
+        assertSame( UCSMetrics.counter( UCSMetrics.ADMISSION, "action", UCSMetrics.SHED ),
+            UCSMetrics.counter( UCSMetrics.ADMISSION, "action", UCSMetrics.SHED ) );
+    }
+
+    @Test
+    public void phasesAreRecordedInTheCurrentRegistry() {
+        UCSMetrics.timePhase( UCSMetrics.TRYACCESS, UCSMetrics.PDP, () -> {} );
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        UCSMetrics.setRegistry( registry );
+        UCSMetrics.timePhase( UCSMetrics.TRYACCESS, UCSMetrics.PDP, () -> {} );
+        UCSMetrics.timePhase( UCSMetrics.TRYACCESS, UCSMetrics.PDP, () -> {} );
+        assertEquals( 2, registry.get( UCSMetrics.PHASE ).tag( "phase", UCSMetrics.PDP ).timer().count() );
+    }
+
+}
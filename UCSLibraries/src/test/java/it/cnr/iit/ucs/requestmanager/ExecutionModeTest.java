@@ -0,0 +1,51 @@
+package it.cnr.iit.ucs.requestmanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ExecutionModeTest {
+
+    @Test
+    public void modesAreParsedIgnoringCase() {
+        assertEquals( ExecutionMode.POOLED, ExecutionMode.of( null ) );
+        assertEquals( ExecutionMode.POOLED, ExecutionMode.of( " " ) );
+        assertEquals( ExecutionMode.POOLED, ExecutionMode.of( "Pooled" ) );
+        assertEquals( ExecutionMode.VIRTUAL, ExecutionMode.of( " virtual " ) );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void unknownModeIsRejected() {
+        ExecutionMode.of( "forked" );
+    }
+
+    @Test
+    public void pooledThreadsAreNamed() throws Exception {
+        ExecutorService executor = ExecutionMode.POOLED.newExecutor( 2, "test-worker" );
+        try {
+            String name = executor.submit( () -> Thread.currentThread().getName() ).get( 10, TimeUnit.SECONDS );
+            assertTrue( name.startsWith( "test-worker-" ) );
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void virtualModeRunsTasksOnAnyJdk() throws Exception {
+        ExecutorService executor = ExecutionMode.VIRTUAL.newExecutor( 2, "test-worker" );
+        try {
+            Thread thread = executor.submit( Thread::currentThread ).get( 10, TimeUnit.SECONDS );
+            assertNotNull( thread );
+            // without virtual threads the pooled threads are used instead
+            assertTrue( ExecutionMode.isVirtualAvailable() || thread.getName().startsWith( "test-worker-" ) );
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+}
@@ -0,0 +1,160 @@
+package it.cnr.iit.ucs.requestmanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import it.cnr.iit.ucs.constants.ENTITIES;
+import it.cnr.iit.ucs.message.Message;
+import it.cnr.iit.ucs.message.attributechange.AttributeChangeMessage;
+import it.cnr.iit.ucs.message.endaccess.EndAccessMessage;
+import it.cnr.iit.ucs.message.startaccess.StartAccessMessage;
+import it.cnr.iit.ucs.message.tryaccess.TryAccessMessage;
+import it.cnr.iit.ucs.requestmanager.MessageLanes.Lane;
+
+public class MessageLanesTest {
+
+    private static final String PEP = ENTITIES.PEP.toString();
+    private static final String CH = ENTITIES.CH.toString();
+
+    @Test
+    public void messagesGoInTheLaneOfTheirOperation() {
+        assertEquals( Lane.TRYACCESS, Lane.of( new TryAccessMessage( PEP, CH ) ) );
+        assertEquals( Lane.STARTACCESS, Lane.of( new StartAccessMessage( PEP, CH ) ) );
+        assertEquals( Lane.ENDACCESS, Lane.of( new EndAccessMessage( PEP, CH ) ) );
+        assertEquals( Lane.REEVALUATION, Lane.of( new AttributeChangeMessage( ENTITIES.PIP.toString(), CH ) ) );
+    }
+
+    @Test
+    public void lanesAreServedByWeight() throws InterruptedException {
+        MessageLanes lanes = new MessageLanes( MessageLanes.weights( "reevaluation:3,tryaccess:1" ),
+            MessageLanes.capacities( null ) );
+        for( int i = 0; i < 8; i++ ) {
+            lanes.put( new TryAccessMessage( PEP, CH ) );
+            lanes.put( new AttributeChangeMessage( ENTITIES.PIP.toString(), CH ) );
+        }
+
+        StringBuilder order = new StringBuilder();
+        for( int i = 0; i < 8; i++ ) {
+            order.append( Lane.of( lanes.take() ) == Lane.TRYACCESS ? 't' : 'r' );
+        }
+        assertEquals( "rrrtrrrt", order.toString() );
+        assertEquals( 8, lanes.size() );
+    }
+
+    @Test
+    public void busyLaneIsNotStarvedByAnotherLane() throws InterruptedException {
+        MessageLanes lanes = new MessageLanes();
+        for( int i = 0; i < 1000; i++ ) {
+            lanes.put( new TryAccessMessage( PEP, CH ) );
+        }
+        assertEquals( Lane.TRYACCESS, Lane.of( lanes.take() ) );
+        lanes.put( new AttributeChangeMessage( ENTITIES.PIP.toString(), CH ) );
+
+        int taken = 0;
+        while( Lane.of( lanes.take() ) != Lane.REEVALUATION ) {
+            taken++;
+        }
+        assertTrue( taken < lanes.getWeight( Lane.TRYACCESS ) );
+        assertEquals( 999 - taken, lanes.size( Lane.TRYACCESS ) );
+    }
+
+    @Test
+    public void idleLanesGiveTheirShareAway() throws InterruptedException {
+        MessageLanes lanes = new MessageLanes();
+        for( int i = 0; i < 10; i++ ) {
+            lanes.put( new StartAccessMessage( PEP, CH ) );
+        }
+        for( int i = 0; i < 10; i++ ) {
+            assertEquals( Lane.STARTACCESS, Lane.of( lanes.take() ) );
+        }
+        assertNull( lanes.poll( 10, TimeUnit.MILLISECONDS ) );
+    }
+
+    @Test
+    public void lanesAreBoundedSeparately() {
+        Map<Lane, Integer> capacities = MessageLanes.capacities( "tryaccess:2" );
+        MessageLanes lanes = new MessageLanes( MessageLanes.weights( null ), capacities );
+        assertTrue( lanes.offer( new TryAccessMessage( PEP, CH ) ) );
+        assertTrue( lanes.offer( new TryAccessMessage( PEP, CH ) ) );
+        assertFalse( lanes.offer( new TryAccessMessage( PEP, CH ) ) );
+        assertTrue( lanes.offer( new EndAccessMessage( PEP, CH ) ) );
+        assertEquals( MessageLanes.DEFAULT_CAPACITY, lanes.getCapacity( Lane.ENDACCESS ) );
+    }
+
+    @Test
+    public void fullLaneWaitsForSpace() throws InterruptedException {
+        MessageLanes lanes = new MessageLanes( MessageLanes.weights( null ), MessageLanes.capacities( "tryaccess:1" ) );
+        lanes.put( new TryAccessMessage( PEP, CH ) );
+        Message second = new TryAccessMessage( PEP, CH );
+        Thread producer = new Thread( () -> {
+            try {
+                lanes.put( second );
+            } catch( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+            }
+        } );
+        producer.start();
+        producer.join( 100 );
+        assertTrue( producer.isAlive() );
+
+        lanes.take();
+        producer.join( 1000 );
+        assertFalse( producer.isAlive() );
+        assertEquals( second, lanes.take() );
+    }
+
+    @Test
+    public void fullLaneDropsItsOldestMessage() {
+        MessageLanes lanes = new MessageLanes( MessageLanes.weights( null ), MessageLanes.capacities( "tryaccess:2" ) );
+        Message oldest = new TryAccessMessage( PEP, CH );
+        assertNull( lanes.offerDroppingOldest( oldest ) );
+        assertNull( lanes.offerDroppingOldest( new TryAccessMessage( PEP, CH ) ) );
+        assertEquals( oldest, lanes.offerDroppingOldest( new TryAccessMessage( PEP, CH ) ) );
+        assertEquals( 2, lanes.size() );
+    }
+
+    @Test
+    public void messagesOfASessionKeepTheirOrder() throws InterruptedException {
+        MessageLanes lanes = new MessageLanes( MessageLanes.weights( "endaccess:4,startaccess:1" ),
+            MessageLanes.capacities( null ) );
+        StartAccessMessage start = new StartAccessMessage( PEP, CH );
+        start.setSessionId( "session" );
+        EndAccessMessage end = new EndAccessMessage( PEP, CH );
+        end.setSessionId( "session" );
+        EndAccessMessage other = new EndAccessMessage( PEP, CH );
+        other.setSessionId( "other" );
+        lanes.put( start );
+        lanes.put( end );
+        lanes.put( other );
+        assertEquals( 2, lanes.size( Lane.STARTACCESS ) );
+
+        assertEquals( other, lanes.take() );
+        assertEquals( start, lanes.take() );
+        assertEquals( end, lanes.take() );
+
+        EndAccessMessage next = new EndAccessMessage( PEP, CH );
+        next.setSessionId( "session" );
+        lanes.put( next );
+        assertEquals( 1, lanes.size( Lane.ENDACCESS ) );
+    }
+
+    @Test
+    public void admissionPolicyIsParsed() {
+        assertEquals( AdmissionPolicy.SHED_OLDEST, AdmissionPolicy.of( "shed-oldest" ) );
+        assertEquals( AdmissionPolicy.BLOCK, AdmissionPolicy.of( "block" ) );
+        assertEquals( AdmissionPolicy.REJECT, AdmissionPolicy.of( null ) );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void unknownLaneIsRejected() {
+        MessageLanes.weights( "revocation:2" );
+    }
+
+}
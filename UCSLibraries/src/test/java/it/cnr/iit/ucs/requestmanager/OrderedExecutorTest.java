@@ -0,0 +1,86 @@
+package it.cnr.iit.ucs.requestmanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class OrderedExecutorTest {
+
+    @Test
+    public void tasksOfAKeyRunOneAtATimeInOrder() throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool( 4 );
+        try {
+            OrderedExecutor executor = new OrderedExecutor( pool );
+            List<Integer> order = Collections.synchronizedList( new ArrayList<>() );
+            AtomicInteger running = new AtomicInteger();
+            AtomicInteger overlaps = new AtomicInteger();
+            CountDownLatch done = new CountDownLatch( 100 );
+            for( int i = 0; i < 100; i++ ) {
+                int task = i;
+                executor.execute( "session", () -> {
+                    if( running.incrementAndGet() > 1 ) {
+                        overlaps.incrementAndGet();
+                    }
+                    Thread.yield();
+                    order.add( task );
+                    running.decrementAndGet();
+                    done.countDown();
+                } );
+            }
+            assertTrue( done.await( 10, TimeUnit.SECONDS ) );
+            assertEquals( 0, overlaps.get() );
+            for( int i = 0; i < 100; i++ ) {
+                assertEquals( i, order.get( i ).intValue() );
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void tasksOfDifferentKeysRunInParallel() throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool( 2 );
+        try {
+            OrderedExecutor executor = new OrderedExecutor( pool );
+            CountDownLatch second = new CountDownLatch( 1 );
+            CountDownLatch done = new CountDownLatch( 1 );
+            // the first task ends only once the task of the other key has run
+            executor.execute( "first", () -> {
+                try {
+                    if( second.await( 10, TimeUnit.SECONDS ) ) {
+                        done.countDown();
+                    }
+                } catch( InterruptedException e ) {
+                    Thread.currentThread().interrupt();
+                }
+            } );
+            executor.execute( "second", second::countDown );
+            assertTrue( done.await( 10, TimeUnit.SECONDS ) );
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void keysAreForgottenOnceTheirTasksEnd() throws InterruptedException {
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        OrderedExecutor executor = new OrderedExecutor( pool );
+        for( int i = 0; i < 10; i++ ) {
+            executor.execute( "session-" + i, () -> {} );
+        }
+        pool.shutdown();
+        assertTrue( pool.awaitTermination( 10, TimeUnit.SECONDS ) );
+        assertEquals( 0, executor.getRunningKeys() );
+    }
+
+}
@@ -0,0 +1,61 @@
+package it.cnr.iit.utility;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import it.cnr.iit.utility.errorhandling.exception.PreconditionException;
+
+public class LruCacheTest {
+
+    @Test
+    public void leastRecentlyUsedEntryIsDropped() {
+        LruCache<String, String> cache = new LruCache<>( 2 );
+        cache.put( "a", "1" );
+        cache.put( "b", "2" );
+        cache.get( "a" );
+        cache.put( "c", "3" );
+        assertEquals( 2, cache.size() );
+        assertEquals( "1", cache.get( "a" ) );
+        assertNull( cache.get( "b" ) );
+        assertEquals( "3", cache.get( "c" ) );
+    }
+
+    @Test
+    public void putIfAbsentReturnsTheCachedValue() {
+        LruCache<String, String> cache = new LruCache<>( 2 );
+        String first = new String( "value" );
+        assertSame( first, cache.putIfAbsent( "key", first ) );
+        assertSame( first, cache.putIfAbsent( "key", new String( "value" ) ) );
+    }
+
+    @Test
+    public void valuesAreLoadedOnce() {
+        LruCache<String, Integer> cache = new LruCache<>( 2 );
+        AtomicInteger loads = new AtomicInteger();
+        assertEquals( 1, cache.get( "key", key -> loads.incrementAndGet() ).intValue() );
+        assertEquals( 1, cache.get( "key", key -> loads.incrementAndGet() ).intValue() );
+        assertEquals( 1, loads.get() );
+    }
+
+    @Test
+    public void removedEntriesAreLoadedAgain() {
+        LruCache<String, String> cache = new LruCache<>( 2 );
+        cache.put( "key", "value" );
+        cache.remove( "key" );
+        assertNull( cache.get( "key" ) );
+        cache.put( "key", "value" );
+        cache.clear();
+        assertEquals( 0, cache.size() );
+    }
+
+    @Test( expected = PreconditionException.class )
+    public void capacityMustBePositive() {
+        new LruCache<String, String>( 0 );
+    }
+
+}
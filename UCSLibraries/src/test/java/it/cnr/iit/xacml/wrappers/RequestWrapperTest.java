@@ -0,0 +1,57 @@
+package it.cnr.iit.xacml.wrappers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import it.cnr.iit.xacml.Attribute;
+import it.cnr.iit.xacml.Category;
+import it.cnr.iit.xacml.DataType;
+
+import oasis.names.tc.xacml.core.schema.wd_17.AttributeType;
+
+public class RequestWrapperTest {
+
+    private static final String REQUEST = "<Request xmlns=\"urn:oasis:names:tc:xacml:3.0:core:schema:wd-17\""
+            + " CombinedDecision=\"false\" ReturnPolicyIdList=\"false\">"
+            + "<Attributes Category=\"" + Category.SUBJECT + "\">"
+            + "<Attribute IncludeInResult=\"false\" AttributeId=\"role\">"
+            + "<AttributeValue DataType=\"" + DataType.STRING + "\">IIT</AttributeValue></Attribute></Attributes>"
+            + "<Attributes Category=\"" + Category.ENVIRONMENT + "\">"
+            + "<Attribute IncludeInResult=\"false\" AttributeId=\"virus\">"
+            + "<AttributeValue DataType=\"" + DataType.INTEGER + "\">0</AttributeValue></Attribute></Attributes>"
+            + "</Request>";
+
+    @Test
+    public void changedAttributeIsReplaced() throws Exception {
+        RequestWrapper request = RequestWrapper.build( REQUEST );
+        assertTrue( request.replaceAttribute( attribute( "virus", Category.ENVIRONMENT, "1" ) ) );
+        assertTrue( request.update() );
+
+        RequestWrapper updated = RequestWrapper.build( request.getRequest() );
+        AttributeType virus = updated.getRequestType().getAttributes().get( 1 ).getAttribute().get( 0 );
+        assertEquals( 1, virus.getAttributeValue().size() );
+        assertEquals( "1", virus.getAttributeValue().get( 0 ).getContent().get( 0 ) );
+        AttributeType role = updated.getRequestType().getAttributes().get( 0 ).getAttribute().get( 0 );
+        assertEquals( "IIT", role.getAttributeValue().get( 0 ).getContent().get( 0 ) );
+    }
+
+    @Test
+    public void attributeNotInTheRequestIsNotReplaced() throws Exception {
+        RequestWrapper request = RequestWrapper.build( REQUEST );
+        assertFalse( request.replaceAttribute( attribute( "virus", Category.SUBJECT, "1" ) ) );
+        assertFalse( request.replaceAttribute( attribute( "firewall", Category.ENVIRONMENT, "1" ) ) );
+    }
+
+    private static Attribute attribute( String id, Category category, String value ) {
+        Attribute attribute = new Attribute();
+        attribute.setAttributeId( id );
+        attribute.setCategory( category );
+        attribute.setDataType( DataType.INTEGER );
+        attribute.setValue( DataType.INTEGER, value );
+        return attribute;
+    }
+
+}
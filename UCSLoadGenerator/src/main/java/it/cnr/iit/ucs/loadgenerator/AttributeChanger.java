@@ -0,0 +1,95 @@
+package it.cnr.iit.ucs.loadgenerator;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import it.cnr.iit.utility.errorhandling.Reject;
+
+/**
+ * Triggers the reevaluation of the ongoing sessions by changing an attribute
+ * monitored by a PIPReader of the UCS under test: the file is periodically
+ * overwritten with a content that makes the policy deny and then restored.
+ * The time of the last change is used to measure the revocation delay.
+ *
+ * @author Antonio La Marra, Alessandro Rosetti
+ */
+final class AttributeChanger {
+
+    private static final Logger log = Logger.getLogger( AttributeChanger.class.getName() );
+
+    private final Path file;
+    private final byte[] denyContent;
+    private final long interval;
+    private final long duration;
+    private byte[] originalContent;
+    private ScheduledExecutorService scheduler;
+
+    private volatile long lastChange = 0;
+    private final AtomicLong changes = new AtomicLong();
+
+    AttributeChanger( String file, String denyContent, long interval, long duration ) {
+        Reject.ifBlank( file );
+        Reject.ifNull( denyContent );
+        Reject.ifFalse( interval > duration, "the change interval must be longer than the change duration" );
+        this.file = Paths.get( file );
+        this.denyContent = denyContent.getBytes( StandardCharsets.UTF_8 );
+        this.interval = interval;
+        this.duration = duration;
+    }
+
+    void start() throws IOException {
+        originalContent = Files.readAllBytes( file );
+        scheduler = Executors.newSingleThreadScheduledExecutor( runnable -> {
+            Thread thread = new Thread( runnable, "attribute-changer" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+        scheduler.scheduleAtFixedRate( this::deny, interval, interval, TimeUnit.MILLISECONDS );
+    }
+
+    private void deny() {
+        lastChange = System.currentTimeMillis();
+        write( denyContent );
+        changes.incrementAndGet();
+        scheduler.schedule( () -> write( originalContent ), duration, TimeUnit.MILLISECONDS );
+    }
+
+    private void write( byte[] content ) {
+        try {
+            Files.write( file, content );
+        } catch( IOException e ) {
+            log.log( Level.SEVERE, "Error changing attribute file {0} : {1}", new Object[] { file, e.getMessage() } );
+        }
+    }
+
+    /**
+     * Stops the changes and restores the original content of the file.
+     */
+    void stop() {
+        if( scheduler != null ) {
+            scheduler.shutdownNow();
+            write( originalContent );
+        }
+    }
+
+    /**
+     * @return the time the deny content has been written for the last time, 0 if never
+     */
+    long getLastChange() {
+        return lastChange;
+    }
+
+    long getChanges() {
+        return changes.get();
+    }
+
+}
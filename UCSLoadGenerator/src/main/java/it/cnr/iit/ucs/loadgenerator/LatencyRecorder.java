@@ -0,0 +1,68 @@
+package it.cnr.iit.ucs.loadgenerator;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps every sample of a latency, in microseconds, so that the exact
+ * percentiles can be computed at the end of the run.
+ *
+ * @author Antonio La Marra, Alessandro Rosetti
+ */
+public final class LatencyRecorder {
+
+    private long[] samples = new long[1024];
+    private int count = 0;
+
+    public synchronized void record( long micros ) {
+        if( count == samples.length ) {
+            samples = Arrays.copyOf( samples, count * 2 );
+        }
+        samples[count++] = micros;
+    }
+
+    public synchronized int getCount() {
+        return count;
+    }
+
+    /**
+     * @param percentile
+     *            between 0 and 100
+     * @return the nearest-rank percentile, 0 when nothing has been recorded
+     */
+    public synchronized long getPercentile( double percentile ) {
+        if( count == 0 ) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf( samples, count );
+        Arrays.sort( sorted );
+        return percentile( sorted, percentile );
+    }
+
+    /**
+     * @return count, mean, p50, p90, p99, p999 and max
+     */
+    public synchronized Map<String, Number> summary() {
+        Map<String, Number> summary = new LinkedHashMap<>();
+        long[] sorted = Arrays.copyOf( samples, count );
+        Arrays.sort( sorted );
+        summary.put( "count", count );
+        summary.put( "mean", count == 0 ? 0 : Arrays.stream( sorted ).average().getAsDouble() );
+        summary.put( "p50", percentile( sorted, 50 ) );
+        summary.put( "p90", percentile( sorted, 90 ) );
+        summary.put( "p99", percentile( sorted, 99 ) );
+        summary.put( "p999", percentile( sorted, 99.9 ) );
+        summary.put( "max", count == 0 ? 0 : sorted[count - 1] );
+        return summary;
+    }
+
+    private static long percentile( long[] sorted, double percentile ) {
+        if( sorted.length == 0 ) {
+            return 0;
+        }
+        int rank = (int) Math.ceil( percentile * sorted.length / 100.0 - 1e-9 );
+        return sorted[Math.max( 0, Math.min( sorted.length, rank ) - 1 )];
+    }
+
+}
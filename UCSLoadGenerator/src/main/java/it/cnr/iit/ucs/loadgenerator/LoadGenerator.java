@@ -0,0 +1,141 @@
+package it.cnr.iit.ucs.loadgenerator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import it.cnr.iit.ucs.message.reevaluation.ReevaluationResponseMessage;
+import it.cnr.iit.utility.JsonUtility;
+import it.cnr.iit.utility.errorhandling.Reject;
+
+import oasis.names.tc.xacml.core.schema.wd_17.DecisionType;
+
+/**
+ * Load generator for a running UCS.
+ * It simulates a number of virtual PEPs running the whole session lifecycle
+ * against the REST API of the UCS, while the responses and the reevaluations
+ * are posted back to the embedded PEP endpoint. Attribute changes are
+ * injected through the file of a PIPReader to trigger the reevaluations.
+ *
+ * Usage: java -jar loadgenerator.jar [loadgenerator.properties]
+ *
+ * @author Antonio La Marra, Alessandro Rosetti
+ */
+public final class LoadGenerator {
+
+    private static final Logger log = Logger.getLogger( LoadGenerator.class.getName() );
+
+    private final LoadGeneratorProperties properties;
+    private final ConcurrentMap<String, CompletableFuture<Void>> revocations = new ConcurrentHashMap<>();
+    private final LoadReport report = new LoadReport();
+    private AttributeChanger attributeChanger;
+
+    public LoadGenerator( LoadGeneratorProperties properties ) {
+        Reject.ifNull( properties );
+        Reject.ifFalse( properties.getPeps() > 0, "at least one virtual PEP is needed" );
+        Reject.ifFalse( properties.getArrivalRate() > 0, "the arrival rate must be positive" );
+        this.properties = properties;
+    }
+
+    public LoadReport run() throws IOException, InterruptedException {
+        String policy = read( properties.getPolicy() );
+        String request = read( properties.getRequest() );
+        PepCallbackServer callbacks = new PepCallbackServer( URI.create( properties.getPepUri() ), properties.getPeps(),
+            this::onGoingEvaluation );
+        if( !properties.getPipFile().isEmpty() && properties.getPipChangeInterval() > 0 ) {
+            attributeChanger = new AttributeChanger( properties.getPipFile(), properties.getPipDenyContent(),
+                properties.getPipChangeInterval(), properties.getPipChangeDuration() );
+        }
+
+        ExecutorService peps = Executors.newFixedThreadPool( properties.getPeps() );
+        // the sessions are not bounded by the virtual PEPs, each one runs as soon as it arrives
+        ExecutorService sessions = Executors.newCachedThreadPool();
+        callbacks.start();
+        report.start();
+        long deadline = System.currentTimeMillis() + properties.getDuration();
+        try {
+            if( attributeChanger != null ) {
+                attributeChanger.start();
+            }
+            for( int i = 0; i < properties.getPeps(); i++ ) {
+                peps.execute( new VirtualPep( properties, policy, request, callbacks, revocations, report, sessions, deadline, i ) );
+            }
+            peps.shutdown();
+            long drain = properties.getSessionDuration() + 3 * properties.getResponseTimeout();
+            if( !peps.awaitTermination( properties.getDuration() + drain, TimeUnit.MILLISECONDS ) ) {
+                log.warning( "Virtual PEPs still running at the end of the run" );
+                peps.shutdownNow();
+            }
+            sessions.shutdown();
+            if( !sessions.awaitTermination( drain, TimeUnit.MILLISECONDS ) ) {
+                log.warning( "Sessions still running at the end of the run" );
+                sessions.shutdownNow();
+            }
+        } finally {
+            if( attributeChanger != null ) {
+                attributeChanger.stop();
+            }
+            callbacks.stop();
+            report.end( attributeChanger != null ? attributeChanger.getChanges() : 0 );
+        }
+        return report;
+    }
+
+    private void onGoingEvaluation( ReevaluationResponseMessage message ) {
+        if( message.getEvaluation() == null || !message.getEvaluation().isDecision( DecisionType.DENY ) ) {
+            return;
+        }
+        CompletableFuture<Void> revocation = revocations.get( message.getSessionId() );
+        if( revocation != null && revocation.complete( null ) ) {
+            long now = System.currentTimeMillis();
+            long lastChange = attributeChanger != null ? attributeChanger.getLastChange() : 0;
+            report.revoked( lastChange > 0 ? now - lastChange : 0,
+                message.getAttributeChangedAt() > 0 ? now - message.getAttributeChangedAt() : -1 );
+        }
+    }
+
+    /**
+     * Reads a classpath resource or, if there is none with that name, a file.
+     */
+    static String read( String name ) throws IOException {
+        Reject.ifBlank( name );
+        InputStream in = LoadGenerator.class.getResourceAsStream( "/" + name );
+        if( in == null ) {
+            in = new FileInputStream( new File( name ) );
+        }
+        try (InputStream stream = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            for( int read = stream.read( buffer ); read > 0; read = stream.read( buffer ) ) {
+                out.write( buffer, 0, read );
+            }
+            return new String( out.toByteArray(), StandardCharsets.UTF_8 );
+        }
+    }
+
+    public static void main( String[] args ) throws IOException, InterruptedException {
+        LoadGeneratorProperties properties = args.length > 0
+                ? new LoadGeneratorProperties( new File( args[0] ) )
+                : new LoadGeneratorProperties();
+        LoadReport report = new LoadGenerator( properties ).run();
+        System.out.print( report.format() );
+        if( !properties.getReport().isEmpty() ) {
+            JsonUtility.dumpObjectToJsonFile( report.toMap(), properties.getReport(), true );
+            log.log( Level.INFO, "Report written in {0}", properties.getReport() );
+        }
+        System.exit( 0 );
+    }
+
+}
@@ -0,0 +1,128 @@
+package it.cnr.iit.ucs.loadgenerator;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+import it.cnr.iit.utility.errorhandling.Reject;
+
+/**
+ * Configuration of a load generator run.
+ * The defaults in loadgenerator.properties are overridden by the properties
+ * file passed on the command line, if any, and then by the loadgen.* system
+ * properties, e.g. -Dloadgen.peps=100.
+ *
+ * @author Antonio La Marra, Alessandro Rosetti
+ */
+public final class LoadGeneratorProperties {
+
+    private static final String PREFIX = "loadgen.";
+    private static final String DEFAULTS = "/loadgenerator.properties";
+
+    private final Properties properties = new Properties();
+
+    public LoadGeneratorProperties() {
+        try (InputStream in = LoadGeneratorProperties.class.getResourceAsStream( DEFAULTS )) {
+            if( in != null ) {
+                properties.load( in );
+            }
+        } catch( IOException e ) {
+            throw new IllegalStateException( "Unable to read " + DEFAULTS, e );
+        }
+        for( String name : System.getProperties().stringPropertyNames() ) {
+            if( name.startsWith( PREFIX ) ) {
+                properties.setProperty( name, System.getProperty( name ) );
+            }
+        }
+    }
+
+    public LoadGeneratorProperties( File file ) throws IOException {
+        this();
+        Reject.ifNull( file );
+        Properties overrides = new Properties();
+        try (InputStream in = new FileInputStream( file )) {
+            overrides.load( in );
+        }
+        for( String name : overrides.stringPropertyNames() ) {
+            if( System.getProperty( name ) == null ) {
+                properties.setProperty( name, overrides.getProperty( name ) );
+            }
+        }
+    }
+
+    private String get( String key ) {
+        String value = properties.getProperty( PREFIX + key );
+        Reject.ifNull( value, "missing property " + PREFIX + key );
+        return value.trim();
+    }
+
+    private long getLong( String key ) {
+        return Long.parseLong( get( key ) );
+    }
+
+    public String getUcsUri() {
+        return get( "ucs-uri" );
+    }
+
+    public String getPepId() {
+        return get( "pep-id" );
+    }
+
+    public String getPepUri() {
+        return get( "pep-uri" );
+    }
+
+    public int getPeps() {
+        return (int) getLong( "peps" );
+    }
+
+    /**
+     * @return the sessions started per second by every virtual PEP
+     */
+    public double getArrivalRate() {
+        return Double.parseDouble( get( "arrival-rate" ) );
+    }
+
+    public long getDuration() {
+        return getLong( "duration" );
+    }
+
+    public long getSessionDuration() {
+        return getLong( "session-duration" );
+    }
+
+    public long getResponseTimeout() {
+        return getLong( "response-timeout" );
+    }
+
+    public String getPolicy() {
+        return get( "policy" );
+    }
+
+    public String getRequest() {
+        return get( "request" );
+    }
+
+    public String getPipFile() {
+        return properties.getProperty( PREFIX + "pip-file", "" ).trim();
+    }
+
+    public String getPipDenyContent() {
+        return properties.getProperty( PREFIX + "pip-deny-content", "" );
+    }
+
+    public long getPipChangeInterval() {
+        return getLong( "pip-change-interval" );
+    }
+
+    public long getPipChangeDuration() {
+        return getLong( "pip-change-duration" );
+    }
+
+    public String getReport() {
+        return properties.getProperty( PREFIX + "report", "" ).trim();
+    }
+
+}
@@ -0,0 +1,179 @@
+package it.cnr.iit.ucs.loadgenerator;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Outcome of a load generator run: throughput, latency of every operation,
+ * measured from the request to the response posted back by the UCS, and
+ * revocation delay, measured from the attribute change to the reevaluation
+ * received by the PEP. The notification delay is the part of the revocation
+ * delay that follows the detection of the change by the PIP. The latencies
+ * are kept in microseconds.
+ *
+ * @author Antonio La Marra, Alessandro Rosetti
+ */
+public final class LoadReport {
+
+    public static final String TRYACCESS = "tryAccess";
+    public static final String STARTACCESS = "startAccess";
+    public static final String ENDACCESS = "endAccess";
+    public static final String REVOCATION = "revocation";
+    // from the change detected by the PIP, as stamped in the reevaluation, to the PEP
+    public static final String NOTIFICATION = "notification";
+
+    private final Map<String, LatencyRecorder> latencies = new LinkedHashMap<>();
+    private final AtomicLong permits = new AtomicLong();
+    private final AtomicLong denies = new AtomicLong();
+    private final AtomicLong sessions = new AtomicLong();
+    private final AtomicLong revocations = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+    private final AtomicLong attributeChanges = new AtomicLong();
+    private volatile long startedAt;
+    private volatile long endedAt;
+
+    public LoadReport() {
+        latencies.put( TRYACCESS, new LatencyRecorder() );
+        latencies.put( STARTACCESS, new LatencyRecorder() );
+        latencies.put( ENDACCESS, new LatencyRecorder() );
+        latencies.put( REVOCATION, new LatencyRecorder() );
+        latencies.put( NOTIFICATION, new LatencyRecorder() );
+    }
+
+    public LatencyRecorder getLatency( String operation ) {
+        return latencies.get( operation );
+    }
+
+    void start() {
+        startedAt = System.currentTimeMillis();
+    }
+
+    void end( long attributeChanges ) {
+        endedAt = System.currentTimeMillis();
+        this.attributeChanges.set( attributeChanges );
+    }
+
+    void permit() {
+        permits.incrementAndGet();
+    }
+
+    void deny() {
+        denies.incrementAndGet();
+    }
+
+    void sessionCompleted() {
+        sessions.incrementAndGet();
+    }
+
+    /**
+     * @param delay
+     *          the revocation delay in milliseconds
+     * @param notificationDelay
+     *          the notification delay in milliseconds, negative when not known
+     */
+    void revoked( long delay, long notificationDelay ) {
+        revocations.incrementAndGet();
+        latencies.get( REVOCATION ).record( TimeUnit.MILLISECONDS.toMicros( delay ) );
+        if( notificationDelay >= 0 ) {
+            latencies.get( NOTIFICATION ).record( TimeUnit.MILLISECONDS.toMicros( notificationDelay ) );
+        }
+    }
+
+    void error() {
+        errors.incrementAndGet();
+    }
+
+    void timeout() {
+        timeouts.incrementAndGet();
+    }
+
+    /**
+     * A request refused by the UCS admission control.
+     */
+    void rejected() {
+        rejections.incrementAndGet();
+    }
+
+    public long getSessions() {
+        return sessions.get();
+    }
+
+    public long getRevocations() {
+        return revocations.get();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    public long getRejections() {
+        return rejections.get();
+    }
+
+    public double getElapsedSeconds() {
+        return Math.max( 1, endedAt - startedAt ) / 1000.0;
+    }
+
+    /**
+     * @return completed sessions per second
+     */
+    public double getSessionThroughput() {
+        return sessions.get() / getElapsedSeconds();
+    }
+
+    /**
+     * @return tryAccess, startAccess and endAccess answered per second
+     */
+    public double getOperationThroughput() {
+        long operations = latencies.get( TRYACCESS ).getCount() + latencies.get( STARTACCESS ).getCount()
+                + latencies.get( ENDACCESS ).getCount();
+        return operations / getElapsedSeconds();
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put( "elapsedSeconds", getElapsedSeconds() );
+        map.put( "sessionsPerSecond", getSessionThroughput() );
+        map.put( "operationsPerSecond", getOperationThroughput() );
+        map.put( "sessions", sessions.get() );
+        map.put( "permits", permits.get() );
+        map.put( "denies", denies.get() );
+        map.put( "revocations", revocations.get() );
+        map.put( "attributeChanges", attributeChanges.get() );
+        map.put( "errors", errors.get() );
+        map.put( "timeouts", timeouts.get() );
+        map.put( "rejections", rejections.get() );
+        Map<String, Object> latencyMap = new LinkedHashMap<>();
+        for( Map.Entry<String, LatencyRecorder> entry : latencies.entrySet() ) {
+            latencyMap.put( entry.getKey(), entry.getValue().summary() );
+        }
+        map.put( "latencyMicros", latencyMap );
+        return map;
+    }
+
+    public String format() {
+        StringBuilder sb = new StringBuilder();
+        sb.append( String.format( "elapsed %.1fs, %d sessions (%.2f/s), %.2f operations/s%n", getElapsedSeconds(), sessions.get(),
+            getSessionThroughput(), getOperationThroughput() ) );
+        sb.append( String.format(
+            "permits %d, denies %d, revocations %d over %d attribute changes, errors %d, timeouts %d, rejections %d%n",
+            permits.get(), denies.get(), revocations.get(), attributeChanges.get(), errors.get(), timeouts.get(),
+            rejections.get() ) );
+        sb.append( String.format( "%-12s %8s %8s %8s %8s %8s %8s%n", "us", "count", "p50", "p90", "p99", "p99.9", "max" ) );
+        for( Map.Entry<String, LatencyRecorder> entry : latencies.entrySet() ) {
+            Map<String, Number> summary = entry.getValue().summary();
+            sb.append( String.format( "%-12s %8d %8d %8d %8d %8d %8d%n", entry.getKey(), summary.get( "count" ), summary.get( "p50" ),
+                summary.get( "p90" ), summary.get( "p99" ), summary.get( "p999" ), summary.get( "max" ) ) );
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,120 @@
+package it.cnr.iit.ucs.loadgenerator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import it.cnr.iit.ucs.constants.OperationName;
+import it.cnr.iit.ucs.message.Message;
+import it.cnr.iit.ucs.message.endaccess.EndAccessResponseMessage;
+import it.cnr.iit.ucs.message.reevaluation.ReevaluationResponseMessage;
+import it.cnr.iit.ucs.message.startaccess.StartAccessResponseMessage;
+import it.cnr.iit.ucs.message.tryaccess.TryAccessResponseMessage;
+import it.cnr.iit.utility.JsonUtility;
+import it.cnr.iit.utility.errorhandling.Reject;
+
+/**
+ * The REST endpoint of the virtual PEPs, where the UCS posts the responses
+ * and the reevaluations. All the virtual PEPs share the PEP id configured in
+ * the UCS, the responses are routed back by message id and the reevaluations
+ * by session id.
+ *
+ * @author Antonio La Marra, Alessandro Rosetti
+ */
+final class PepCallbackServer {
+
+    private static final Logger log = Logger.getLogger( PepCallbackServer.class.getName() );
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ConcurrentMap<String, CompletableFuture<Message>> pending = new ConcurrentHashMap<>();
+    private final Consumer<ReevaluationResponseMessage> onGoingEvaluation;
+
+    PepCallbackServer( URI uri, int threads, Consumer<ReevaluationResponseMessage> onGoingEvaluation ) throws IOException {
+        Reject.ifNull( uri );
+        Reject.ifNull( onGoingEvaluation );
+        this.onGoingEvaluation = onGoingEvaluation;
+        server = HttpServer.create( new InetSocketAddress( uri.getPort() ), 0 );
+        server.createContext( OperationName.TRYACCESSRESPONSE_REST, exchange -> handleResponse( exchange, TryAccessResponseMessage.class ) );
+        server.createContext( OperationName.STARTACCESSRESPONSE_REST,
+            exchange -> handleResponse( exchange, StartAccessResponseMessage.class ) );
+        server.createContext( OperationName.ENDACCESSRESPONSE_REST, exchange -> handleResponse( exchange, EndAccessResponseMessage.class ) );
+        server.createContext( OperationName.ONGOINGRESPONSE_REST, this::handleOnGoingEvaluation );
+        executor = Executors.newFixedThreadPool( threads );
+        server.setExecutor( executor );
+    }
+
+    void start() {
+        server.start();
+    }
+
+    void stop() {
+        server.stop( 0 );
+        executor.shutdownNow();
+    }
+
+    /**
+     * Registers the message before it is sent, so that a fast response is not missed.
+     *
+     * @return the future completed with the response to the message
+     */
+    CompletableFuture<Message> expect( String messageId ) {
+        return pending.computeIfAbsent( messageId, id -> new CompletableFuture<>() );
+    }
+
+    void forget( String messageId ) {
+        pending.remove( messageId );
+    }
+
+    private <T extends Message> void handleResponse( HttpExchange exchange, Class<T> clazz ) throws IOException {
+        Optional<T> message = read( exchange, clazz );
+        if( message.isPresent() ) {
+            CompletableFuture<Message> future = pending.remove( message.get().getMessageId() );
+            if( future != null ) {
+                future.complete( message.get() );
+            } else {
+                log.log( Level.FINE, "Unexpected response {0}", message.get().getMessageId() );
+            }
+        }
+    }
+
+    private void handleOnGoingEvaluation( HttpExchange exchange ) throws IOException {
+        Optional<ReevaluationResponseMessage> message = read( exchange, ReevaluationResponseMessage.class );
+        if( message.isPresent() ) {
+            onGoingEvaluation.accept( message.get() );
+        }
+    }
+
+    private static <T> Optional<T> read( HttpExchange exchange, Class<T> clazz ) throws IOException {
+        try {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            try (InputStream in = exchange.getRequestBody()) {
+                byte[] buffer = new byte[4096];
+                for( int read = in.read( buffer ); read > 0; read = in.read( buffer ) ) {
+                    body.write( buffer, 0, read );
+                }
+            }
+            Optional<T> message = JsonUtility.loadObjectFromJsonString( new String( body.toByteArray(), StandardCharsets.UTF_8 ), clazz );
+            exchange.sendResponseHeaders( message.isPresent() ? 200 : 400, -1 );
+            return message;
+        } finally {
+            exchange.close();
+        }
+    }
+
+}
@@ -0,0 +1,202 @@
+package it.cnr.iit.ucs.loadgenerator;
+
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.RestClientException;
+
+import it.cnr.iit.ucs.constants.CONNECTION;
+import it.cnr.iit.ucs.constants.OperationName;
+import it.cnr.iit.ucs.message.EvaluatedMessage;
+import it.cnr.iit.ucs.message.Message;
+import it.cnr.iit.ucs.message.endaccess.EndAccessMessage;
+import it.cnr.iit.ucs.message.startaccess.StartAccessMessage;
+import it.cnr.iit.ucs.message.tryaccess.TryAccessMessage;
+import it.cnr.iit.ucs.message.tryaccess.TryAccessResponseMessage;
+import it.cnr.iit.utility.RESTUtils;
+
+import oasis.names.tc.xacml.core.schema.wd_17.DecisionType;
+
+/**
+ * A PEP starting sessions as a Poisson process: the time between two arrivals
+ * is exponentially distributed around the configured rate. Each session runs
+ * in the sessions executor, tryAccess, startAccess when permitted, then
+ * endAccess once the session duration has elapsed or as soon as the session is
+ * revoked. The arrivals do not wait for the previous sessions to end, so a
+ * slow UCS faces the same load instead of a lighter one, and the tryAccess
+ * latency is measured from the time the session was scheduled to start so
+ * that it includes any delay in starting it.
+ *
+ * @author Antonio La Marra, Alessandro Rosetti
+ */
+final class VirtualPep implements Runnable {
+
+    private static final Logger log = Logger.getLogger( VirtualPep.class.getName() );
+
+    private final LoadGeneratorProperties properties;
+    private final String policy;
+    private final String request;
+    private final PepCallbackServer callbacks;
+    private final ConcurrentMap<String, CompletableFuture<Void>> revocations;
+    private final LoadReport report;
+    private final Executor sessions;
+    private final long deadline;
+    private final Random random;
+
+    VirtualPep( LoadGeneratorProperties properties, String policy, String request, PepCallbackServer callbacks,
+            ConcurrentMap<String, CompletableFuture<Void>> revocations, LoadReport report, Executor sessions, long deadline,
+            long seed ) {
+        this.properties = properties;
+        this.policy = policy;
+        this.request = request;
+        this.callbacks = callbacks;
+        this.revocations = revocations;
+        this.report = report;
+        this.sessions = sessions;
+        this.deadline = deadline;
+        this.random = new Random( seed );
+    }
+
+    @Override
+    public void run() {
+        double meanInterval = TimeUnit.SECONDS.toNanos( 1 ) / properties.getArrivalRate();
+        long next = System.nanoTime();
+        long end = next + TimeUnit.MILLISECONDS.toNanos( deadline - System.currentTimeMillis() );
+        while( !Thread.currentThread().isInterrupted() ) {
+            next += (long) ( -Math.log( 1 - random.nextDouble() ) * meanInterval );
+            if( next - end >= 0 ) {
+                return;
+            }
+            long wait = next - System.nanoTime();
+            if( wait > 0 && !sleep( wait ) ) {
+                return;
+            }
+            long scheduledAt = next;
+            try {
+                sessions.execute( () -> runSession( scheduledAt ) );
+            } catch( RejectedExecutionException e ) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param scheduledAt
+     *          the nano time the session was scheduled to start at
+     */
+    private void runSession( long scheduledAt ) {
+        TryAccessMessage tryAccess = new TryAccessMessage( properties.getPepId(), properties.getPepUri() );
+        tryAccess.setPepUri( api( OperationName.ONGOINGRESPONSE_REST ) );
+        tryAccess.setPolicy( policy );
+        tryAccess.setRequest( request );
+        tryAccess.setCallback( api( OperationName.TRYACCESSRESPONSE_REST ), CONNECTION.REST );
+        Optional<Message> tryResponse = send( LoadReport.TRYACCESS, OperationName.TRYACCESS_REST, tryAccess, scheduledAt );
+        if( !tryResponse.isPresent() || !isPermit( tryResponse.get() ) ) {
+            return;
+        }
+
+        String sessionId = ( (TryAccessResponseMessage) tryResponse.get() ).getSessionId();
+        CompletableFuture<Void> revocation = new CompletableFuture<>();
+        revocations.put( sessionId, revocation );
+        try {
+            StartAccessMessage startAccess = new StartAccessMessage( properties.getPepId(), properties.getPepUri() );
+            startAccess.setSessionId( sessionId );
+            startAccess.setCallback( api( OperationName.STARTACCESSRESPONSE_REST ), CONNECTION.REST );
+            Optional<Message> startResponse = send( LoadReport.STARTACCESS, OperationName.STARTACCESS_REST, startAccess,
+                System.nanoTime() );
+            if( !startResponse.isPresent() || !isPermit( startResponse.get() ) ) {
+                return;
+            }
+            awaitRevocation( revocation );
+
+            EndAccessMessage endAccess = new EndAccessMessage( properties.getPepId(), properties.getPepUri() );
+            endAccess.setSessionId( sessionId );
+            endAccess.setCallback( api( OperationName.ENDACCESSRESPONSE_REST ), CONNECTION.REST );
+            if( send( LoadReport.ENDACCESS, OperationName.ENDACCESS_REST, endAccess, System.nanoTime() ).isPresent() ) {
+                report.sessionCompleted();
+            }
+        } finally {
+            revocations.remove( sessionId );
+        }
+    }
+
+    private boolean isPermit( Message response ) {
+        if( ( (EvaluatedMessage) response ).getEvaluation().isDecision( DecisionType.PERMIT ) ) {
+            report.permit();
+            return true;
+        }
+        report.deny();
+        return false;
+    }
+
+    private void awaitRevocation( CompletableFuture<Void> revocation ) {
+        try {
+            revocation.get( properties.getSessionDuration(), TimeUnit.MILLISECONDS );
+        } catch( TimeoutException e ) {
+            // the session has not been revoked
+        } catch( ExecutionException e ) {
+            report.error();
+        } catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @param start
+     *          the nano time the latency is measured from
+     */
+    private Optional<Message> send( String operation, String api, Message message, long start ) {
+        CompletableFuture<Message> response = callbacks.expect( message.getMessageId() );
+        try {
+            Optional<ResponseEntity<Void>> posted = RESTUtils.post( properties.getUcsUri(), api, message );
+            if( posted.isPresent() && posted.get().getStatusCode().is2xxSuccessful() ) {
+                Message result = response.get( properties.getResponseTimeout(), TimeUnit.MILLISECONDS );
+                report.getLatency( operation ).record( TimeUnit.NANOSECONDS.toMicros( System.nanoTime() - start ) );
+                return Optional.of( result );
+            }
+            report.error();
+        } catch( TimeoutException e ) {
+            report.timeout();
+        } catch( HttpStatusCodeException e ) {
+            if( e.getStatusCode() == HttpStatus.TOO_MANY_REQUESTS ) {
+                report.rejected();
+            } else {
+                report.error();
+            }
+        } catch( ExecutionException | RestClientException e ) {
+            log.log( Level.FINE, "Error sending {0} : {1}", new Object[] { operation, e.getMessage() } );
+            report.error();
+        } catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+        callbacks.forget( message.getMessageId() );
+        return Optional.empty();
+    }
+
+    private String api( String name ) {
+        return RESTUtils.joinUrl( properties.getPepUri(), name ).orElse( name );
+    }
+
+    private static boolean sleep( long nanos ) {
+        try {
+            TimeUnit.NANOSECONDS.sleep( nanos );
+            return true;
+        } catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,51 @@
+package it.cnr.iit.ucs.loadgenerator;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+public class LatencyRecorderTest {
+
+    @Test
+    public void percentilesOfEmptyRecorder() {
+        LatencyRecorder recorder = new LatencyRecorder();
+        assertEquals( 0, recorder.getPercentile( 99 ) );
+        assertEquals( 0, recorder.summary().get( "max" ).longValue() );
+    }
+
+    @Test
+    public void nearestRankPercentiles() {
+        LatencyRecorder recorder = new LatencyRecorder();
+        for( long i = 2000; i > 0; i-- ) {
+            recorder.record( i );
+        }
+        assertEquals( 2000, recorder.getCount() );
+        assertEquals( 1000, recorder.getPercentile( 50 ) );
+        assertEquals( 1980, recorder.getPercentile( 99 ) );
+        assertEquals( 1, recorder.getPercentile( 0 ) );
+
+        Map<String, Number> summary = recorder.summary();
+        assertEquals( 1800, summary.get( "p90" ).longValue() );
+        assertEquals( 1998, summary.get( "p999" ).longValue() );
+        assertEquals( 2000, summary.get( "max" ).longValue() );
+        assertEquals( 1000.5, summary.get( "mean" ).doubleValue(), 0.001 );
+    }
+
+    @Test
+    public void reportThroughput() {
+        LoadReport report = new LoadReport();
+        report.start();
+        report.getLatency( LoadReport.TRYACCESS ).record( 5 );
+        report.sessionCompleted();
+        report.revoked( 120, 30 );
+        report.end( 1 );
+        assertEquals( 1, report.getSessions() );
+        assertEquals( 1, report.getRevocations() );
+        assertEquals( 120000, report.getLatency( LoadReport.REVOCATION ).getPercentile( 50 ) );
+        assertEquals( 30000, report.getLatency( LoadReport.NOTIFICATION ).getPercentile( 50 ) );
+        assertEquals( 1L, report.toMap().get( "attributeChanges" ) );
+    }
+
+}
@@ -18,6 +18,8 @@ public class UCSRestCoreProperties implements CoreProperties {
     @Value( "${journal-protocol}" )
     private String journalProtocol;
 
+    private Map<String, String> journalAdditionalProperties = new HashMap<>();
+
     @Override
     public String getUri() {
         return uri;
@@ -47,7 +49,11 @@ public class UCSRestCoreProperties implements CoreProperties {
 
     @Override
     public Map<String, String> getJournalAdditionalProperties() {
-        return new HashMap<>();
+        return journalAdditionalProperties;
+    }
+
+    public void setJournalAdditionalProperties( Map<String, String> journalAdditionalProperties ) {
+        this.journalAdditionalProperties = journalAdditionalProperties;
     }
 
 }
@@ -15,6 +15,11 @@ public class UCSRestPdpProperties extends BaseProperties implements PdpPropertie
     @Value( "${journal-protocol}" )
     private String journalProtocol;
 
+    @Value( "${fast-path:false}" )
+    private boolean fastPath;
+
+    private Map<String, String> journalAdditionalProperties = new HashMap<>();
+
     public void setJournalPath( String journalPath ) {
         this.journalPath = journalPath;
     }
@@ -35,7 +40,20 @@ public class UCSRestPdpProperties extends BaseProperties implements PdpPropertie
 
     @Override
     public Map<String, String> getJournalAdditionalProperties() {
-        return new HashMap<>();
+        return journalAdditionalProperties;
+    }
+
+    public void setJournalAdditionalProperties( Map<String, String> journalAdditionalProperties ) {
+        this.journalAdditionalProperties = journalAdditionalProperties;
+    }
+
+    @Override
+    public boolean isFastPath() {
+        return fastPath;
+    }
+
+    public void setFastPath( boolean fastPath ) {
+        this.fastPath = fastPath;
     }
 
 }
@@ -16,6 +16,8 @@ public class UCSRestPipProperties extends BaseProperties implements PipPropertie
     @Value( "${journal-protocol}" )
     private String journalProtocol;
 
+    private Map<String, String> journalAdditionalProperties = new HashMap<>();
+
     @Value( "${attributes}" )
     private List<Map<String, String>> attributes;
 
@@ -53,7 +55,11 @@ public class UCSRestPipProperties extends BaseProperties implements PipPropertie
 
     @Override
     public Map<String, String> getJournalAdditionalProperties() {
-        return new HashMap<>();
+        return journalAdditionalProperties;
+    }
+
+    public void setJournalAdditionalProperties( Map<String, String> journalAdditionalProperties ) {
+        this.journalAdditionalProperties = journalAdditionalProperties;
     }
 
 }
@@ -12,6 +12,21 @@ public class UCSRestRequestManagerProperties extends BaseProperties implements R
     @Value( "${active}" )
     private boolean active;
 
+    @Value( "${lane-weights:reevaluation:4,endaccess:2,startaccess:2,tryaccess:1}" )
+    private String laneWeights;
+
+    @Value( "${lane-capacities:}" )
+    private String laneCapacities;
+
+    @Value( "${admission-policy:reject}" )
+    private String admissionPolicy;
+
+    @Value( "${execution-mode:pooled}" )
+    private String executionMode;
+
+    @Value( "${workers:1}" )
+    private int workers = 1;
+
     @Override
     public String getApiRemoteResponse() {
         return apiRemoteResponse;
@@ -30,4 +45,49 @@ public class UCSRestRequestManagerProperties extends BaseProperties implements R
         return active;
     }
 
+    @Override
+    public String getLaneWeights() {
+        return laneWeights;
+    }
+
+    public void setLaneWeights( String laneWeights ) {
+        this.laneWeights = laneWeights;
+    }
+
+    @Override
+    public String getLaneCapacities() {
+        return laneCapacities;
+    }
+
+    public void setLaneCapacities( String laneCapacities ) {
+        this.laneCapacities = laneCapacities;
+    }
+
+    @Override
+    public String getAdmissionPolicy() {
+        return admissionPolicy;
+    }
+
+    public void setAdmissionPolicy( String admissionPolicy ) {
+        this.admissionPolicy = admissionPolicy;
+    }
+
+    @Override
+    public String getExecutionMode() {
+        return executionMode;
+    }
+
+    public void setExecutionMode( String executionMode ) {
+        this.executionMode = executionMode;
+    }
+
+    @Override
+    public int getWorkers() {
+        return workers;
+    }
+
+    public void setWorkers( int workers ) {
+        this.workers = workers;
+    }
+
 }
@@ -9,6 +9,12 @@ public class UCSRestSessionManagerProperties extends BaseProperties implements S
     @Value( "${db-uri}" )
     private String dbUri;
 
+    @Value( "${db-max-connections:8}" )
+    private int dbMaxConnections = 8;
+
+    @Value( "${db-connection-max-age:3600000}" )
+    private long dbConnectionMaxAge = 3600000;
+
     @Override
     public String getDbUri() {
         return dbUri;
@@ -18,4 +24,22 @@ public class UCSRestSessionManagerProperties extends BaseProperties implements S
         this.dbUri = dbUri;
     }
 
+    @Override
+    public int getDbMaxConnections() {
+        return dbMaxConnections;
+    }
+
+    public void setDbMaxConnections( int dbMaxConnections ) {
+        this.dbMaxConnections = dbMaxConnections;
+    }
+
+    @Override
+    public long getDbConnectionMaxAge() {
+        return dbConnectionMaxAge;
+    }
+
+    public void setDbConnectionMaxAge( long dbConnectionMaxAge ) {
+        this.dbConnectionMaxAge = dbConnectionMaxAge;
+    }
+
 }
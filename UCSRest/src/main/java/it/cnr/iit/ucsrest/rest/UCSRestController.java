@@ -21,7 +21,11 @@ import java.util.logging.Logger;
 import javax.annotation.PostConstruct;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -33,6 +37,7 @@ import it.cnr.iit.ucs.message.endaccess.EndAccessMessage;
 import it.cnr.iit.ucs.message.startaccess.StartAccessMessage;
 import it.cnr.iit.ucs.message.tryaccess.TryAccessMessage;
 import it.cnr.iit.ucs.properties.UCSProperties;
+import it.cnr.iit.ucs.requestmanager.RequestRejectedException;
 import it.cnr.iit.ucs.ucs.UCSInterface;
 import it.cnr.iit.utility.errorhandling.Reject;
 
@@ -52,6 +57,9 @@ import io.swagger.annotations.ApiResponses;
 public class UCSRestController {
     private static final Logger log = Logger.getLogger( UCSRestController.class.getName() );
 
+    // seconds a PEP should wait before retrying a rejected request
+    private static final String RETRY_AFTER = "1";
+
     @Autowired
     private UCSProperties properties;
 
@@ -65,6 +73,7 @@ public class UCSRestController {
     @ApiOperation( httpMethod = "POST", value = "Receives request from PEP for tryaccess operation" )
     @ApiResponses( value = {
         @ApiResponse( code = 500, message = "Invalid message received" ),
+        @ApiResponse( code = 429, message = "Request manager overloaded, retry later" ),
         @ApiResponse( code = 200, message = "OK" ) } )
     @PostMapping( value = OperationName.TRYACCESS_REST, consumes = MediaType.APPLICATION_JSON_VALUE,
         produces = MediaType.APPLICATION_JSON_VALUE )
@@ -78,6 +87,7 @@ public class UCSRestController {
     @ApiOperation( httpMethod = "POST", value = "Receives request from PEP for startaccess operation" )
     @ApiResponses( value = {
         @ApiResponse( code = 500, message = "Invalid message received" ),
+        @ApiResponse( code = 429, message = "Request manager overloaded, retry later" ),
         @ApiResponse( code = 200, message = "OK" ) } )
     @PostMapping( value = OperationName.STARTACCESS_REST, consumes = MediaType.APPLICATION_JSON_VALUE,
         produces = MediaType.APPLICATION_JSON_VALUE )
@@ -91,6 +101,7 @@ public class UCSRestController {
     @ApiOperation( httpMethod = "POST", value = "Receives request from PEP for endaccess operation" )
     @ApiResponses( value = {
         @ApiResponse( code = 500, message = "Invalid message received" ),
+        @ApiResponse( code = 429, message = "Request manager overloaded, retry later" ),
         @ApiResponse( code = 200, message = "OK" ) } )
     @PostMapping( value = OperationName.ENDACCESS_REST, consumes = MediaType.APPLICATION_JSON_VALUE,
         produces = MediaType.APPLICATION_JSON_VALUE )
@@ -101,4 +112,12 @@ public class UCSRestController {
         return ucs.endAccess( message );
     }
 
+    @ExceptionHandler( RequestRejectedException.class )
+    public ResponseEntity<Boolean> rejected( RequestRejectedException e ) {
+        log.log( Level.WARNING, "Request rejected : {0}", e.getMessage() );
+        return ResponseEntity.status( HttpStatus.TOO_MANY_REQUESTS )
+            .header( HttpHeaders.RETRY_AFTER, RETRY_AFTER )
+            .body( Boolean.FALSE );
+    }
+
 }